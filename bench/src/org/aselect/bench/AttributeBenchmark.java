@@ -0,0 +1,124 @@
+/*
+ * * Copyright (c) Anoigo. All rights reserved.
+ *
+ * A-Select is a trademark registered by SURFnet bv.
+ *
+ * This program is distributed under the EUPL 1.0 (http://osor.eu/eupl)
+ * See the included LICENSE file for details.
+ *
+ * If you did not receive a copy of the LICENSE
+ * please contact Anoigo. (http://www.anoigo.nl)
+ */
+package org.aselect.bench;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Vector;
+
+import org.aselect.system.logging.SystemLogger;
+import org.aselect.system.utils.Utils;
+
+/**
+ * Benchmark of the serialization of attributes. <br>
+ * <br>
+ * <b>Description:</b> <br>
+ * Builds attribute sets like the ones a server passes on: single values with e-mail addresses, OIDs and characters
+ * that must be escaped, and every tenth attribute a multi-valued one. For every set size
+ * <code>Utils.serializeAttributes()</code> and <code>Utils.deserializeAttributes()</code> are timed, and the bytes
+ * allocated per call and a check of the round trip are printed. Running this class on a tree before the
+ * single buffer encoding gives the old numbers. <br>
+ * <br>
+ * <code>ant bench -Dbench.class=AttributeBenchmark -Dbench.args="20,50,100 3"</code> <br>
+ * The arguments are optionally the attribute set sizes (20,50,100) and the number of rounds (3). <br>
+ * <br>
+ * <b>Concurrency issues:</b> <br>
+ * Single threaded. <br>
+ *
+ * @author Anoigo
+ */
+public class AttributeBenchmark
+{
+	private static final String MODULE = "AttributeBenchmark";
+
+	/** Attributes serialized per round, divided over the calls */
+	private static final int ATTRIBUTES_PER_ROUND = 2000000;
+
+	/**
+	 * Run the benchmark.
+	 *
+	 * @param args
+	 *            [sizes], [rounds]
+	 * @throws Exception
+	 *             if the attributes can not be serialized
+	 */
+	public static void main(String[] args)
+	throws Exception
+	{
+		String[] aSizes = ((args.length > 0) ? args[0] : "20,50,100").split(",");
+		int iRounds = (args.length > 1) ? Integer.parseInt(args[1]) : 3;
+		SystemLogger oSystemLogger = WarningLogger.install();
+		System.out.println(MODULE + ": rounds=" + iRounds);
+
+		com.sun.management.ThreadMXBean oThreadBean = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		long lThread = Thread.currentThread().getId();
+		for (String sSize : aSizes) {
+			int iSize = Integer.parseInt(sSize.trim());
+			HashMap<String, Object> htAttributes = createAttributes(iSize);
+			String sSerialized = Utils.serializeAttributes(htAttributes, oSystemLogger);
+			boolean bRoundTrip = htAttributes.equals(Utils.deserializeAttributes(sSerialized, oSystemLogger));
+			System.out.println("attributes=" + iSize + " length=" + sSerialized.length() + " round trip "
+					+ (bRoundTrip ? "ok" : "WRONG"));
+
+			int iCalls = ATTRIBUTES_PER_ROUND / iSize;
+			long lLength = 0;
+			for (int iRound = 0; iRound < iRounds; iRound++) {
+				long lBytes0 = oThreadBean.getThreadAllocatedBytes(lThread);
+				long lStart = System.nanoTime();
+				for (int i = 0; i < iCalls; i++) {
+					lLength += Utils.serializeAttributes(htAttributes, oSystemLogger).length();
+				}
+				long lBytes1 = oThreadBean.getThreadAllocatedBytes(lThread);
+				long lMiddle = System.nanoTime();
+				for (int i = 0; i < iCalls; i++) {
+					lLength += Utils.deserializeAttributes(sSerialized, oSystemLogger).size();
+				}
+				long lBytes2 = oThreadBean.getThreadAllocatedBytes(lThread);
+				long lEnd = System.nanoTime();
+				System.out.println("  round " + iRound + ": encode " + perCall(lBytes1 - lBytes0, lMiddle - lStart, iCalls)
+						+ ", decode " + perCall(lBytes2 - lBytes1, lEnd - lMiddle, iCalls));
+			}
+			if (lLength == 0)
+				System.out.println("  nothing serialized");
+		}
+	}
+
+	/**
+	 * Create a set of attributes.
+	 */
+	private static HashMap<String, Object> createAttributes(int iSize)
+	{
+		HashMap<String, Object> htAttributes = new HashMap<String, Object>();
+		for (int i = 0; i < iSize; i++) {
+			if (i % 10 == 0) {
+				Vector<String> vValues = new Vector<String>();
+				vValues.add("urn:mace:dir:entitlement:" + i);
+				vValues.add("group-" + i);
+				vValues.add("role admin " + i);
+				htAttributes.put("isMemberOf" + i, vValues);
+			}
+			else if (i % 3 == 0)
+				htAttributes.put("attr_" + i, "Jan de Vries-" + i + "@example.nl");
+			else if (i % 3 == 1)
+				htAttributes.put("attr_" + i, "urn:oid:2.16.528.1.1003.1.3.5.5.2:" + i);
+			else
+				htAttributes.put("attr_" + i, "Müller & Zoon=" + i);
+		}
+		return htAttributes;
+	}
+
+	private static String perCall(long lBytes, long lNanos, int iCalls)
+	{
+		return (lBytes / iCalls) + " B " + (lNanos / iCalls / 1000) + " us";
+	}
+}
@@ -0,0 +1,162 @@
+/*
+ * * Copyright (c) Anoigo. All rights reserved.
+ *
+ * A-Select is a trademark registered by SURFnet bv.
+ *
+ * This program is distributed under the EUPL 1.0 (http://osor.eu/eupl)
+ * See the included LICENSE file for details.
+ *
+ * If you did not receive a copy of the LICENSE
+ * please contact Anoigo. (http://www.anoigo.nl)
+ */
+package org.aselect.bench;
+
+import java.util.HashMap;
+
+import org.aselect.system.configmanager.ConfigManager;
+import org.aselect.system.logging.SystemLogger;
+import org.aselect.system.storagemanager.IStorageHandler;
+
+/**
+ * Benchmark of the cleanup sweep of a storage handler. <br>
+ * <br>
+ * <b>Description:</b> <br>
+ * Fills the storage handler of a <code>storagemanager</code> section with a number of items, one millisecond apart,
+ * and then runs {@link IStorageHandler#cleanup(Long)} a number of rounds. Every round expires the oldest items and
+ * stores as many new ones, so the number of items stays the same. The average and maximum time of a sweep is printed
+ * per number of items, and the number of items left is checked. A sweep that visits only the expired items takes
+ * about the same time for every number of items, a sweep over all items grows with them. <br>
+ * <br>
+ * The handler is used directly, so the timestamps are chosen here and the storage manager does not run its own
+ * cleaner. Running this class on a tree before the expiry ordered cleanup gives the old numbers. <br>
+ * <br>
+ * <code>ant bench -Dbench.class=CleanupBenchmark -Dbench.args="bench/bench.xml session 10000,200000,1000000 100 20"</code>
+ * <br>
+ * The arguments are the configuration file, the storage manager id and optionally the numbers of items
+ * (10000,200000,1000000), the items expired per sweep (100) and the number of sweeps (20). <br>
+ * <br>
+ * <b>Concurrency issues:</b> <br>
+ * Single threaded. <br>
+ *
+ * @author Anoigo
+ */
+public class CleanupBenchmark
+{
+	private static final String MODULE = "CleanupBenchmark";
+
+	/** Timestamp of the first item */
+	private static final long START = 1000000L;
+
+	private final ConfigManager _oConfigManager;
+	private final SystemLogger _oSystemLogger;
+	private final Object _oHandlerSection;
+	private final Object _oStorageHandlerSection;
+
+	/**
+	 * Run the benchmark.
+	 *
+	 * @param args
+	 *            configuration file, storage manager id, [items,...], [expired], [sweeps]
+	 * @throws Exception
+	 *             if the storage handler can not be initialized
+	 */
+	public static void main(String[] args)
+	throws Exception
+	{
+		if (args.length < 2) {
+			System.err.println("Usage: " + MODULE + " <config file> <storagemanager id> [items,...] [expired] [sweeps]");
+			System.exit(1);
+		}
+		String[] asItems = ((args.length > 2) ? args[2] : "10000,200000,1000000").split(",");
+		int iExpired = (args.length > 3) ? Integer.parseInt(args[3]) : 100;
+		int iSweeps = (args.length > 4) ? Integer.parseInt(args[4]) : 20;
+
+		SystemLogger oSystemLogger = WarningLogger.install();
+		ConfigManager oConfigManager = new ConfigManager();
+		oConfigManager.init(args[0], oSystemLogger);
+		CleanupBenchmark oBenchmark = new CleanupBenchmark(oConfigManager, oSystemLogger, args[1]);
+		for (String sItems : asItems) {
+			oBenchmark.run(Integer.parseInt(sItems.trim()), iExpired, iSweeps);
+		}
+	}
+
+	/**
+	 * Instantiates a benchmark for the handler of a storage manager section.
+	 *
+	 * @param oConfigManager
+	 *            the configuration
+	 * @param oSystemLogger
+	 *            the logger of the handler
+	 * @param sStorageManagerId
+	 *            the id of the storage manager
+	 * @throws Exception
+	 *             if the sections are missing
+	 */
+	public CleanupBenchmark(ConfigManager oConfigManager, SystemLogger oSystemLogger, String sStorageManagerId)
+	throws Exception
+	{
+		_oConfigManager = oConfigManager;
+		_oSystemLogger = oSystemLogger;
+		Object oSection = oConfigManager.getSection(null, "storagemanager", "id=" + sStorageManagerId);
+		_oHandlerSection = oConfigManager.getSection(oSection, "handler");
+		_oStorageHandlerSection = oConfigManager.getSection(oSection, "storagehandler",
+				"id=" + oConfigManager.getParam(_oHandlerSection, "id"));
+	}
+
+	/**
+	 * Fill a new handler and time the sweeps.
+	 *
+	 * @param iItems
+	 *            the number of items
+	 * @param iExpired
+	 *            the items expired per sweep
+	 * @param iSweeps
+	 *            the number of sweeps
+	 * @throws Exception
+	 *             if the handler fails
+	 */
+	public void run(int iItems, int iExpired, int iSweeps)
+	throws Exception
+	{
+		IStorageHandler oHandler = (IStorageHandler) Class.forName(_oConfigManager.getParam(_oHandlerSection, "class"))
+				.newInstance();
+		oHandler.init(_oStorageHandlerSection, _oConfigManager, _oSystemLogger, null);
+		try {
+			for (int i = 0; i < iItems; i++) {
+				oHandler.put("key" + i, createItem(i), Long.valueOf(START + i));
+			}
+			long lTotal = 0;
+			long lMax = 0;
+			boolean bCorrect = true;
+			for (int iSweep = 0; iSweep < iSweeps; iSweep++) {
+				long lOldest = (long) iSweep * iExpired;
+				long lStart = System.nanoTime();
+				oHandler.cleanup(Long.valueOf(START + lOldest + iExpired - 1));	// up to and including
+				long lNanos = System.nanoTime() - lStart;
+				lTotal += lNanos;
+				lMax = Math.max(lMax, lNanos);
+				bCorrect &= (oHandler.getCount() == iItems - iExpired);
+				for (long l = lOldest + iItems; l < lOldest + iItems + iExpired; l++) {
+					oHandler.put("key" + l, createItem(l), Long.valueOf(START + l));
+				}
+			}
+			System.out.println(MODULE + ": items=" + iItems + " expired/sweep=" + iExpired + " sweeps=" + iSweeps
+					+ " avg=" + (lTotal / iSweeps / 1000) + "us max=" + (lMax / 1000) + "us count "
+					+ (bCorrect ? "ok" : "WRONG"));
+		}
+		finally {
+			oHandler.destroy();
+		}
+	}
+
+	/**
+	 * A small session-like item.
+	 */
+	private static HashMap<String, Object> createItem(long lIndex)
+	{
+		HashMap<String, Object> htItem = new HashMap<String, Object>();
+		htItem.put("rid", "R" + lIndex);
+		htItem.put("app_id", "bench");
+		return htItem;
+	}
+}
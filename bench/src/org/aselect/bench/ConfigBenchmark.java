@@ -0,0 +1,273 @@
+/*
+ * * Copyright (c) Anoigo. All rights reserved.
+ *
+ * A-Select is a trademark registered by SURFnet bv.
+ *
+ * This program is distributed under the EUPL 1.0 (http://osor.eu/eupl)
+ * See the included LICENSE file for details.
+ *
+ * If you did not receive a copy of the LICENSE
+ * please contact Anoigo. (http://www.anoigo.nl)
+ */
+package org.aselect.bench;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.aselect.system.configmanager.ConfigManager;
+import org.aselect.system.exception.ASelectConfigException;
+import org.aselect.system.logging.SystemLogger;
+import org.aselect.system.utils.Utils;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * Benchmark of concurrent configuration lookups. <br>
+ * <br>
+ * <b>Description:</b> <br>
+ * Loads a configuration file in the {@link ConfigManager} and walks it through the public lookups:
+ * <code>getSection()</code>, <code>getNextSection()</code>, <code>getSection()</code> with an id and
+ * <code>getParam()</code>, for every element and attribute name found by a separate parse of the file, and for a
+ * few names that do not exist. The number of lookups and a digest of all their results are printed; the digest is
+ * the same for every implementation that returns the same values, so a run on a tree before the snapshot compares
+ * the results. <br>
+ * <br>
+ * Then every thread repeats the param lookups of the walk that found a value, for the given number of lookups, and
+ * the time is printed.
+ * <br>
+ * <br>
+ * <code>ant bench -Dbench.class=ConfigBenchmark -Dbench.args="src/bin/templates/aselect.xml 8 5000000"</code> <br>
+ * The arguments are the configuration file and optionally the number of threads (8) and the lookups per thread
+ * (5000000). <br>
+ * <br>
+ * <b>Concurrency issues:</b> <br>
+ * Every thread makes its own lookups. <br>
+ *
+ * @author Anoigo
+ */
+public class ConfigBenchmark
+{
+	private static final String MODULE = "ConfigBenchmark";
+
+	/** Names that are looked up in every section, but are not expected to exist */
+	private static final String[] MISSING = { "nonexistent", "ID", "Class" };
+
+	/** Result of a failed param lookup */
+	private static final String ERROR = "error ";
+
+	private final ConfigManager _oConfigManager;
+	private final MessageDigest _oDigest;
+	private long _lLookups = 0;
+
+	/** The sections and names of the params found */
+	private final List<Object> _lSections = new ArrayList<Object>();
+	private final List<String> _lNames = new ArrayList<String>();
+
+	/**
+	 * Run the benchmark.
+	 *
+	 * @param args
+	 *            configuration file, [threads], [lookups per thread]
+	 * @throws Exception
+	 *             if the configuration can not be read
+	 */
+	public static void main(String[] args)
+	throws Exception
+	{
+		if (args.length < 1) {
+			System.err.println("Usage: " + MODULE + " <config file> [threads] [lookups per thread]");
+			System.exit(1);
+		}
+		int iThreads = (args.length > 1) ? Integer.parseInt(args[1]) : 8;
+		long lLookups = (args.length > 2) ? Long.parseLong(args[2]) : 5000000L;
+
+		SystemLogger oSystemLogger = WarningLogger.install();
+		ConfigManager oConfigManager = new ConfigManager();
+		oConfigManager.init(args[0], oSystemLogger);
+		ConfigBenchmark oBenchmark = new ConfigBenchmark(oConfigManager);
+		oBenchmark.walk(new File(args[0]));
+		oBenchmark.run(iThreads, lLookups);
+	}
+
+	/**
+	 * Instantiates a benchmark.
+	 *
+	 * @param oConfigManager
+	 *            the initialized configuration
+	 * @throws Exception
+	 *             if no digest is available
+	 */
+	public ConfigBenchmark(ConfigManager oConfigManager)
+	throws Exception
+	{
+		_oConfigManager = oConfigManager;
+		_oDigest = MessageDigest.getInstance("SHA-256");
+	}
+
+	/**
+	 * Look up every section and param of the file and print the digest of the results.
+	 *
+	 * @param fConfig
+	 *            the configuration file, parsed separately for the names
+	 * @throws Exception
+	 *             if the file can not be parsed
+	 */
+	public void walk(File fConfig)
+	throws Exception
+	{
+		Element elRoot = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(fConfig).getDocumentElement();
+		walk(null, elRoot, "");
+		System.out.println(MODULE + ": lookups=" + _lLookups + " digest="
+				+ Utils.byteArrayToHexString(_oDigest.digest()).substring(0, 16));
+	}
+
+	/**
+	 * Look up the children of a section, and walk the sections found.
+	 */
+	private void walk(Object oSection, Element elSection, String sPath)
+	{
+		Set<String> setNames = new LinkedHashSet<String>();
+		NamedNodeMap oAttributes = elSection.getAttributes();
+		for (int i = 0; i < oAttributes.getLength(); i++) {
+			setNames.add(oAttributes.item(i).getNodeName());
+		}
+		for (Node oChild = elSection.getFirstChild(); oChild != null; oChild = oChild.getNextSibling()) {
+			if (oChild.getNodeType() == Node.ELEMENT_NODE)
+				setNames.add(oChild.getNodeName());
+		}
+		if (oSection != null) {
+			for (String sName : setNames) {
+				String sValue = getParam(oSection, sName);
+				record(sPath + "@" + sName, sValue);
+				if (sValue != null && !sValue.startsWith(ERROR)) {
+					_lSections.add(oSection);
+					_lNames.add(sName);
+				}
+			}
+			for (String sName : MISSING) {
+				record(sPath + "@" + sName, getParam(oSection, sName));
+			}
+		}
+		for (String sName : setNames) {
+			List<Element> lChildren = new ArrayList<Element>();
+			for (Node oChild = elSection.getFirstChild(); oChild != null; oChild = oChild.getNextSibling()) {
+				if (oChild.getNodeType() == Node.ELEMENT_NODE && sName.equals(oChild.getNodeName()))
+					lChildren.add((Element) oChild);
+			}
+			if (lChildren.isEmpty())
+				continue;
+			Object oChildSection = getSection(oSection, sName, null);
+			for (int i = 0; oChildSection != null; i++) {
+				String sChildPath = sPath + "/" + sName + "[" + i + "]";
+				record(sChildPath, "found");
+				if (i < lChildren.size()) {
+					Element elChild = lChildren.get(i);
+					NamedNodeMap oChildAttributes = elChild.getAttributes();
+					for (int j = 0; j < oChildAttributes.getLength(); j++) {
+						String sId = oChildAttributes.item(j).getNodeName() + "=" + oChildAttributes.item(j).getNodeValue();
+						record(sChildPath + "?" + sId, (getSection(oSection, sName, sId) != null) ? "found" : "none");
+					}
+					walk(oChildSection, elChild, sChildPath);
+				}
+				oChildSection = getNextSection(oChildSection);
+			}
+		}
+		for (String sName : MISSING) {
+			record(sPath + "/" + sName, (getSection(oSection, sName, null) != null) ? "found" : "none");
+		}
+	}
+
+	private String getParam(Object oSection, String sName)
+	{
+		_lLookups++;
+		try {
+			return _oConfigManager.getParam(oSection, sName);
+		}
+		catch (ASelectConfigException e) {
+			return ERROR + e.getMessage();
+		}
+	}
+
+	private Object getSection(Object oSection, String sType, String sId)
+	{
+		_lLookups++;
+		try {
+			return (sId == null) ? _oConfigManager.getSection(oSection, sType)
+					: _oConfigManager.getSection(oSection, sType, sId);
+		}
+		catch (ASelectConfigException e) {
+			return null;
+		}
+	}
+
+	private Object getNextSection(Object oSection)
+	{
+		_lLookups++;
+		try {
+			return _oConfigManager.getNextSection(oSection);
+		}
+		catch (ASelectConfigException e) {
+			return null;
+		}
+	}
+
+	private void record(String sLookup, String sResult)
+	{
+		_oDigest.update((sLookup + "=" + sResult + "\n").getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Repeat the param lookups of the walk on every thread and print the time.
+	 *
+	 * @param iThreads
+	 *            the number of threads
+	 * @param lLookups
+	 *            the lookups per thread
+	 * @throws InterruptedException
+	 *             if interrupted
+	 */
+	public void run(int iThreads, final long lLookups)
+	throws InterruptedException
+	{
+		final int iParams = _lNames.size();
+		if (iParams == 0)
+			return;
+		Thread[] aThreads = new Thread[iThreads];
+		for (int i = 0; i < iThreads; i++) {
+			final int iOffset = i;
+			aThreads[i] = new Thread(MODULE + "-" + i) {
+				@Override
+				public void run()
+				{
+					for (long l = 0; l < lLookups; l++) {
+						int iParam = (int) ((l + iOffset) % iParams);
+						try {
+							_oConfigManager.getParam(_lSections.get(iParam), _lNames.get(iParam));
+						}
+						catch (ASelectConfigException e) {
+							// found during the walk
+						}
+					}
+				}
+			};
+		}
+		long lStart = System.nanoTime();
+		for (Thread oThread : aThreads) {
+			oThread.start();
+		}
+		for (Thread oThread : aThreads) {
+			oThread.join();
+		}
+		long lMillis = (System.nanoTime() - lStart) / 1000000;
+		System.out.println("threads=" + iThreads + " lookups=" + (iThreads * lLookups) + " time=" + lMillis + "ms ("
+				+ (iThreads * lLookups * 1000 / Math.max(1, lMillis)) + " lookups/s)");
+	}
+}
@@ -0,0 +1,218 @@
+/*
+ * * Copyright (c) Anoigo. All rights reserved.
+ *
+ * A-Select is a trademark registered by SURFnet bv.
+ *
+ * This program is distributed under the EUPL 1.0 (http://osor.eu/eupl)
+ * See the included LICENSE file for details.
+ *
+ * If you did not receive a copy of the LICENSE
+ * please contact Anoigo. (http://www.anoigo.nl)
+ */
+package org.aselect.bench;
+
+import java.security.SecureRandom;
+import java.util.HashMap;
+
+import org.aselect.system.configmanager.ConfigManager;
+import org.aselect.system.exception.ASelectStorageException;
+import org.aselect.system.logging.SystemLogger;
+import org.aselect.system.storagemanager.StorageManager;
+import org.aselect.system.utils.LatencyStatistics;
+import org.aselect.system.utils.Utils;
+
+/**
+ * Benchmark of concurrent session and TGT creation. <br>
+ * <br>
+ * <b>Description:</b> <br>
+ * Every thread runs the loop of <code>SessionManager.createSession()</code> and <code>TGTManager.createTGT()</code>
+ * on a storage manager of the configuration: generate a random id with a shared {@link SecureRandom}, insert it with
+ * {@link StorageManager#create(Object, Object)}, and generate a new id if it exists. The item is removed again, like
+ * <code>deleteSession()</code>, so the storage keeps its size. The managers themselves need the whole server
+ * configuration, so their loop is repeated here. <br>
+ * <br>
+ * With the argument <code>monitor</code> every create and remove also holds one shared monitor, as the synchronized
+ * managers did. Comparing both modes on several thread counts shows the cost of the global monitor, running this
+ * class on a tree before the change also includes the synchronized insert of the old
+ * <code>MemoryStorageHandler</code>. <br>
+ * <br>
+ * <code>ant bench -Dbench.class=CreateBenchmark -Dbench.args="bench/bench.xml session 8 10 free"</code> <br>
+ * The arguments are the configuration file, the storage manager id and optionally the number of threads (8), the
+ * duration in seconds (10) and the mode, <code>free</code> or <code>monitor</code> (free). <br>
+ * <br>
+ * <b>Concurrency issues:</b> <br>
+ * The statistics are shared. <br>
+ *
+ * @author Anoigo
+ */
+public class CreateBenchmark
+{
+	private static final String MODULE = "CreateBenchmark";
+
+	private final StorageManager _oStorageManager;
+	private final boolean _bMonitor;
+	private final Object _oMonitor = new Object();
+	private final SecureRandom _oRandom;
+
+	private final LatencyStatistics _oCreate = new LatencyStatistics();
+	private final LatencyStatistics _oRemove = new LatencyStatistics();
+	private volatile boolean _bRunning = true;
+
+	/**
+	 * Run the benchmark.
+	 *
+	 * @param args
+	 *            configuration file, storage manager id, [threads], [seconds], [free|monitor]
+	 * @throws Exception
+	 *             if the storage manager can not be initialized
+	 */
+	public static void main(String[] args)
+	throws Exception
+	{
+		if (args.length < 2) {
+			System.err.println("Usage: " + MODULE + " <config file> <storagemanager id> [threads] [seconds] [free|monitor]");
+			System.exit(1);
+		}
+		int iThreads = (args.length > 2) ? Integer.parseInt(args[2]) : 8;
+		int iSeconds = (args.length > 3) ? Integer.parseInt(args[3]) : 10;
+		boolean bMonitor = (args.length > 4) && "monitor".equals(args[4]);
+
+		SystemLogger oSystemLogger = WarningLogger.install();
+		ConfigManager oConfigManager = new ConfigManager();
+		oConfigManager.init(args[0], oSystemLogger);
+		StorageManager oStorageManager = new StorageManager();
+		oStorageManager.init(oConfigManager.getSection(null, "storagemanager", "id=" + args[1]), oConfigManager,
+				oSystemLogger, null);
+		try {
+			new CreateBenchmark(oStorageManager, bMonitor).run(iThreads, iSeconds);
+		}
+		finally {
+			oStorageManager.destroy();
+		}
+	}
+
+	/**
+	 * Instantiates a benchmark.
+	 *
+	 * @param oStorageManager
+	 *            the initialized storage manager
+	 * @param bMonitor
+	 *            hold a shared monitor around every create and remove
+	 * @throws Exception
+	 *             if the random generator is not available
+	 */
+	public CreateBenchmark(StorageManager oStorageManager, boolean bMonitor)
+	throws Exception
+	{
+		_oStorageManager = oStorageManager;
+		_bMonitor = bMonitor;
+		_oRandom = SecureRandom.getInstance("SHA1PRNG");	// the default of the server crypto section
+		_oRandom.nextBytes(new byte[64]);
+	}
+
+	/**
+	 * Run the workers for a while and print the throughput and latencies.
+	 *
+	 * @param iThreads
+	 *            the number of workers
+	 * @param iSeconds
+	 *            the duration
+	 * @throws InterruptedException
+	 *             if interrupted
+	 */
+	public void run(int iThreads, int iSeconds)
+	throws InterruptedException
+	{
+		System.out.println(MODULE + ": threads=" + iThreads + " seconds=" + iSeconds + " mode="
+				+ (_bMonitor ? "monitor" : "free"));
+		Thread[] aWorkers = new Thread[iThreads];
+		for (int i = 0; i < iThreads; i++) {
+			aWorkers[i] = new Worker();
+			aWorkers[i].setName(MODULE + "-" + i);
+		}
+		long lStart = System.nanoTime();
+		for (Thread oWorker : aWorkers) {
+			oWorker.start();
+		}
+		Thread.sleep(1000L * iSeconds);
+		_bRunning = false;
+		for (Thread oWorker : aWorkers) {
+			oWorker.join();
+		}
+		long lNanos = System.nanoTime() - lStart;
+		System.out.println("creates/s=" + (_oCreate.getCount() * 1000000000L / lNanos) + "\n  create " + _oCreate
+				+ "\n  remove " + _oRemove);
+	}
+
+	/**
+	 * Create an item under a new random id, as the managers do.
+	 */
+	private String create(HashMap<String, Object> htContext)
+	throws ASelectStorageException
+	{
+		byte[] baRandomBytes = new byte[20];
+		String sId;
+		do {
+			_oRandom.nextBytes(baRandomBytes);
+			sId = "R" + Utils.byteArrayToHexString(baRandomBytes);
+		}
+		while (!_oStorageManager.create(sId, htContext));
+		return sId;
+	}
+
+	/**
+	 * Creates and removes items until the run ends.
+	 */
+	private class Worker extends Thread
+	{
+		@Override
+		public void run()
+		{
+			while (_bRunning) {
+				HashMap<String, Object> htContext = new HashMap<String, Object>();
+				htContext.put("app_id", "bench");
+				htContext.put("status", "get");
+				String sId = null;
+				long lStart = System.nanoTime();
+				try {
+					if (_bMonitor) {
+						synchronized (_oMonitor) {
+							sId = create(htContext);
+						}
+					}
+					else {
+						sId = create(htContext);
+					}
+				}
+				catch (ASelectStorageException e) {
+					// e.g. the maximum is reached
+				}
+				finally {
+					_oCreate.record(lStart, sId != null);
+				}
+				if (sId == null)
+					continue;
+
+				lStart = System.nanoTime();
+				boolean bSuccess = false;
+				try {
+					if (_bMonitor) {
+						synchronized (_oMonitor) {
+							_oStorageManager.remove(sId);
+						}
+					}
+					else {
+						_oStorageManager.remove(sId);
+					}
+					bSuccess = true;
+				}
+				catch (ASelectStorageException e) {
+					// expired by the cleanup
+				}
+				finally {
+					_oRemove.record(lStart, bSuccess);
+				}
+			}
+		}
+	}
+}
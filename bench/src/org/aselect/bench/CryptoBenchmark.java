@@ -0,0 +1,214 @@
+/*
+ * * Copyright (c) Anoigo. All rights reserved.
+ *
+ * A-Select is a trademark registered by SURFnet bv.
+ *
+ * This program is distributed under the EUPL 1.0 (http://osor.eu/eupl)
+ * See the included LICENSE file for details.
+ *
+ * If you did not receive a copy of the LICENSE
+ * please contact Anoigo. (http://www.anoigo.nl)
+ */
+package org.aselect.bench;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.util.Arrays;
+
+import org.aselect.server.config.ASelectConfigManager;
+import org.aselect.server.crypto.CryptoEngine;
+import org.aselect.server.log.ASelectSystemLogger;
+import org.aselect.system.exception.ASelectException;
+import org.aselect.system.utils.BASE64Encoder;
+import org.aselect.system.utils.LatencyStatistics;
+
+/**
+ * Benchmark of the server {@link CryptoEngine} under concurrent use. <br>
+ * <br>
+ * <b>Description:</b> <br>
+ * Initializes the <code>CryptoEngine</code> from the <code>aselect/crypto</code> section and the
+ * <code>crypto</code> storage manager of the configuration. Every thread then repeats the operations of a request:
+ * encrypt and decrypt a TGT with the server key, verify an RSA signature of another A-Select server, and encrypt
+ * with an RSA public key. Every result is checked. <br>
+ * <br>
+ * With the argument <code>monitor</code> every call also holds the monitor of the engine, as the synchronized
+ * methods did before the engine kept a Cipher and Signature per thread. Running this class on a tree before that
+ * change gives the old numbers directly. <br>
+ * <br>
+ * <code>ant bench -Dbench.class=CryptoBenchmark -Dbench.args="bench/bench.xml 8 10 free"</code> <br>
+ * The arguments are the configuration file and optionally the number of threads (8), the duration in seconds (10) and
+ * the mode, <code>free</code> or <code>monitor</code> (free). <br>
+ * <br>
+ * <b>Concurrency issues:</b> <br>
+ * The statistics are shared. <br>
+ *
+ * @author Anoigo
+ */
+public class CryptoBenchmark
+{
+	private static final String MODULE = "CryptoBenchmark";
+
+	/** The operations */
+	private static final int TGT = 0;
+	private static final int VERIFY = 1;
+	private static final int RSA = 2;
+	private static final String[] OPERATIONS = { "tgt", "verify", "rsa" };
+
+	private final CryptoEngine _oCryptoEngine;
+	private final boolean _bMonitor;
+	private final KeyPair _oKeyPair;
+	private final String _sData = "request=verify_credentials&rid=R0123456789abcdef&a-select-server=bench";
+	private final String _sSignature;
+
+	private final LatencyStatistics[] _aLatency = new LatencyStatistics[OPERATIONS.length];
+	private volatile boolean _bRunning = true;
+
+	/**
+	 * Run the benchmark.
+	 *
+	 * @param args
+	 *            configuration file, [threads], [seconds], [free|monitor]
+	 * @throws Exception
+	 *             if the crypto engine can not be initialized
+	 */
+	public static void main(String[] args)
+	throws Exception
+	{
+		if (args.length < 1) {
+			System.err.println("Usage: " + MODULE + " <config file> [threads] [seconds] [free|monitor]");
+			System.exit(1);
+		}
+		int iThreads = (args.length > 1) ? Integer.parseInt(args[1]) : 8;
+		int iSeconds = (args.length > 2) ? Integer.parseInt(args[2]) : 10;
+		boolean bMonitor = (args.length > 3) && "monitor".equals(args[3]);
+
+		WarningLogger.install();
+		ASelectConfigManager.getHandle().init(args[0], ASelectSystemLogger.getHandle());
+		CryptoEngine oCryptoEngine = CryptoEngine.getHandle();
+		oCryptoEngine.init();
+		try {
+			new CryptoBenchmark(oCryptoEngine, bMonitor).run(iThreads, iSeconds);
+		}
+		finally {
+			oCryptoEngine.stop();
+		}
+	}
+
+	/**
+	 * Instantiates a benchmark, with a key pair of the other server.
+	 *
+	 * @param oCryptoEngine
+	 *            the initialized engine
+	 * @param bMonitor
+	 *            hold the monitor of the engine around every call
+	 * @throws Exception
+	 *             if the key pair can not be made
+	 */
+	public CryptoBenchmark(CryptoEngine oCryptoEngine, boolean bMonitor)
+	throws Exception
+	{
+		_oCryptoEngine = oCryptoEngine;
+		_bMonitor = bMonitor;
+		KeyPairGenerator oGenerator = KeyPairGenerator.getInstance("RSA");
+		oGenerator.initialize(2048);
+		_oKeyPair = oGenerator.generateKeyPair();
+		Signature oSignature = Signature.getInstance("SHA256withRSA");
+		oSignature.initSign(_oKeyPair.getPrivate());
+		oSignature.update(_sData.getBytes());
+		_sSignature = new BASE64Encoder().encode(oSignature.sign());
+		for (int i = 0; i < OPERATIONS.length; i++) {
+			_aLatency[i] = new LatencyStatistics();
+		}
+	}
+
+	/**
+	 * Run the workers for a while and print the throughput and latencies.
+	 *
+	 * @param iThreads
+	 *            the number of workers
+	 * @param iSeconds
+	 *            the duration
+	 * @throws InterruptedException
+	 *             if interrupted
+	 */
+	public void run(int iThreads, int iSeconds)
+	throws InterruptedException
+	{
+		System.out.println(MODULE + ": threads=" + iThreads + " seconds=" + iSeconds + " mode="
+				+ (_bMonitor ? "monitor" : "free"));
+		Thread[] aWorkers = new Thread[iThreads];
+		for (int i = 0; i < iThreads; i++) {
+			aWorkers[i] = new Worker();
+			aWorkers[i].setName(MODULE + "-" + i);
+		}
+		long lStart = System.nanoTime();
+		for (Thread oWorker : aWorkers) {
+			oWorker.start();
+		}
+		Thread.sleep(1000L * iSeconds);
+		_bRunning = false;
+		for (Thread oWorker : aWorkers) {
+			oWorker.join();
+		}
+		long lNanos = System.nanoTime() - lStart;
+		StringBuffer sbReport = new StringBuffer();
+		for (int i = 0; i < OPERATIONS.length; i++) {
+			sbReport.append("\n  ").append(OPERATIONS[i]).append(" ops/s=")
+					.append(_aLatency[i].getCount() * 1000000000L / lNanos).append(' ').append(_aLatency[i]);
+		}
+		System.out.println("total:" + sbReport);
+	}
+
+	/**
+	 * Run one operation and check its result.
+	 */
+	private boolean call(int iOperation, byte[] baTGT)
+	throws ASelectException
+	{
+		switch (iOperation) {
+		case TGT:
+			String sEncrypted = _oCryptoEngine.encryptTGT(baTGT);
+			return Arrays.equals(baTGT, _oCryptoEngine.decryptTGT(sEncrypted));
+		case VERIFY:
+			return _oCryptoEngine.verifyCrossASelectSignature(_oKeyPair.getPublic(), _sData, _sSignature);
+		default:
+			return _oCryptoEngine.RSAEncrypt(_oKeyPair.getPublic(), baTGT, "RSA/ECB/PKCS1Padding") != null;
+		}
+	}
+
+	/**
+	 * Runs the operations in turn until the run ends.
+	 */
+	private class Worker extends Thread
+	{
+		@Override
+		public void run()
+		{
+			byte[] baTGT = new byte[48];
+			int iOperation = 0;
+			while (_bRunning) {
+				CryptoEngine.nextRandomBytes(baTGT);
+				long lStart = System.nanoTime();
+				boolean bSuccess = false;
+				try {
+					if (_bMonitor) {
+						synchronized (_oCryptoEngine) {
+							bSuccess = call(iOperation, baTGT);
+						}
+					}
+					else {
+						bSuccess = call(iOperation, baTGT);
+					}
+				}
+				catch (ASelectException e) {
+					// counted as an error
+				}
+				finally {
+					_aLatency[iOperation].record(lStart, bSuccess);
+				}
+				iOperation = (iOperation + 1) % OPERATIONS.length;
+			}
+		}
+	}
+}
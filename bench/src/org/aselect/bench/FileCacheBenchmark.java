@@ -0,0 +1,235 @@
+/*
+ * * Copyright (c) Anoigo. All rights reserved.
+ *
+ * A-Select is a trademark registered by SURFnet bv.
+ *
+ * This program is distributed under the EUPL 1.0 (http://osor.eu/eupl)
+ * See the included LICENSE file for details.
+ *
+ * If you did not receive a copy of the LICENSE
+ * please contact Anoigo. (http://www.anoigo.nl)
+ */
+package org.aselect.bench;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.aselect.system.exception.ASelectException;
+import org.aselect.system.logging.SystemLogger;
+import org.aselect.system.utils.FileCache;
+import org.aselect.system.utils.Utils;
+
+/**
+ * Benchmark of the HTML template lookups through the {@link FileCache}. <br>
+ * <br>
+ * <b>Description:</b> <br>
+ * Copies the forms of a directory to <code>conf/html</code> in a temporary working directory, loads them like the
+ * server does at startup and measures:
+ * <ul>
+ * <li>lookups: every thread loads the templates with <code>Utils.loadTemplateFromFile()</code>, for a few forms and a
+ * language that falls back to the default form.</li>
+ * <li>modify, create, delete: the time until a changed form, a form created by an atomic rename and a deleted form are
+ * seen by the lookups.</li>
+ * </ul>
+ * <code>FileCache.loadAll()</code> and <code>FileCache.stop()</code> are called when they exist, so running this
+ * class on a tree before the watched directories gives the old numbers. <br>
+ * <br>
+ * <code>ant bench -Dbench.class=FileCacheBenchmark -Dbench.args="src/bin/work/aselectserver/conf/html 8 200000"</code>
+ * <br>
+ * The arguments are the directory with the forms and optionally the number of threads (8), the lookups per thread
+ * (200000) and the file_cache_keep setting in seconds (900, the default of the server). <br>
+ * <br>
+ * <b>Concurrency issues:</b> <br>
+ * Every thread makes its own lookups. <br>
+ *
+ * @author Anoigo
+ */
+public class FileCacheBenchmark
+{
+	private static final String MODULE = "FileCacheBenchmark";
+
+	/** How long to wait for a change to be seen */
+	private static final long MAX_WAIT = 5000L;
+
+	/** The forms looked up, with the language */
+	private static final String[][] LOOKUPS = { { "login", null }, { "select", null }, { "error", null },
+		{ "login", "nl" } };
+
+	private final SystemLogger _oSystemLogger;
+	private final String _sWorkingDir;
+
+	/**
+	 * Run the benchmark.
+	 *
+	 * @param args
+	 *            directory with the forms, [threads], [lookups per thread], [file_cache_keep]
+	 * @throws Exception
+	 *             if the forms can not be copied or loaded
+	 */
+	public static void main(String[] args)
+	throws Exception
+	{
+		if (args.length < 1) {
+			System.err.println("Usage: " + MODULE + " <directory> [threads] [lookups per thread] [file_cache_keep]");
+			System.exit(1);
+		}
+		int iThreads = (args.length > 1) ? Integer.parseInt(args[1]) : 8;
+		int iLookups = (args.length > 2) ? Integer.parseInt(args[2]) : 200000;
+		long lKeep = (args.length > 3) ? Long.parseLong(args[3]) : 900L;
+
+		SystemLogger oSystemLogger = WarningLogger.install();
+		File fWorkingDir = Files.createTempDirectory("filecache").toFile();
+		File fHtml = new File(fWorkingDir, "conf" + File.separator + "html");
+		fHtml.mkdirs();
+		File[] aForms = new File(args[0]).listFiles();
+		if (aForms != null) {
+			for (File fForm : aForms) {
+				if (fForm.isFile())
+					Files.copy(fForm.toPath(), new File(fHtml, fForm.getName()).toPath());
+			}
+		}
+		System.out.println(MODULE + ": threads=" + iThreads + " lookups=" + iLookups + " file_cache_keep=" + lKeep
+				+ " dir=" + fWorkingDir);
+
+		FileCache.setFileCacheKeep(lKeep);
+		FileCacheBenchmark oBenchmark = new FileCacheBenchmark(oSystemLogger, fWorkingDir.getPath());
+		try {
+			oBenchmark.invoke("loadAll", new Class<?>[] { String.class, SystemLogger.class },
+					new Object[] { new File(fWorkingDir, "conf").getPath(), oSystemLogger });
+			for (int iRound = 0; iRound < 2; iRound++) {
+				oBenchmark.lookups(iRound, iThreads, iLookups);
+			}
+			oBenchmark.changes(fHtml);
+		}
+		finally {
+			oBenchmark.invoke("stop", new Class<?>[0], new Object[0]);
+		}
+	}
+
+	/**
+	 * Instantiates a benchmark.
+	 *
+	 * @param oSystemLogger
+	 *            the logger
+	 * @param sWorkingDir
+	 *            the working directory with the "conf" directory
+	 */
+	public FileCacheBenchmark(SystemLogger oSystemLogger, String sWorkingDir) {
+		_oSystemLogger = oSystemLogger;
+		_sWorkingDir = sWorkingDir;
+	}
+
+	/**
+	 * Call a public static method of the FileCache if it exists.
+	 */
+	private void invoke(String sMethod, Class<?>[] aTypes, Object[] aArgs)
+	throws Exception
+	{
+		Method oMethod;
+		try {
+			oMethod = FileCache.class.getMethod(sMethod, aTypes);
+		}
+		catch (NoSuchMethodException e) {
+			System.out.println("  FileCache." + sMethod + "() does not exist, skipped");
+			return;
+		}
+		oMethod.invoke(null, aArgs);
+	}
+
+	/**
+	 * Load a form the way the servers do.
+	 */
+	private String load(String sForm, String sLanguage)
+	throws ASelectException
+	{
+		return Utils.loadTemplateFromFile(_oSystemLogger, _sWorkingDir, null, sForm, sLanguage, "Bench", "1.0");
+	}
+
+	/**
+	 * Look up the forms on every thread and print the time.
+	 */
+	private void lookups(int iRound, int iThreads, final int iLookups)
+	throws InterruptedException
+	{
+		final AtomicLong oLength = new AtomicLong();
+		final AtomicLong oFailed = new AtomicLong();
+		Thread[] aThreads = new Thread[iThreads];
+		for (int i = 0; i < iThreads; i++) {
+			aThreads[i] = new Thread(MODULE + "-" + i) {
+				@Override
+				public void run()
+				{
+					long lLength = 0;
+					for (int j = 0; j < iLookups; j++) {
+						String[] aLookup = LOOKUPS[j % LOOKUPS.length];
+						try {
+							lLength += load(aLookup[0], aLookup[1]).length();
+						}
+						catch (ASelectException e) {
+							oFailed.incrementAndGet();
+						}
+					}
+					oLength.addAndGet(lLength);
+				}
+			};
+		}
+		long lStart = System.nanoTime();
+		for (Thread oThread : aThreads) {
+			oThread.start();
+		}
+		for (Thread oThread : aThreads) {
+			oThread.join();
+		}
+		long lMillis = (System.nanoTime() - lStart) / 1000000;
+		System.out.println("  round " + iRound + ": lookups=" + ((long) iThreads * iLookups) + " time=" + lMillis
+				+ "ms failed=" + oFailed.get());
+	}
+
+	/**
+	 * Change the forms and print the time until the lookups see the change.
+	 */
+	private void changes(File fHtml)
+	throws Exception
+	{
+		File fLogin = new File(fHtml, "login.html");
+		final String sChanged = "changed [organization_friendly]\n";
+		Files.write(fLogin.toPath(), sChanged.getBytes(StandardCharsets.UTF_8));
+		long lStart = System.currentTimeMillis();
+		while (!"changed Bench\n".equals(load("login", null)) && !waited(lStart)) {
+			Thread.sleep(1);
+		}
+		report("modify", lStart);
+
+		File fTemp = new File(fHtml.getParentFile(), "login_nl.tmp");
+		Files.write(fTemp.toPath(), "nl\n".getBytes(StandardCharsets.UTF_8));
+		Files.move(fTemp.toPath(), new File(fHtml, "login_nl.html").toPath(), StandardCopyOption.ATOMIC_MOVE);
+		lStart = System.currentTimeMillis();
+		while (!"nl\n".equals(load("login", "nl")) && !waited(lStart)) {
+			Thread.sleep(1);
+		}
+		report("create", lStart);
+
+		Files.delete(new File(fHtml, "login_nl.html").toPath());
+		lStart = System.currentTimeMillis();
+		while ("nl\n".equals(load("login", "nl")) && !waited(lStart)) {
+			Thread.sleep(1);
+		}
+		report("delete", lStart);
+	}
+
+	private static boolean waited(long lStart)
+	{
+		return System.currentTimeMillis() - lStart > MAX_WAIT;
+	}
+
+	private static void report(String sStep, long lStart)
+	{
+		long lMillis = System.currentTimeMillis() - lStart;
+		System.out.println("  " + sStep + ": " + ((lMillis > MAX_WAIT) ? "not seen within " + MAX_WAIT + "ms"
+				: "seen after " + lMillis + "ms"));
+	}
+}
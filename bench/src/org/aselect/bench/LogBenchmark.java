@@ -0,0 +1,140 @@
+/*
+ * * Copyright (c) Anoigo. All rights reserved.
+ *
+ * A-Select is a trademark registered by SURFnet bv.
+ *
+ * This program is distributed under the EUPL 1.0 (http://osor.eu/eupl)
+ * See the included LICENSE file for details.
+ *
+ * If you did not receive a copy of the LICENSE
+ * please contact Anoigo. (http://www.anoigo.nl)
+ */
+package org.aselect.bench;
+
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.logging.Level;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.aselect.system.logging.LogArgument;
+import org.aselect.system.logging.SystemLogger_org;
+import org.aselect.system.utils.crypto.Auxiliary;
+import org.opensaml.xml.util.XMLHelper;
+import org.w3c.dom.Element;
+
+/**
+ * Benchmark of log calls for a level that is not logged. <br>
+ * <br>
+ * <b>Description:</b> <br>
+ * Compares the cost of a <code>FINEST</code> message on a logger that only logs warnings, with the argument built
+ * before the call and with the argument deferred by a {@link LogArgument}:
+ * <ul>
+ * <li>context: <code>"htSessionContext=" + Auxiliary.obfuscate(htContext)</code> against
+ * {@link LogArgument#obfuscated(Object)}, for a session context of 32 attributes</li>
+ * <li>soap: <code>LogArgument.obfuscated(XMLHelper.nodeToString(elEnvelope), ...)</code> against
+ * {@link LogArgument#serialized(org.w3c.dom.Node, java.util.List)}, for a SOAP envelope with a SAML response</li>
+ * </ul>
+ * The bytes allocated and the time per call are printed for every round. The obfuscation of a context depends on the
+ * digest algorithm, which is set with the property <code>aselect.default.digest.alg</code> before
+ * {@link Auxiliary} is loaded. <br>
+ * <br>
+ * <code>ant bench -Dbench.class=LogBenchmark -Dbench.args="SHA-256 20000 3"</code> <br>
+ * The arguments are optionally the digest algorithm (BLANK, the default of the server), the calls per round (20000)
+ * and the number of rounds (3). <br>
+ * <br>
+ * <b>Concurrency issues:</b> <br>
+ * Single threaded. <br>
+ *
+ * @author Anoigo
+ */
+public class LogBenchmark
+{
+	private static final String MODULE = "LogBenchmark";
+
+	private static final String ENVELOPE = "<soap:Envelope xmlns:soap=\"http://schemas.xmlsoap.org/soap/envelope/\">"
+			+ "<soap:Body><samlp:Response xmlns:samlp=\"urn:oasis:names:tc:SAML:2.0:protocol\""
+			+ " xmlns:saml=\"urn:oasis:names:tc:SAML:2.0:assertion\" ID=\"_a75adf55-01d7-40cc-929f-dbd8372ebdfc\""
+			+ " Version=\"2.0\" IssueInstant=\"2024-01-01T12:00:00Z\"><saml:Issuer>https://idp.example.org</saml:Issuer>"
+			+ "<samlp:Status><samlp:StatusCode Value=\"urn:oasis:names:tc:SAML:2.0:status:Success\"/></samlp:Status>"
+			+ "<saml:Assertion ID=\"_d71a3a8e9fcc45c9e9d248ef7049393fc8f04e5f75\" Version=\"2.0\""
+			+ " IssueInstant=\"2024-01-01T12:00:00Z\"><saml:Issuer>https://idp.example.org</saml:Issuer>"
+			+ "<saml:Subject><saml:NameID>123456789</saml:NameID></saml:Subject>"
+			+ "<saml:AttributeStatement><saml:Attribute Name=\"uid\"><saml:AttributeValue>someone@example.org"
+			+ "</saml:AttributeValue></saml:Attribute></saml:AttributeStatement></saml:Assertion></samlp:Response>"
+			+ "</soap:Body></soap:Envelope>";
+
+	/**
+	 * Run the benchmark.
+	 *
+	 * @param args
+	 *            [digest algorithm], [calls per round], [rounds]
+	 * @throws Exception
+	 *             if the envelope can not be parsed
+	 */
+	public static void main(String[] args)
+	throws Exception
+	{
+		String sDigest = (args.length > 0) ? args[0] : "BLANK";
+		int iCalls = (args.length > 1) ? Integer.parseInt(args[1]) : 20000;
+		int iRounds = (args.length > 2) ? Integer.parseInt(args[2]) : 3;
+		System.setProperty("aselect.default.digest.alg", sDigest);
+		WarningLogger.install();
+		System.out.println(MODULE + ": digest=" + sDigest + " calls=" + iCalls + " rounds=" + iRounds);
+
+		SystemLogger_org oLogger = new WarningLogger();
+		HashMap<String, Object> htContext = new HashMap<String, Object>();
+		for (int i = 0; i < 30; i++) {
+			htContext.put("key" + i, "value-of-some-session-attribute-" + i);
+		}
+		htContext.put("uid", "someone@example.org");
+		htContext.put("password", "secret");
+		DocumentBuilderFactory oFactory = DocumentBuilderFactory.newInstance();
+		oFactory.setNamespaceAware(true);
+		Element elEnvelope = oFactory.newDocumentBuilder()
+				.parse(new ByteArrayInputStream(ENVELOPE.getBytes(StandardCharsets.UTF_8))).getDocumentElement();
+
+		com.sun.management.ThreadMXBean oThreadBean = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		long lThread = Thread.currentThread().getId();
+		for (int iRound = 0; iRound < iRounds; iRound++) {
+			long[] alBytes = new long[5];
+			long[] alNanos = new long[5];
+			alBytes[0] = oThreadBean.getThreadAllocatedBytes(lThread);
+			alNanos[0] = System.nanoTime();
+			for (int i = 0; i < iCalls; i++) {
+				oLogger.log(Level.FINEST, MODULE, "main", "htSessionContext=" + Auxiliary.obfuscate(htContext));
+			}
+			alBytes[1] = oThreadBean.getThreadAllocatedBytes(lThread);
+			alNanos[1] = System.nanoTime();
+			for (int i = 0; i < iCalls; i++) {
+				oLogger.log(Level.FINEST, MODULE, "main", "htSessionContext=", LogArgument.obfuscated(htContext));
+			}
+			alBytes[2] = oThreadBean.getThreadAllocatedBytes(lThread);
+			alNanos[2] = System.nanoTime();
+			for (int i = 0; i < iCalls; i++) {
+				oLogger.log(Level.FINEST, MODULE, "main", "Send SOAP message:\n", LogArgument.obfuscated(
+						XMLHelper.nodeToString(elEnvelope), Auxiliary.REGEX_PATTERNS));
+			}
+			alBytes[3] = oThreadBean.getThreadAllocatedBytes(lThread);
+			alNanos[3] = System.nanoTime();
+			for (int i = 0; i < iCalls; i++) {
+				oLogger.log(Level.FINEST, MODULE, "main", "Send SOAP message:\n", LogArgument.serialized(elEnvelope,
+						Auxiliary.REGEX_PATTERNS));
+			}
+			alBytes[4] = oThreadBean.getThreadAllocatedBytes(lThread);
+			alNanos[4] = System.nanoTime();
+			System.out.println("round " + iRound + ":\n  context eager " + perCall(alBytes, alNanos, 0, iCalls)
+					+ ", deferred " + perCall(alBytes, alNanos, 1, iCalls) + "\n  soap eager "
+					+ perCall(alBytes, alNanos, 2, iCalls) + ", deferred " + perCall(alBytes, alNanos, 3, iCalls));
+		}
+	}
+
+	private static String perCall(long[] alBytes, long[] alNanos, int iStep, int iCalls)
+	{
+		return ((alBytes[iStep + 1] - alBytes[iStep]) / iCalls) + " B " + ((alNanos[iStep + 1] - alNanos[iStep]) / iCalls)
+				+ " ns";
+	}
+}
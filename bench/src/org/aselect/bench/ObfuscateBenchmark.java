@@ -0,0 +1,117 @@
+/*
+ * * Copyright (c) Anoigo. All rights reserved.
+ *
+ * A-Select is a trademark registered by SURFnet bv.
+ *
+ * This program is distributed under the EUPL 1.0 (http://osor.eu/eupl)
+ * See the included LICENSE file for details.
+ *
+ * If you did not receive a copy of the LICENSE
+ * please contact Anoigo. (http://www.anoigo.nl)
+ */
+package org.aselect.bench;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.aselect.system.utils.crypto.Auxiliary;
+
+/**
+ * Benchmark of the obfuscation of log output by {@link Auxiliary}. <br>
+ * <br>
+ * <b>Description:</b> <br>
+ * Measures the bytes allocated and the time per call of:
+ * <ul>
+ * <li>context: <code>String.valueOf(Auxiliary.obfuscate(htContext))</code> for a session context of 33 entries,
+ * holding banned keys and a list</li>
+ * <li>plain line: <code>Auxiliary.obfuscate(sLine, Auxiliary.REGEX_PATTERNS)</code> for a log line without anything
+ * resembling a BSN</li>
+ * <li>bsn line: the same for a line with a BSN</li>
+ * </ul>
+ * and prints one obfuscated context and line, with two patterns that use the same group name, to show the output.
+ * The result depends on the digest algorithm, which is set with the property <code>aselect.default.digest.alg</code>
+ * before {@link Auxiliary} is loaded. Running this class on a tree before the single pass rendering gives the old
+ * numbers. <br>
+ * <br>
+ * <code>ant bench -Dbench.class=ObfuscateBenchmark -Dbench.args="SHA-256 3000 3"</code> <br>
+ * The arguments are optionally the digest algorithm (SHA-256), the calls per round (3000) and the number of rounds
+ * (3). <br>
+ * <br>
+ * <b>Concurrency issues:</b> <br>
+ * Single threaded. <br>
+ *
+ * @author Anoigo
+ */
+public class ObfuscateBenchmark
+{
+	private static final String MODULE = "ObfuscateBenchmark";
+
+	private static final String PLAIN_LINE = "Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod "
+			+ "tempor incididunt ut labore et dolore magna aliqua <saml:NameID>abcdef</saml:NameID> ";
+	private static final String BSN_LINE = "Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod "
+			+ "tempor incididunt ut labore et dolore magna aliqua <saml:NameID>123456789</saml:NameID> ";
+
+	/**
+	 * Run the benchmark.
+	 *
+	 * @param args
+	 *            [digest algorithm], [calls per round], [rounds]
+	 */
+	public static void main(String[] args)
+	{
+		String sDigest = (args.length > 0) ? args[0] : "SHA-256";
+		int iCalls = (args.length > 1) ? Integer.parseInt(args[1]) : 3000;
+		int iRounds = (args.length > 2) ? Integer.parseInt(args[2]) : 3;
+		System.setProperty("aselect.default.digest.alg", sDigest);
+		System.out.println(MODULE + ": digest=" + sDigest + " calls=" + iCalls + " rounds=" + iRounds);
+
+		HashMap<String, Object> htContext = new HashMap<String, Object>();
+		for (int i = 0; i < 30; i++) {
+			htContext.put("key" + i, "value-of-some-session-attribute-" + i);
+		}
+		htContext.put("uid", "someone@example.org");
+		htContext.put("password", "secret");
+		htContext.put("list", new ArrayList<String>(Arrays.asList("a", "b")));
+		List<Pattern> lSameGroup = Arrays.asList(Pattern.compile("uid=(?<v>\\w+)"), Pattern.compile("mail=(?<v>\\S+)"));
+		System.out.println("context: " + Auxiliary.obfuscate(htContext));
+		System.out.println("bsn line: " + Auxiliary.obfuscate(BSN_LINE, Auxiliary.REGEX_PATTERNS));
+		System.out.println("same group name: " + Auxiliary.obfuscate("mail=someone@example.org uid=someone", lSameGroup));
+
+		com.sun.management.ThreadMXBean oThreadBean = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		long lThread = Thread.currentThread().getId();
+		for (int iRound = 0; iRound < iRounds; iRound++) {
+			long[] alBytes = new long[4];
+			long[] alNanos = new long[4];
+			alBytes[0] = oThreadBean.getThreadAllocatedBytes(lThread);
+			alNanos[0] = System.nanoTime();
+			for (int i = 0; i < iCalls; i++) {
+				String.valueOf(Auxiliary.obfuscate((Object) htContext));
+			}
+			alBytes[1] = oThreadBean.getThreadAllocatedBytes(lThread);
+			alNanos[1] = System.nanoTime();
+			for (int i = 0; i < iCalls; i++) {
+				Auxiliary.obfuscate(PLAIN_LINE, Auxiliary.REGEX_PATTERNS);
+			}
+			alBytes[2] = oThreadBean.getThreadAllocatedBytes(lThread);
+			alNanos[2] = System.nanoTime();
+			for (int i = 0; i < iCalls; i++) {
+				Auxiliary.obfuscate(BSN_LINE, Auxiliary.REGEX_PATTERNS);
+			}
+			alBytes[3] = oThreadBean.getThreadAllocatedBytes(lThread);
+			alNanos[3] = System.nanoTime();
+			System.out.println("round " + iRound + ": context " + perCall(alBytes, alNanos, 0, iCalls) + ", plain line "
+					+ perCall(alBytes, alNanos, 1, iCalls) + ", bsn line " + perCall(alBytes, alNanos, 2, iCalls));
+		}
+	}
+
+	private static String perCall(long[] alBytes, long[] alNanos, int iStep, int iCalls)
+	{
+		return ((alBytes[iStep + 1] - alBytes[iStep]) / iCalls) + " B " + ((alNanos[iStep + 1] - alNanos[iStep]) / iCalls
+				/ 1000) + " us";
+	}
+}
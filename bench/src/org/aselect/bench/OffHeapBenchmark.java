@@ -0,0 +1,173 @@
+/*
+ * * Copyright (c) Anoigo. All rights reserved.
+ *
+ * A-Select is a trademark registered by SURFnet bv.
+ *
+ * This program is distributed under the EUPL 1.0 (http://osor.eu/eupl)
+ * See the included LICENSE file for details.
+ *
+ * If you did not receive a copy of the LICENSE
+ * please contact Anoigo. (http://www.anoigo.nl)
+ */
+package org.aselect.bench;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import org.aselect.system.configmanager.ConfigManager;
+import org.aselect.system.exception.ASelectStorageException;
+import org.aselect.system.logging.SystemLogger;
+import org.aselect.system.storagemanager.IStorageHandler;
+
+/**
+ * Fill, update and garbage collection benchmark of a storage handler, e.g. with the values off the heap. <br>
+ * <br>
+ * <b>Description:</b> <br>
+ * Uses the storage handler of a <code>storagemanager</code> section directly, in three steps:
+ * <ol>
+ * <li>Insert items with a value of the given size, until the handler is full or the given number is reached. The
+ * number of items, the time, the garbage collections and the heap used afterwards are printed.</li>
+ * <li>Update every item with a value of the same size, which must always fit.</li>
+ * <li>Update the first item with a value five times as large. If it is refused, the old value must be kept.</li>
+ * </ol>
+ * Comparing a heap handler with the same handler off the heap shows the difference in heap and collections, a
+ * small off heap size shows whether the configured limit is used exactly. <br>
+ * <br>
+ * <code>ant bench -Dbench.class=OffHeapBenchmark -Dbench.args="bench/bench.xml small 900"</code> <br>
+ * The arguments are the configuration file, the storage manager id and optionally the value size in characters (900)
+ * and the maximum number of items (1000000). <br>
+ * <br>
+ * <b>Concurrency issues:</b> <br>
+ * Single threaded. <br>
+ *
+ * @author Anoigo
+ */
+public class OffHeapBenchmark
+{
+	private static final String MODULE = "OffHeapBenchmark";
+
+	/**
+	 * Run the benchmark.
+	 *
+	 * @param args
+	 *            configuration file, storage manager id, [value size], [items]
+	 * @throws Exception
+	 *             if the storage handler can not be initialized
+	 */
+	public static void main(String[] args)
+	throws Exception
+	{
+		if (args.length < 2) {
+			System.err.println("Usage: " + MODULE + " <config file> <storagemanager id> [value size] [items]");
+			System.exit(1);
+		}
+		int iValueSize = (args.length > 2) ? Integer.parseInt(args[2]) : 900;
+		int iMaxItems = (args.length > 3) ? Integer.parseInt(args[3]) : 1000000;
+
+		SystemLogger oSystemLogger = WarningLogger.install();
+		ConfigManager oConfigManager = new ConfigManager();
+		oConfigManager.init(args[0], oSystemLogger);
+		Object oSection = oConfigManager.getSection(null, "storagemanager", "id=" + args[1]);
+		Object oHandlerSection = oConfigManager.getSection(oSection, "handler");
+		IStorageHandler oHandler = (IStorageHandler) Class.forName(oConfigManager.getParam(oHandlerSection, "class"))
+				.newInstance();
+		oHandler.init(oConfigManager.getSection(oSection, "storagehandler",
+				"id=" + oConfigManager.getParam(oHandlerSection, "id")), oConfigManager, oSystemLogger, null);
+		try {
+			run(oHandler, iValueSize, iMaxItems);
+		}
+		finally {
+			oHandler.destroy();
+		}
+	}
+
+	/**
+	 * Fill, update and overfill the handler.
+	 */
+	private static void run(IStorageHandler oHandler, int iValueSize, int iMaxItems)
+	throws ASelectStorageException
+	{
+		char[] acValue = new char[iValueSize];
+		Arrays.fill(acValue, 'x');
+		String sValue = new String(acValue);
+		System.out.println(MODULE + ": handler=" + oHandler.getClass().getSimpleName() + " value=" + iValueSize
+				+ " max items=" + iMaxItems);
+
+		long lCollections = getCollections();
+		long lCollectionMillis = getCollectionMillis();
+		long lStart = System.nanoTime();
+		int iItems = 0;
+		String sFull = "not full";
+		try {
+			for (; iItems < iMaxItems; iItems++) {
+				oHandler.put("key" + iItems, sValue + iItems, Long.valueOf(1), IStorageHandler.UpdateMode.INSERTONLY);
+			}
+		}
+		catch (ASelectStorageException e) {
+			sFull = "full: " + e.getMessage();
+		}
+		long lMillis = (System.nanoTime() - lStart) / 1000000;
+		System.out.println("insert: items=" + iItems + " (" + ((long) iItems * iValueSize / 1024) + " KB of values) "
+				+ sFull + " time=" + lMillis + "ms gc=" + (getCollections() - lCollections) + "/"
+				+ (getCollectionMillis() - lCollectionMillis) + "ms heap=" + getUsedHeap() + "MB");
+
+		String sUpdated = sValue.substring(1) + "y";
+		int iFailed = 0;
+		lStart = System.nanoTime();
+		for (int i = 0; i < iItems; i++) {
+			try {
+				oHandler.put("key" + i, sUpdated + i, Long.valueOf(2), IStorageHandler.UpdateMode.UPDATEFIRST);
+			}
+			catch (ASelectStorageException e) {
+				iFailed++;
+			}
+		}
+		lMillis = (System.nanoTime() - lStart) / 1000000;
+		boolean bUpdated = (iItems == 0) || (sUpdated + 0).equals(oHandler.get("key0"));
+		System.out.println("update: items=" + iItems + " failed=" + iFailed + " value " + (bUpdated ? "ok" : "WRONG")
+				+ " time=" + lMillis + "ms");
+
+		if (iItems > 0) {
+			char[] acBig = new char[5 * iValueSize];
+			Arrays.fill(acBig, 'z');
+			String sResult;
+			try {
+				oHandler.put("key0", new String(acBig), Long.valueOf(3), IStorageHandler.UpdateMode.UPDATEFIRST);
+				sResult = "stored";
+			}
+			catch (ASelectStorageException e) {
+				sResult = "refused, old value " + ((sUpdated + 0).equals(oHandler.get("key0")) ? "kept" : "LOST");
+			}
+			System.out.println("larger update: " + sResult + " count=" + oHandler.getCount());
+		}
+	}
+
+	private static long getCollections()
+	{
+		long lCount = 0;
+		for (GarbageCollectorMXBean oBean : ManagementFactory.getGarbageCollectorMXBeans()) {
+			lCount += Math.max(0, oBean.getCollectionCount());
+		}
+		return lCount;
+	}
+
+	private static long getCollectionMillis()
+	{
+		long lMillis = 0;
+		for (GarbageCollectorMXBean oBean : ManagementFactory.getGarbageCollectorMXBeans()) {
+			lMillis += Math.max(0, oBean.getCollectionTime());
+		}
+		return lMillis;
+	}
+
+	/**
+	 * The heap used after a collection, in MB.
+	 */
+	private static long getUsedHeap()
+	{
+		Runtime oRuntime = Runtime.getRuntime();
+		System.gc();
+		return (oRuntime.totalMemory() - oRuntime.freeMemory()) / (1024 * 1024);
+	}
+}
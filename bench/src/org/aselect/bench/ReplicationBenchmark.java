@@ -0,0 +1,206 @@
+/*
+ * * Copyright (c) Anoigo. All rights reserved.
+ *
+ * A-Select is a trademark registered by SURFnet bv.
+ *
+ * This program is distributed under the EUPL 1.0 (http://osor.eu/eupl)
+ * See the included LICENSE file for details.
+ *
+ * If you did not receive a copy of the LICENSE
+ * please contact Anoigo. (http://www.anoigo.nl)
+ */
+package org.aselect.bench;
+
+import java.util.HashMap;
+
+import org.aselect.system.configmanager.ConfigManager;
+import org.aselect.system.exception.ASelectStorageException;
+import org.aselect.system.logging.SystemLogger;
+import org.aselect.system.storagemanager.IStorageHandler;
+
+/**
+ * Throughput and failover benchmark of two replicated storage handlers. <br>
+ * <br>
+ * <b>Description:</b> <br>
+ * Starts the storage handlers of two <code>storagemanager</code> sections, e.g. two
+ * {@link org.aselect.system.storagemanager.handler.ReplicatedStorageHandler}s that are each other's peer on the
+ * loopback interface, and measures:
+ * <ol>
+ * <li>join: the first server holds the items before the second one starts, the time until the second has them
+ * all.</li>
+ * <li>put: the time of the local puts on the first server, and the time until the second has them all.</li>
+ * <li>remove: the same for removing half of the items.</li>
+ * <li>failover: the second server stops, the first one changes items, and the time until the restarted second
+ * server holds exactly the items of the first.</li>
+ * </ol>
+ * Every step checks the number of items and a sample of values on the second server. <br>
+ * <br>
+ * <code>ant bench -Dbench.class=ReplicationBenchmark -Dbench.args="bench/bench.xml replica1 replica2 100000"</code>
+ * <br>
+ * The arguments are the configuration file, the ids of the two storage managers and optionally the number of items
+ * (100000). <br>
+ * <br>
+ * <b>Concurrency issues:</b> <br>
+ * The benchmark itself is single threaded, the handlers replicate in their own threads. <br>
+ *
+ * @author Anoigo
+ */
+public class ReplicationBenchmark
+{
+	private static final String MODULE = "ReplicationBenchmark";
+
+	/** How long to wait for the replication of a step */
+	private static final long MAX_WAIT = 120000L;
+
+	private final ConfigManager _oConfigManager;
+	private final SystemLogger _oSystemLogger;
+
+	/**
+	 * Run the benchmark.
+	 *
+	 * @param args
+	 *            configuration file, first storage manager id, second storage manager id, [items]
+	 * @throws Exception
+	 *             if a storage handler can not be initialized
+	 */
+	public static void main(String[] args)
+	throws Exception
+	{
+		if (args.length < 3) {
+			System.err.println("Usage: " + MODULE + " <config file> <storagemanager id> <storagemanager id> [items]");
+			System.exit(1);
+		}
+		int iItems = (args.length > 3) ? Integer.parseInt(args[3]) : 100000;
+
+		SystemLogger oSystemLogger = WarningLogger.install();
+		ConfigManager oConfigManager = new ConfigManager();
+		oConfigManager.init(args[0], oSystemLogger);
+		new ReplicationBenchmark(oConfigManager, oSystemLogger).run(args[1], args[2], iItems);
+	}
+
+	/**
+	 * Instantiates a benchmark.
+	 *
+	 * @param oConfigManager
+	 *            the configuration
+	 * @param oSystemLogger
+	 *            the logger of the handlers
+	 */
+	public ReplicationBenchmark(ConfigManager oConfigManager, SystemLogger oSystemLogger) {
+		_oConfigManager = oConfigManager;
+		_oSystemLogger = oSystemLogger;
+	}
+
+	/**
+	 * Run the steps.
+	 *
+	 * @param sFirstId
+	 *            the storage manager of the first server
+	 * @param sSecondId
+	 *            the storage manager of the second server
+	 * @param iItems
+	 *            the number of items
+	 * @throws Exception
+	 *             if a handler fails
+	 */
+	public void run(String sFirstId, String sSecondId, int iItems)
+	throws Exception
+	{
+		System.out.println(MODULE + ": " + sFirstId + " -> " + sSecondId + " items=" + iItems);
+		IStorageHandler oFirst = createHandler(sFirstId);
+		IStorageHandler oSecond = null;
+		try {
+			long lNow = System.currentTimeMillis();
+			put(oFirst, "join", iItems, lNow);
+			long lStart = System.nanoTime();
+			oSecond = createHandler(sSecondId);
+			report("join", lStart, 0, oSecond, iItems, "join" + (iItems - 1));
+
+			lStart = System.nanoTime();
+			put(oFirst, "put", iItems, lNow);
+			long lLocal = System.nanoTime();
+			report("put", lStart, lLocal, oSecond, 2L * iItems, "put" + (iItems - 1));
+
+			lStart = System.nanoTime();
+			for (int i = 0; i < iItems; i += 2) {
+				oFirst.remove("put" + i);
+			}
+			lLocal = System.nanoTime();
+			report("remove", lStart, lLocal, oSecond, 2L * iItems - (iItems + 1) / 2, "put1");
+
+			oSecond.destroy();
+			oSecond = null;
+			for (int i = 1; i < iItems; i += 2) {
+				oFirst.remove("put" + i);
+			}
+			put(oFirst, "failover", iItems / 10, lNow);
+			lStart = System.nanoTime();
+			oSecond = createHandler(sSecondId);
+			report("failover", lStart, 0, oSecond, oFirst.getCount(), "failover0");
+		}
+		finally {
+			if (oSecond != null)
+				oSecond.destroy();
+			oFirst.destroy();
+		}
+	}
+
+	/**
+	 * Instantiate and initialize the storage handler of a storage manager section.
+	 */
+	private IStorageHandler createHandler(String sStorageManagerId)
+	throws Exception
+	{
+		Object oSection = _oConfigManager.getSection(null, "storagemanager", "id=" + sStorageManagerId);
+		Object oHandlerSection = _oConfigManager.getSection(oSection, "handler");
+		IStorageHandler oHandler = (IStorageHandler) Class.forName(_oConfigManager.getParam(oHandlerSection, "class"))
+				.newInstance();
+		oHandler.init(_oConfigManager.getSection(oSection, "storagehandler",
+				"id=" + _oConfigManager.getParam(oHandlerSection, "id")), _oConfigManager, _oSystemLogger, null);
+		return oHandler;
+	}
+
+	/**
+	 * Put session-like items.
+	 */
+	private static void put(IStorageHandler oHandler, String sPrefix, int iItems, long lTimestamp)
+	throws ASelectStorageException
+	{
+		for (int i = 0; i < iItems; i++) {
+			HashMap<String, Object> htItem = new HashMap<String, Object>();
+			htItem.put("rid", sPrefix + i);
+			htItem.put("uid", "user" + i + "@example.org");
+			htItem.put("app_id", "bench");
+			oHandler.put(sPrefix + i, htItem, Long.valueOf(lTimestamp));
+		}
+	}
+
+	/**
+	 * Wait until the second server has the expected number of items and print the times of a step.
+	 */
+	private static void report(String sStep, long lStart, long lLocal, IStorageHandler oSecond, long lExpected,
+			String sSampleKey)
+	throws Exception
+	{
+		long lEnd = System.currentTimeMillis() + MAX_WAIT;
+		while (oSecond.getCount() != lExpected && System.currentTimeMillis() < lEnd) {
+			Thread.sleep(1);
+		}
+		long lReplicated = System.nanoTime();
+		boolean bSample = false;
+		try {
+			Object oSample = oSecond.get(sSampleKey);
+			bSample = (oSample instanceof HashMap) && sSampleKey.equals(((HashMap) oSample).get("rid"));
+		}
+		catch (ASelectStorageException e) {
+			// not replicated
+		}
+		StringBuffer sbReport = new StringBuffer("  ").append(sStep).append(':');
+		if (lLocal > 0)
+			sbReport.append(" local=").append((lLocal - lStart) / 1000000).append("ms");
+		sbReport.append(" replicated=").append((lReplicated - lStart) / 1000000).append("ms count=")
+				.append(oSecond.getCount()).append('/').append(lExpected).append(" sample ")
+				.append(bSample ? "ok" : "WRONG");
+		System.out.println(sbReport);
+	}
+}
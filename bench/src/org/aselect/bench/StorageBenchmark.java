@@ -0,0 +1,418 @@
+/*
+ * * Copyright (c) Anoigo. All rights reserved.
+ *
+ * A-Select is a trademark registered by SURFnet bv.
+ *
+ * This program is distributed under the EUPL 1.0 (http://osor.eu/eupl)
+ * See the included LICENSE file for details.
+ *
+ * If you did not receive a copy of the LICENSE
+ * please contact Anoigo. (http://www.anoigo.nl)
+ */
+package org.aselect.bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.aselect.system.configmanager.ConfigManager;
+import org.aselect.system.exception.ASelectConfigException;
+import org.aselect.system.exception.ASelectStorageException;
+import org.aselect.system.logging.SystemLogger;
+import org.aselect.system.sam.agent.SAMAgent;
+import org.aselect.system.storagemanager.StorageManager;
+import org.aselect.system.utils.LatencyStatistics;
+
+/**
+ * Benchmark and soak driver for a storage manager and its storage handler. <br>
+ * <br>
+ * <b>Description:</b> <br>
+ * Runs a session-like workload on one <code>storagemanager</code> section of a configuration in the
+ * <code>aselect.xml</code> format: every thread creates items, reads, updates and touches them, and removes them
+ * again. A separate thread runs the cleanup of the storage manager (see {@link StorageManager#cleanup()}) every
+ * cleanup interval, the items the workers leave behind expire as configured by <code>expire</code>. Every report
+ * interval the throughput, the latency per operation (see {@link LatencyStatistics}), the number
+ * of stored items, the used heap and the bytes allocated per operation are printed, and the totals at the end. A short
+ * run compares handlers, a long run shows whether latency, heap or item count drift. <br>
+ * <br>
+ * If the configuration has a <code>sam</code> section, a {@link SAMAgent} is started for the resource groups of the
+ * {@link org.aselect.system.storagemanager.handler.JDBCStorageHandler}, so an H2 or Derby database is used by putting
+ * its driver on the class path and configuring its URL in a resource. <br>
+ * <br>
+ * This driver is not part of the jars, the <code>bench</code> target of <code>build.xml</code> compiles it to
+ * <code>target/bench</code> and runs it: <br>
+ * <code>ant bench -Dbench.class=StorageBenchmark -Dbench.args="bench/bench.xml session 8 600 10000 10 1"</code> <br>
+ * The arguments are the configuration file, the storage manager id and optionally the number of threads (8), the
+ * duration in seconds (60), the number of keys (10000), the report interval in seconds (10) and the cleanup interval
+ * in seconds (1, 0 for none). <br>
+ * <br>
+ * <b>Concurrency issues:</b> <br>
+ * Each worker uses its own keys, the statistics are shared. <br>
+ *
+ * @author Anoigo
+ */
+public class StorageBenchmark
+{
+	private static final String MODULE = "StorageBenchmark";
+
+	/** The operations */
+	private static final int CREATE = 0;
+	private static final int GET = 1;
+	private static final int UPDATE = 2;
+	private static final int TOUCH = 3;
+	private static final int REMOVE = 4;
+	private static final int CLEANUP = 5;
+	private static final String[] OPERATIONS = { "create", "get", "update", "touch", "remove", "cleanup" };
+
+	/** Attributes of a session item */
+	private static final int ATTRIBUTES = 20;
+
+	private final StorageManager _oStorageManager;
+	private final int _iThreads;
+	private final int _iKeys;
+
+	private volatile boolean _bRunning = true;
+
+	/** Statistics of the current interval, replaced by every report */
+	private volatile Statistics _oInterval = new Statistics();
+	private final Statistics _oTotal = new Statistics();
+
+	/** Bytes allocated by every worker, -1 if the JVM does not measure it */
+	private final AtomicLongArray _alAllocated;
+
+	/**
+	 * Latency and errors of every operation.
+	 */
+	private static class Statistics
+	{
+		final LatencyStatistics[] _aLatency = new LatencyStatistics[OPERATIONS.length];
+		final AtomicLong _lOperations = new AtomicLong();
+		final long _lStart = System.nanoTime();
+
+		Statistics() {
+			for (int i = 0; i < OPERATIONS.length; i++) {
+				_aLatency[i] = new LatencyStatistics();
+			}
+		}
+
+		@Override
+		public String toString()
+		{
+			StringBuffer sbStats = new StringBuffer();
+			for (int i = 0; i < OPERATIONS.length; i++) {
+				if (_aLatency[i].getCount() > 0)
+					sbStats.append("\n  ").append(OPERATIONS[i]).append(' ').append(_aLatency[i]);
+			}
+			return sbStats.toString();
+		}
+	}
+
+	/**
+	 * Run the benchmark.
+	 *
+	 * @param args
+	 *            configuration file, storage manager id, [threads], [seconds], [keys], [report seconds], [cleanup
+	 *            seconds]
+	 * @throws Exception
+	 *             if the storage manager can not be initialized
+	 */
+	public static void main(String[] args)
+	throws Exception
+	{
+		if (args.length < 2) {
+			System.err.println("Usage: " + MODULE + " <config file> <storagemanager id> [threads] [seconds] [keys] [report seconds] [cleanup seconds]");
+			System.exit(1);
+		}
+		int iThreads = (args.length > 2) ? Integer.parseInt(args[2]) : 8;
+		int iSeconds = (args.length > 3) ? Integer.parseInt(args[3]) : 60;
+		int iKeys = (args.length > 4) ? Integer.parseInt(args[4]) : 10000;
+		int iReport = (args.length > 5) ? Integer.parseInt(args[5]) : 10;
+		int iCleanup = (args.length > 6) ? Integer.parseInt(args[6]) : 1;
+
+		SystemLogger oSystemLogger = WarningLogger.install();
+		ConfigManager oConfigManager = new ConfigManager();
+		oConfigManager.init(args[0], oSystemLogger);
+
+		SAMAgent oSAMAgent = null;
+		try {
+			oConfigManager.getSection(null, "sam");
+			oSAMAgent = new SAMAgent();
+			oSAMAgent.init(oConfigManager, oSystemLogger);
+		}
+		catch (ASelectConfigException e) {
+			// no resource groups, e.g. a memory handler
+		}
+
+		StorageManager oStorageManager = new StorageManager();
+		oStorageManager.init(oConfigManager.getSection(null, "storagemanager", "id=" + args[1]), oConfigManager,
+				oSystemLogger, oSAMAgent);
+		try {
+			new StorageBenchmark(oStorageManager, iThreads, iKeys).run(iSeconds, iReport, iCleanup);
+		}
+		finally {
+			oStorageManager.destroy();
+			if (oSAMAgent != null)
+				oSAMAgent.destroy();
+		}
+	}
+
+	/**
+	 * Instantiates a benchmark.
+	 *
+	 * @param oStorageManager
+	 *            the initialized storage manager
+	 * @param iThreads
+	 *            the number of workers
+	 * @param iKeys
+	 *            the number of keys, divided over the workers
+	 */
+	public StorageBenchmark(StorageManager oStorageManager, int iThreads, int iKeys) {
+		_oStorageManager = oStorageManager;
+		_iThreads = iThreads;
+		_iKeys = Math.max(iKeys / iThreads, 1);
+		_alAllocated = new AtomicLongArray(iThreads);
+	}
+
+	/**
+	 * Run the workers, report every interval and print the totals.
+	 *
+	 * @param iSeconds
+	 *            the duration
+	 * @param iReport
+	 *            the report interval in seconds
+	 * @param iCleanup
+	 *            the cleanup interval in seconds, 0 for none
+	 * @throws InterruptedException
+	 *             if interrupted
+	 */
+	public void run(int iSeconds, int iReport, int iCleanup)
+	throws InterruptedException
+	{
+		System.out.println(MODULE + ": threads=" + _iThreads + " keys=" + (_iKeys * _iThreads) + " seconds=" + iSeconds
+				+ " cleanup=" + iCleanup);
+		Worker[] aWorkers = new Worker[_iThreads];
+		for (int i = 0; i < _iThreads; i++) {
+			aWorkers[i] = new Worker(i);
+			aWorkers[i].setName(MODULE + "-" + i);
+			aWorkers[i].start();
+		}
+		Cleaner oCleaner = null;
+		if (iCleanup > 0) {
+			oCleaner = new Cleaner(1000L * iCleanup);
+			oCleaner.setName(MODULE + "-cleanup");
+			oCleaner.start();
+		}
+
+		long lEnd = System.currentTimeMillis() + 1000L * iSeconds;
+		long lNow;
+		while ((lNow = System.currentTimeMillis()) < lEnd) {
+			Thread.sleep(Math.min(1000L * iReport, lEnd - lNow));
+			Statistics oInterval = _oInterval;
+			_oInterval = new Statistics();
+			report("interval", oInterval);
+		}
+		_bRunning = false;
+		for (Worker oWorker : aWorkers) {
+			oWorker.join();
+		}
+		if (oCleaner != null) {
+			oCleaner.interrupt();
+			oCleaner.join();
+		}
+		report("total", _oTotal);
+	}
+
+	/**
+	 * Print the statistics of an interval or of the whole run.
+	 */
+	private void report(String sName, Statistics oStatistics)
+	{
+		long lOperations = oStatistics._lOperations.get();
+		long lNanos = Math.max(1, System.nanoTime() - oStatistics._lStart);
+		StringBuffer sbReport = new StringBuffer(sName);
+		sbReport.append(": ops/s=").append(lOperations * 1000000000L / lNanos);
+		try {
+			sbReport.append(" items=").append(_oStorageManager.getCount());
+		}
+		catch (ASelectStorageException e) {
+			sbReport.append(" items=?");
+		}
+		Runtime oRuntime = Runtime.getRuntime();
+		sbReport.append(" heap=").append((oRuntime.totalMemory() - oRuntime.freeMemory()) / (1024 * 1024)).append("MB");
+		long lAllocated = 0;
+		for (int i = 0; i < _alAllocated.length(); i++) {
+			lAllocated += _alAllocated.get(i);
+		}
+		long lTotalOperations = _oTotal._lOperations.get();
+		if (lAllocated >= 0 && lTotalOperations > 0)
+			sbReport.append(" allocated/op=").append(lAllocated / lTotalOperations).append("B");
+		sbReport.append(oStatistics);
+		System.out.println(sbReport);
+	}
+
+	/**
+	 * Record an operation in the interval and the totals, the cleanup does not count for the throughput.
+	 */
+	private void record(int iOperation, long lStart, boolean bSuccess)
+	{
+		Statistics oInterval = _oInterval;
+		oInterval._aLatency[iOperation].record(lStart, bSuccess);
+		_oTotal._aLatency[iOperation].record(lStart, bSuccess);
+		if (iOperation != CLEANUP) {
+			oInterval._lOperations.incrementAndGet();
+			_oTotal._lOperations.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Create a session-like item.
+	 */
+	private static HashMap<String, Object> createItem(Random oRandom, String sKey)
+	{
+		HashMap<String, Object> htItem = new HashMap<String, Object>();
+		htItem.put("rid", sKey);
+		for (int i = 0; i < ATTRIBUTES; i++) {
+			htItem.put("attribute" + i, Long.toHexString(oRandom.nextLong()));
+		}
+		return htItem;
+	}
+
+	/**
+	 * Creates, reads, updates, touches and removes its own keys.
+	 */
+	private class Worker extends Thread
+	{
+		private final int _iIndex;
+		private final Random _oRandom;
+		private final HashMap[] _aItems = new HashMap[_iKeys];
+
+		private Worker(int iIndex) {
+			_iIndex = iIndex;
+			_oRandom = new Random(iIndex);
+		}
+
+		@Override
+		public void run()
+		{
+			ThreadMXBean oThreadBean = ManagementFactory.getThreadMXBean();
+			com.sun.management.ThreadMXBean oAllocationBean = (oThreadBean instanceof com.sun.management.ThreadMXBean)
+					? (com.sun.management.ThreadMXBean) oThreadBean : null;
+			long lAllocatedStart = (oAllocationBean != null) ? oAllocationBean.getThreadAllocatedBytes(getId()) : -1;
+
+			long lCount = 0;
+			while (_bRunning) {
+				int iKey = _oRandom.nextInt(_iKeys);
+				step(iKey, "bench-" + _iIndex + "-" + iKey);
+				if (++lCount % 1024 == 0 && lAllocatedStart >= 0)
+					_alAllocated.set(_iIndex, oAllocationBean.getThreadAllocatedBytes(getId()) - lAllocatedStart);
+			}
+			if (lAllocatedStart >= 0)
+				_alAllocated.set(_iIndex, oAllocationBean.getThreadAllocatedBytes(getId()) - lAllocatedStart);
+			else
+				_alAllocated.set(_iIndex, -1);
+		}
+
+		/**
+		 * Create a missing item, otherwise get (50%), update (20%), touch (20%) or remove (10%) it.
+		 */
+		private void step(int iKey, String sKey)
+		{
+			HashMap htItem = _aItems[iKey];
+			int iOperation = (htItem == null) ? CREATE : pick(_oRandom.nextInt(10));
+			if (iOperation == UPDATE) {
+				htItem = new HashMap(htItem);
+				htItem.put("attribute0", Long.toHexString(_oRandom.nextLong()));
+			}
+			else if (iOperation == CREATE) {
+				htItem = createItem(_oRandom, sKey);
+			}
+
+			long lStart = System.nanoTime();
+			boolean bSuccess = false;
+			try {
+				switch (iOperation) {
+				case CREATE:
+					bSuccess = _oStorageManager.create(sKey, htItem);
+					break;
+				case GET:
+					bSuccess = (_oStorageManager.get(sKey) != null);
+					if (!bSuccess)
+						htItem = null;
+					break;
+				case UPDATE:
+					_oStorageManager.update(sKey, htItem);
+					bSuccess = true;
+					break;
+				case TOUCH:
+					_oStorageManager.touch(sKey, htItem);
+					bSuccess = true;
+					break;
+				default:
+					_oStorageManager.remove(sKey);
+					bSuccess = true;
+					htItem = null;
+					break;
+				}
+			}
+			catch (ASelectStorageException e) {
+				// e.g. expired by the cleanup, created again by the next step
+				htItem = null;
+			}
+			finally {
+				record(iOperation, lStart, bSuccess);
+			}
+			_aItems[iKey] = htItem;
+		}
+
+		private int pick(int iTenth)
+		{
+			if (iTenth < 5)
+				return GET;
+			if (iTenth < 7)
+				return UPDATE;
+			if (iTenth < 9)
+				return TOUCH;
+			return REMOVE;
+		}
+	}
+
+	/**
+	 * Runs the cleanup of the storage manager every interval, while the workers are running.
+	 */
+	private class Cleaner extends Thread
+	{
+		private final long _lInterval;
+
+		private Cleaner(long lInterval) {
+			_lInterval = lInterval;
+		}
+
+		@Override
+		public void run()
+		{
+			while (_bRunning) {
+				try {
+					sleep(_lInterval);
+				}
+				catch (InterruptedException e) {
+					return;
+				}
+				long lStart = System.nanoTime();
+				boolean bSuccess = false;
+				try {
+					_oStorageManager.cleanup();
+					bSuccess = true;
+				}
+				catch (ASelectStorageException e) {
+					// logged by the handler
+				}
+				finally {
+					record(CLEANUP, lStart, bSuccess);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,187 @@
+/*
+ * * Copyright (c) Anoigo. All rights reserved.
+ *
+ * A-Select is a trademark registered by SURFnet bv.
+ *
+ * This program is distributed under the EUPL 1.0 (http://osor.eu/eupl)
+ * See the included LICENSE file for details.
+ *
+ * If you did not receive a copy of the LICENSE
+ * please contact Anoigo. (http://www.anoigo.nl)
+ */
+package org.aselect.bench;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.aselect.system.logging.SystemLogger;
+import org.aselect.system.utils.HtmlTemplate;
+import org.aselect.system.utils.Utils;
+
+/**
+ * Benchmark of rendering the HTML forms. <br>
+ * <br>
+ * <b>Description:</b> <br>
+ * Reads every <code>*.html</code> file below a directory and fills in about four of every five tags found, with
+ * values that contain characters used by the form syntax. Every page is rendered twice:
+ * <ul>
+ * <li>sequential: <code>Utils.replaceString()</code> for every tag, as the server did before the templates</li>
+ * <li>template: <code>HtmlTemplate.getTemplate(sForm).render(htValues)</code></li>
+ * </ul>
+ * The pages are compared, with and without resolving the conditionals, and the differences are printed. Then the
+ * time per page and the bytes allocated per page are printed for every round. <br>
+ * <br>
+ * <code>ant bench -Dbench.class=TemplateBenchmark -Dbench.args="src/bin/work 20000 3"</code> <br>
+ * The arguments are the directory with the forms and optionally the number of times every form is rendered per round
+ * (20000) and the number of rounds (3). <br>
+ * <br>
+ * <b>Concurrency issues:</b> <br>
+ * Single threaded. <br>
+ *
+ * @author Anoigo
+ */
+public class TemplateBenchmark
+{
+	private static final String MODULE = "TemplateBenchmark";
+
+	/** The special settings of the conditionals, as in the aselect.xml */
+	private static final String SPECIALS = "x=1&if_cond=a,b";
+
+	private static final Pattern TAG = Pattern.compile("\\[[A-Za-z0-9_.-]+\\]");
+
+	private final List<String> _lForms = new ArrayList<String>();
+	private final List<Map<String, String>> _lValues = new ArrayList<Map<String, String>>();
+
+	/**
+	 * Run the benchmark.
+	 *
+	 * @param args
+	 *            directory, [renderings per form], [rounds]
+	 * @throws Exception
+	 *             if a form can not be read
+	 */
+	public static void main(String[] args)
+	throws Exception
+	{
+		if (args.length < 1) {
+			System.err.println("Usage: " + MODULE + " <directory> [renderings per form] [rounds]");
+			System.exit(1);
+		}
+		int iRenderings = (args.length > 1) ? Integer.parseInt(args[1]) : 20000;
+		int iRounds = (args.length > 2) ? Integer.parseInt(args[2]) : 3;
+
+		SystemLogger oSystemLogger = WarningLogger.install();
+		TemplateBenchmark oBenchmark = new TemplateBenchmark();
+		oBenchmark.load(new File(args[0]), new Random(1));
+		System.out.println(MODULE + ": forms=" + oBenchmark._lForms.size() + " renderings=" + iRenderings + " rounds="
+				+ iRounds);
+		oBenchmark.compare(oSystemLogger);
+		for (int iRound = 0; iRound < iRounds; iRound++) {
+			oBenchmark.run(iRound, iRenderings);
+		}
+	}
+
+	/**
+	 * Read the forms below a directory and choose their values.
+	 */
+	private void load(File fDirectory, Random oRandom)
+	throws Exception
+	{
+		File[] aFiles = fDirectory.listFiles();
+		if (aFiles == null)
+			return;
+		for (File fFile : aFiles) {
+			if (fFile.isDirectory()) {
+				load(fFile, oRandom);
+			}
+			else if (fFile.getName().endsWith(".html")) {
+				String sForm = new String(Files.readAllBytes(fFile.toPath()), StandardCharsets.UTF_8);
+				Map<String, String> htValues = new LinkedHashMap<String, String>();
+				Matcher oMatcher = TAG.matcher(sForm);
+				while (oMatcher.find()) {
+					if (oRandom.nextInt(5) > 0)
+						htValues.put(oMatcher.group(), "v" + oRandom.nextInt(1000) + "&x=1;y[,]#");
+				}
+				htValues.put("[absent]", "zz");
+				_lForms.add(sForm);
+				_lValues.add(htValues);
+			}
+		}
+	}
+
+	/**
+	 * Compare the sequential and the template pages.
+	 */
+	private void compare(SystemLogger oSystemLogger)
+	{
+		int iDiffs = 0;
+		for (int i = 0; i < _lForms.size(); i++) {
+			String sSequential = sequential(i);
+			HtmlTemplate oTemplate = HtmlTemplate.getTemplate(_lForms.get(i));
+			if (!sSequential.equals(oTemplate.render(_lValues.get(i))))
+				iDiffs++;
+			String sConditional = Utils.handleAllConditionals(sSequential, true, SPECIALS, oSystemLogger);
+			if (!sConditional.equals(oTemplate.render(_lValues.get(i), true, SPECIALS)))
+				iDiffs++;
+		}
+		System.out.println("  pages compared=" + (2 * _lForms.size()) + " different=" + iDiffs);
+	}
+
+	/**
+	 * Fill in a form the way the server did before the templates.
+	 */
+	private String sequential(int iForm)
+	{
+		String sPage = _lForms.get(iForm);
+		for (Map.Entry<String, String> oEntry : _lValues.get(iForm).entrySet()) {
+			sPage = Utils.replaceString(sPage, oEntry.getKey(), oEntry.getValue());
+		}
+		return sPage;
+	}
+
+	/**
+	 * Render every form both ways and print the time and allocation per page.
+	 */
+	private void run(int iRound, int iRenderings)
+	{
+		com.sun.management.ThreadMXBean oThreadBean = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		long lThread = Thread.currentThread().getId();
+		long lPages = (long) iRenderings * _lForms.size();
+		long lLength = 0;
+
+		long lBytes0 = oThreadBean.getThreadAllocatedBytes(lThread);
+		long lStart = System.nanoTime();
+		for (int i = 0; i < iRenderings; i++) {
+			for (int iForm = 0; iForm < _lForms.size(); iForm++) {
+				lLength += sequential(iForm).length();
+			}
+		}
+		long lBytes1 = oThreadBean.getThreadAllocatedBytes(lThread);
+		long lMiddle = System.nanoTime();
+		for (int i = 0; i < iRenderings; i++) {
+			for (int iForm = 0; iForm < _lForms.size(); iForm++) {
+				lLength -= HtmlTemplate.getTemplate(_lForms.get(iForm)).render(_lValues.get(iForm)).length();
+			}
+		}
+		long lBytes2 = oThreadBean.getThreadAllocatedBytes(lThread);
+		long lEnd = System.nanoTime();
+		System.out.println("  round " + iRound + ": pages=" + lPages + " sequential " + perPage(lBytes1 - lBytes0,
+				lMiddle - lStart, lPages) + ", template " + perPage(lBytes2 - lBytes1, lEnd - lMiddle, lPages)
+				+ ((lLength == 0) ? "" : ", lengths differ"));
+	}
+
+	private static String perPage(long lBytes, long lNanos, long lPages)
+	{
+		return (lBytes / lPages) + " B " + (lNanos / lPages) + " ns";
+	}
+}
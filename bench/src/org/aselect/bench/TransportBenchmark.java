@@ -0,0 +1,291 @@
+/*
+ * * Copyright (c) Anoigo. All rights reserved.
+ *
+ * A-Select is a trademark registered by SURFnet bv.
+ *
+ * This program is distributed under the EUPL 1.0 (http://osor.eu/eupl)
+ * See the included LICENSE file for details.
+ *
+ * If you did not receive a copy of the LICENSE
+ * please contact Anoigo. (http://www.anoigo.nl)
+ */
+package org.aselect.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.aselect.system.communication.DataCommunicator;
+import org.aselect.system.communication.client.HttpTransport;
+import org.aselect.system.communication.client.raw.RawCommunicator;
+import org.aselect.system.configmanager.ConfigManager;
+import org.aselect.system.exception.ASelectException;
+import org.aselect.system.logging.SystemLogger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Benchmark of the client communicators against a local HTTP server. <br>
+ * <br>
+ * <b>Description:</b> <br>
+ * Starts a <code>com.sun.net.httpserver</code> server on the loopback interface, which counts the client ports it
+ * sees (the TCP connections) and the requests it handles at the same time. Then it measures:
+ * <ol>
+ * <li>post: the time per <code>DataCommunicator.dataComSend()</code> and the connections used.</li>
+ * <li>errors: the connections used by 20 responses with status 500 followed by 20 with status 200.</li>
+ * <li>raw: the same as post for <code>RawCommunicator.sendMessage()</code>.</li>
+ * <li>limit: the largest number of requests active at the server, for posts from 8 threads to a server that takes
+ * 100 ms per request.</li>
+ * <li>timeout: when a post fails on a server that takes 2 s.</li>
+ * </ol>
+ * The server sends without delay (<code>sun.net.httpserver.nodelay</code>), otherwise every call waits for a
+ * delayed ACK. The {@link HttpTransport} is initialized from the <code>aselect</code> section of the configuration,
+ * which sets <code>http_max_per_host</code> and the timeouts. Running this class with the communicators of a tree
+ * before the transport gives the old numbers. <br>
+ * <br>
+ * <code>ant bench -Dbench.class=TransportBenchmark -Dbench.args="bench/bench.xml 2000"</code> <br>
+ * The arguments are the configuration file and optionally the number of calls per step (2000). <br>
+ * <br>
+ * <b>Concurrency issues:</b> <br>
+ * The limit step uses 8 threads, the server handles requests on 16 threads. <br>
+ *
+ * @author Anoigo
+ */
+public class TransportBenchmark
+{
+	private static final String MODULE = "TransportBenchmark";
+
+	private static final String RESPONSE = "result=0000&a=b";
+
+	/** Calls per status in the errors step, every error is logged as a warning */
+	private static final int ERRORS = 20;
+
+	private final SystemLogger _oSystemLogger;
+	private final Set<Integer> _setPorts = new ConcurrentHashMap<Integer, Boolean>().keySet(Boolean.TRUE);
+	private final AtomicInteger _iActive = new AtomicInteger();
+	private final AtomicInteger _iMaxActive = new AtomicInteger();
+	private volatile int _iDelay = 0;
+
+	/**
+	 * Run the benchmark.
+	 *
+	 * @param args
+	 *            configuration file, [calls]
+	 * @throws Exception
+	 *             if the server can not be started
+	 */
+	public static void main(String[] args)
+	throws Exception
+	{
+		if (args.length < 1) {
+			System.err.println("Usage: " + MODULE + " <config file> [calls]");
+			System.exit(1);
+		}
+		int iCalls = (args.length > 1) ? Integer.parseInt(args[1]) : 2000;
+		// The server writes the headers and the body separately, without this every call waits for a delayed ACK
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+
+		SystemLogger oSystemLogger = WarningLogger.install();
+		ConfigManager oConfigManager = new ConfigManager();
+		oConfigManager.init(args[0], oSystemLogger);
+		HttpTransport.init(oConfigManager, oSystemLogger, oConfigManager.getSection(null, "aselect"));
+		System.out.println(MODULE + ": calls=" + iCalls);
+		new TransportBenchmark(oSystemLogger).run(iCalls);
+	}
+
+	/**
+	 * Instantiates a benchmark.
+	 *
+	 * @param oSystemLogger
+	 *            the logger of the communicators
+	 */
+	public TransportBenchmark(SystemLogger oSystemLogger) {
+		_oSystemLogger = oSystemLogger;
+	}
+
+	/**
+	 * Start the server and run the steps.
+	 *
+	 * @param iCalls
+	 *            the number of calls per step
+	 * @throws Exception
+	 *             if a call fails
+	 */
+	public void run(int iCalls)
+	throws Exception
+	{
+		HttpServer oServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 50);
+		ExecutorService oServerThreads = Executors.newFixedThreadPool(16);
+		oServer.setExecutor(oServerThreads);
+		oServer.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange oExchange)
+			throws IOException
+			{
+				handleRequest(oExchange);
+			}
+		});
+		oServer.start();
+		String sUrl = "http://127.0.0.1:" + oServer.getAddress().getPort() + "/bench";
+		try {
+			for (int iRound = 0; iRound < 2; iRound++) {
+				_setPorts.clear();
+				long lStart = System.nanoTime();
+				for (int i = 0; i < iCalls; i++) {
+					String sResponse = DataCommunicator.dataComSend(_oSystemLogger, "msg", sUrl, null, null, null);
+					if (!RESPONSE.equals(sResponse))
+						throw new IllegalStateException("Unexpected response: " + sResponse);
+				}
+				report("post round " + iRound, lStart, iCalls);
+			}
+
+			_setPorts.clear();
+			for (int i = 0; i < ERRORS; i++) {
+				DataCommunicator.dataComSend(_oSystemLogger, "msg", sUrl + "?fail=1", null, null, null);
+			}
+			for (int i = 0; i < ERRORS; i++) {
+				DataCommunicator.dataComSend(_oSystemLogger, "msg", sUrl, null, null, null);
+			}
+			System.out.println("  errors: " + ERRORS + " x 500 and " + ERRORS + " x 200 connections=" + _setPorts.size());
+
+			RawCommunicator oRaw = new RawCommunicator(_oSystemLogger);
+			_setPorts.clear();
+			long lStart = System.nanoTime();
+			for (int i = 0; i < iCalls; i++) {
+				HashMap<String, Object> htRequest = new HashMap<String, Object>();
+				htRequest.put("request", "bench");
+				HashMap htResponse = oRaw.sendMessage(htRequest, sUrl);
+				if (!"b".equals(htResponse.get("a")))
+					throw new IllegalStateException("Unexpected response: " + htResponse);
+			}
+			report("raw", lStart, iCalls);
+
+			limit(sUrl.replace("127.0.0.1", "localhost"));
+			timeout(sUrl.replace("127.0.0.1", "localhost"));
+			for (Map.Entry<String, String> oEntry : HttpTransport.getStatistics().entrySet()) {
+				System.out.println("  " + oEntry.getKey() + ": " + oEntry.getValue());
+			}
+		}
+		finally {
+			oServer.stop(0);
+			oServerThreads.shutdownNow();
+		}
+	}
+
+	/**
+	 * Answer a request, with status 500 when the query contains "fail".
+	 */
+	private void handleRequest(HttpExchange oExchange)
+	throws IOException
+	{
+		_setPorts.add(Integer.valueOf(oExchange.getRemoteAddress().getPort()));
+		int iActive = _iActive.incrementAndGet();
+		for (int iMax = _iMaxActive.get(); iActive > iMax && !_iMaxActive.compareAndSet(iMax, iActive);) {
+			iMax = _iMaxActive.get();
+		}
+		try {
+			InputStream isRequest = oExchange.getRequestBody();
+			while (isRequest.read() >= 0) {
+				// read the request
+			}
+			if (_iDelay > 0) {
+				try {
+					Thread.sleep(_iDelay);
+				}
+				catch (InterruptedException e) {
+					// stopping
+				}
+			}
+			String sQuery = oExchange.getRequestURI().getQuery();
+			boolean bFail = (sQuery != null && sQuery.contains("fail"));
+			byte[] baResponse = (bFail ? "server error" : RESPONSE).getBytes(StandardCharsets.UTF_8);
+			oExchange.sendResponseHeaders(bFail ? 500 : 200, baResponse.length);
+			OutputStream osResponse = oExchange.getResponseBody();
+			osResponse.write(baResponse);
+		}
+		finally {
+			_iActive.decrementAndGet();
+			oExchange.close();
+		}
+	}
+
+	/**
+	 * Post from 8 threads to a slow server and print the largest number of active requests.
+	 */
+	private void limit(final String sUrl)
+	throws InterruptedException
+	{
+		_iDelay = 100;
+		_iMaxActive.set(0);
+		final AtomicInteger iFailed = new AtomicInteger();
+		Thread[] aThreads = new Thread[8];
+		for (int i = 0; i < aThreads.length; i++) {
+			aThreads[i] = new Thread(MODULE + "-" + i) {
+				@Override
+				public void run()
+				{
+					for (int j = 0; j < 5; j++) {
+						try {
+							DataCommunicator.dataComSend(_oSystemLogger, "msg", sUrl, null, null, null);
+						}
+						catch (Exception e) {
+							iFailed.incrementAndGet();
+						}
+					}
+				}
+			};
+		}
+		long lStart = System.nanoTime();
+		for (Thread oThread : aThreads) {
+			oThread.start();
+		}
+		for (Thread oThread : aThreads) {
+			oThread.join();
+		}
+		_iDelay = 0;
+		System.out.println("  limit: 8 threads x 5 posts, max active at the server=" + _iMaxActive.get() + " failed="
+				+ iFailed.get() + " time=" + (System.nanoTime() - lStart) / 1000000 + "ms");
+	}
+
+	/**
+	 * Post to a server that does not answer in time and print when the call fails.
+	 */
+	private void timeout(String sUrl)
+	{
+		_iDelay = 2000;
+		long lStart = System.nanoTime();
+		String sResult;
+		try {
+			DataCommunicator.dataComSend(_oSystemLogger, "msg", sUrl, null, null, null);
+			sResult = "answered";
+		}
+		catch (ASelectException e) {
+			sResult = "failed with " + e.getMessage();
+		}
+		catch (IOException e) {
+			sResult = "failed with " + e;
+		}
+		_iDelay = 0;
+		System.out.println("  timeout: " + sResult + " after " + (System.nanoTime() - lStart) / 1000000 + "ms");
+	}
+
+	/**
+	 * Print the time per call and the connections used.
+	 */
+	private void report(String sStep, long lStart, int iCalls)
+	{
+		System.out.println("  " + sStep + ": calls=" + iCalls + " connections=" + _setPorts.size() + " "
+				+ (System.nanoTime() - lStart) / 1000 / iCalls + " us/call");
+	}
+}
@@ -0,0 +1,77 @@
+/*
+ * * Copyright (c) Anoigo. All rights reserved.
+ *
+ * A-Select is a trademark registered by SURFnet bv.
+ *
+ * This program is distributed under the EUPL 1.0 (http://osor.eu/eupl)
+ * See the included LICENSE file for details.
+ *
+ * If you did not receive a copy of the LICENSE
+ * please contact Anoigo. (http://www.anoigo.nl)
+ */
+package org.aselect.bench;
+
+import java.util.logging.Level;
+
+import org.aselect.system.logging.SystemLogger;
+import org.aselect.system.logging.SystemLogger_org;
+
+/**
+ * System logger of the benchmarks, only logs warnings and errors. <br>
+ * <br>
+ * <b>Description:</b> <br>
+ * The benchmarks do not initialize a log target, so every message would go to the console and the log calls would
+ * dominate the measurements. {@link #install()} makes this class the logger behind every {@link SystemLogger} created
+ * afterwards, including the singletons of the server such as the <code>ASelectSystemLogger</code>, so the console
+ * shows the reports. <br>
+ * <br>
+ * <b>Concurrency issues:</b> <br>
+ * Thread-safe. <br>
+ *
+ * @author Anoigo
+ */
+public class WarningLogger extends SystemLogger_org
+{
+	/** The property used by the {@link SystemLogger} to find its logger class */
+	private static final String PROPERTY_SYSTEM_LOGGER = "org.aselect.system.logging.SystemLogger";
+
+	/**
+	 * Make this class the logger of all system loggers created from now on. Call it before any A-Select class logs.
+	 *
+	 * @return a system logger for the benchmark itself
+	 */
+	public static SystemLogger install()
+	{
+		System.setProperty(PROPERTY_SYSTEM_LOGGER, WarningLogger.class.getName());
+		return new SystemLogger();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.logging.SystemLogger_org#isLoggable(java.util.logging.Level)
+	 */
+	@Override
+	public boolean isLoggable(Level level)
+	{
+		return level.intValue() >= Level.WARNING.intValue();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.logging.SystemLogger_org#log(java.util.logging.Level, java.lang.String)
+	 */
+	@Override
+	public void log(Level level, String sMessage)
+	{
+		if (isLoggable(level))
+			super.log(level, sMessage);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.logging.SystemLogger_org#log(java.util.logging.Level, java.lang.String, java.lang.Throwable)
+	 */
+	@Override
+	public void log(Level level, String sMessage, Throwable cause)
+	{
+		if (isLoggable(level))
+			super.log(level, sMessage, cause);
+	}
+}
@@ -112,6 +112,8 @@ import org.aselect.authspserver.log.AuthSPAuthenticationLogger;
 import org.aselect.authspserver.log.AuthSPSystemLogger;
 import org.aselect.authspserver.sam.AuthSPSAMAgent;
 import org.aselect.authspserver.session.AuthSPSessionManager;
+import org.aselect.system.communication.client.HttpTransport;
+import org.aselect.system.db.connection.impl.PoolingConnectionHandler;
 import org.aselect.system.error.Errors;
 import org.aselect.system.exception.ASelectConfigException;
 import org.aselect.system.exception.ASelectException;
@@ -342,6 +344,8 @@ public class AuthSPServlet extends ASelectHttpServlet
 				}
 			}
 			_systemLogger.log(Level.FINEST, MODULE, sMethod, "file_cache_keep="+FileCache.getFileCacheKeep());
+			HttpTransport.init(oAuthSPConfigManager, _systemLogger, oAuthSPServerConfig);
+			FileCache.loadAll(sWorkingDir + File.separator + "conf", _systemLogger);
 
 			// Remove the instances, if their already is one.
 			// For restarting purposes.
@@ -512,6 +516,7 @@ public class AuthSPServlet extends ASelectHttpServlet
 	private void closeResources()
 	{
 		AuthSPSAMAgent.getHandle().destroy();
+		FileCache.stop();
 		if (_oAuthSPSessionManager != null) {
 			_oAuthSPSessionManager.destroy();
 			_oAuthSPSessionManager = null;
@@ -531,6 +536,8 @@ public class AuthSPServlet extends ASelectHttpServlet
 			_authenticationLogger.closeHandlers();
 			_authenticationLogger = null;
 		}
+		// after the authentication logger, which may still write its queue to a pool
+		PoolingConnectionHandler.closeAll();
 		if (_systemLogger != null) {
 			_systemLogger.closeHandlers();
 			_systemLogger = null;
@@ -60,6 +60,8 @@ public class HttpSensor extends BasicSensorHandler
 	// Receive data from an external process, takes the form of an HTTP GET request.
 	// The GET parameters are: request=store&data=<value>
 	// The <value>'s are stored and a running average is maintained.
+	// A sender that combines several values also passes total=<sum>&count=<number>,
+	// they are then counted as <number> values instead of a single <value>.
 	// Clients can then ask how well the process performs using the SensorDataDispatcher class.
 	
 	/* (non-Javadoc)
@@ -91,8 +93,13 @@ public class HttpSensor extends BasicSensorHandler
 				if (sData != null && !"".equals(sData)) {
 					_oLbSensorLogger.log(Level.INFO, MODULE, sMethod, "DATA [" + sData + "]");
 					try {
-						long lValue = Integer.parseInt(sData);
-						_myStore.addData(lValue);
+						String sTotal = hmAttribs.get("total");
+						String sCount = hmAttribs.get("count");
+						int iCount = (sTotal != null && sCount != null) ? Integer.parseInt(sCount) : 0;
+						if (iCount > 0)
+							_myStore.addData(Long.parseLong(sTotal), iCount);
+						else
+							_myStore.addData(Integer.parseInt(sData));
 						_oLbSensorLogger.log(Level.INFO, MODULE, sMethod, "Average now: " + _myStore.getAverage());
 
 						// Reset the timer, if we don't get data in time, the poller will check the server
@@ -52,6 +52,19 @@ public class SensorStore
 	 *            the value to be stored
 	 */
 	public void addData(long lValue)
+	{
+		addData(lValue, 1);
+	}
+
+	/**
+	 * Adds a number of values at once.
+	 * 
+	 * @param lTotal
+	 *            the sum of the values
+	 * @param iCount
+	 *            the number of values
+	 */
+	public void addData(long lTotal, int iCount)
 	{
 		String sMethod = "addData";
 		String sAvgList = "";
@@ -68,8 +81,8 @@ public class SensorStore
 			iaValues[0] = 0;
 			lLastNow = now;
 		}
-		iaValues[0] += lValue;
-		iaCount[0]++;
+		iaValues[0] += lTotal;
+		iaCount[0] += iCount;
 
 		for (int i = 0; i < iaCount.length; i++) {
 			sAvgList += " [" + i + "]" + iaValues[i] + "/" + iaCount[i];
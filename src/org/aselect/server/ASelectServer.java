@@ -199,10 +199,13 @@ import org.aselect.server.sam.ASelectSAMAgent;
 import org.aselect.server.session.SessionManager;
 import org.aselect.server.tgt.TGTManager;
 import org.aselect.system.configmanager.ConfigManager;
+import org.aselect.system.db.connection.impl.PoolingConnectionHandler;
 import org.aselect.system.error.Errors;
 import org.aselect.system.exception.ASelectConfigException;
 import org.aselect.system.exception.ASelectException;
 import org.aselect.system.servlet.ASelectHttpServlet;
+import org.aselect.system.storagemanager.LbSensorQueue;
+import org.aselect.system.utils.FileCache;
 import org.aselect.system.utils.Utils;
 import org.aselect.system.utils.crypto.Auxiliary;
 
@@ -609,6 +612,8 @@ public class ASelectServer extends ASelectHttpServlet
 		try { java.lang.Thread.sleep(1000);	} catch (InterruptedException e) {}
 		_systemLogger.log(Level.INFO, MODULE, sMethod, "Stop Crypto"); 
 		_cryptoEngine.stop();
+		LbSensorQueue.getHandle().stop();
+		FileCache.stop();
 		
 		_systemLogger.log(Level.INFO, MODULE, sMethod, "TimerSensor thread="+_timerSensorThread+" nReq="+_numRequests);
 		if (_timerSensorThread != null) {
@@ -631,6 +636,8 @@ public class ASelectServer extends ASelectHttpServlet
 			_authenticationLogger.closeHandlers();
 			_authenticationLogger = null;
 		}
+		// after the authentication logger, which may still write its queue to a pool
+		PoolingConnectionHandler.closeAll();
 		if (_systemLogger != null) {
 			_systemLogger.closeHandlers();
 			_systemLogger = null;
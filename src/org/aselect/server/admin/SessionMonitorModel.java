@@ -61,7 +61,7 @@ package org.aselect.server.admin;
 
 import java.util.Date;
 import java.util.HashMap;
-import java.util.Set;
+import java.util.List;
 import java.util.logging.Level;
 
 import javax.swing.table.AbstractTableModel;
@@ -373,8 +373,9 @@ public class SessionMonitorModel extends AbstractTableModel implements Runnable
 	 * Retrieve the current A-Select Session information. <br>
 	 * <br>
 	 * <b>Description: </b> <br>
-	 * This function retrieves the session context using _oSessionManager.getSessionContexts() and copies the session
-	 * information into the local session array _saSessions. <br>
+	 * This function retrieves at most _saSessions.length session keys using _oSessionManager.getKeys(), stores them in
+	 * the local session array _saSessions and retrieves their session contexts. Sessions that expire in the meantime
+	 * are skipped. <br>
 	 * <br>
 	 * <b>Concurrency issues: </b> <br>
 	 * none <br>
@@ -388,16 +389,19 @@ public class SessionMonitorModel extends AbstractTableModel implements Runnable
 	private void getServerStatus()
 	{
 		try {
-			_htSessionContexts = _oSessionManager.getAll();
-
+			// Only fetch the sessions that can be displayed
+			List lKeys = _oSessionManager.getKeys(0, _saSessions.length);
+			HashMap htSessionContexts = new HashMap();
 			int i = 0;
-			Set keys = _htSessionContexts.keySet();
-			for (Object s : keys) {
-				// Enumeration enumSessionContexts = _htSessionContexts.keys();
-				// while (enumSessionContexts.hasMoreElements())
-				// {
-				_saSessions[i++] = (String) s;
+			for (Object s : lKeys) {
+				try {
+					htSessionContexts.put(s, _oSessionManager.get(s));
+					_saSessions[i++] = (String) s;
+				}
+				catch (ASelectStorageException e) {  // removed in the meantime
+				}
 			}
+			_htSessionContexts = htSessionContexts;
 		}
 		catch (Exception e) {
 			ASelectSystemLogger.getHandle().log(Level.WARNING, MODULE, "getServerStatus",
@@ -54,7 +54,7 @@ package org.aselect.server.admin;
 
 import java.util.Date;
 import java.util.HashMap;
-import java.util.Set;
+import java.util.List;
 import java.util.logging.Level;
 
 import javax.swing.table.AbstractTableModel;
@@ -321,8 +321,8 @@ public class TGTMonitorModel extends AbstractTableModel implements Runnable
 	 * Retrieve the current A-Select TGT information. <br>
 	 * <br>
 	 * <b>Description: </b> <br>
-	 * This function retrieves the TGT context using _oTGTManager.getTGTContexts() and copies the TGT information into
-	 * the local TGT array _saTGTs. <br>
+	 * This function retrieves at most _saTGTs.length TGT keys using _oTGTManager.getKeys(), stores them in the local
+	 * TGT array _saTGTs and retrieves their TGT contexts. TGTs that expire in the meantime are skipped. <br>
 	 * <br>
 	 * <b>Concurrency issues: </b> <br>
 	 * none <br>
@@ -336,16 +336,19 @@ public class TGTMonitorModel extends AbstractTableModel implements Runnable
 	private void getServerStatus()
 	{
 		try {
-			_htTGTContexts = _oTGTManager.getAll();
-
+			// Only fetch the TGTs that can be displayed
+			List lKeys = _oTGTManager.getKeys(0, _saTGTs.length);
+			HashMap htTGTContexts = new HashMap();
 			int i = 0;
-			Set keys = _htTGTContexts.keySet();
-			for (Object s : keys) {
-				// Enumeration _enumTGTContexts = _htTGTContexts.keys();
-				// while (_enumTGTContexts.hasMoreElements())
-				// {
-				_saTGTs[i++] = (String) s;
+			for (Object s : lKeys) {
+				try {
+					htTGTContexts.put(s, _oTGTManager.get(s));
+					_saTGTs[i++] = (String) s;
+				}
+				catch (ASelectStorageException e) {  // removed in the meantime
+				}
 			}
+			_htTGTContexts = htTGTContexts;
 		}
 		catch (Exception e) {
 			ASelectSystemLogger.getHandle().log(Level.WARNING, MODULE, "getServerStatus",
@@ -242,6 +242,8 @@ import java.security.MessageDigest;
 import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Vector;
 import java.util.concurrent.ConcurrentHashMap;
@@ -260,6 +262,7 @@ import org.aselect.server.log.ASelectSystemLogger;
 import org.aselect.server.request.HandlerTools;
 import org.aselect.server.sam.ASelectSAMAgent;
 import org.aselect.server.udb.IUDBConnector;
+import org.aselect.system.communication.client.HttpTransport;
 import org.aselect.system.configmanager.ConfigManager;
 import org.aselect.system.error.Errors;
 import org.aselect.system.exception.ASelectConfigException;
@@ -267,6 +270,7 @@ import org.aselect.system.exception.ASelectException;
 import org.aselect.system.exception.ASelectSAMException;
 import org.aselect.system.exception.ASelectUDBException;
 import org.aselect.system.utils.FileCache;
+import org.aselect.system.utils.HtmlTemplate;
 import org.aselect.system.utils.Utils;
 
 /**
@@ -630,6 +634,7 @@ public class ASelectConfigManager extends ConfigManager
 				throw new ASelectException(Errors.ERROR_ASELECT_INIT_ERROR, e);
 			}
 		}
+		HttpTransport.init(this, _systemLogger, _oASelectConfigSection);
 		// In a redundant environment a domain cookie wil be set.
 		// This way, all A-Select servers in, for example:
 		// .aselect.domain.com, will receive the TGT cookie from the
@@ -1257,16 +1262,37 @@ public class ASelectConfigManager extends ConfigManager
 	public String updateTemplate(String sTemplate, HashMap htSessionContext, HttpServletRequest servletRequest)
 	throws ASelectException
 	{
-		String sMethod = "updateTemplate";
-		String sReturn = null;
+		LinkedHashMap<String, String> htValues = new LinkedHashMap<String, String>();
+		addTemplateValues(htValues, htSessionContext, servletRequest);
+		String sReturn = sTemplate;
+		for (Map.Entry<String, String> entry : htValues.entrySet())
+			sReturn = Utils.replaceString(sReturn, entry.getKey(), entry.getValue());
+		return sReturn;
+	}
+
+	/**
+	 * Add the values of the requestor tags for an {@link HtmlTemplate}. <br>
+	 * <br>
+	 * <b>Description:</b> <br>
+	 * Same tags as {@link #updateTemplate(String, HashMap, HttpServletRequest)}. A tag that already has a value is
+	 * not changed, just like an earlier <code>Utils.replaceString()</code> call would have replaced it first. <br>
+	 * 
+	 * @param htValues
+	 *            the values by tag
+	 * @param htSessionContext
+	 *            containing the session information
+	 * @param servletRequest
+	 *            the servlet request
+	 */
+	public void addTemplateValues(Map<String, String> htValues, HashMap htSessionContext, HttpServletRequest servletRequest)
+	{
+		String sMethod = "addTemplateValues";
 		String sFriendlyName = "";
 		String sMaintainerEmail = "";
 		String sUrl = "";
 		String sRid = "";	// RH, 20180302, n
 
 		try {
-			sReturn = sTemplate;
-
 			// Get tag info from the session
 			if (htSessionContext != null) {
 				String sLocalOrganization = (String) htSessionContext.get("local_organization");
@@ -1307,19 +1333,17 @@ public class ASelectConfigManager extends ConfigManager
 			if (sFriendlyName == null) {
 				sFriendlyName = "";
 			}
-			sReturn = Utils.replaceString(sReturn, TAG_FRIENLDY_NAME, sFriendlyName);
-
 			if (sMaintainerEmail == null)
 				sMaintainerEmail = "";
-			sReturn = Utils.replaceString(sReturn, TAG_MAINTAINER_EMAIL, sMaintainerEmail);
-
 			if (sUrl == null)
 				sUrl = "";
-			sReturn = Utils.replaceString(sReturn, TAG_SHOW_URL, sUrl);
+			putTemplateValue(htValues, TAG_FRIENLDY_NAME, sFriendlyName);
+			putTemplateValue(htValues, TAG_MAINTAINER_EMAIL, sMaintainerEmail);
+			putTemplateValue(htValues, TAG_SHOW_URL, sUrl);
 
 			// RH, 20180302, sn
 			if (Utils.hasValue(sRid)) {
-				sReturn = Utils.replaceString(sReturn, TAG_RID, sRid);
+				putTemplateValue(htValues, TAG_RID, sRid);
 			}
 			// RH, 20180302, en
 		}
@@ -1328,7 +1352,12 @@ public class ASelectConfigManager extends ConfigManager
 			// 20130502, Bauke: don't throw an exception during error handling
 			//throw new ASelectException(Errors.ERROR_ASELECT_INTERNAL_ERROR);
 		}
-		return sReturn;
+	}
+
+	private static void putTemplateValue(Map<String, String> htValues, String sTag, String sValue)
+	{
+		if (htValues.get(sTag) == null)
+			htValues.put(sTag, sValue);
 	}
 
 	/**
@@ -1734,6 +1763,7 @@ public class ASelectConfigManager extends ConfigManager
 		String sMethod = "loadAllHTMLTemplates";
 
 		try {
+			FileCache.loadAll(sWorkingDir + File.separator + "conf", _systemLogger);
 			Utils.loadTemplateFromFile(_systemLogger, sWorkingDir, null, "serverinfo.html", ""/*language*/, _sOrgFriendlyName, Version.getVersion());
 			Utils.loadTemplateFromFile(_systemLogger, sWorkingDir, null, "userinfo.html", "", _sOrgFriendlyName, Version.getVersion());
 			Utils.loadTemplateFromFile(_systemLogger, sWorkingDir, null, "loggedout.html", "", _sOrgFriendlyName, Version.getVersion());
@@ -88,15 +88,18 @@
 
 package org.aselect.server.crypto;
 
+import java.security.GeneralSecurityException;
 import java.security.PrivateKey;
 import java.security.Provider;
 import java.security.PublicKey;
 import java.security.SecureRandom;
 import java.security.Signature;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 
 import javax.crypto.Cipher;
@@ -120,6 +123,10 @@ import org.aselect.system.utils.crypto.Auxiliary;
 
 /**
  * This class contains crypto-related (helper) methods. It is thread-safe. <br>
+ * <br>
+ * <b>Concurrency issues:</b> <br>
+ * <code>Cipher</code> and <code>Signature</code> objects are not thread-safe, every thread gets its own instances
+ * which are re-initialized on each use. The public methods are therefore not synchronized. <br>
  * 
  * @author Alfa & Ariss
  */
@@ -140,9 +147,27 @@ public class CryptoEngine
 
 	private SecretKey _secretKey;
 	private SecretKey _encryptionKey;  // 20130411, Bauke: used for symmetric encryption, key taken from config file
-	private Cipher _cipher;
 	private SecureRandom _secureRandom;
 
+	// Per thread Cipher and Signature instances, keyed by provider and algorithm
+	private final ThreadLocal<HashMap<String, Cipher>> _tlCiphers = new ThreadLocal<HashMap<String, Cipher>>() {
+		@Override
+		protected HashMap<String, Cipher> initialValue()
+		{
+			return new HashMap<String, Cipher>();
+		}
+	};
+	private final ThreadLocal<HashMap<String, Signature>> _tlSignatures = new ThreadLocal<HashMap<String, Signature>>() {
+		@Override
+		protected HashMap<String, Signature> initialValue()
+		{
+			return new HashMap<String, Signature>();
+		}
+	};
+
+	// AuthSP public keys per alias: <alias>.public_key, <alias>1.public_key, ...
+	private final ConcurrentHashMap<String, PublicKey[]> _htAuthspPublicKeys = new ConcurrentHashMap<String, PublicKey[]>();
+
 	private String _sSecureRandomAlgorithm = null;
 	private Provider _oSecureRandomProvider = null;
 
@@ -280,10 +305,8 @@ public class CryptoEngine
 			// Obtain algorithm for encryption and create a cipher
 			readEncryptionConfig(oCryptoSection, htProviders);
 			_systemLogger.log(Level.FINE, MODULE, sMethod, "get cipher");
-			if (_oCipherProvider != null)
-				_cipher = Cipher.getInstance(_sCipherAlgorithm, _oCipherProvider);
-			else
-				_cipher = Cipher.getInstance(_sCipherAlgorithm);
+			getCipher(_sCipherAlgorithm, _oCipherProvider);	// fail early on a bad algorithm
+			getSignature(null);
 
 			// Obtain algorithm for the random generator
 			_systemLogger.log(Level.INFO, MODULE, sMethod, "random generator config");
@@ -306,6 +329,7 @@ public class CryptoEngine
 			// Get public/private keys from ConfigManager
 			_defaultPrivateKey = _configManager.getDefaultPrivateKey();
 			_htAuthspSettings = _configManager.getAuthspSettings();
+			_htAuthspPublicKeys.clear();
 
 			// Init the storage manager
 			_systemLogger.log(Level.INFO, MODULE, sMethod, "init storagemanager");
@@ -369,18 +393,14 @@ public class CryptoEngine
 	 *            The data's signature
 	 * @return <code>true</code> if verification was succesful, <code>false</code> otherwise
 	 */
-	public synchronized boolean verifyPrivilegedSignature(String sAlias, String sData, String sSignature)
+	public boolean verifyPrivilegedSignature(String sAlias, String sData, String sSignature)
 	{
 
 		String sMethod = "verifyPrivilegedSignature";
 		PublicKey oPublicKey = null;
 		boolean bVerified = false;
 		try {
-			Signature oSignature = null;
-			if (_oSignatureProvider != null)
-				oSignature = Signature.getInstance(_sSignatureAlgorithm, _oSignatureProvider);
-			else
-				oSignature = Signature.getInstance(_sSignatureAlgorithm);
+			Signature oSignature = getSignature(null);
 
 			sAlias = sAlias.toLowerCase();
 			oPublicKey = _configManager.getPrivilegedPublicKey(sAlias);
@@ -423,53 +443,33 @@ public class CryptoEngine
 	 *            The data's signature
 	 * @return <code>true</code> if verification was succesful, <code>false</code> otherwise
 	 */
-	public synchronized boolean verifySignature(String sAlias, String sData, String sSignature)
+	public boolean verifySignature(String sAlias, String sData, String sSignature)
 	{
 		String sMethod = "verifySignature";
-		PublicKey oPublicKey = null;
-		int iLoop = 0;
 		boolean bVerified = false;
 //		_systemLogger.log(Level.FINEST, MODULE, sMethod, "==== VS alias="+sAlias + " data="+sData);
 		_systemLogger.log(Level.FINEST, MODULE, sMethod, "==== VS alias="+sAlias + " data="+"...");
 		try {
-			Signature oSignature = null;
-			if (_oSignatureProvider != null)
-				oSignature = Signature.getInstance(_sSignatureAlgorithm, _oSignatureProvider);
-			else
-				oSignature = Signature.getInstance(_sSignatureAlgorithm);
-
-			_systemLogger.log(Level.FINEST, MODULE, sMethod, "==== VS _htAuthspSettings=\n"+_htAuthspSettings );
+			Signature oSignature = getSignature(null);
 
 			sAlias = sAlias.toLowerCase();
-			while (!bVerified && (iLoop == 0 || oPublicKey != null)) {
-				if (iLoop == 0) {
-					_systemLogger.log(Level.FINE, MODULE, sMethod, "Looking for public key with alias " + sAlias);
-					oPublicKey = (PublicKey) _htAuthspSettings.get(sAlias + ".public_key");
-				}
-				else {
-					_systemLogger.log(Level.FINE, MODULE, sMethod, "Looking for public key with alias " + sAlias + iLoop);
-					oPublicKey = (PublicKey) _htAuthspSettings.get(sAlias + iLoop + ".public_key");
-				}
-
-				if (oPublicKey == null) {
-//					_systemLogger.log(Level.FINE, MODULE, sMethod, "could not find public key with alias " + sAlias);// RH, 20180405, 0
-					_systemLogger.log(Level.FINE, MODULE, sMethod, "Could not find public key with alias " + sAlias + 
-							(iLoop == 0 ? "" : iLoop));// RH, 20180405, n
-					bVerified = false;
-				}
-				else {
-					oSignature.initVerify(oPublicKey);
-					oSignature.update(sData.getBytes());
-					_systemLogger.log(Level.FINEST, MODULE, sMethod, "==== VS oSignature="+oSignature.toString() );
+			PublicKey[] aPublicKeys = getAuthspPublicKeys(sAlias);
+			if (aPublicKeys.length == 0) {
+				_systemLogger.log(Level.FINE, MODULE, sMethod, "Could not find public key with alias " + sAlias);
+			}
+			byte[] xRawSignature = null;
+			for (int iLoop = 0; !bVerified && iLoop < aPublicKeys.length; iLoop++) {
+				_systemLogger.log(Level.FINE, MODULE, sMethod, "Using public key with alias " + sAlias + (iLoop == 0 ? "" : iLoop));
+				oSignature.initVerify(aPublicKeys[iLoop]);
+				oSignature.update(sData.getBytes());
+				_systemLogger.log(Level.FINEST, MODULE, sMethod, "==== VS oSignature="+oSignature.toString() );
 
+				if (xRawSignature == null) {
 					BASE64Decoder xDecoder = new BASE64Decoder();
-					byte[] xRawSignature = xDecoder.decodeBuffer(sSignature);
-
-					bVerified = oSignature.verify(xRawSignature);
-					_systemLogger.log(Level.FINE, MODULE, sMethod, "==== VS verify success="+bVerified );
-
-					iLoop++;
+					xRawSignature = xDecoder.decodeBuffer(sSignature);
 				}
+				bVerified = oSignature.verify(xRawSignature);
+				_systemLogger.log(Level.FINE, MODULE, sMethod, "==== VS verify success="+bVerified );
 			}
 		}
 		catch (Exception e) {
@@ -494,18 +494,14 @@ public class CryptoEngine
 	 *            The data's signature
 	 * @return <code>true</code> if verification was succesful, <code>false</code> otherwise
 	 */
-	public synchronized boolean verifyCrossASelectSignature(PublicKey oPublicKey, String sData, String sSignature)
+	public boolean verifyCrossASelectSignature(PublicKey oPublicKey, String sData, String sSignature)
 	{
 		String sMethod = "verifyCrossASelectSignature";
 		// PublicKey oPublicKey = null;
 		boolean bVerified = false;
 		// String sServer = "";
 		try {
-			Signature oSignature = null;
-			if (_oSignatureProvider != null)
-				oSignature = Signature.getInstance(_sSignatureAlgorithm, _oSignatureProvider);
-			else
-				oSignature = Signature.getInstance(_sSignatureAlgorithm);
+			Signature oSignature = getSignature(null);
 
 			oSignature.initVerify(oPublicKey);
 			oSignature.update(sData.getBytes());
@@ -544,11 +540,7 @@ public class CryptoEngine
 //		_systemLogger.log(Level.INFO, MODULE, sMethod, "==== VAS " + baRawSignature); // we don't like bytes in the log
 		_systemLogger.log(Level.INFO, MODULE, sMethod, "==== VAS ");
 		try {
-			Signature oSignature = null;
-			if (_oSignatureProvider != null)
-				oSignature = Signature.getInstance(_sSignatureAlgorithm, _oSignatureProvider);
-			else
-				oSignature = Signature.getInstance(_sSignatureAlgorithm);
+			Signature oSignature = getSignature(null);
 
 			oSignature.initVerify(oPublicKey);
 			oSignature.update(sData.getBytes());
@@ -583,11 +575,7 @@ public class CryptoEngine
 		boolean bVerified = false;
 		_systemLogger.log(Level.INFO, MODULE, sMethod, "==== VAS " + sSignature);
 		try {
-			Signature oSignature = null;
-			if (_oSignatureProvider != null)
-				oSignature = Signature.getInstance(_sSignatureAlgorithm, _oSignatureProvider);
-			else
-				oSignature = Signature.getInstance(_sSignatureAlgorithm);
+			Signature oSignature = getSignature(null);
 
 			oSignature.initVerify(oPublicKey);
 			oSignature.update(sData.getBytes());
@@ -617,7 +605,7 @@ public class CryptoEngine
 	 *            The data to be signed.
 	 * @return The base64 encoded signature
 	 */
-	public synchronized String generateSignature(String sAuthsp, String sData)
+	public String generateSignature(String sAuthsp, String sData)
 	{
 		String sMethod = "CryptoEngine.generateSignature";
 
@@ -637,11 +625,7 @@ public class CryptoEngine
 				oPrivateKey = _defaultPrivateKey;
 			}
 
-			Signature oSignature = null;
-			if (_oSignatureProvider != null)
-				oSignature = Signature.getInstance(_sSignatureAlgorithm, _oSignatureProvider);
-			else
-				oSignature = Signature.getInstance(_sSignatureAlgorithm);
+			Signature oSignature = getSignature(null);
 
 			oSignature.initSign(oPrivateKey);
 			oSignature.update(sData.getBytes());
@@ -671,7 +655,7 @@ public class CryptoEngine
 	 *            Optional signature algoritn
 	 * @return The byte[] signature
 	 */
-	public synchronized byte[] generateSignature(String sAuthsp, byte[] bData, String signAlg)
+	public byte[] generateSignature(String sAuthsp, byte[] bData, String signAlg)
 	{
 		String sMethod = "CryptoEngine.generateSignature";
 
@@ -690,11 +674,7 @@ public class CryptoEngine
 				oPrivateKey = _defaultPrivateKey;
 			}
 
-			Signature oSignature = null;
-			if (_oSignatureProvider != null)
-				oSignature = Signature.getInstance(signAlg != null ? signAlg : _sSignatureAlgorithm, _oSignatureProvider);
-			else
-				oSignature = Signature.getInstance(signAlg != null ? signAlg : _sSignatureAlgorithm);
+			Signature oSignature = getSignature(signAlg);
 
 			oSignature.initSign(oPrivateKey);
 			oSignature.update(bData);
@@ -724,7 +704,7 @@ public class CryptoEngine
 	 *            Which Algorithm to use, e.g. "RSA" or "RSA/ECB/PKCS1Padding"
 	 * @return <code>byte[]</code> if encryption was successful, <code>null</code> otherwise
 	 */
-	public synchronized byte[] RSAEncrypt(String sAlias, byte[] sData, String sAlgorithm)
+	public byte[] RSAEncrypt(String sAlias, byte[] sData, String sAlgorithm)
 	{
 		String sMethod = "RSAEncrypt";
 		PublicKey oPublicKey = null;
@@ -735,7 +715,7 @@ public class CryptoEngine
 			sAlgorithm = "RSA/ECB/PKCS1Padding";	// RH, 20210318, n
 		}
 		try {
-			final Cipher cipher = Cipher.getInstance(sAlgorithm);
+			final Cipher cipher = getCipher(sAlgorithm, null);
 //			_systemLogger.log(Level.FINEST, MODULE, sMethod, "==== ENCRYPT alias="+sAlias + " data="+Arrays.toString(sData));
 			_systemLogger.log(Level.FINEST, MODULE, sMethod, "==== ENCRYPT alias="+sAlias + " data="+"...");
 				sAlias = sAlias.toLowerCase();
@@ -771,7 +751,7 @@ public class CryptoEngine
 	 *            Which Algorithm to use, e.g. "RSA" or "RSA/ECB/PKCS1Padding"
 	 * @return <code>byte[]</code> if encryption was successful, <code>null</code> otherwise
 	 */
-	public synchronized byte[] RSAEncrypt(PublicKey oPublicKey, byte[] sData, String sAlgorithm)
+	public byte[] RSAEncrypt(PublicKey oPublicKey, byte[] sData, String sAlgorithm)
 	{
 		String sMethod = "RSAEncrypt";
 		
@@ -780,7 +760,7 @@ public class CryptoEngine
 			sAlgorithm = "RSA";
 		}
 		try {
-			final Cipher cipher = Cipher.getInstance(sAlgorithm);
+			final Cipher cipher = getCipher(sAlgorithm, null);
 			_systemLogger.log(Level.FINEST, MODULE, sMethod, "==== ENCRYPT pubKey="+oPublicKey + ", alg=" +sAlgorithm + ", data="+"...");
 	
 				if (oPublicKey != null) {
@@ -813,7 +793,7 @@ public class CryptoEngine
 	 * @return The base64 3des encrypted string
 	 * @throws ASelectException 
 	 */
-	public synchronized String generate3DES(String sData, String sKeyBase64) throws ASelectException
+	public String generate3DES(String sData, String sKeyBase64) throws ASelectException
 	{
 		String sMethod = "CryptoEngine.generate3DES";
 
@@ -823,8 +803,9 @@ public class CryptoEngine
 				key = generate3DESKey(sKeyBase64, true);	
 			}
 			
-			_cipher.init(Cipher.ENCRYPT_MODE, key);
-			byte[]encrypted = _cipher.doFinal(sData.getBytes("UTF-8"));
+			Cipher oCipher = getCipher(_sCipherAlgorithm, _oCipherProvider);
+			oCipher.init(Cipher.ENCRYPT_MODE, key);
+			byte[]encrypted = oCipher.doFinal(sData.getBytes("UTF-8"));
 			BASE64Encoder b64enc = new BASE64Encoder();
 			String sBase64rep = b64enc.encode(encrypted);
 			return sBase64rep;
@@ -874,7 +855,7 @@ public class CryptoEngine
 	 * @throws ASelectException
 	 *             If encrypting fails.
 	 */
-	public synchronized String encryptTGT(byte[] baData)
+	public String encryptTGT(byte[] baData)
 	throws ASelectException
 	{
 		return encryptUsingKey(baData, _secretKey);
@@ -889,13 +870,13 @@ public class CryptoEngine
 	 * @throws ASelectException
 	 */
 	// 20130411, Bauke: allow fixed valued key to symmetrically encode/decode data 
-	public synchronized String encryptData(byte[] baData)
+	public String encryptData(byte[] baData)
 	throws ASelectException
 	{
 		return encryptUsingKey(baData, _encryptionKey);
 	}
 
-	private synchronized String encryptUsingKey(byte[] baData, SecretKey secretKey)
+	private String encryptUsingKey(byte[] baData, SecretKey secretKey)
 	throws ASelectException
 	{
 		String sMethod = "encryptUsingKey";
@@ -914,8 +895,9 @@ public class CryptoEngine
 	    secretKey = originalKey;  // Does it work?
 */	
 		try {
-			_cipher.init(Cipher.ENCRYPT_MODE, secretKey);
-			byte[] baEncryped = _cipher.doFinal(baData);
+			Cipher oCipher = getCipher(_sCipherAlgorithm, _oCipherProvider);
+			oCipher.init(Cipher.ENCRYPT_MODE, secretKey);
+			byte[] baEncryped = oCipher.doFinal(baData);
 			String sBase64rep = b64enc.encode(baEncryped);
 			//_systemLogger.log(Level.FINEST, MODULE, sMethod, "encrypted["+sBase64rep+"]");
 			return sBase64rep.replace('+', '-').replace('=', '_').replace('/', '*');	// RH, 20100805, n, '/' is not nice for URLs
@@ -936,7 +918,7 @@ public class CryptoEngine
 	 * @throws ASelectException
 	 *             If decrypting fails.
 	 */
-	public synchronized byte[] decryptTGT(String sEncTgt)
+	public byte[] decryptTGT(String sEncTgt)
 	throws ASelectException
 	{
 		return decryptUsingKey(sEncTgt, _secretKey);
@@ -951,13 +933,13 @@ public class CryptoEngine
 	 * @throws ASelectException
 	 */
 	// 20130411, Bauke: allow fixed valued key to symmetrically encode/decode data 
-	public synchronized byte[] decryptData(String sEncTgt)
+	public byte[] decryptData(String sEncTgt)
 	throws ASelectException
 	{
 		return decryptUsingKey(sEncTgt, _encryptionKey);
 	}
 
-	private synchronized byte[] decryptUsingKey(String sEncodedText, SecretKey secretKey)
+	private byte[] decryptUsingKey(String sEncodedText, SecretKey secretKey)
 	throws ASelectException
 	{
 		String sMethod = "decryptUsingKey";
@@ -970,8 +952,9 @@ public class CryptoEngine
 			
 			//_systemLogger.log(Level.FINEST, MODULE, sMethod, "decrypting["+sEncodedText+"]");
 			byte[] baData = b64dec.decodeBuffer(sEncodedText);
-			_cipher.init(Cipher.DECRYPT_MODE, secretKey);
-			return _cipher.doFinal(baData);
+			Cipher oCipher = getCipher(_sCipherAlgorithm, _oCipherProvider);
+			oCipher.init(Cipher.DECRYPT_MODE, secretKey);
+			return oCipher.doFinal(baData);
 		}
 		catch (Exception e) {
 			_systemLogger.log(Level.WARNING, MODULE, sMethod, "Could not decrypt, bad decryption key or data?");
@@ -979,6 +962,92 @@ public class CryptoEngine
 		}
 	}
 
+	/**
+	 * Get the calling thread's <code>Cipher</code> for the given algorithm. <br>
+	 * <br>
+	 * <b>Concurrency issues:</b> <br>
+	 * The instance is confined to the calling thread, it must be (re)initialized before use. <br>
+	 * 
+	 * @param sAlgorithm
+	 *            the transformation, e.g. "DESede" or "RSA/ECB/PKCS1Padding"
+	 * @param oProvider
+	 *            the provider to use, <code>null</code> for the default provider
+	 * @return the cipher
+	 * @throws GeneralSecurityException
+	 *             if the algorithm or padding is not available
+	 */
+	private Cipher getCipher(String sAlgorithm, Provider oProvider)
+	throws GeneralSecurityException
+	{
+		String sKey = (oProvider == null) ? sAlgorithm : oProvider.getName() + ":" + sAlgorithm;
+		HashMap<String, Cipher> htCiphers = _tlCiphers.get();
+		Cipher oCipher = htCiphers.get(sKey);
+		if (oCipher == null) {
+			if (oProvider != null)
+				oCipher = Cipher.getInstance(sAlgorithm, oProvider);
+			else
+				oCipher = Cipher.getInstance(sAlgorithm);
+			htCiphers.put(sKey, oCipher);
+		}
+		return oCipher;
+	}
+
+	/**
+	 * Get the calling thread's <code>Signature</code> for the given algorithm. <br>
+	 * <br>
+	 * <b>Concurrency issues:</b> <br>
+	 * The instance is confined to the calling thread, it must be (re)initialized before use. <br>
+	 * 
+	 * @param sAlgorithm
+	 *            the signature algorithm, <code>null</code> for the configured algorithm
+	 * @return the signature object
+	 * @throws GeneralSecurityException
+	 *             if the algorithm is not available
+	 */
+	private Signature getSignature(String sAlgorithm)
+	throws GeneralSecurityException
+	{
+		if (sAlgorithm == null)
+			sAlgorithm = _sSignatureAlgorithm;
+		HashMap<String, Signature> htSignatures = _tlSignatures.get();
+		Signature oSignature = htSignatures.get(sAlgorithm);
+		if (oSignature == null) {
+			if (_oSignatureProvider != null)
+				oSignature = Signature.getInstance(sAlgorithm, _oSignatureProvider);
+			else
+				oSignature = Signature.getInstance(sAlgorithm);
+			htSignatures.put(sAlgorithm, oSignature);
+		}
+		return oSignature;
+	}
+
+	/**
+	 * Get the public keys configured for an AuthSP. <br>
+	 * <br>
+	 * <b>Description:</b> <br>
+	 * Returns the keys stored as "&lt;alias&gt;.public_key", "&lt;alias&gt;1.public_key", ... up to the first one
+	 * missing. The result is resolved once per alias. <br>
+	 * 
+	 * @param sAlias
+	 *            the lowercase AuthSP alias
+	 * @return the public keys, possibly empty
+	 */
+	private PublicKey[] getAuthspPublicKeys(String sAlias)
+	{
+		PublicKey[] aPublicKeys = _htAuthspPublicKeys.get(sAlias);
+		if (aPublicKeys == null) {
+			ArrayList<PublicKey> alPublicKeys = new ArrayList<PublicKey>();
+			PublicKey oPublicKey = (PublicKey) _htAuthspSettings.get(sAlias + ".public_key");
+			for (int i = 1; oPublicKey != null; i++) {
+				alPublicKeys.add(oPublicKey);
+				oPublicKey = (PublicKey) _htAuthspSettings.get(sAlias + i + ".public_key");
+			}
+			aPublicKeys = alPublicKeys.toArray(new PublicKey[alPublicKeys.size()]);
+			_htAuthspPublicKeys.put(sAlias, aPublicKeys);
+		}
+		return aPublicKeys;
+	}
+
 	/**
 	 * Retrieve the optional configured AuthSP specific Certificate ID. <br>
 	 * <br>
@@ -24,8 +24,6 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Vector;
 import java.util.logging.Level;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.http.HttpServletRequest;
@@ -34,6 +32,8 @@ import javax.servlet.http.HttpServletResponse;
 import org.aselect.server.config.ASelectConfigManager;
 import org.aselect.server.log.ASelectSystemLogger;
 import org.aselect.server.request.handler.IRequestHandler;
+import org.aselect.server.session.SessionManager;
+import org.aselect.server.session.UnitOfWorkResponse;
 import org.aselect.system.error.Errors;
 import org.aselect.system.utils.Tools;
 import org.aselect.system.utils.Utils;
@@ -60,6 +60,7 @@ public class RequestHandlerFactory
 	private ASelectConfigManager _configManager;
 	private HashMap<String, Object> _htRequestHandlers;
 	private Vector _vRequestHandlers; // keeps the sequence intact
+	private RequestHandlerIndex _oHandlerIndex;  // fast lookup, same result as matching _vRequestHandlers in sequence
 	private boolean firstRun = true;
 
 	/**
@@ -179,6 +180,7 @@ public class RequestHandlerFactory
 
 				oHandler = _configManager.getNextSection(oHandler);
 			}
+			_oHandlerIndex = new RequestHandlerIndex(_vRequestHandlers);
 		}
 		catch (ASelectException e) {
 			throw e;
@@ -221,10 +223,13 @@ public class RequestHandlerFactory
 	throws ASelectException
 	{
 		String sMethod = "process";
-		boolean bMatches = false;
 		IRequestHandler oRequestHandler = null;
 		RequestState oRequestState = null;
 
+		// Session updates of all handlers are written once, before the response is sent
+		SessionManager oSessionManager = SessionManager.getHandle();
+		oSessionManager.beginUnitOfWork();
+		response = new UnitOfWorkResponse(response, oSessionManager);
 		try {
 			String qry = request.getQueryString();
 			_systemLogger.log(Level.FINEST, MODULE, sMethod, "TRY2MATCH " + request.getRequestURI() + ": "
@@ -239,13 +244,9 @@ public class RequestHandlerFactory
 						+ oRequestHandler.getID());
 			}
 			firstRun = false;
-			enumHandlers = _vRequestHandlers.elements();
-			while (enumHandlers.hasMoreElements() && !bMatches) {
-				oRequestHandler = (IRequestHandler) enumHandlers.nextElement();
-				bMatches = matchTarget(request, oRequestHandler.getPattern());
-			}
+			oRequestHandler = findHandler(request);
 
-			if (bMatches && oRequestHandler != null) {
+			if (oRequestHandler != null) {
 				_systemLogger.log(Level.FINEST, MODULE, sMethod, "HANDLE<< oRequestHandler id=" + oRequestHandler.getID());
 				oRequestState = oRequestHandler.process(request, response);
 				_systemLogger.log(Level.FINEST, MODULE, sMethod, ">>HANDLE oRequestHandler id=" + oRequestHandler.getID());
@@ -282,6 +283,9 @@ public class RequestHandlerFactory
 			showErrorPage(request, response, Errors.ERROR_ASELECT_INTERNAL_ERROR);
 			throw new ASelectException(Errors.ERROR_ASELECT_INTERNAL_ERROR, e);
 		}
+		finally {
+			oSessionManager.endUnitOfWork();
+		}
 	}
 
 	/**
@@ -345,65 +349,42 @@ public class RequestHandlerFactory
 	}
 
 	/**
-	 * Matches the request URI to with the configured regular expression. <br>
+	 * Finds the request handler for the request URI. <br>
 	 * <br>
 	 * <b>Description:</b> <br>
-	 * Compares the request URI to the regular expression configured for the request handler <br>
+	 * Looks up the first request handler whose regular expression matches the request URI (without context and servlet
+	 * path) followed by '?' and the query string. The lookup uses the {@link RequestHandlerIndex}, the result is the
+	 * same as matching the handlers in configuration sequence. <br>
 	 * <br>
 	 * <b>Concurrency issues:</b> <br>
 	 * - <br>
 	 * <br>
 	 * <b>Preconditions:</b> <br>
-	 * <li>request != null</li> <li>pTargetPattern != null</li> <br>
+	 * <li>request != null</li> <br>
 	 * <br>
 	 * <b>Postconditions:</b> <br>
 	 * - <br>
 	 * 
 	 * @param request
 	 *            the HttpServletRequest containing the request
-	 * @param pTargetPattern
-	 *            the Pattern containing the regular expression
-	 * @return TRUE if request URI matches the supplied pattern
+	 * @return the matching request handler or <code>null</code> if no handler matches
 	 * @throws ASelectException
 	 *             if an error ocurred while matching
 	 */
-	private boolean matchTarget(HttpServletRequest request, Pattern pTargetPattern)
+	private IRequestHandler findHandler(HttpServletRequest request)
 	throws ASelectException
 	{
-		String sMethod = "matchTarget";
-		boolean bReturn = false;
-		StringBuffer sbCompareTo = new StringBuffer();
+		String sMethod = "findHandler";
 
 		try {
-			// request info
-			String sContextPath = request.getContextPath();
-			String sServletPath = request.getServletPath();
-			String sQueryString = request.getQueryString();
-
-			// compare to info
 			String sRequestURI = request.getRequestURI();
-			String sCompareTo = sRequestURI.substring(sContextPath.length() + sServletPath.length());
-
-			sbCompareTo.append(sCompareTo);
-
-			if (sQueryString != null) {
-				sbCompareTo.append('?');
-				sbCompareTo.append(sQueryString);
-			}
-
-			// int len = sbCompareTo.length();
-			// if (len > 40) len = 40;
-			// _systemLogger.log(Level.INFO, MODULE, sMethod, "MATCH "+pTargetPattern.toString()+"<>" +
-			// sbCompareTo.substring(0, len)+"...");
-			Matcher mTarget = pTargetPattern.matcher(sbCompareTo.toString());
-
-			bReturn = mTarget.matches();
+			String sPath = sRequestURI.substring(request.getContextPath().length() + request.getServletPath().length());
+			return _oHandlerIndex.findHandler(sPath, request.getQueryString());
 		}
 		catch (Exception e) {
 			_systemLogger.log(Level.SEVERE, MODULE, sMethod, "Could not match pattern", e);
 			throw new ASelectException(Errors.ERROR_ASELECT_INTERNAL_ERROR, e);
 		}
-		return bReturn;
 	}
 
 	/**
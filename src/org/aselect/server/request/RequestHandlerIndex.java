@@ -0,0 +1,256 @@
+/*
+ * * Copyright (c) Anoigo. All rights reserved.
+ *
+ * A-Select is a trademark registered by SURFnet bv.
+ *
+ * This program is distributed under the EUPL 1.0 (http://osor.eu/eupl)
+ * See the included LICENSE file for details.
+ *
+ * If you did not receive a copy of the LICENSE
+ * please contact Anoigo. (http://www.anoigo.nl)
+ */
+package org.aselect.server.request;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import org.aselect.server.request.handler.IRequestHandler;
+
+/**
+ * Dispatch index for the request handlers. <br>
+ * <br>
+ * <b>Description:</b><br>
+ * Finds the first request handler whose target pattern matches "path?query", giving the same result as matching all
+ * configured patterns in sequence. The literal start of every pattern is stored in a trie, so for a given path only
+ * the handlers that can possibly match are considered. Patterns of the form <code>literal</code> and
+ * <code>literal.*</code> (e.g. <code>\/saml20_sso.*</code>) are matched without using the regular expression
+ * engine, all other patterns are matched using their <code>Pattern</code> after the literal start was checked. <br>
+ * The candidate handlers are cached per path, the cache is cleared when it grows beyond <code>MAX_CACHED_PATHS</code>.
+ * <br>
+ * <br>
+ * <b>Concurrency issues:</b> <br>
+ * The index is immutable after construction except for the candidate cache, which is thread-safe. <br>
+ *
+ * @author Anoigo
+ */
+public class RequestHandlerIndex
+{
+	private static final int MAX_CACHED_PATHS = 1000;
+
+	private static final int KIND_EXACT = 0;  // pattern is a literal
+	private static final int KIND_PREFIX = 1;  // pattern is a literal followed by .*
+	private static final int KIND_REGEX = 2;  // anything else
+
+	private static final String REGEX_META = ".[]{}()*+?^$|";
+
+	private final IRequestHandler[] _aHandlers;
+	private final Pattern[] _aPatterns;
+	private final String[] _aPrefixes;
+	private final int[] _aKinds;
+	private final TrieNode _oRoot = new TrieNode();
+	private final ConcurrentHashMap<String, int[]> _htCandidates = new ConcurrentHashMap<String, int[]>();
+
+	/**
+	 * Build the index. <br>
+	 * <br>
+	 *
+	 * @param lHandlers
+	 *            the request handlers in the sequence they must be matched
+	 */
+	public RequestHandlerIndex(List<IRequestHandler> lHandlers)
+	{
+		int iSize = lHandlers.size();
+		_aHandlers = new IRequestHandler[iSize];
+		_aPatterns = new Pattern[iSize];
+		_aPrefixes = new String[iSize];
+		_aKinds = new int[iSize];
+
+		for (int i = 0; i < iSize; i++) {
+			_aHandlers[i] = lHandlers.get(i);
+			_aPatterns[i] = _aHandlers[i].getPattern();
+			analyzePattern(i);
+			_oRoot.add(_aPrefixes[i], 0, i);
+		}
+	}
+
+	/**
+	 * Find the first handler matching the request. <br>
+	 * <br>
+	 *
+	 * @param sPath
+	 *            the request URI without context and servlet path
+	 * @param sQuery
+	 *            the query string, can be <code>null</code>
+	 * @return the matching handler or <code>null</code> if no handler matches
+	 */
+	public IRequestHandler findHandler(String sPath, String sQuery)
+	{
+		int[] aCandidates = _htCandidates.get(sPath);
+		if (aCandidates == null) {
+			aCandidates = _oRoot.collect(sPath);
+			if (_htCandidates.size() >= MAX_CACHED_PATHS)
+				_htCandidates.clear();
+			_htCandidates.put(sPath, aCandidates);
+		}
+
+		String sCompareTo = null;
+		for (int i : aCandidates) {
+			String sPrefix = _aPrefixes[i];
+			if (!startsWith(sPath, sQuery, sPrefix))
+				continue;
+
+			switch (_aKinds[i]) {
+			case KIND_EXACT:
+				if (sPath.length() + ((sQuery == null) ? 0 : sQuery.length() + 1) == sPrefix.length())
+					return _aHandlers[i];
+				break;
+			case KIND_PREFIX:
+				// '.' does not match line terminators
+				if (!hasLineTerminator(sPath, Math.min(sPrefix.length(), sPath.length()))
+						&& (sQuery == null || !hasLineTerminator(sQuery, Math.max(0, sPrefix.length() - sPath.length() - 1))))
+					return _aHandlers[i];
+				break;
+			default:
+				if (sCompareTo == null)
+					sCompareTo = (sQuery == null) ? sPath : sPath + "?" + sQuery;
+				if (_aPatterns[i].matcher(sCompareTo).matches())
+					return _aHandlers[i];
+				break;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Determine the literal start and the kind of the pattern for handler <code>i</code>. <br>
+	 * A pattern containing '|' or compiled with flags gets an empty literal start.
+	 */
+	private void analyzePattern(int i)
+	{
+		String sPattern = _aPatterns[i].pattern();
+		StringBuilder sbPrefix = new StringBuilder();
+		int iPos = 0;
+		boolean bComplete = true;
+
+		if (_aPatterns[i].flags() != 0 || sPattern.indexOf('|') >= 0) {
+			_aPrefixes[i] = "";
+			_aKinds[i] = KIND_REGEX;
+			return;
+		}
+		while (iPos < sPattern.length()) {
+			char c = sPattern.charAt(iPos);
+			int iNext = iPos + 1;
+			if (c == '\\') {
+				if (iNext >= sPattern.length() || Character.isLetterOrDigit(sPattern.charAt(iNext)))
+					break;  // character class, back reference, quote etc.
+				c = sPattern.charAt(iNext++);
+			}
+			else if (REGEX_META.indexOf(c) >= 0)
+				break;
+
+			if (iNext < sPattern.length() && "?*+{".indexOf(sPattern.charAt(iNext)) >= 0) {
+				bComplete = false;  // quantified, the character is not a fixed part of the match
+				break;
+			}
+			sbPrefix.append(c);
+			iPos = iNext;
+		}
+
+		_aPrefixes[i] = sbPrefix.toString();
+		if (bComplete && iPos == sPattern.length())
+			_aKinds[i] = KIND_EXACT;
+		else if (bComplete && sPattern.length() - iPos == 2 && sPattern.endsWith(".*"))
+			_aKinds[i] = KIND_PREFIX;
+		else
+			_aKinds[i] = KIND_REGEX;
+	}
+
+	/**
+	 * Check if "sPath?sQuery" starts with sPrefix, without concatenating.
+	 */
+	private static boolean startsWith(String sPath, String sQuery, String sPrefix)
+	{
+		int iPathLength = sPath.length();
+		if (sPrefix.length() <= iPathLength)
+			return sPath.startsWith(sPrefix);
+		if (sQuery == null || sPrefix.charAt(iPathLength) != '?' || !sPrefix.startsWith(sPath))
+			return false;
+		return sQuery.regionMatches(0, sPrefix, iPathLength + 1, sPrefix.length() - iPathLength - 1);
+	}
+
+	/**
+	 * Check for characters that are not matched by '.' from position iFrom on.
+	 */
+	private static boolean hasLineTerminator(String s, int iFrom)
+	{
+		for (int i = iFrom; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029')
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Node in the trie of literal pattern starts.
+	 */
+	private static class TrieNode
+	{
+		private final HashMap<Character, TrieNode> _htChildren = new HashMap<Character, TrieNode>();
+		private final List<Integer> _lHandlers = new ArrayList<Integer>();
+
+		private void add(String sPrefix, int iPos, int iHandler)
+		{
+			if (iPos == sPrefix.length()) {
+				_lHandlers.add(iHandler);
+				return;
+			}
+			Character cKey = Character.valueOf(sPrefix.charAt(iPos));
+			TrieNode oChild = _htChildren.get(cKey);
+			if (oChild == null) {
+				oChild = new TrieNode();
+				_htChildren.put(cKey, oChild);
+			}
+			oChild.add(sPrefix, iPos + 1, iHandler);
+		}
+
+		/**
+		 * Collect the handlers whose literal start is a prefix of sPath, or continues from sPath into the query
+		 * string. The result is in configuration sequence.
+		 */
+		private int[] collect(String sPath)
+		{
+			BitSet bsFound = new BitSet();
+			TrieNode oNode = this;
+			for (int iPos = 0; oNode != null; iPos++) {
+				for (Integer iHandler : oNode._lHandlers)
+					bsFound.set(iHandler);
+				if (iPos == sPath.length()) {
+					TrieNode oQuery = oNode._htChildren.get(Character.valueOf('?'));
+					if (oQuery != null)
+						oQuery.collectAll(bsFound);
+					break;
+				}
+				oNode = oNode._htChildren.get(Character.valueOf(sPath.charAt(iPos)));
+			}
+
+			int[] aResult = new int[bsFound.cardinality()];
+			int j = 0;
+			for (int i = bsFound.nextSetBit(0); i >= 0; i = bsFound.nextSetBit(i + 1))
+				aResult[j++] = i;
+			return aResult;
+		}
+
+		private void collectAll(BitSet bsFound)
+		{
+			for (Integer iHandler : _lHandlers)
+				bsFound.set(iHandler);
+			for (TrieNode oChild : _htChildren.values())
+				oChild.collectAll(bsFound);
+		}
+	}
+}
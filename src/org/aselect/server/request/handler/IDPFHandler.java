@@ -299,7 +299,7 @@ public class IDPFHandler extends ProtoRequestHandler
 
 			_htSessionContext.put("idpfsessionid", javaxSessionid);
 			
-			_oSessionManager.updateSession(extractedRid, _htSessionContext);
+			_oSessionManager.deferSessionUpdate(extractedRid, _htSessionContext);
 			
     		String loginrequest= "login1";
 
@@ -824,7 +824,7 @@ public abstract class ProtoRequestHandler extends AbstractRequestHandler
 			_oSessionManager.createSession(sPrefix+sRid, htSessionMoreData, true/*start paused*/);  // create with a pre-defined RID
 		else {
 			htSessionContext.putAll(htSessionMoreData);
-			_oSessionManager.updateSession(sPrefix+sRid, htSessionContext);
+			_oSessionManager.deferSessionUpdate(sPrefix+sRid, htSessionContext);
 		}
 
 		// Also return the rid used in a cookie
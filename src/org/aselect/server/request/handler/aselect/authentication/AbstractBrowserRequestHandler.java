@@ -240,7 +240,8 @@ public abstract class AbstractBrowserRequestHandler extends BasicRequestHandler
 			// Also reads TGT into _htTGTContext if available
 			htServiceRequest = createServiceRequest(_servletRequest);
 			String sRequest = (String) htServiceRequest.get("request");
-			_systemLogger.log(Level.FINEST, _sModule, sMethod, "AbstBrowREQ "+_servletRequest.getMethod()+" htServiceRequest=" + Auxiliary.obfuscate(htServiceRequest));
+			if (_systemLogger.isLoggable(Level.FINEST))
+				_systemLogger.log(Level.FINEST, _sModule, sMethod, "AbstBrowREQ "+_servletRequest.getMethod()+" htServiceRequest=" + Auxiliary.obfuscate(htServiceRequest));
 			String sUsi = null;
 			try {
 				sUsi = (String)htServiceRequest.get("usi");  // unique sensor id
@@ -331,9 +331,11 @@ import org.aselect.system.exception.ASelectException;
 import org.aselect.system.exception.ASelectSAMException;
 import org.aselect.system.exception.ASelectStorageException;
 import org.aselect.system.logging.AuthenticationLogger;
+import org.aselect.system.logging.LogArgument;
 import org.aselect.system.sam.agent.SAMResource;
 import org.aselect.system.utils.BASE64Decoder;
 import org.aselect.system.utils.BASE64Encoder;
+import org.aselect.system.utils.HtmlTemplate;
 import org.aselect.system.utils.Tools;
 import org.aselect.system.utils.Utils;
 import org.aselect.system.utils.crypto.Auxiliary;
@@ -559,11 +561,11 @@ public class ApplicationBrowserHandler extends AbstractBrowserRequestHandler
 			}	// RH, 20181105, n
 			if (doSamlLogout) {
 //				_systemLogger.log(Level.FINER, _sModule, sMethod, "doSamlLogout, _htTGTContext:" + _htTGTContext);	// RH, 20181105, o
-				_systemLogger.log(Level.FINEST, _sModule, sMethod, "handleSamlLogout, _htTGTContext:" + Auxiliary.obfuscate(_htTGTContext));	// RH, 20181105, n
+				_systemLogger.log(Level.FINEST, _sModule, sMethod, "handleSamlLogout, _htTGTContext:", LogArgument.obfuscated(_htTGTContext));	// RH, 20181105, n
 				handleSamlLogout(htServiceRequest, _servletRequest, _servletResponse, pwOut);
 			}
 			else {
-				_systemLogger.log(Level.FINEST, _sModule, sMethod, "handleLogout, _htTGTContext:" + Auxiliary.obfuscate(_htTGTContext));	// RH, 20181105, n
+				_systemLogger.log(Level.FINEST, _sModule, sMethod, "handleLogout, _htTGTContext:", LogArgument.obfuscated(_htTGTContext));	// RH, 20181105, n
 				handleLogout(htServiceRequest, _servletResponse, pwOut);
 			}
 			// RH, 20140819, en
@@ -762,7 +764,8 @@ public class ApplicationBrowserHandler extends AbstractBrowserRequestHandler
 			_systemLogger.log(Level.WARNING, _sModule, sMethod, "Invalid parameter maxtries: " +  oboParms.get("maxtries") + ", using default:" + obo_maxRetries );
 		}
 		
-		_systemLogger.log(Level.FINEST, _sModule, sMethod, "obouid="+Auxiliary.obfuscate(sOBOId) + ", step="+sStep + ", oboyn="+sOBOyn + ", obo_retries="+iOboRetries);
+		if (_systemLogger.isLoggable(Level.FINEST))
+			_systemLogger.log(Level.FINEST, _sModule, sMethod, "obouid="+Auxiliary.obfuscate(sOBOId) + ", step="+sStep + ", oboyn="+sOBOyn + ", obo_retries="+iOboRetries);
 		if ( iOboRetries == null ) {
 			iOboRetries = 0;
 		}
@@ -856,7 +859,7 @@ public class ApplicationBrowserHandler extends AbstractBrowserRequestHandler
 				_systemLogger.log(Level.INFO, MODULE, sMethod, "Marshalling done");
 				String sAssertion = XMLHelper.nodeToString(node);
 
-				_systemLogger.log(Level.FINEST, MODULE, sMethod, "sAssertion: " + Auxiliary.obfuscate(sAssertion, Auxiliary.REGEX_PATTERNS));
+				_systemLogger.log(Level.FINEST, MODULE, sMethod, "sAssertion: ", LogArgument.obfuscated(sAssertion, Auxiliary.REGEX_PATTERNS));
 
 				 IClientCommunicator _communicator;
 				
@@ -1038,7 +1041,8 @@ public class ApplicationBrowserHandler extends AbstractBrowserRequestHandler
 		HashMap<String, String> hmUserIdent = new HashMap<String, String>();
 
 		String sRequest = (String) htServiceRequest.get("request");
-		_systemLogger.log(Level.FINEST, _sModule, sMethod, "request="+sRequest+" htServReq="+Auxiliary.obfuscate(htServiceRequest));
+		if (_systemLogger.isLoggable(Level.FINEST))
+			_systemLogger.log(Level.FINEST, _sModule, sMethod, "request="+sRequest+" htServReq="+Auxiliary.obfuscate(htServiceRequest));
 		try {
 			sRid = (String) htServiceRequest.get("rid");
 			String sAuthSPId = (String) _htSessionContext.get("direct_authsp");
@@ -1070,8 +1074,9 @@ public class ApplicationBrowserHandler extends AbstractBrowserRequestHandler
 
 				// check if a request was done for another user-id
 				String sForcedUid = (String) _htSessionContext.get("forced_uid");
-				_systemLogger.log(Level.FINEST, _sModule, sMethod, "DLOGIN sTgt=" + sTgt + " sUid=" +
-						Auxiliary.obfuscate(sUid) + " sServerId=" + sServerId + " sForcedUid=" + Auxiliary.obfuscate(sForcedUid));
+				if (_systemLogger.isLoggable(Level.FINEST))
+					_systemLogger.log(Level.FINEST, _sModule, sMethod, "DLOGIN sTgt=" + sTgt + " sUid=" +
+							Auxiliary.obfuscate(sUid) + " sServerId=" + sServerId + " sForcedUid=" + Auxiliary.obfuscate(sForcedUid));
 				
 				if (sForcedUid != null && !sUid.equals(sForcedUid)) { // user_id does not match
 					_tgtManager.remove(sTgt);
@@ -1259,17 +1264,19 @@ public class ApplicationBrowserHandler extends AbstractBrowserRequestHandler
 						_sessionManager.setUpdateSession(_htSessionContext, _systemLogger);  // 20120401, Bauke: changed, was update()
 						
 						String sNextauthspForm = _configManager.getHTMLForm("nextauthsp", _sUserLanguage, _sUserCountry);
-						sNextauthspForm = Utils.replaceString(sNextauthspForm, "[rid]", sRid);
-						sNextauthspForm = Utils.replaceString(sNextauthspForm, "[a-select-server]",  (String) htServiceRequest.get("a-select-server"));
-						sNextauthspForm = Utils.replaceString(sNextauthspForm, "[user_id]", sUid);
-						sNextauthspForm = Utils.replaceString(sNextauthspForm, "[authsp]", next_authsp);
-						sNextauthspForm = Utils.replaceString(sNextauthspForm, "[aselect_url]", (String) htServiceRequest.get("my_url"));
-						sNextauthspForm = Utils.replaceString(sNextauthspForm, "[request]", "login3");
+						HashMap<String, String> htValues = new HashMap<String, String>();
+						htValues.put("[rid]", sRid);
+						htValues.put("[a-select-server]",  (String) htServiceRequest.get("a-select-server"));
+						htValues.put("[user_id]", sUid);
+						htValues.put("[authsp]", next_authsp);
+						htValues.put("[aselect_url]", (String) htServiceRequest.get("my_url"));
+						htValues.put("[request]", "login3");
 						String sLanguage = (String) htServiceRequest.get("language");  // 20101027 _
 						String sCountry = (String) htServiceRequest.get("country");  // 20101027 _
-						sNextauthspForm = Utils.replaceString(sNextauthspForm, "[language]", sLanguage);
-						sNextauthspForm = Utils.replaceString(sNextauthspForm, "[country]", sCountry);
-						sNextauthspForm = _configManager.updateTemplate(sNextauthspForm, _htSessionContext, _servletRequest);
+						htValues.put("[language]", sLanguage);
+						htValues.put("[country]", sCountry);
+						_configManager.addTemplateValues(htValues, _htSessionContext, _servletRequest);
+						sNextauthspForm = HtmlTemplate.getTemplate(sNextauthspForm).render(htValues);
 						
 						_htSessionContext.put("user_state", "state_nextauthsp");
 						_sessionManager.setUpdateSession(_htSessionContext, _systemLogger);
@@ -1399,8 +1406,9 @@ public class ApplicationBrowserHandler extends AbstractBrowserRequestHandler
 		String sRid = null;
 		StringBuffer sbUrl;
 
-		_systemLogger.log(Level.FINEST, _sModule, sMethod, "Login1 SessionContext:" + Auxiliary.obfuscate(_htSessionContext) +
-						", ServiceRequest:" + Auxiliary.obfuscate(htServiceRequest));
+		if (_systemLogger.isLoggable(Level.FINEST))
+			_systemLogger.log(Level.FINEST, _sModule, sMethod, "Login1 SessionContext:" + Auxiliary.obfuscate(_htSessionContext) +
+							", ServiceRequest:" + Auxiliary.obfuscate(htServiceRequest));
 		try {
 			sRid = (String) htServiceRequest.get("rid");
 
@@ -1415,7 +1423,8 @@ public class ApplicationBrowserHandler extends AbstractBrowserRequestHandler
 
 				// Check if a request was done for a different user-id
 				String sForcedUid = (String) _htSessionContext.get("forced_uid");
-				_systemLogger.log(Level.FINEST, _sModule, sMethod, "SSO branch uid=" + Auxiliary.obfuscate(sUid) + " forced_uid=" + Auxiliary.obfuscate(sForcedUid));
+				if (_systemLogger.isLoggable(Level.FINEST))
+					_systemLogger.log(Level.FINEST, _sModule, sMethod, "SSO branch uid=" + Auxiliary.obfuscate(sUid) + " forced_uid=" + Auxiliary.obfuscate(sForcedUid));
 				if (sForcedUid != null && !sForcedUid.equals("saml20_user") && !sForcedUid.equals("siam_user")
 						&& !sUid.equals(sForcedUid)) { 
 					// user_id does not match
@@ -1649,29 +1658,30 @@ public class ApplicationBrowserHandler extends AbstractBrowserRequestHandler
 			// Show login (user_id) form
 			_systemLogger.log(Level.INFO, _sModule, sMethod, "No user id, show LOGIN form");
 			String sLoginForm = _configManager.getHTMLForm("login", _sUserLanguage, _sUserCountry);
-			sLoginForm = Utils.replaceString(sLoginForm, "[rid]", sRid);
-			sLoginForm = Utils.replaceString(sLoginForm, "[aselect_url]", (String) htServiceRequest.get("my_url"));
-			sLoginForm = Utils.replaceString(sLoginForm, "[a-select-server]", _sMyServerId);
-			sLoginForm = Utils.replaceString(sLoginForm, "[request]", "login2");  // NEXT STEP
-			sLoginForm = Utils.replaceString(sLoginForm, "[cross_request]", "cross_login");
+			HashMap<String, String> htValues = new HashMap<String, String>();
+			htValues.put("[rid]", sRid);
+			htValues.put("[aselect_url]", (String) htServiceRequest.get("my_url"));
+			htValues.put("[a-select-server]", _sMyServerId);
+			htValues.put("[request]", "login2");  // NEXT STEP
+			htValues.put("[cross_request]", "cross_login");
 
 			sbUrl = new StringBuffer((String) htServiceRequest.get("my_url")).append("?request=error").append(
 					"&result_code=").append(Errors.ERROR_ASELECT_SERVER_CANCEL).append("&a-select-server=").append(
 					_sMyServerId).append("&rid=").append(sRid);
-			sLoginForm = Utils.replaceString(sLoginForm, "[cancel]", sbUrl.toString());
+			htValues.put("[cancel]", sbUrl.toString());
 
 			String sErrorMessage = (String)_htSessionContext.get("error_message");
 			_systemLogger.log(Level.INFO, _sModule, sMethod, "error_message="+sErrorMessage);
 			
 			if (sErrorMessage != null) {
 				sErrorMessage = _configManager.getErrorMessage(MODULE, sErrorMessage, _sUserLanguage, _sUserCountry);
-				sLoginForm = Utils.replaceString(sLoginForm, "[error_message]", sErrorMessage);
+				htValues.put("[error_message]", sErrorMessage);
 			}
-			sLoginForm = _configManager.updateTemplate(sLoginForm, _htSessionContext, _servletRequest);
+			_configManager.addTemplateValues(htValues, _htSessionContext, _servletRequest);
 			
 			// Bauke 20110720: Extract if_cond=... from the application URL
 			String sSpecials = Utils.getAselectSpecials(_htSessionContext, true/*decode too*/, _systemLogger);
-			sLoginForm = Utils.handleAllConditionals(sLoginForm, Utils.hasValue(sErrorMessage), sSpecials, _systemLogger);
+			sLoginForm = HtmlTemplate.getTemplate(sLoginForm).render(htValues, Utils.hasValue(sErrorMessage), sSpecials);
 			
 			Tools.pauseSensorData(_configManager, _systemLogger, _htSessionContext);  //20111102
 			//_sessionManager.update(sRid, _htSessionContext); // Write session
@@ -1772,12 +1782,13 @@ public class ApplicationBrowserHandler extends AbstractBrowserRequestHandler
 
 		_systemLogger.log(Level.INFO, _sModule, sMethod, "redirect url=" + sRedirectUrl);
 		String sInfoForm = _configManager.getHTMLForm("session_info", _sUserLanguage, _sUserCountry);
-		sInfoForm = Utils.replaceString(sInfoForm, "[aselect_url]", sRedirectUrl);
-		sInfoForm = Utils.replaceString(sInfoForm, "[a-select-server]", _sMyServerId);
-		sInfoForm = Utils.replaceString(sInfoForm, "[rid]", sRid);
+		HashMap<String, String> htValues = new HashMap<String, String>();
+		htValues.put("[aselect_url]", sRedirectUrl);
+		htValues.put("[a-select-server]", _sMyServerId);
+		htValues.put("[rid]", sRid);
 
 		String sEncryptedTgt = (sTgt == null) ? "" : _cryptoEngine.encryptTGT(Utils.hexStringToByteArray(sTgt));
-		sInfoForm = Utils.replaceString(sInfoForm, "[aselect_credentials]", sEncryptedTgt);
+		htValues.put("[aselect_credentials]", sEncryptedTgt);
 
 		String sCreateTime = (String) htTGTContext.get("createtime");
 		long lCreateTime = 0;
@@ -1800,17 +1811,17 @@ public class ApplicationBrowserHandler extends AbstractBrowserRequestHandler
 				minutesToGo = 0;
 			long hoursToGo = minutesToGo / 60;
 			minutesToGo -= 60 * hoursToGo;
-			sInfoForm = Utils.replaceString(sInfoForm, "[hours_left]", Long.toString(hoursToGo));
-			sInfoForm = Utils.replaceString(sInfoForm, "[minutes_left]", String.format("%02d", minutesToGo));
+			htValues.put("[hours_left]", Long.toString(hoursToGo));
+			htValues.put("[minutes_left]", String.format("%02d", minutesToGo));
 		}
 		else {
-			sInfoForm = Utils.replaceString(sInfoForm, "[hours_left]", "");
-			sInfoForm = Utils.replaceString(sInfoForm, "[minutes_left]", "");
+			htValues.put("[hours_left]", "");
+			htValues.put("[minutes_left]", "");
 		}
 		String sFriendlyName = ApplicationManager.getHandle().getFriendlyName(spUrl);
 		if (sFriendlyName == null)
 			sFriendlyName = spUrl;
-		sInfoForm = Utils.replaceString(sInfoForm, "[current_sp]", sFriendlyName);
+		htValues.put("[current_sp]", sFriendlyName);
 
 		String sOtherSPs = "";
 		UserSsoSession ssoSession = (UserSsoSession) htTGTContext.get("sso_session");
@@ -1828,8 +1839,9 @@ public class ApplicationBrowserHandler extends AbstractBrowserRequestHandler
 		}
 		if (_htSessionContext != null)
 			_htSessionContext.put("user_state", "state_session_info");
-		sInfoForm = Utils.replaceString(sInfoForm, "[other_sps]", sOtherSPs);
-		sInfoForm = _configManager.updateTemplate(sInfoForm, _htSessionContext, _servletRequest);
+		htValues.put("[other_sps]", sOtherSPs);
+		_configManager.addTemplateValues(htValues, _htSessionContext, _servletRequest);
+		sInfoForm = HtmlTemplate.getTemplate(sInfoForm).render(htValues);
 		Tools.pauseSensorData(_configManager, _systemLogger, _htSessionContext);  //20111102
 		//_sessionManager.update(sRid, _htSessionContext); // Write session
 		_sessionManager.setUpdateSession(_htSessionContext, _systemLogger);  // 20120401, Bauke: changed, was update()
@@ -1959,7 +1971,7 @@ public class ApplicationBrowserHandler extends AbstractBrowserRequestHandler
 		String sMethod = "handleLogin2";
 
 		StringBuffer sb;
-		_systemLogger.log(Level.FINEST, _sModule, sMethod, "Login2 " + Auxiliary.obfuscate(htServiceRequest));
+		_systemLogger.log(Level.FINEST, _sModule, sMethod, "Login2 ", LogArgument.obfuscated(htServiceRequest));
 
 		ASelectConfigManager configManager = ASelectConfigManager.getHandle();
 		String sUserInfo = configManager.getUserInfoSettings();
@@ -2109,16 +2121,16 @@ public class ApplicationBrowserHandler extends AbstractBrowserRequestHandler
 				_systemLogger.log(Level.INFO, _sModule, sMethod, "Found application specific select form: " + sSelectFormName + " for app_id: " + sAppId);
 			}
 			String sSelectForm = _configManager.getHTMLForm(sSelectFormName, _sUserLanguage, _sUserCountry);
-
-			sSelectForm = Utils.replaceString(sSelectForm, "[rid]", sRid);
-			sSelectForm = Utils.replaceString(sSelectForm, "[a-select-server]", _sMyServerId);
-			sSelectForm = Utils.replaceString(sSelectForm, "[user_id]", sUid);
-			sSelectForm = Utils.replaceString(sSelectForm, "[aselect_url]", (String) htServiceRequest.get("my_url"));
-			sSelectForm = Utils.replaceString(sSelectForm, "[request]", "login3");
+			HashMap<String, String> htValues = new HashMap<String, String>();
+			htValues.put("[rid]", sRid);
+			htValues.put("[a-select-server]", _sMyServerId);
+			htValues.put("[user_id]", sUid);
+			htValues.put("[aselect_url]", (String) htServiceRequest.get("my_url"));
+			htValues.put("[request]", "login3");
 			String sLanguage = (String)_htSessionContext.get("language");  // 20101027 _
 			String sCountry = (String)_htSessionContext.get("country");  // 20101027 _
-			sSelectForm = Utils.replaceString(sSelectForm, "[language]", sLanguage);
-			sSelectForm = Utils.replaceString(sSelectForm, "[country]", sCountry);
+			htValues.put("[language]", sLanguage);
+			htValues.put("[country]", sCountry);
 			
 			// 20130411: What AuthSP's must be presented to the user?
 			if (bAuthspFromSelect) {
@@ -2156,8 +2168,8 @@ public class ApplicationBrowserHandler extends AbstractBrowserRequestHandler
 					}
 				}
 				
-				sSelectForm = Utils.replaceString(sSelectForm, "[authsp_url]", sUrl);
-				sSelectForm = Utils.replaceString(sSelectForm, "[authsp_name]", sName);
+				htValues.put("[authsp_url]", sUrl);
+				htValues.put("[authsp_name]", sName);
 				_systemLogger.log(Level.INFO, _sModule, sMethod, "url="+sUrl+" name="+sName);
 			}
 			else {  // The Classic Solution, take authsp's from the configuration
@@ -2181,7 +2193,7 @@ public class ApplicationBrowserHandler extends AbstractBrowserRequestHandler
 						throw ace;
 					}
 				}
-				sSelectForm = Utils.replaceString(sSelectForm, "[allowed_user_authsps]", sb.toString());
+				htValues.put("[allowed_user_authsps]", sb.toString());
 			}
 
 			// Create the Cancel action:
@@ -2189,8 +2201,9 @@ public class ApplicationBrowserHandler extends AbstractBrowserRequestHandler
 					.append("&result_code=").append(Errors.ERROR_ASELECT_SERVER_CANCEL).append("&a-select-server=")
 					.append(_sMyServerId).append("&rid=").append(sRid);
 
-			sSelectForm = Utils.replaceString(sSelectForm, "[cancel]", sb.toString());
-			sSelectForm = _configManager.updateTemplate(sSelectForm, _htSessionContext, _servletRequest);
+			htValues.put("[cancel]", sb.toString());
+			_configManager.addTemplateValues(htValues, _htSessionContext, _servletRequest);
+			sSelectForm = HtmlTemplate.getTemplate(sSelectForm).render(htValues);
 			
 			//
 			// 20151222, Bauke: these lines were missing, therefore no conditions (if_cond, if_error)
@@ -2253,7 +2266,7 @@ public class ApplicationBrowserHandler extends AbstractBrowserRequestHandler
 		String sRedirectUrl = null;
 		String sPopup = null;
 
-		_systemLogger.log(Level.FINEST, _sModule, sMethod, "login3 " + Auxiliary.obfuscate(htServiceRequest));
+		_systemLogger.log(Level.FINEST, _sModule, sMethod, "login3 ", LogArgument.obfuscated(htServiceRequest));
 		try {
 			sRid = (String)htServiceRequest.get("rid");
 			sAuthsp = (String)htServiceRequest.get("authsp");
@@ -2338,10 +2351,10 @@ public class ApplicationBrowserHandler extends AbstractBrowserRequestHandler
 				// we want to change user_id but not sure if this will work because tgt might get destroyed when finding other user_id
 				// for test get user_id from form
 				HashMap htAllowedAuthsps = (HashMap) _htSessionContext.get("allowed_user_authsps");
-				_systemLogger.log(Level.FINEST, _sModule, sMethod, "Before lookup htAllowedAuthsps=" + htAllowedAuthsps);
-				_systemLogger.log(Level.FINEST, _sModule, sMethod, "Before lookup _htSessionContext=" +Auxiliary.obfuscate( _htSessionContext));
+				_systemLogger.log(Level.FINEST, _sModule, sMethod, "Before lookup htAllowedAuthsps=", htAllowedAuthsps);
+				_systemLogger.log(Level.FINEST, _sModule, sMethod, "Before lookup _htSessionContext=", LogArgument.obfuscated(_htSessionContext));
 				String sUid = (String) _htSessionContext.get("user_id");
-				_systemLogger.log(Level.FINEST, _sModule, sMethod, "Looking up in UDB user_id:" + Auxiliary.obfuscate(sUid));
+				_systemLogger.log(Level.FINEST, _sModule, sMethod, "Looking up in UDB user_id:", LogArgument.obfuscated(sUid));
 				// RH, 20140424, sn
 				Integer iSubLevel = null;
 				try {
@@ -2355,7 +2368,7 @@ public class ApplicationBrowserHandler extends AbstractBrowserRequestHandler
 
 				getUserAuthsps(sRid, sUid);
 				htAllowedAuthsps = (HashMap) _htSessionContext.get("allowed_user_authsps");
-				_systemLogger.log(Level.FINEST, _sModule, sMethod, "After lookup htAllowedAuthsps=" + htAllowedAuthsps);
+				_systemLogger.log(Level.FINEST, _sModule, sMethod, "After lookup htAllowedAuthsps=", htAllowedAuthsps);
 			}
 			//	RH, 20140424, en
 
@@ -2468,7 +2481,7 @@ public class ApplicationBrowserHandler extends AbstractBrowserRequestHandler
 		String sUid = null;
 		String sMethod = "handleCrossLogin";
 
-		_systemLogger.log(Level.FINEST, _sModule, sMethod, "CrossLogin htServiceRequest=" + Auxiliary.obfuscate(htServiceRequest));
+		_systemLogger.log(Level.FINEST, _sModule, sMethod, "CrossLogin htServiceRequest=", LogArgument.obfuscated(htServiceRequest));
 		try {
 			// is cross enabled? (configuration)
 			if (!_crossASelectManager.remoteServersEnabled()) {
@@ -2605,7 +2618,7 @@ public class ApplicationBrowserHandler extends AbstractBrowserRequestHandler
 			if (_crossASelectManager.useRemoteSigning()) {
 				_cryptoEngine.signRequest(htRequestTable);
 			}
-			_systemLogger.log(Level.FINEST, _sModule, sMethod, "XLOGIN htRequestTable=" + Auxiliary.obfuscate(htRequestTable));
+			_systemLogger.log(Level.FINEST, _sModule, sMethod, "XLOGIN htRequestTable=", LogArgument.obfuscated(htRequestTable));
 
 			HashMap htResponseTable = oCommunicator.sendMessage(htRequestTable, sRemoteAsUrl);
 			if (htResponseTable.isEmpty()) {
@@ -2613,7 +2626,7 @@ public class ApplicationBrowserHandler extends AbstractBrowserRequestHandler
 						+ sRemoteAsUrl);
 				throw new ASelectException(Errors.ERROR_ASELECT_INTERNAL_ERROR);
 			}
-			_systemLogger.log(Level.FINEST, _sModule, sMethod, "XLOGIN htResponseTable=" + htResponseTable);
+			_systemLogger.log(Level.FINEST, _sModule, sMethod, "XLOGIN htResponseTable=", htResponseTable);
 
 			String sResultCode = (String) htResponseTable.get("result_code");
 			if (sResultCode == null) {
@@ -3220,8 +3233,9 @@ public class ApplicationBrowserHandler extends AbstractBrowserRequestHandler
 				throw new ASelectException(Errors.ERROR_ASELECT_INTERNAL_ERROR);
 			}
 			String udbType = (String)htUserProfile.get("udb_type");
-			_systemLogger.log(Level.FINEST, _sModule, sMethod, "uid=" + Auxiliary.obfuscate(sUid) + " udb_type="+udbType+" profile=" + htUserProfile
-					+ " user_authsps=" + htUserAuthsps + " SessionContext=" + _htSessionContext);
+			if (_systemLogger.isLoggable(Level.FINEST))
+				_systemLogger.log(Level.FINEST, _sModule, sMethod, "uid=" + Auxiliary.obfuscate(sUid) + " udb_type="+udbType+" profile=" + htUserProfile
+						+ " user_authsps=" + htUserAuthsps + " SessionContext=" + _htSessionContext);
 			
 			
 
@@ -3271,7 +3285,7 @@ public class ApplicationBrowserHandler extends AbstractBrowserRequestHandler
 				_systemLogger.log(Level.WARNING, _sModule, sMethod, "No valid AuthSPs found for user: " + Auxiliary.obfuscate(sUid));
 				throw new ASelectException(Errors.ERROR_ASELECT_SERVER_USER_NOT_ALLOWED);
 			}
-			_systemLogger.log(Level.FINEST, _sModule, sMethod, "Allowed AuthSPs " + htAllowedAuthsps);
+			_systemLogger.log(Level.FINEST, _sModule, sMethod, "Allowed AuthSPs ", htAllowedAuthsps);
 
 			_htSessionContext.put("allowed_user_authsps", htAllowedAuthsps);
 			_htSessionContext.put("user_id", sUid);
@@ -3383,19 +3397,19 @@ public class ApplicationBrowserHandler extends AbstractBrowserRequestHandler
 			// Handle application specific select form
 			String sSelectFormName = SUBSELECTFORMPREFIX + subselect_form; // "select"
 			String sSelectForm = _configManager.getHTMLForm(sSelectFormName, _sUserLanguage, _sUserCountry);
-
-			sSelectForm = Utils.replaceString(sSelectForm, "[rid]", sRid);
-			sSelectForm = Utils.replaceString(sSelectForm, "[a-select-server]", _sMyServerId);
-			sSelectForm = Utils.replaceString(sSelectForm, "[user_id]", (String) htLoginRequest.get("user_id"));
-			sSelectForm = Utils.replaceString(sSelectForm, "[aselect_url]", (String) htLoginRequest.get("my_url"));
-			sSelectForm = Utils.replaceString(sSelectForm, "[request]", "login3");
-			sSelectForm = Utils.replaceString(sSelectForm, "[authsp]", sAuthsp);
+			HashMap<String, String> htValues = new HashMap<String, String>();
+			htValues.put("[rid]", sRid);
+			htValues.put("[a-select-server]", _sMyServerId);
+			htValues.put("[user_id]", (String) htLoginRequest.get("user_id"));
+			htValues.put("[aselect_url]", (String) htLoginRequest.get("my_url"));
+			htValues.put("[request]", "login3");
+			htValues.put("[authsp]", sAuthsp);
 			String sLanguage = (String)_htSessionContext.get("language");
 			String sCountry = (String)_htSessionContext.get("country");
-			sSelectForm = Utils.replaceString(sSelectForm, "[language]", sLanguage);
-			sSelectForm = Utils.replaceString(sSelectForm, "[country]", sCountry);
+			htValues.put("[language]", sLanguage);
+			htValues.put("[country]", sCountry);
 
-			sSelectForm = Utils.replaceString(sSelectForm, "[authsp_subselect]", (String) oProtocolHandler.inquireSubselect(null));
+			htValues.put("[authsp_subselect]", (String) oProtocolHandler.inquireSubselect(null));
 			// will be
 			// oProtocolHandler.getSubselect() or something
 			// Create the Cancel action:
@@ -3403,8 +3417,9 @@ public class ApplicationBrowserHandler extends AbstractBrowserRequestHandler
 					.append("&result_code=").append(Errors.ERROR_ASELECT_SERVER_CANCEL).append("&a-select-server=")
 					.append(_sMyServerId).append("&rid=").append(sRid);
 
-			sSelectForm = Utils.replaceString(sSelectForm, "[cancel]", sb.toString());
-			sSelectForm = _configManager.updateTemplate(sSelectForm, _htSessionContext, _servletRequest);
+			htValues.put("[cancel]", sb.toString());
+			_configManager.addTemplateValues(htValues, _htSessionContext, _servletRequest);
+			sSelectForm = HtmlTemplate.getTemplate(sSelectForm).render(htValues);
 			
 
 			// _systemLogger.log(Level.FINER, _sModule, sMethod, "Form select=["+sSelectForm+"]");
@@ -3661,8 +3676,9 @@ public class ApplicationBrowserHandler extends AbstractBrowserRequestHandler
 			sUid = (String) _htSessionContext.get("uid");
 			sUserId = (String) _htSessionContext.get("user_id");
 			sForcedUid = (String) _htSessionContext.get("forced_uid");
-			_systemLogger.log(Level.FINEST, _sModule, sMethod, "Login25 uid=" + Auxiliary.obfuscate(sUid) + " user_id=" + Auxiliary.obfuscate(sUserId)
-					+ " forced_uid=" + Auxiliary.obfuscate(sForcedUid) + " authsp=" + sAuthsp);
+			if (_systemLogger.isLoggable(Level.FINEST))
+				_systemLogger.log(Level.FINEST, _sModule, sMethod, "Login25 uid=" + Auxiliary.obfuscate(sUid) + " user_id=" + Auxiliary.obfuscate(sUserId)
+						+ " forced_uid=" + Auxiliary.obfuscate(sForcedUid) + " authsp=" + sAuthsp);
 			if (sAuthsp == null) {
 				_systemLogger.log(Level.WARNING, _sModule, sMethod, "Invalid request, missing parmeter 'authsp'");
 				throw new ASelectCommunicationException(Errors.ERROR_ASELECT_SERVER_INVALID_REQUEST);
@@ -3680,7 +3696,7 @@ public class ApplicationBrowserHandler extends AbstractBrowserRequestHandler
 			_htSessionContext.put("user_state", "state_login25");  // 20131019, Bauke: remove "state_select"
 			_sessionManager.setUpdateSession(_htSessionContext, _systemLogger);
 			
-			_systemLogger.log(Level.FINEST, _sModule, sMethod, "htSessionContext=" + Auxiliary.obfuscate(_htSessionContext));
+			_systemLogger.log(Level.FINEST, _sModule, sMethod, "htSessionContext=", LogArgument.obfuscated(_htSessionContext));
 			handleLogin1(htServiceRequest, servletResponse, pwOut);
 		}
 		catch (ASelectException ae) {
@@ -3763,18 +3779,18 @@ public class ApplicationBrowserHandler extends AbstractBrowserRequestHandler
 	
 		// No "usi" available in this entry
 		hmRequest.put("usi", Tools.generateUniqueSensorId());  // 20120111, Bauke added
-		_systemLogger.log(Level.FINEST, MODULE, sMethod, "hmRequest=" + Auxiliary.obfuscate(hmRequest));
+		_systemLogger.log(Level.FINEST, MODULE, sMethod, "hmRequest=", LogArgument.obfuscated(hmRequest));
 		
 		// Exception for bad shared_secret:
 		HashMap<String, Object> hmResponse = handleAuthenticateAndCreateSession(hmRequest, null);
-		_systemLogger.log(Level.FINEST, MODULE, sMethod, "hmResponse=" + Auxiliary.obfuscate(hmResponse));
+		_systemLogger.log(Level.FINEST, MODULE, sMethod, "hmResponse=", LogArgument.obfuscated(hmResponse));
 
 		String sResultCode = (String) hmResponse.get("result_code");
 		if (!sResultCode.equals(Errors.ERROR_ASELECT_SUCCESS)) {  // never happens (either success or exception is raised
 			_systemLogger.log(Level.WARNING, MODULE, sMethod, "} AUTHN unsuccessful, result_code=" + sResultCode);
 			throw new ASelectException(Errors.ERROR_ASELECT_IO);
 		}
-		_systemLogger.log(Level.FINEST, MODULE, sMethod, "} AUTHN htResponse=" + Auxiliary.obfuscate(hmResponse));
+		_systemLogger.log(Level.FINEST, MODULE, sMethod, "} AUTHN htResponse=", LogArgument.obfuscated(hmResponse));
 
 		// Retrieve the session just created
 		String sRid = (String)hmResponse.get("rid");
@@ -3803,7 +3819,8 @@ public class ApplicationBrowserHandler extends AbstractBrowserRequestHandler
 		_systemLogger.log(Level.FINEST, MODULE, sMethod, "HttpSR="+servletResponse);
 		boolean bSuccess = oProtocolHandler.handleDirectLoginRequest(hmDirectRequest, null/*serlvet request*/, null/*servlet response*/,
 					_htSessionContext, null/*additional*/, null /*output writer*/, _sMyServerId, "en", "nl");
-		_systemLogger.log(Level.FINEST, MODULE, sMethod, "Success="+bSuccess+" hm="+Auxiliary.obfuscate(hmDirectRequest));
+		if (_systemLogger.isLoggable(Level.FINEST))
+			_systemLogger.log(Level.FINEST, MODULE, sMethod, "Success="+bSuccess+" hm="+Auxiliary.obfuscate(hmDirectRequest));
 		
 		// Pass result in the header, but only if successful
 		if (bSuccess) {
@@ -3832,7 +3849,7 @@ public class ApplicationBrowserHandler extends AbstractBrowserRequestHandler
 			String sWantSigning = "true";  // always signing on
 			Assertion assertion = HandlerTools.createAttributeStatementAssertion(htAttribs, _sServerUrl, subject, "true".equalsIgnoreCase(sWantSigning));
 			String sResult = XMLHelper.nodeToString(assertion.getDOM());
-			_systemLogger.log(Level.FINEST, MODULE, sMethod, "sResult="+Auxiliary.obfuscate(sResult, Auxiliary.REGEX_PATTERNS));
+			_systemLogger.log(Level.FINEST, MODULE, sMethod, "sResult=", LogArgument.obfuscated(sResult, Auxiliary.REGEX_PATTERNS));
 
 			if ("saml".equalsIgnoreCase(sOutputFormat)) {
 				sResponse = sResult;
@@ -315,7 +315,7 @@ public class AuthSPBrowserHandler extends AbstractBrowserRequestHandler
 			String sSerAttrs = (String)htAuthspResponse.get("ser_attrs");
 			if (Utils.hasValue(sSerAttrs)) {  // inject the attributes
 				htAdditional = org.aselect.server.utils.Utils.deserializeAttributes(sSerAttrs);
-				_systemLogger.log(Level.FINE, MODULE, sMethod, "Attributes="+htAdditional);
+				_systemLogger.log(Level.FINE, MODULE, sMethod, "Attributes=", htAdditional);
 			}
 			
 			// Some AuthSP's will return the authenticated userid as well (e.g. DigiD)
@@ -397,7 +397,7 @@ public class AuthSPBrowserHandler extends AbstractBrowserRequestHandler
 					// Set tgt authsp level back so in case of falure of next_authsp authentication the remaining level will be low
 					_htSessionContext.put("forced_level", next_authsp_entry_level);
 					_sessionManager.setUpdateSession(_htSessionContext, _systemLogger);
-					_systemLogger.log(Level.FINEST, _sModule, sMethod, "Setting forced_level in  _htSessionContext: " + _htSessionContext);
+					_systemLogger.log(Level.FINEST, _sModule, sMethod, "Setting forced_level in  _htSessionContext: ", _htSessionContext);
 				}
 			}
 			else {
@@ -405,7 +405,7 @@ public class AuthSPBrowserHandler extends AbstractBrowserRequestHandler
 				if ( forced_level != null) {	// found forced_level but no next_authsp, so remove "old" forced_level
 					_htSessionContext.remove("forced_level");
 					_sessionManager.setUpdateSession(_htSessionContext, _systemLogger);
-					_systemLogger.log(Level.FINEST, _sModule, sMethod, "Found forced_level in _htSessionContext but no next_authsp, removed forced_level, _htSessionContext:" + _htSessionContext);
+					_systemLogger.log(Level.FINEST, _sModule, sMethod, "Found forced_level in _htSessionContext but no next_authsp, removed forced_level, _htSessionContext:", _htSessionContext);
 				}
 			}
 			// RH, 20150914, en				
@@ -41,6 +41,7 @@ import org.aselect.system.exception.ASelectCommunicationException;
 import org.aselect.system.exception.ASelectConfigException;
 import org.aselect.system.exception.ASelectException;
 import org.aselect.system.exception.ASelectStorageException;
+import org.aselect.system.logging.LogArgument;
 import org.aselect.system.utils.BASE64Decoder;
 import org.aselect.system.utils.BASE64Encoder;
 import org.aselect.system.utils.Utils;
@@ -281,12 +282,13 @@ public class AuthorizationHandler extends ProtoRequestHandler
 			// grant_type only "authorization_code" supported, code, redirect_uri, client_id
 			String grant_type =  servletRequest.getParameter("grant_type");
 	   		String code =  servletRequest.getParameter("code");
-			_systemLogger.log(Level.FINEST, MODULE, sMethod, "Received client_id/redirect_uri/grant_type/code: " + 
-					client_id + "/" + redirect_uri + "/" + grant_type + "/" + Auxiliary.obfuscate(code));
+			if (_systemLogger.isLoggable(Level.FINEST))
+				_systemLogger.log(Level.FINEST, MODULE, sMethod, "Received client_id/redirect_uri/grant_type/code: " + 
+						client_id + "/" + redirect_uri + "/" + grant_type + "/" + Auxiliary.obfuscate(code));
 			// we should verify the redirect_uri against the saved_redirect_uri here, if there is a saved_redirect_uri
 			
 			String auth_header = servletRequest.getHeader("Authorization");
-			_systemLogger.log(Level.FINEST, MODULE, sMethod, "Found HTTP 'Authorization' header: " + Auxiliary.obfuscate(auth_header));
+			_systemLogger.log(Level.FINEST, MODULE, sMethod, "Found HTTP 'Authorization' header: ", LogArgument.obfuscated(auth_header));
 
 	   		PrintWriter outwriter = null;
 			try {
@@ -325,7 +327,7 @@ public class AuthorizationHandler extends ProtoRequestHandler
 					SamlHistoryManager history = SamlHistoryManager.getHandle();
 					try {
 						String access_token = (String)history.get(AUTH_CODE_PREFIX + code);
-						_systemLogger.log(Level.FINEST, MODULE, sMethod, "Retrieved access token: " + Auxiliary.obfuscate(access_token));
+						_systemLogger.log(Level.FINEST, MODULE, sMethod, "Retrieved access token: ", LogArgument.obfuscated(access_token));
 
 			   			return_parameters.put("access_token", access_token );
 			   			return_parameters.put("token_type", "bearer" );
@@ -333,7 +335,7 @@ public class AuthorizationHandler extends ProtoRequestHandler
 			   			return_status = 200; // all well
 			   			try {
 			   				history.remove(AUTH_CODE_PREFIX + code);	// we'll have to handle if there would be a problem with remove
-							_systemLogger.log(Level.FINEST, MODULE, sMethod, "Removed access token from local storage using auth code: " + Auxiliary.obfuscate(code));
+							_systemLogger.log(Level.FINEST, MODULE, sMethod, "Removed access token from local storage using auth code: ", LogArgument.obfuscated(code));
 			   			} catch (ASelectStorageException ase2) {
 							_systemLogger.log(Level.WARNING, MODULE, sMethod, "Ignoring problem removing authentication code from temp storage: " + ase2.getMessage());
 			   			}
@@ -510,7 +512,7 @@ public class AuthorizationHandler extends ProtoRequestHandler
 				_htSessionContext.put("oauthsessionredirect_uri", redirect_uri);	// RH, 20170606, n
 			}
 			
-			_oSessionManager.updateSession(extractedRid, _htSessionContext);
+			_oSessionManager.deferSessionUpdate(extractedRid, _htSessionContext);
 			
  
     		//Construct request data 
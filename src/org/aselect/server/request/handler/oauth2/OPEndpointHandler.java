@@ -51,6 +51,7 @@ import org.aselect.system.exception.ASelectCommunicationException;
 import org.aselect.system.exception.ASelectConfigException;
 import org.aselect.system.exception.ASelectException;
 import org.aselect.system.exception.ASelectStorageException;
+import org.aselect.system.logging.LogArgument;
 import org.aselect.system.utils.BASE64Decoder;
 import org.aselect.system.utils.Tools;
 import org.aselect.system.utils.Utils;
@@ -351,8 +352,9 @@ public class OPEndpointHandler extends OPBaseHandler	// RH, 20200210, n
    		String password =  servletRequest.getParameter("password");
    		//
    		String nonce =  servletRequest.getParameter("nonce");	// if present, should be passed back in the id_token
-		_systemLogger.log(Level.FINEST, MODULE, sMethod, "Received client_id/redirect_uri/grant_type/code: " + 
-				client_id + "/" + redirect_uri + "/" + grant_type + "/" + Auxiliary.obfuscate(code));
+		if (_systemLogger.isLoggable(Level.FINEST))
+			_systemLogger.log(Level.FINEST, MODULE, sMethod, "Received client_id/redirect_uri/grant_type/code: " + 
+					client_id + "/" + redirect_uri + "/" + grant_type + "/" + Auxiliary.obfuscate(code));
 		// we should verify the redirect_uri against the saved_redirect_uri here, if there is a saved_redirect_uri
 
 		String appidacr = "0"; // We have not authenticated the client yet 
@@ -364,7 +366,7 @@ public class OPEndpointHandler extends OPBaseHandler	// RH, 20200210, n
 				// grant_type only "authorization_code" supported, code, redirect_uri, client_id
 				
 				String auth_header = servletRequest.getHeader("Authorization");
-				_systemLogger.log(Level.FINEST, MODULE, sMethod, "Found HTTP 'Authorization' header: " + Auxiliary.obfuscate(auth_header));
+				_systemLogger.log(Level.FINEST, MODULE, sMethod, "Found HTTP 'Authorization' header: ", LogArgument.obfuscated(auth_header));
 	
 		   		PrintWriter outwriter = null;
 				try {
@@ -378,7 +380,7 @@ public class OPEndpointHandler extends OPBaseHandler	// RH, 20200210, n
 						SamlHistoryManager history = SamlHistoryManager.getHandle();
 						try {
 							String encoded_access_token = (String)history.get(AUTH_CODE_PREFIX + code);
-							_systemLogger.log(Level.FINEST, MODULE, sMethod, "Retrieved access token: " + Auxiliary.obfuscate(encoded_access_token));
+							_systemLogger.log(Level.FINEST, MODULE, sMethod, "Retrieved access token: ", LogArgument.obfuscated(encoded_access_token));
 	
 							String access_token = extractAccessToken(encoded_access_token);
 				   		
@@ -451,7 +453,7 @@ public class OPEndpointHandler extends OPBaseHandler	// RH, 20200210, n
 							tokenMachine.setStatus(status);
 				   			try {
 				   				history.remove(AUTH_CODE_PREFIX + code);	// we'll have to handle if there would be a problem with remove
-								_systemLogger.log(Level.FINEST, MODULE, sMethod, "Removed auth code from local storage using auth code: " + Auxiliary.obfuscate(code));
+								_systemLogger.log(Level.FINEST, MODULE, sMethod, "Removed auth code from local storage using auth code: ", LogArgument.obfuscated(code));
 				   			} catch (ASelectStorageException ase2) {
 								_systemLogger.log(Level.WARNING, MODULE, sMethod, "Ignoring problem removing authentication code from temp storage: " + ase2.getMessage());
 				   			}
@@ -553,7 +555,7 @@ public class OPEndpointHandler extends OPBaseHandler	// RH, 20200210, n
 									}	
 //						    		HashMap hmExtractedAttributes = Utils.deserializeAttributes(extractedAttributes);	// RH, 20200612, o
 						    		HashMap hmExtractedAttributes = org.aselect.server.utils.Utils.deserializeAttributes(extractedAttributes);	// RH, 20200612, n 
-									_systemLogger.log(Level.FINEST, MODULE, sMethod, "hmExtractedAttributes after verify_credentials: " + Auxiliary.obfuscate(hmExtractedAttributes));
+									_systemLogger.log(Level.FINEST, MODULE, sMethod, "hmExtractedAttributes after verify_credentials: ", LogArgument.obfuscated(hmExtractedAttributes));
 									
 						    		String extractedResultCode = verify_result.replaceFirst(".*result_code=([^&]*).*$", "$1");
 									_systemLogger.log(Level.FINEST, MODULE, sMethod, "extractedResultCode after verify_credentials: " + extractedResultCode);
@@ -789,7 +791,7 @@ public class OPEndpointHandler extends OPBaseHandler	// RH, 20200210, n
 //							    		HashMap hmExtractedAttributes = Utils.deserializeAttributes(extractedAttributes);	// RH, 20200612, o
 							    		HashMap hmExtractedAttributes = org.aselect.server.utils.Utils.deserializeAttributes(extractedAttributes);	// RH, 20200612, n
 							    		
-										_systemLogger.log(Level.FINEST, MODULE, sMethod, "hmExtractedAttributes after verify_credentials: " + Auxiliary.obfuscate(hmExtractedAttributes));
+										_systemLogger.log(Level.FINEST, MODULE, sMethod, "hmExtractedAttributes after verify_credentials: ", LogArgument.obfuscated(hmExtractedAttributes));
 										
 							    		String extractedResultCode = verify_result.replaceFirst(".*result_code=([^&]*).*$", "$1");
 										_systemLogger.log(Level.FINEST, MODULE, sMethod, "extractedResultCode after verify_credentials: " + extractedResultCode);
@@ -1189,7 +1191,7 @@ public class OPEndpointHandler extends OPBaseHandler	// RH, 20200210, n
 				}
 				// RH, 20191206, en
 				
-				_oSessionManager.updateSession(extractedRid, _htSessionContext);
+				_oSessionManager.deferSessionUpdate(extractedRid, _htSessionContext);
 				
 	 
 	    		//Construct request data 
@@ -1329,7 +1331,7 @@ public class OPEndpointHandler extends OPBaseHandler	// RH, 20200210, n
 //	    		HashMap hmExtractedAttributes = Utils.deserializeAttributes(extractedAttributes);	// RH, 20200612, o
 	    		HashMap hmExtractedAttributes = org.aselect.server.utils.Utils.deserializeAttributes(extractedAttributes);	// RH, 20200612, n
 	    		
-				_systemLogger.log(Level.FINEST, MODULE, sMethod, "hmExtractedAttributes after verify_credentials: " + Auxiliary.obfuscate(hmExtractedAttributes));
+				_systemLogger.log(Level.FINEST, MODULE, sMethod, "hmExtractedAttributes after verify_credentials: ", LogArgument.obfuscated(hmExtractedAttributes));
 	    		
 	    		String extractedResultCode = finalResult.replaceFirst(".*result_code=([^&]*).*$", "$1");
 				_systemLogger.log(Level.FINEST, MODULE, sMethod, "extractedResultCode after verify_credentials: " + extractedResultCode);
@@ -1728,7 +1730,7 @@ public class OPEndpointHandler extends OPBaseHandler	// RH, 20200210, n
 					tokenMachine.setParameter("id_token", id_token );
 					try {
 						history.remove(ID_TOKEN_PREFIX + code);	// we'll have to handle if there would be a problem with remove
-						_systemLogger.log(Level.FINEST, MODULE, sMethod, "Removed id token from local storage using auth code: " + Auxiliary.obfuscate(code));
+						_systemLogger.log(Level.FINEST, MODULE, sMethod, "Removed id token from local storage using auth code: ", LogArgument.obfuscated(code));
 					} catch (ASelectStorageException ase2) {
 						_systemLogger.log(Level.WARNING, MODULE, sMethod, "Ignoring problem removing id token from temp storage: " + ase2.getMessage());
 					}
@@ -37,6 +37,7 @@ import org.aselect.system.error.Errors;
 import org.aselect.system.exception.ASelectCommunicationException;
 import org.aselect.system.exception.ASelectConfigException;
 import org.aselect.system.exception.ASelectException;
+import org.aselect.system.logging.LogArgument;
 import org.aselect.system.utils.BASE64Decoder;
 import org.aselect.system.utils.Utils;
 import org.aselect.system.utils.crypto.Auxiliary;
@@ -162,8 +163,7 @@ public class ResourceHandler extends ProtoRequestHandler
 
 					if ("bearer".equalsIgnoreCase(bearer)) {
 						String access_token = tkn.nextToken();
-						_systemLogger.log(Level.FINEST, MODULE, sMethod, "Start verify credentials with access_token: "
-								+ Auxiliary.obfuscate(access_token));
+						_systemLogger.log(Level.FINEST, MODULE, sMethod, "Start verify credentials with access_token: ", LogArgument.obfuscated(access_token));
 						try {
 							BASE64Decoder b64dec = new BASE64Decoder();
 							byte[] bytes_access_token = b64dec.decodeBuffer(access_token);
@@ -183,8 +183,7 @@ public class ResourceHandler extends ProtoRequestHandler
 								_systemLogger.log(Level.FINEST, MODULE, sMethod, "Retrieved RID from TGT: " + rid);
 								// do verify_credentials for latest attributes
 								String finalResult = verify_credentials(servletRequest, string_access_token, rid);
-								_systemLogger.log(Level.FINEST, MODULE, sMethod,
-										"finalResult after verify_credentials: " + Auxiliary.obfuscate(finalResult));
+								_systemLogger.log(Level.FINEST, MODULE, sMethod, "finalResult after verify_credentials: ", LogArgument.obfuscated(finalResult));
 
 								String extractedAttributes = finalResult.replaceFirst(".*attributes=([^&]*).*$", "$1");
 								String extractedResultCode = finalResult.replaceFirst(".*result_code=([^&]*).*$", "$1");
@@ -31,6 +31,7 @@ import org.aselect.server.tgt.TGTManager;
 import org.aselect.system.error.Errors;
 import org.aselect.system.exception.ASelectConfigException;
 import org.aselect.system.exception.ASelectException;
+import org.aselect.system.logging.LogArgument;
 import org.aselect.system.utils.BASE64Decoder;
 import org.aselect.system.utils.Utils;
 import org.aselect.system.utils.crypto.Auxiliary;
@@ -130,8 +131,9 @@ public class TokenIntrospectionHandler extends OPBaseHandler
 		String token =  servletRequest.getParameter("token");	// maybe use this as app_id as well, need some security though
    		String token_type_hint =  servletRequest.getParameter("token_type_hint");	// we'll ignore token_type_hint for now
 
-		_systemLogger.log(Level.FINEST, MODULE, sMethod, "Received token/token_type_hint: " + 
-				Auxiliary.obfuscate(token) + " / " + token_type_hint);
+		if (_systemLogger.isLoggable(Level.FINEST))
+			_systemLogger.log(Level.FINEST, MODULE, sMethod, "Received token/token_type_hint: " + 
+					Auxiliary.obfuscate(token) + " / " + token_type_hint);
 
 		// Request, should be POST
 		if ( "POST".equalsIgnoreCase(servletRequest.getMethod()) ) {
@@ -146,7 +148,7 @@ public class TokenIntrospectionHandler extends OPBaseHandler
 					_systemLogger.log(Level.FINEST, MODULE, sMethod, "Handling token verification POST request");
 					
 					String auth_header = servletRequest.getHeader("Authorization");
-					_systemLogger.log(Level.FINEST, MODULE, sMethod, "Found HTTP 'Authorization' header: " + Auxiliary.obfuscate(auth_header));
+					_systemLogger.log(Level.FINEST, MODULE, sMethod, "Found HTTP 'Authorization' header: ", LogArgument.obfuscated(auth_header));
 	
 					boolean client_may_pass = false;
 						// maybe we want application specific authorization later but we don't have an appid now
@@ -21,9 +21,9 @@ import org.aselect.server.request.handler.oauth2.ITokenMachine;
 import org.aselect.server.request.handler.xsaml20.SamlHistoryManager;
 import org.aselect.system.exception.ASelectException;
 import org.aselect.system.exception.ASelectStorageException;
+import org.aselect.system.logging.LogArgument;
 import org.aselect.system.utils.BASE64Encoder;
 import org.aselect.system.utils.Utils;
-import org.aselect.system.utils.crypto.Auxiliary;
 import org.jose4j.jwt.JwtClaims;
 import org.jose4j.jwt.MalformedClaimException;
 import org.jose4j.jwt.consumer.InvalidJwtException;
@@ -133,7 +133,7 @@ public class OPEndpointHandler extends org.aselect.server.request.handler.oauth2
 					claims.put("id_token", id_token);
 					try {
 						history.remove(ID_TOKEN_PREFIX + code);	// we'll have to handle if there would be a problem with remove
-						_systemLogger.log(Level.FINEST, MODULE, sMethod, "Removed id token from local storage using auth code: " + Auxiliary.obfuscate(code));
+						_systemLogger.log(Level.FINEST, MODULE, sMethod, "Removed id token from local storage using auth code: ", LogArgument.obfuscated(code));
 					} catch (ASelectStorageException ase2) {
 						_systemLogger.log(Level.WARNING, MODULE, sMethod, "Ignoring problem removing id token from temp storage: " + ase2.getMessage());
 					}
@@ -1261,7 +1261,7 @@ public class ApplicationBrowserHandler extends AbstractBrowserRequestHandler
 							// implements the redirect with a create signature.
 							// It is not logical to create a new TGT.
 							_htSessionContext.put("user_id", sUid);
-							_sessionManager.updateSession(sRid, _htSessionContext);
+							_sessionManager.deferSessionUpdate(sRid, _htSessionContext);
 
 							HashMap htTgtContext = _tgtManager.getTGT(sTgt);
 							String sAuthsp = (String) htTgtContext.get("authsp");
@@ -1348,7 +1348,7 @@ public class ApplicationBrowserHandler extends AbstractBrowserRequestHandler
 			htAllowedAuthsps.put("Ip", htServiceRequest.get("client_ip"));
 			_htSessionContext.put("allowed_user_authsps", htAllowedAuthsps);
 			_htSessionContext.put("user_id", htServiceRequest.get("client_ip"));
-			_sessionManager.updateSession(sRid, _htSessionContext);
+			_sessionManager.deferSessionUpdate(sRid, _htSessionContext);
 
 			// go for IP authsp
 			htServiceRequest.put("authsp", "Ip");
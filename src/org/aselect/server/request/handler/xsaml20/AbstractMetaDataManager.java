@@ -25,8 +25,6 @@ import java.security.cert.CertificateExpiredException;
 import java.security.cert.CertificateNotYetValidException;
 import java.util.AbstractMap;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -72,9 +70,6 @@ import org.opensaml.xml.signature.X509Certificate;
 import org.opensaml.xml.signature.X509Data;
 import org.opensaml.xml.util.XMLHelper;
 import org.w3c.dom.Element;
-import org.w3c.dom.NamedNodeMap;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 /**
  * @author bauke
@@ -95,6 +90,8 @@ public abstract class AbstractMetaDataManager
 	// All descriptors
 //	protected ConcurrentHashMap<String, SSODescriptor> SSODescriptors = new ConcurrentHashMap<String, SSODescriptor>();	// RH, 20190322, o
 	protected ConcurrentHashMap<Map.Entry<String, String>, SSODescriptor> SSODescriptors = new ConcurrentHashMap<Map.Entry<String, String>, SSODescriptor>();	// RH, 20190322, n
+	// Endpoints of the descriptors, same key as SSODescriptors
+	protected ConcurrentHashMap<Map.Entry<String, String>, MetaDataEndpointIndex> endpointIndexes = new ConcurrentHashMap<Map.Entry<String, String>, MetaDataEndpointIndex>();
 //	protected ConcurrentHashMap<String, String> metadataSPs = new ConcurrentHashMap<String, String>();
 //	protected ConcurrentHashMap<String, String> sessionSyncSPs = new ConcurrentHashMap<String, String>();
 	protected ConcurrentHashMap<String, java.security.cert.X509Certificate> trustedIssuers = new ConcurrentHashMap<String, java.security.cert.X509Certificate>();
@@ -437,6 +434,7 @@ public abstract class AbstractMetaDataManager
 				out.println("Entity " + entityId + " not found");
 			}
 		}
+		endpointIndexes.keySet().retainAll(SSODescriptors.keySet());
 	}
 	// RH, 20190322, en
 
@@ -492,7 +490,8 @@ public abstract class AbstractMetaDataManager
 				if (singleEntityDescriptorValue == null) {
 					// if no single root EntityDescriptor, maybe embedded in EntitiesDescriptor
 					_systemLogger.log(Level.FINEST, MODULE, sMethod, "No single EntityDescriptor found, trying EntitiesDescriptor");
-					_systemLogger.log(Level.FINEST, MODULE, sMethod, XMLHelper.prettyPrintXML(domdoc.getDOM()));
+					if (_systemLogger.isLoggable(Level.FINEST))
+						_systemLogger.log(Level.FINEST, MODULE, sMethod, XMLHelper.prettyPrintXML(domdoc.getDOM()));
 					
 					if (!(domdoc instanceof EntitiesDescriptor)) {
 					        throw new ASelectException("Unexpected body content.  Expected a SAML EntitiesDescriptor but recieved "
@@ -517,7 +516,9 @@ public abstract class AbstractMetaDataManager
 						if (!checkKeyDescriptorCertificate(descriptorValueIDP))
 							throw new ASelectException(Errors.ERROR_ASELECT_INIT_ERROR);
 //						SSODescriptors.put(makeEntityKey(entityId, "IDP"), descriptorValueIDP);	// RH, 20190322, o
-						SSODescriptors.put(new AbstractMap.SimpleEntry<String, String>(resourceGroup, makeEntityKey(entityId, "IDP")), descriptorValueIDP);	// RH, 20190322, n
+						Map.Entry<String, String> descriptorKey = new AbstractMap.SimpleEntry<String, String>(resourceGroup, makeEntityKey(entityId, "IDP"));
+						SSODescriptors.put(descriptorKey, descriptorValueIDP);	// RH, 20190322, n
+						getEndpointIndex(descriptorKey, descriptorValueIDP);
 					}
 					SSODescriptor descriptorValueSP = entityDescriptorValue.getSPSSODescriptor(protocolSupportEnumeration);
 					if (descriptorValueSP != null) {
@@ -525,7 +526,9 @@ public abstract class AbstractMetaDataManager
 						if (!checkKeyDescriptorCertificate(descriptorValueSP))
 							throw new ASelectException(Errors.ERROR_ASELECT_INIT_ERROR);
 //						SSODescriptors.put(makeEntityKey(entityId, "SP"), descriptorValueSP);	// RH, 20190322, o
-						SSODescriptors.put(new AbstractMap.SimpleEntry<String, String>(resourceGroup, makeEntityKey(entityId, "SP")), descriptorValueSP);	// RH, 20190322, n
+						Map.Entry<String, String> descriptorKey = new AbstractMap.SimpleEntry<String, String>(resourceGroup, makeEntityKey(entityId, "SP"));
+						SSODescriptors.put(descriptorKey, descriptorValueSP);	// RH, 20190322, n
+						getEndpointIndex(descriptorKey, descriptorValueSP);
 					}
 				}
 			}
@@ -1144,166 +1147,37 @@ public abstract class AbstractMetaDataManager
 		
 //		SSODescriptor descriptor = SSODescriptors.get(makeEntityKey(entityId, null));	// RH, 20190322, o
 		_systemLogger.log(Level.FINEST, MODULE, sMethod, "SSODescriptors:" + SSODescriptors);
-		SSODescriptor descriptor = SSODescriptors.get(new AbstractMap.SimpleEntry<String, String>(resourceGroup, makeEntityKey(entityId, null)));	// RH, 20190322, n
+		Map.Entry<String, String> descriptorKey = new AbstractMap.SimpleEntry<String, String>(resourceGroup, makeEntityKey(entityId, null));
+		SSODescriptor descriptor = SSODescriptors.get(descriptorKey);	// RH, 20190322, n
 		if (descriptor == null) {
 //			_systemLogger.log(Level.WARNING, MODULE, sMethod, "No SSODescriptor for " + entityId);
 			_systemLogger.log(Level.WARNING, MODULE, sMethod, "No SSODescriptor for resourceGroup=" + resourceGroup+" entityId=" + entityId);
 		}
 		else {
-			try {
-				Element domDescriptor = marshallDescriptor(descriptor);
-//				if (domDescriptor == null)	// RH, 20200203, o
-//				_systemLogger.log(Level.WARNING, MODULE, sMethod, "marshallDescriptor failed");	// RH, 20200203, o
-				if (domDescriptor != null) { 	// RH, 20200203, o
-					NodeList nodeList = domDescriptor.getChildNodes();
-	
-					// RH, 20200127, so				
-					/*
-					// follow saml specs more precisely here, fix this
-					//_systemLogger.log(Level.FINE, MODULE, sMethod, "Try "+nodeList.getLength()+" entries");
-					for (int i = 0; i < nodeList.getLength(); i++) {
-						Node childNode = nodeList.item(i);
-						//_systemLogger.log(Level.FINE, MODULE, sMethod, "Node "+childNode.getLocalName());
-						if (elementName.equals(childNode.getLocalName())) {
-							NamedNodeMap nodeMap = childNode.getAttributes();
-							String bindingMDValue = nodeMap.getNamedItem("Binding").getNodeValue();
-							Node nIsDefault = nodeMap.getNamedItem("isDefault");
-							boolean isDefault = false;
-							if (nIsDefault != null && "true".equals(nIsDefault.getNodeValue()))
-								isDefault = true;
-							_systemLogger.log(Level.FINE, MODULE, sMethod, "Try binding="+bindingMDValue+" isDefault="+isDefault);
-							if ((!Utils.hasValue(requestedBinding) && isDefault) || bindingMDValue.equals(requestedBinding)) {
-								Node node = nodeMap.getNamedItem(attrName);
-								if (node != null) {
-									location = node.getNodeValue();
-									if (hmBinding != null)
-										hmBinding.put("binding", bindingMDValue);
-									_systemLogger.log(Level.FINER, MODULE, sMethod, "Found location for entityId="
-											+ entityId + " elementName=" + elementName + " bindingName=" + requestedBinding
-											+ " attrName=" + attrName + " location=" + location+" binding="+bindingMDValue);
-								}
-								else {
-									if (hmBinding != null)
-										hmBinding.clear();
-									_systemLogger.log(Level.FINER, MODULE, sMethod, "Did not find location for entityId="
-											+ entityId + " elementName=" + elementName + " bindingName=" + requestedBinding
-											+ " attrName=" + attrName + " locatione=" + location);
-								}
-								break;  // ready
-							}
-						}
+			// The endpoints are indexed when the metadata is loaded, no marshalling needed here
+			MetaDataEndpointIndex endpointIndex = getEndpointIndex(descriptorKey, descriptor);
+			MetaDataEndpointIndex.Endpoint preferred = endpointIndex.getPreferredEndpoint(elementName, requestedBinding);
+			if (preferred != null) {
+				String bindingMDValue = preferred.getBinding();
+				if (requestedBinding == null || (bindingMDValue != null && bindingMDValue.equals(requestedBinding))) {
+					location = preferred.getAttribute(attrName);
+					if (location != null) {
+						if (hmBinding != null)
+							hmBinding.put("binding", bindingMDValue);
+						_systemLogger.log(Level.FINER, MODULE, sMethod, "Found (response)location for entityId="
+								+ entityId + " elementName=" + elementName + " bindingName=" + requestedBinding
+								+ " attrName=" + attrName + " (response)location=" + location+" binding="+bindingMDValue);
 					}
-					
-					*/
-					// RH, 20200127, eo				
-	
-					// RH, 20200127, sn				
-					List<Node> entities = new ArrayList<Node>();
-					_systemLogger.log(Level.FINEST, MODULE, sMethod, "nodeList.getLength():" + nodeList.getLength());
-					for (int i = 0; i < nodeList.getLength(); i++) {	// only add Elements of interest
-						if (elementName.equals(nodeList.item(i).getLocalName())) {
-							entities.add( nodeList.item(i));
-							_systemLogger.log(Level.FINEST, MODULE, sMethod, "added nodeList.item: " + i + " " + nodeList.item(i).getLocalName());
-						}
-					}
-					_systemLogger.log(Level.FINEST, MODULE, sMethod, "Number of elements to compare:" + entities.size());
-					
-					if (!entities.isEmpty()) {
-				        Collections.sort(entities, new Comparator<Node>() {
-				            public int compare(Node node, Node node1) {
-				            	// we will reverse order for convenience, so items of least interest are at the end
-				            	// Binding is mandatory for the nodes we're interested in but we'll account for null anyway
-								NamedNodeMap nodeMap = node.getAttributes();
-								if (nodeMap == null) return 1;	// node is of less interest than node1
-								String bindingMDValue = nodeMap.getNamedItem("Binding").getNodeValue();
-								if (bindingMDValue == null) return 1;	// node is of less interest than node1
-								Node nIsDefault = nodeMap.getNamedItem("isDefault");
-								if ( nIsDefault != null && 
-										!("true".equalsIgnoreCase(nIsDefault.getNodeValue()) || "false".equalsIgnoreCase(nIsDefault.getNodeValue())) ) {
-									_systemLogger.log(Level.WARNING, MODULE, sMethod, "Encountered illegal value for isDefault, ignored. Illegal value= " + nIsDefault.getNodeValue());
-									nIsDefault = null;
-								}
-		
-								NamedNodeMap nodeMap1 = node1.getAttributes();
-								if (nodeMap1 == null) return -1;	// node is of more interest than node1
-								String bindingMDValue1 = nodeMap1.getNamedItem("Binding").getNodeValue();
-								if (bindingMDValue1 == null) return -1;	// node is of more interest than node1
-								Node nIsDefault1 = nodeMap1.getNamedItem("isDefault");
-								if ( nIsDefault1 != null && 
-										!("true".equalsIgnoreCase(nIsDefault1.getNodeValue()) || "false".equalsIgnoreCase(nIsDefault1.getNodeValue())) ) {
-									_systemLogger.log(Level.WARNING, MODULE, sMethod, "Encountered illegal value for isDefault, ignored. Illegal value= " + nIsDefault1.getNodeValue());
-									nIsDefault1 = null;
-								}
-								
-								// binding takes precedence
-								if (bindingMDValue.equals(requestedBinding) && !bindingMDValue1.equals(requestedBinding)) {
-									return -1;
-				        	
-								} else if (bindingMDValue1.equals(requestedBinding) && !bindingMDValue.equals(requestedBinding)) {
-									return 1;
-								}
-								// max one should have isDefault=true but we'll allow for multiple 
-								if (nIsDefault != null) {
-									if ("true".equalsIgnoreCase(nIsDefault.getNodeValue())) {
-										if (nIsDefault1 == null || !"false".equalsIgnoreCase(nIsDefault1.getNodeValue())) {
-											return -1;
-										}
-									} else {	// nIsDefault == false
-										if (nIsDefault1 == null || "true".equalsIgnoreCase(nIsDefault1.getNodeValue())) {
-											return 1;
-										}
-									}
-								} else {	//	nIsDefault == null
-									if ( nIsDefault1 != null ) {
-										if ("true".equalsIgnoreCase(nIsDefault1.getNodeValue())) {	// node is of less interest than node1
-											return 1;
-										} else {	// nIsDefault1 == false, // node is of more interest than node1
-											return -1;
-										}
-									}
-								}
-								// This (java) sort is guaranteed to be stable. It means that equal elements will not be reordered as a result of the sort.
-								// So to preserve order it should be sufficient to return zero
-								return 0;
-				            }
-				        });
-		
-						Node preferredNode = entities.get(0);
-						NamedNodeMap preferredMap = preferredNode.getAttributes();
-						if ( requestedBinding == null || preferredMap.getNamedItem("Binding").getNodeValue().equals(requestedBinding) ) {
-							Node node = preferredMap.getNamedItem(attrName);
-							if (node != null) {
-								location = node.getNodeValue();
-								if (hmBinding != null)
-									hmBinding.put("binding", preferredMap.getNamedItem("Binding").getNodeValue());
-								_systemLogger.log(Level.FINER, MODULE, sMethod, "Found (response)location for entityId="
-										+ entityId + " elementName=" + elementName + " bindingName=" + requestedBinding
-										+ " attrName=" + attrName + " (response)location=" + location+" binding="+preferredMap.getNamedItem("Binding").getNodeValue());
-							}
-							else {
-								if (hmBinding != null)
-									hmBinding.clear();
-								_systemLogger.log(Level.FINER, MODULE, sMethod, "Did not find location for entityId="
-										+ entityId + " elementName=" + elementName + " bindingName=" + requestedBinding
-										+ " attrName=" + attrName + " (response)location=" + location);
-							}
-						}
-					} else {
-						_systemLogger.log(Level.WARNING, MODULE, sMethod, "No descriptors found for requested elementname: " + elementName);
+					else {
+						if (hmBinding != null)
+							hmBinding.clear();
+						_systemLogger.log(Level.FINER, MODULE, sMethod, "Did not find location for entityId="
+								+ entityId + " elementName=" + elementName + " bindingName=" + requestedBinding
+								+ " attrName=" + attrName + " (response)location=" + location);
 					}
-					// RH, 20200127, en
-				} else { // RH, 20200203, sn
-					_systemLogger.log(Level.WARNING, MODULE, sMethod, "marshallDescriptor returned null");
-				} // RH, 20200203, en
-			}
-			catch (MarshallingException e) {
-				_systemLogger.log(Level.SEVERE, MODULE, sMethod, "Marshalling failed with the following error: ", e);
-				throw new ASelectException(Errors.ERROR_ASELECT_INIT_ERROR, e);
-
-			}
-			catch (XMLParserException e) {
-				_systemLogger.log(Level.SEVERE, MODULE, sMethod, "Parser failed with the following error: ", e);
-				throw new ASelectException(Errors.ERROR_ASELECT_INIT_ERROR, e);
+				}
+			} else {
+				_systemLogger.log(Level.WARNING, MODULE, sMethod, "No descriptors found for requested elementname: " + elementName);
 			}
 		}
 		_systemLogger.log(Level.INFO, MODULE, sMethod, "Returning (response)location: " + location);
@@ -1337,6 +1211,42 @@ public abstract class AbstractMetaDataManager
 		return domDescriptor;
 	}
 
+	/**
+	 * Get the endpoint index of a descriptor, the index is built when not present yet or when the descriptor has
+	 * been replaced.
+	 * 
+	 * @param descriptorKey
+	 *            the key of the descriptor in SSODescriptors
+	 * @param descriptor
+	 *            the descriptor
+	 * @return the endpoint index
+	 * @throws ASelectException
+	 *             if the descriptor can't be marshalled
+	 */
+	protected MetaDataEndpointIndex getEndpointIndex(Map.Entry<String, String> descriptorKey, SSODescriptor descriptor)
+	throws ASelectException
+	{
+		String sMethod = "getEndpointIndex";
+
+		MetaDataEndpointIndex endpointIndex = endpointIndexes.get(descriptorKey);
+		if (endpointIndex != null && endpointIndex.getDescriptor() == descriptor)
+			return endpointIndex;
+		try {
+			endpointIndex = new MetaDataEndpointIndex(descriptor, marshallDescriptor(descriptor), _systemLogger);
+		}
+		catch (MarshallingException e) {
+			_systemLogger.log(Level.SEVERE, MODULE, sMethod, "Marshalling failed with the following error: ", e);
+			throw new ASelectException(Errors.ERROR_ASELECT_INIT_ERROR, e);
+		}
+		catch (XMLParserException e) {
+			_systemLogger.log(Level.SEVERE, MODULE, sMethod, "Parser failed with the following error: ", e);
+			throw new ASelectException(Errors.ERROR_ASELECT_INIT_ERROR, e);
+		}
+		endpointIndexes.put(descriptorKey, endpointIndex);
+		_systemLogger.log(Level.FINE, MODULE, sMethod, "Indexed endpoints for " + descriptorKey);
+		return endpointIndex;
+	}
+
 	/**
 	 * Gets the check certificates.
 	 * 
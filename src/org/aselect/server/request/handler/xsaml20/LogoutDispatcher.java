@@ -0,0 +1,234 @@
+/*
+ * * Copyright (c) Anoigo. All rights reserved.
+ *
+ * A-Select is a trademark registered by SURFnet bv.
+ *
+ * This program is distributed under the EUPL 1.0 (http://osor.eu/eupl)
+ * See the included LICENSE file for details.
+ *
+ * If you did not receive a copy of the LICENSE
+ * please contact Anoigo. (http://www.anoigo.nl)
+ */
+package org.aselect.server.request.handler.xsaml20;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import org.aselect.system.configmanager.ConfigManager;
+import org.aselect.system.exception.ASelectConfigException;
+import org.aselect.system.logging.SystemLogger;
+
+/**
+ * Worker pool for logout requests sent on timeout. <br>
+ * <br>
+ * <b>Description:</b> <br>
+ * The timeout storage handlers remove expired TGTs during the storage cleanup and hand the SOAP logout requests to
+ * this dispatcher, so the cleaner never waits for a partner. Requests are queued per destination (SP or federation
+ * url), at most <code>logout_per_partner</code> requests to the same destination are sent at the same time, so a slow
+ * partner can only occupy that many of the <code>logout_threads</code> workers. When more than
+ * <code>logout_queue</code> requests are waiting for a destination, new requests for it are dropped. <br>
+ * <br>
+ * The optional parameters are read from the storagemanager section of the TGT manager. <br>
+ * <br>
+ * <b>Concurrency issues:</b> <br>
+ * {@link #dispatch(String, Runnable)} can be called by any thread. <br>
+ *
+ * @author Anoigo
+ */
+public class LogoutDispatcher
+{
+	private static final String MODULE = "LogoutDispatcher";
+
+	private static final int DEFAULT_THREADS = 4;
+	private static final int DEFAULT_PER_PARTNER = 2;
+	private static final int DEFAULT_QUEUE = 1000;
+
+	private final SystemLogger _oSystemLogger;
+	private final ThreadPoolExecutor _oExecutor;
+	private final int _iPerPartner;
+	private final int _iMaxQueued;
+	private final ConcurrentHashMap<String, Lane> _htLanes = new ConcurrentHashMap<String, Lane>();
+	private final AtomicLong _lDropped = new AtomicLong();
+
+	/**
+	 * Create a dispatcher using the configuration of the TGT storagemanager section. <br>
+	 * <br>
+	 *
+	 * @param oConfigManager
+	 *            the config manager
+	 * @param oTicketSection
+	 *            the storagemanager section having id="tgt", can be <code>null</code>
+	 * @param sName
+	 *            the name used for the worker threads
+	 * @param systemLogger
+	 *            the system logger
+	 * @return the dispatcher
+	 */
+	public static LogoutDispatcher create(ConfigManager oConfigManager, Object oTicketSection, String sName,
+			SystemLogger systemLogger)
+	{
+		String sMethod = "create";
+
+		int iThreads = getIntParam(oConfigManager, oTicketSection, "logout_threads", DEFAULT_THREADS, systemLogger);
+		int iPerPartner = getIntParam(oConfigManager, oTicketSection, "logout_per_partner", DEFAULT_PER_PARTNER, systemLogger);
+		int iMaxQueued = getIntParam(oConfigManager, oTicketSection, "logout_queue", DEFAULT_QUEUE, systemLogger);
+		systemLogger.log(Level.INFO, MODULE, sMethod, sName + ": logout_threads=" + iThreads + " logout_per_partner="
+				+ iPerPartner + " logout_queue=" + iMaxQueued);
+		return new LogoutDispatcher(sName, iThreads, iPerPartner, iMaxQueued, systemLogger);
+	}
+
+	/**
+	 * Instantiates a new logout dispatcher.
+	 *
+	 * @param sName
+	 *            the name used for the worker threads
+	 * @param iThreads
+	 *            the number of worker threads
+	 * @param iPerPartner
+	 *            the maximum number of concurrent requests per destination
+	 * @param iMaxQueued
+	 *            the maximum number of waiting requests per destination
+	 * @param systemLogger
+	 *            the system logger
+	 */
+	public LogoutDispatcher(final String sName, int iThreads, int iPerPartner, int iMaxQueued, SystemLogger systemLogger)
+	{
+		_oSystemLogger = systemLogger;
+		_iPerPartner = iPerPartner;
+		_iMaxQueued = iMaxQueued;
+		_oExecutor = new ThreadPoolExecutor(iThreads, iThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					private final AtomicInteger _iCount = new AtomicInteger();
+
+					public Thread newThread(Runnable oRunnable)
+					{
+						Thread oThread = new Thread(oRunnable, sName + "-" + _iCount.incrementAndGet());
+						oThread.setDaemon(true);
+						return oThread;
+					}
+				});
+		_oExecutor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Queue a logout request. <br>
+	 * <br>
+	 *
+	 * @param sDestination
+	 *            the partner the request is sent to
+	 * @param oTask
+	 *            sends the request, exceptions are logged
+	 * @return <code>false</code> if the request was dropped because too many requests are waiting for the partner
+	 */
+	public boolean dispatch(String sDestination, Runnable oTask)
+	{
+		String sMethod = "dispatch";
+
+		Lane oLane = _htLanes.get(sDestination);
+		if (oLane == null) {
+			Lane oPrevious = _htLanes.putIfAbsent(sDestination, oLane = new Lane());
+			if (oPrevious != null)
+				oLane = oPrevious;
+		}
+		if (oLane._iQueued.incrementAndGet() > _iMaxQueued) {
+			oLane._iQueued.decrementAndGet();
+			_oSystemLogger.log(Level.WARNING, MODULE, sMethod, "Too many logout requests waiting for " + sDestination
+					+ ", request dropped, total dropped=" + _lDropped.incrementAndGet());
+			return false;
+		}
+		oLane._qTasks.add(oTask);
+		schedule(oLane);
+		return true;
+	}
+
+	/**
+	 * Stop the worker threads, requests not yet started are discarded.
+	 */
+	public void shutdown()
+	{
+		_oExecutor.shutdownNow();
+		_htLanes.clear();
+	}
+
+	/**
+	 * Hand waiting requests of a destination to the workers, as long as its limit allows.
+	 */
+	private void schedule(final Lane oLane)
+	{
+		while (true) {
+			int iActive = oLane._iActive.get();
+			if (iActive >= _iPerPartner || oLane._qTasks.isEmpty())
+				return;
+			if (!oLane._iActive.compareAndSet(iActive, iActive + 1))
+				continue;
+
+			final Runnable oTask = oLane._qTasks.poll();
+			if (oTask == null) {  // taken by another thread
+				oLane._iActive.decrementAndGet();
+				continue;
+			}
+			oLane._iQueued.decrementAndGet();
+			try {
+				_oExecutor.execute(new Runnable() {
+					public void run()
+					{
+						try {
+							oTask.run();
+						}
+						catch (Exception e) {
+							_oSystemLogger.log(Level.WARNING, MODULE, "run", "Logout request failed", e);
+						}
+						finally {
+							oLane._iActive.decrementAndGet();
+							schedule(oLane);
+						}
+					}
+				});
+			}
+			catch (Exception e) {  // shut down
+				oLane._iActive.decrementAndGet();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Read an optional positive integer parameter.
+	 */
+	private static int getIntParam(ConfigManager oConfigManager, Object oSection, String sParam, int iDefault,
+			SystemLogger systemLogger)
+	{
+		if (oSection == null)
+			return iDefault;
+		try {
+			int iValue = Integer.parseInt(oConfigManager.getParam(oSection, sParam));
+			if (iValue > 0)
+				return iValue;
+			systemLogger.log(Level.WARNING, MODULE, "getIntParam", "Value of '" + sParam + "' must be positive, using " + iDefault);
+		}
+		catch (ASelectConfigException e) {
+			// not configured
+		}
+		catch (NumberFormatException e) {
+			systemLogger.log(Level.WARNING, MODULE, "getIntParam", "Value of '" + sParam + "' is not a number, using " + iDefault);
+		}
+		return iDefault;
+	}
+
+	/**
+	 * The waiting and running requests of a single destination.
+	 */
+	private static class Lane
+	{
+		private final ConcurrentLinkedQueue<Runnable> _qTasks = new ConcurrentLinkedQueue<Runnable>();
+		private final AtomicInteger _iQueued = new AtomicInteger();
+		private final AtomicInteger _iActive = new AtomicInteger();
+	}
+}
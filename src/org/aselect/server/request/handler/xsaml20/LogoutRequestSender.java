@@ -26,6 +26,7 @@ import org.aselect.server.config.ASelectConfigManager;
 import org.aselect.server.log.ASelectSystemLogger;
 import org.aselect.system.error.Errors;
 import org.aselect.system.exception.ASelectException;
+import org.aselect.system.logging.LogArgument;
 import org.aselect.system.utils.crypto.Auxiliary;
 import org.joda.time.DateTime;
 import org.opensaml.Configuration;
@@ -213,7 +214,7 @@ public class LogoutRequestSender
 			throw new ASelectException(Errors.ERROR_ASELECT_INTERNAL_ERROR, e);
 		}
 		String msg = XMLHelper.prettyPrintXML(node);
-		_systemLogger.log(Level.FINEST, MODULE, sMethod, "About to send:\n " + Auxiliary.obfuscate(msg, Auxiliary.REGEX_PATTERNS));
+		_systemLogger.log(Level.FINEST, MODULE, sMethod, "About to send:\n ", LogArgument.obfuscated(msg, Auxiliary.REGEX_PATTERNS));
 
 		// Store it in the history
 		SamlHistoryManager history = SamlHistoryManager.getHandle();
@@ -0,0 +1,201 @@
+/*
+ * * Copyright (c) Anoigo. All rights reserved.
+ *
+ * A-Select is a trademark registered by SURFnet bv.
+ *
+ * This program is distributed under the EUPL 1.0 (http://osor.eu/eupl)
+ * See the included LICENSE file for details.
+ *
+ * If you did not receive a copy of the LICENSE
+ * please contact Anoigo. (http://www.anoigo.nl)
+ */
+package org.aselect.server.request.handler.xsaml20;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+
+import org.aselect.system.logging.SystemLogger;
+import org.opensaml.saml2.metadata.SSODescriptor;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Endpoint index of a single metadata descriptor. <br>
+ * <br>
+ * <b>Description:</b> <br>
+ * Holds the attributes (Binding, isDefault, Location, ResponseLocation, ...) of the child elements of a marshalled
+ * <code>SSODescriptor</code>, so endpoint lookups no longer have to marshall the descriptor. The endpoint preferred
+ * for an element name and requested binding is determined once and cached. <br>
+ * <br>
+ * <b>Concurrency issues:</b> <br>
+ * The index is immutable after construction except for the cache of preferred endpoints, which is thread-safe. <br>
+ *
+ * @author Anoigo
+ */
+public class MetaDataEndpointIndex
+{
+	private static final String MODULE = "MetaDataEndpointIndex";
+
+	private final SSODescriptor _oDescriptor;
+	private final HashMap<String, List<Endpoint>> _htEndpoints = new HashMap<String, List<Endpoint>>();
+	private final ConcurrentHashMap<String, Endpoint> _htPreferred = new ConcurrentHashMap<String, Endpoint>();
+
+	/**
+	 * Build the index from the marshalled descriptor. <br>
+	 * <br>
+	 *
+	 * @param oDescriptor
+	 *            the descriptor
+	 * @param domDescriptor
+	 *            the marshalled descriptor
+	 * @param systemLogger
+	 *            the system logger
+	 */
+	public MetaDataEndpointIndex(SSODescriptor oDescriptor, Element domDescriptor, SystemLogger systemLogger)
+	{
+		String sMethod = "MetaDataEndpointIndex";
+
+		_oDescriptor = oDescriptor;
+		NodeList nodeList = domDescriptor.getChildNodes();
+		for (int i = 0; i < nodeList.getLength(); i++) {
+			Node childNode = nodeList.item(i);
+			String sName = childNode.getLocalName();
+			NamedNodeMap nodeMap = childNode.getAttributes();
+			if (sName == null || nodeMap == null)
+				continue;
+
+			HashMap<String, String> htAttributes = new HashMap<String, String>();
+			for (int j = 0; j < nodeMap.getLength(); j++) {
+				Node attrNode = nodeMap.item(j);
+				htAttributes.put(attrNode.getNodeName(), attrNode.getNodeValue());
+			}
+			Boolean bIsDefault = null;
+			String sIsDefault = htAttributes.get("isDefault");
+			if ("true".equalsIgnoreCase(sIsDefault) || "false".equalsIgnoreCase(sIsDefault))
+				bIsDefault = Boolean.valueOf(sIsDefault.toLowerCase());
+			else if (sIsDefault != null)
+				systemLogger.log(Level.WARNING, MODULE, sMethod, "Encountered illegal value for isDefault, ignored. Illegal value= " + sIsDefault);
+
+			List<Endpoint> lEndpoints = _htEndpoints.get(sName);
+			if (lEndpoints == null) {
+				lEndpoints = new ArrayList<Endpoint>();
+				_htEndpoints.put(sName, lEndpoints);
+			}
+			lEndpoints.add(new Endpoint(htAttributes, bIsDefault));
+		}
+	}
+
+	/**
+	 * Get the descriptor this index was built from.
+	 *
+	 * @return the descriptor
+	 */
+	public SSODescriptor getDescriptor()
+	{
+		return _oDescriptor;
+	}
+
+	/**
+	 * Get the preferred endpoint for an element. <br>
+	 * <br>
+	 * <b>Description:</b> <br>
+	 * Endpoints having the requested binding come first, then the ones having isDefault="true", then the ones without
+	 * isDefault and finally isDefault="false". Otherwise document order is kept. <br>
+	 *
+	 * @param sElementName
+	 *            the element name, e.g. "SingleSignOnService"
+	 * @param sRequestedBinding
+	 *            the requested binding, can be <code>null</code>
+	 * @return the preferred endpoint, or <code>null</code> if the descriptor has no such elements
+	 */
+	public Endpoint getPreferredEndpoint(String sElementName, final String sRequestedBinding)
+	{
+		List<Endpoint> lEndpoints = _htEndpoints.get(sElementName);
+		if (lEndpoints == null)
+			return null;
+
+		String sKey = sElementName + ((sRequestedBinding == null) ? "\u0000" : "\u0001" + sRequestedBinding);
+		Endpoint oPreferred = _htPreferred.get(sKey);
+		if (oPreferred == null) {
+			List<Endpoint> lSorted = new ArrayList<Endpoint>(lEndpoints);
+			Collections.sort(lSorted, new Comparator<Endpoint>() {  // stable, equal elements keep document order
+				public int compare(Endpoint oEndpoint, Endpoint oEndpoint1)
+				{
+					String sBinding = oEndpoint.getBinding();
+					if (sBinding == null)
+						return 1;
+					String sBinding1 = oEndpoint1.getBinding();
+					if (sBinding1 == null)
+						return -1;
+
+					// binding takes precedence
+					if (sBinding.equals(sRequestedBinding) && !sBinding1.equals(sRequestedBinding))
+						return -1;
+					else if (sBinding1.equals(sRequestedBinding) && !sBinding.equals(sRequestedBinding))
+						return 1;
+
+					// max one should have isDefault=true but we'll allow for multiple
+					Boolean bIsDefault = oEndpoint._bIsDefault;
+					Boolean bIsDefault1 = oEndpoint1._bIsDefault;
+					if (bIsDefault != null) {
+						if (bIsDefault.booleanValue()) {
+							if (bIsDefault1 == null || bIsDefault1.booleanValue())
+								return -1;
+						}
+						else if (bIsDefault1 == null || bIsDefault1.booleanValue())
+							return 1;
+					}
+					else if (bIsDefault1 != null)
+						return (bIsDefault1.booleanValue()) ? 1 : -1;
+					return 0;
+				}
+			});
+			oPreferred = lSorted.get(0);
+			_htPreferred.put(sKey, oPreferred);
+		}
+		return oPreferred;
+	}
+
+	/**
+	 * The attributes of a single metadata element.
+	 */
+	public static class Endpoint
+	{
+		private final HashMap<String, String> _htAttributes;
+		private final Boolean _bIsDefault;
+
+		private Endpoint(HashMap<String, String> htAttributes, Boolean bIsDefault) {
+			_htAttributes = htAttributes;
+			_bIsDefault = bIsDefault;
+		}
+
+		/**
+		 * Get the Binding attribute.
+		 *
+		 * @return the binding
+		 */
+		public String getBinding()
+		{
+			return _htAttributes.get("Binding");
+		}
+
+		/**
+		 * Get an attribute value.
+		 *
+		 * @param sName
+		 *            the attribute name, e.g. "Location"
+		 * @return the value or <code>null</code> if not present
+		 */
+		public String getAttribute(String sName)
+		{
+			return _htAttributes.get(sName);
+		}
+	}
+}
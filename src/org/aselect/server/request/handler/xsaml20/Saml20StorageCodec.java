@@ -0,0 +1,117 @@
+/*
+ * * Copyright (c) Anoigo. All rights reserved.
+ *
+ * A-Select is a trademark registered by SURFnet bv.
+ *
+ * This program is distributed under the EUPL 1.0 (http://osor.eu/eupl)
+ * See the included LICENSE file for details.
+ *
+ * If you did not receive a copy of the LICENSE
+ * please contact Anoigo. (http://www.anoigo.nl)
+ */
+package org.aselect.server.request.handler.xsaml20;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import org.aselect.server.request.handler.xsaml20.idp.UserSsoSession;
+import org.aselect.system.storagemanager.codec.BinaryStorageCodec;
+
+/**
+ * Binary storage codec that also knows the SAML 2.0 session types. <br>
+ * <br>
+ * <b>Description:</b> <br>
+ * Extends the {@link BinaryStorageCodec} with a compact encoding for {@link UserSsoSession} and
+ * {@link ServiceProvider}, which are stored in the TGT context by the Identity Provider. <br>
+ * <br>
+ * <b>Concurrency issues:</b> <br>
+ * - <br>
+ *
+ * @author Anoigo
+ */
+public class Saml20StorageCodec extends BinaryStorageCodec
+{
+	protected static final int TAG_SERVICE_PROVIDER = TAG_CUSTOM;
+	protected static final int TAG_USER_SSO_SESSION = TAG_CUSTOM + 1;
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.storagemanager.codec.BinaryStorageCodec#writeCustom(java.io.DataOutputStream, java.lang.Object)
+	 */
+	@Override
+	protected boolean writeCustom(DataOutputStream osData, Object oValue)
+	throws IOException
+	{
+		if (oValue.getClass() == ServiceProvider.class) {
+			osData.writeByte(TAG_SERVICE_PROVIDER);
+			writeServiceProvider(osData, (ServiceProvider) oValue);
+			return true;
+		}
+		if (oValue.getClass() == UserSsoSession.class) {
+			UserSsoSession oSession = (UserSsoSession) oValue;
+			osData.writeByte(TAG_USER_SSO_SESSION);
+			writeValue(osData, oSession.getUserId());
+			writeValue(osData, oSession.getTgtId());
+			writeValue(osData, oSession.getLogoutInitiator());
+			writeValue(osData, oSession.getLogoutInitiatingID());
+			writeValue(osData, oSession.getAspCredentials());
+			List<ServiceProvider> lServiceProviders = oSession.getServiceProviders();
+			writeLength(osData, lServiceProviders.size());
+			for (ServiceProvider oServiceProvider : lServiceProviders) {
+				writeServiceProvider(osData, oServiceProvider);
+			}
+			return true;
+		}
+		return false;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.storagemanager.codec.BinaryStorageCodec#readCustom(int, java.io.DataInputStream)
+	 */
+	@Override
+	protected Object readCustom(int iTag, DataInputStream isData)
+	throws IOException, ClassNotFoundException
+	{
+		switch (iTag) {
+		case TAG_SERVICE_PROVIDER:
+			return readServiceProvider(isData);
+		case TAG_USER_SSO_SESSION:
+			String sUserId = (String) readValue(isData);
+			String sTgtId = (String) readValue(isData);
+			UserSsoSession oSession = new UserSsoSession(sUserId, sTgtId);
+			oSession.setLogoutInitiator((String) readValue(isData));
+			oSession.setLogoutInitiatingID((String) readValue(isData));
+			oSession.setAspCredentials((String) readValue(isData));
+			int iSize = readLength(isData);
+			List<ServiceProvider> lServiceProviders = oSession.getServiceProviders();
+			for (int i = 0; i < iSize; i++) {
+				lServiceProviders.add(readServiceProvider(isData));
+			}
+			return oSession;
+		default:
+			return super.readCustom(iTag, isData);
+		}
+	}
+
+	/**
+	 * Write the fields of a service provider.
+	 */
+	private void writeServiceProvider(DataOutputStream osData, ServiceProvider oServiceProvider)
+	throws IOException
+	{
+		writeValue(osData, oServiceProvider.getServiceProviderUrl());
+		osData.writeLong(oServiceProvider.getLastSessionSync());
+	}
+
+	/**
+	 * Read a service provider written by writeServiceProvider().
+	 */
+	private ServiceProvider readServiceProvider(DataInputStream isData)
+	throws IOException, ClassNotFoundException
+	{
+		ServiceProvider oServiceProvider = new ServiceProvider((String) readValue(isData));
+		oServiceProvider.setLastSessionSync(isData.readLong());
+		return oServiceProvider;
+	}
+}
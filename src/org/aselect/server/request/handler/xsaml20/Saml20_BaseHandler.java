@@ -252,7 +252,7 @@ public abstract class Saml20_BaseHandler extends ProtoRequestHandler
 	}
 
 	// Unfortunately, sNameID is not equal to our tgtID (it's the Federation's)
-	// So we have to search all TGT's (for now a very inefficient implementation)
+	// So we have to search the TGT's, this uses the "name_id" index when configured
 	/**
 	 * Removes the tgt by name id.
 	 * 
@@ -270,24 +270,18 @@ public abstract class Saml20_BaseHandler extends ProtoRequestHandler
 		String sMethod = "removeByNameID";
 		HashMap htTGTContext = null;	// RH, 20161215, n
 		TGTManager tgtManager = TGTManager.getHandle();
-		HashMap allTgts = tgtManager.getAll();
+		HashMap matchingTgts = tgtManager.getTGTsByNameID(sNameID);
 
-		// For all TGT's
+		// The first TGT having this name_id
 		int found = 0;
-		Set keys = allTgts.keySet();
+		Set keys = matchingTgts.keySet();
 		for (Object s : keys) {
 			String sKey = (String) s;
-			// for (Enumeration<String> e = allTgts.keys(); e.hasMoreElements();) {
-			// String sKey = e.nextElement();
-//			HashMap htTGTContext = (HashMap) tgtManager.get(sKey);	// RH, 20161215, o
-			htTGTContext = (HashMap) tgtManager.get(sKey);	// RH, 20161215, n
-			String tgtNameID = (String) htTGTContext.get("name_id");
-			if (sNameID.equals(tgtNameID)) {
-				_systemLogger.log(Level.INFO, MODULE, sMethod, "Remove TGT=" + Utils.firstPartOf(sKey, 30));
-				tgtManager.remove(sKey);
-				found = 1;
-				break;
-			}
+			htTGTContext = (HashMap) matchingTgts.get(sKey);
+			_systemLogger.log(Level.INFO, MODULE, sMethod, "Remove TGT=" + Utils.firstPartOf(sKey, 30));
+			tgtManager.remove(sKey);
+			found = 1;
+			break;
 		}
 		//	return found;	// RH, 20161215, o
 		// RH, 20161215, sn
@@ -325,8 +325,9 @@ public abstract class Saml20_BrowserHandler extends Saml20_BaseHandler
 				sRelayState = null;
 			
 			SignableSAMLObject samlMessage = (SignableSAMLObject) messageContext.getInboundSAMLMessage();
-			_systemLogger.log(Level.FINEST, MODULE, sMethod, "Class="+samlMessage.getClass().getName()+" SamlMsg="
-					+Auxiliary.obfuscate(XMLHelper.prettyPrintXML(samlMessage.getDOM()), Auxiliary.REGEX_PATTERNS));
+			if (_systemLogger.isLoggable(Level.FINEST))
+				_systemLogger.log(Level.FINEST, MODULE, sMethod, "Class="+samlMessage.getClass().getName()+" SamlMsg="
+						+Auxiliary.obfuscate(XMLHelper.prettyPrintXML(samlMessage.getDOM()), Auxiliary.REGEX_PATTERNS));
 			
 			// Decide what part of the message we need, also sets _oSamlIssuer
 			samlMessage = extractSamlObject(samlMessage);
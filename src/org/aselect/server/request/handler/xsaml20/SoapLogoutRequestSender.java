@@ -25,6 +25,7 @@ import javax.xml.parsers.DocumentBuilderFactory;
 import org.aselect.server.log.ASelectSystemLogger;
 import org.aselect.system.error.Errors;
 import org.aselect.system.exception.ASelectException;
+import org.aselect.system.logging.LogArgument;
 import org.aselect.system.utils.Utils;
 import org.aselect.system.utils.crypto.Auxiliary;
 import org.opensaml.saml2.core.LogoutRequest;
@@ -198,8 +199,7 @@ public class SoapLogoutRequestSender
 		Element envelopeElem = null;
 		try {
 			envelopeElem = SamlTools.marshallMessage(envelope);
-			_systemLogger.log(Level.FINEST, MODULE, sMethod, "Sending SOAP message:\n" + Auxiliary.obfuscate(XMLHelper.nodeToString(envelopeElem), 
-					Auxiliary.REGEX_PATTERNS));
+			_systemLogger.log(Level.FINEST, MODULE, sMethod, "Sending SOAP message:\n", LogArgument.serialized(envelopeElem, Auxiliary.REGEX_PATTERNS));
 		}
 		catch (MessageEncodingException e) {
 			_systemLogger.log(Level.WARNING, MODULE, sMethod, "Exception during marshallling of envelope");
@@ -19,6 +19,7 @@ import org.aselect.server.request.handler.xsaml20.idp.MetaDataManagerIdp;
 import org.aselect.system.error.Errors;
 import org.aselect.server.request.handler.xsaml20.SamlTools;
 import org.aselect.system.exception.ASelectException;
+import org.aselect.system.logging.LogArgument;
 import org.aselect.system.utils.crypto.Auxiliary;
 import org.opensaml.common.xml.SAMLConstants;
 import org.opensaml.saml2.core.LogoutResponse;
@@ -72,8 +73,7 @@ public class SoapLogoutResponseSender
 		try {
 			envelopeElem = SamlTools.marshallMessage(envelope);
 			// String msg = XMLHelper.prettyPrintXML(envelopeElem);
-			_systemLogger.log(Level.FINEST, MODULE, sMethod, "Sending message:\n" + Auxiliary.obfuscate(XMLHelper.nodeToString(envelopeElem), 
-					Auxiliary.REGEX_PATTERNS));
+			_systemLogger.log(Level.FINEST, MODULE, sMethod, "Sending message:\n", LogArgument.serialized(envelopeElem, Auxiliary.REGEX_PATTERNS));
 		}
 		catch (MessageEncodingException e) {
 			_systemLogger.log(Level.WARNING, MODULE, sMethod, e.getMessage(), e);
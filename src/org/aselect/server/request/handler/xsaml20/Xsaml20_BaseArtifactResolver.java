@@ -26,6 +26,7 @@ import org.aselect.server.application.ApplicationManager;
 import org.aselect.server.request.RequestState;
 import org.aselect.system.error.Errors;
 import org.aselect.system.exception.ASelectException;
+import org.aselect.system.logging.LogArgument;
 import org.aselect.system.utils.Tools;
 import org.aselect.system.utils.Utils;
 import org.aselect.system.utils.crypto.Auxiliary;
@@ -296,7 +297,7 @@ public abstract class Xsaml20_BaseArtifactResolver extends Saml20_BaseHandler {
 				}
 				Envelope envelope = new SoapManager().buildSOAPMessage(artifactResponse);
 				Element envelopeElem = SamlTools.marshallMessage(envelope);
-				_systemLogger.log(Level.FINEST, MODULE, sMethod, "Writing SOAP message:\n" + Auxiliary.obfuscate(XMLHelper.nodeToString(envelopeElem), Auxiliary.REGEX_PATTERNS));
+				_systemLogger.log(Level.FINEST, MODULE, sMethod, "Writing SOAP message:\n", LogArgument.serialized(envelopeElem, Auxiliary.REGEX_PATTERNS));
 	
 				// Bauke: added, it's considered polite to tell the other side what we are sending
 				SamlTools.sendSOAPResponse(request, response, XMLHelper.nodeToString(envelopeElem));  // x_AssertionConsumer_x
@@ -12,12 +12,14 @@
 package org.aselect.server.request.handler.xsaml20.idp;
 
 import java.security.PublicKey;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
 import java.util.logging.Level;
 
+import org.aselect.server.request.handler.xsaml20.LogoutDispatcher;
 import org.aselect.server.request.handler.xsaml20.ServiceProvider;
 import org.aselect.server.request.handler.xsaml20.SoapLogoutRequestSender;
 import org.aselect.server.tgt.TGTManager;
@@ -35,14 +37,23 @@ import org.opensaml.saml2.metadata.SingleLogoutService;
 /*
  * NOTE: Code is identical to MemoryStorageHandlerTimeOut (except for class-names of course).
  *       Though it is different from the sp-version.
+ *
+ * The earliest deadline of a TGT (see getDeadline()) is written to the column of an optional
+ * <index field="timeout_deadline" column="..."/> in the storagehandler section, so the cleanup only reads
+ * the TGTs whose deadline passed. Without that index all TGTs are visited, timeout_batch_size at a time.
  */
 public class JDBCStorageHandlerTimeOut extends JDBCStorageHandler
 {
 	private final static String MODULE = "JDBCStorageHandlerTimeOut";
+	private final static String DEADLINE_FIELD = "timeout_deadline";
+	private final static int DEFAULT_BATCH_SIZE = 500;
+	private int _iBatchSize = DEFAULT_BATCH_SIZE;
 	private TGTManager _oTGTManager;
 	private SystemLogger _oSystemLogger;
 	private String timeOut;
 	long timeOutTime = 0L;
+	private long _lExpireTime = 0L;
+	private LogoutDispatcher _oLogoutDispatcher;
 	private String _serverUrl;
 	private boolean _bVerifySignature = false;
 
@@ -89,6 +100,13 @@ public class JDBCStorageHandlerTimeOut extends JDBCStorageHandler
 			systemLogger.log(Level.WARNING, MODULE, sMethod, "No config item 'timeout' found", e);
 			throw new ASelectStorageException(Errors.ERROR_ASELECT_INIT_ERROR, e);
 		}
+		try {
+			_lExpireTime = Long.parseLong(oConfigManager.getParam(oTicketSection, "expire")) * 1000;
+		}
+		catch (Exception e) {
+			_oSystemLogger.log(Level.INFO, MODULE, sMethod, "No valid 'expire' config item found");
+		}
+		_oLogoutDispatcher = LogoutDispatcher.create(oConfigManager, oTicketSection, MODULE, systemLogger);
 
 		set_bVerifySignature(false);
 		try {
@@ -102,6 +120,62 @@ public class JDBCStorageHandlerTimeOut extends JDBCStorageHandler
 			_oSystemLogger.log(Level.INFO, MODULE, sMethod, "verify_signature not found, set to = "
 					+ is_bVerifySignature());
 		}
+		try {
+			int iBatchSize = Integer.parseInt(oConfigManager.getParam(oTicketSection, "timeout_batch_size"));
+			if (iBatchSize > 0)
+				_iBatchSize = iBatchSize;
+		}
+		catch (Exception e) {  // not configured
+		}
+		_oSystemLogger.log(Level.INFO, MODULE, sMethod, "timeout_batch_size = " + _iBatchSize + " deadline index = "
+				+ isIndexed(DEADLINE_FIELD));
+	}
+
+	/**
+	 * Get the earliest deadline of a TGT for the <code>timeout_deadline</code> index. <br>
+	 * <br>
+	 * The deadline is shifted by the expire time, so it can be compared with the timestamp passed to cleanup(). It
+	 * is written with a fixed length, so the database can compare it as a string.
+	 * 
+	 * @param sField
+	 *            the indexed field
+	 * @param oValue
+	 *            the TGT context
+	 * @param lTimestamp
+	 *            the TGT timestamp
+	 * @return the index value, <code>null</code> for a TGT without sso_session, which is never timed out
+	 * @see org.aselect.system.storagemanager.handler.JDBCStorageHandler#getIndexValue(java.lang.String, java.lang.Object, java.lang.Long)
+	 */
+	@Override
+	protected Object getIndexValue(String sField, Object oValue, Long lTimestamp)
+	{
+		if (!DEADLINE_FIELD.equals(sField))
+			return super.getIndexValue(sField, oValue, lTimestamp);
+
+		HashMap htTGTContext = (HashMap) oValue;
+		UserSsoSession sso = (UserSsoSession) htTGTContext.get("sso_session");
+		if (sso == null)
+			return null;
+		long lCreateTime = 0;
+		try {
+			lCreateTime = Long.parseLong((String) htTGTContext.get("createtime"));
+		}
+		catch (Exception e) {
+		}
+		long lDeadline = lCreateTime + timeOutTime - _lExpireTime;
+		for (ServiceProvider sp : sso.getServiceProviders()) {
+			long spLastSync = sp.getLastSessionSync();
+			lDeadline = Math.min(lDeadline, (spLastSync == 0) ? lTimestamp.longValue() : spLastSync);
+		}
+		return formatDeadline(lDeadline);
+	}
+
+	/**
+	 * Format a deadline as a fixed length string.
+	 */
+	private static String formatDeadline(long lDeadline)
+	{
+		return String.format("%019d", Math.max(lDeadline, 0L));
 	}
 
 	// Bauke: added
@@ -143,7 +217,7 @@ public class JDBCStorageHandlerTimeOut extends JDBCStorageHandler
 		long now = new Date().getTime();
 
 		_oSystemLogger.log(Level.FINER, MODULE, _sMethod, "CLEANUP { now="+now+" lTimestamp="+lTimestamp+" diff="+(now-lTimestamp));
-		checkTimeoutCondition();
+		checkTimeoutCondition(lTimestamp);
 		// Only the TGT Manager should use this class, therefore do not call super.cleanup()
 		_oSystemLogger.log(Level.FINER, MODULE, _sMethod, "} CLEANUP");
 	}
@@ -152,99 +226,202 @@ public class JDBCStorageHandlerTimeOut extends JDBCStorageHandler
 	 * Check for sp's that need to be time out <br>
 	 * <br>
 	 * <b>Description:</b> <br>
-	 * This method checks if there are sp's that need to be timeout <br>
-	 * .
+	 * This method checks if there are sp's that need to be timeout. <br>
+	 * With the <code>timeout_deadline</code> index only the TGTs whose deadline passed are read, otherwise all TGTs
+	 * are visited. Either way at most <code>timeout_batch_size</code> TGTs are read at a time. <br>
+	 * The logout requests are handed to the {@link LogoutDispatcher}, so a slow sp does not delay the cleanup. <br>
 	 * 
-	 * @throws ASelectException
-	 *             If check fails.
+	 * @param lTimestamp
+	 *            the expiry time passed to cleanup(), i.e. now minus the expire time of the TGTs
 	 * @throws ASelectStorageException
-	 *             the a select storage exception
+	 *             If check fails.
 	 */
-	@SuppressWarnings("unchecked")
-	private void checkTimeoutCondition()
+	private void checkTimeoutCondition(Long lTimestamp)
 	throws ASelectStorageException
 	{
 		String _sMethod = "checkTimeoutCondition";
 		long now = new Date().getTime();
+		long lExpInterval = now - lTimestamp;
 		_oSystemLogger.log(Level.FINER, MODULE, _sMethod, "IDPTO now=" + now);
 
-		HashMap allTgts = new HashMap();
 		try {
-			if (_oTGTManager != null) {
-				allTgts = _oTGTManager.getAll();
+			if (isIndexed(DEADLINE_FIELD))
+				checkExpiredTgts(lTimestamp, now, lExpInterval);
+			else
+				checkAllTgts(now, lExpInterval);
+		}
+		catch (ASelectException ex) {
+			_oSystemLogger.log(Level.WARNING, MODULE, _sMethod, "IDPTO - Exception in checkSpTimeOut", ex);
+			throw new ASelectStorageException(Errors.ERROR_ASELECT_INTERNAL_ERROR);
+		}
+	}
+
+	/**
+	 * Visit the TGTs whose deadline passed, earliest first. <br>
+	 * A changed TGT gets its new deadline, so the next batch starts with the TGTs that were not visited yet.
+	 */
+	private void checkExpiredTgts(Long lTimestamp, long now, long lExpInterval)
+	throws ASelectException
+	{
+		String _sMethod = "checkExpiredTgts";
+		HashMap htExpired;
+		int iBatch = 0, iChanged;
+		do {
+			htExpired = getByIndexUpTo(DEADLINE_FIELD, formatDeadline(lTimestamp.longValue()), _iBatchSize);
+			iChanged = 0;
+			for (Object oEntry : htExpired.entrySet()) {
+				Map.Entry entry = (Map.Entry) oEntry;
+				if (checkTgtTimeout((String) entry.getKey(), (HashMap) entry.getValue(), now, lExpInterval))
+					iChanged++;
 			}
-			if (allTgts == null)
-				return;
-			_oSystemLogger.log(Level.FINER, MODULE, _sMethod, "IDPTO - TGT Count=" + allTgts.size());
-
-			// For all TGT's
-			Set keys = allTgts.keySet();
-			for (Object s : keys) {
-				String key = (String) s;
-				HashMap htTGTContext = (HashMap) _oTGTManager.get(key);
-				String sNameID = (String) htTGTContext.get("name_id");
-				Long lExpInterval = _oTGTManager.getExpirationTime(key) - _oTGTManager.getTimestamp(key);
-
-				// Get the user's session
-				UserSsoSession sso = (UserSsoSession) htTGTContext.get("sso_session");
-				List<ServiceProvider> spList = sso.getServiceProviders();
-
-				String sCreateTime = (String) htTGTContext.get("createtime");
-				long lCreateTime = 0;
+			_oSystemLogger.log(Level.FINER, MODULE, _sMethod, "IDPTO - Batch=" + (++iBatch) + " Expired="
+					+ htExpired.size() + " Changed=" + iChanged);
+		} while (htExpired.size() == _iBatchSize && iChanged > 0);  // stop when no progress is made
+	}
+
+	/**
+	 * Visit all TGTs, reading <code>timeout_batch_size</code> keys at a time. <br>
+	 * The keys are read in key order, a TGT that is removed meanwhile moves the next keys forward, so the position is
+	 * corrected by the number of removed TGTs. A TGT missed by a concurrent change is visited by the next cleanup.
+	 */
+	private void checkAllTgts(long now, long lExpInterval)
+	throws ASelectException
+	{
+		String _sMethod = "checkAllTgts";
+		int iFirst = 0, iCount = 0;
+		List lKeys;
+		do {
+			lKeys = getKeys(iFirst, _iBatchSize);
+			int iRemoved = 0;
+			for (Object oKey : lKeys) {
+				HashMap htTGTContext;
 				try {
-					lCreateTime = Long.parseLong(sCreateTime);
+					htTGTContext = (HashMap) get(oKey);
 				}
-				catch (Exception exc) {
-					_oSystemLogger.log(Level.FINER, MODULE, _sMethod, "CreateTime was not set");
-				}
-				boolean danishLogout = (now >= lCreateTime + timeOutTime);
-
-				// debug
-				_oSystemLogger.log(Level.FINER, MODULE, _sMethod, "ExpInt=" + lExpInterval + " Timeout=" + timeOutTime
-						+ " Create=" + (lCreateTime - now) + " Danish=" + danishLogout + " Initiator="
-						+ sso.getLogoutInitiator());
-				String sKey = (key.length() > 30) ? key.substring(0, 30) + "..." : key;
-				for (ServiceProvider sp : spList) {
-					_oSystemLogger.log(Level.FINER, MODULE, _sMethod, " IDPTO - NameID=" + sNameID + " key=" + sKey
-							+ " LastSessionSync=" + (sp.getLastSessionSync() - now));
+				catch (ASelectStorageException e) {  // removed in the mean time
+					iRemoved++;
+					continue;
 				}
+				if (checkTgtTimeout((String) oKey, htTGTContext, now, lExpInterval) && !containsKey(oKey))
+					iRemoved++;
+			}
+			iCount += lKeys.size();
+			iFirst += lKeys.size() - iRemoved;
+		} while (lKeys.size() == _iBatchSize);
+		_oSystemLogger.log(Level.FINER, MODULE, _sMethod, "IDPTO - TGT Count=" + iCount);
+	}
+
+	/**
+	 * Time out the sp's of a single TGT. <br>
+	 * <br>
+	 * An sp times out when the "Danish" timeout of the TGT has passed or when its last session sync is older than
+	 * the expire time. When the last sp times out, the TGT is removed.
+	 * 
+	 * @param key
+	 *            the TGT key
+	 * @param htTGTContext
+	 *            the TGT context
+	 * @param now
+	 *            the current time
+	 * @param lExpInterval
+	 *            the expire time of the TGTs
+	 * @return true, if the TGT was changed or removed
+	 * @throws ASelectException
+	 *             If updating the TGT fails.
+	 */
+	@SuppressWarnings("unchecked")
+	private boolean checkTgtTimeout(String key, HashMap htTGTContext, long now, long lExpInterval)
+	throws ASelectException
+	{
+		String _sMethod = "checkTgtTimeout";
+		String sNameID = (String) htTGTContext.get("name_id");
+		boolean bChanged = false;
 
-				// For all SP's attached to this TGT
-				for (ServiceProvider sp : spList) {
-					long spLastSync = sp.getLastSessionSync();
-
-					if (spLastSync == 0) {
-						_oSystemLogger.log(Level.FINER, MODULE, _sMethod, "CIO - lastsync was not set!");
-						spLastSync = _oTGTManager.getTimestamp(key);
-					}
-					_oSystemLogger.log(Level.FINER, MODULE, _sMethod, "IDPTO - ListSize=" + spList.size()
-							+ ((danishLogout) ? " DANISH" : "") + ((spLastSync < now - lExpInterval) ? " EXPIRED" : "")
-							+ " ExpInt=" + lExpInterval + " LastSync=" + (spLastSync - now) + " Left="
-							+ (spLastSync + lExpInterval - now) + " SP=" + sp.getServiceProviderUrl());
-					if (danishLogout || spLastSync < now - lExpInterval) { // was: timeLimitSp) {
-						if (spList.size() == 1) {
-							_oSystemLogger.log(Level.INFO, MODULE, _sMethod, "IDPTO - Remove TGT Key=" + sKey);
-							_oTGTManager.remove(key);
-						}
-						else {
-							_oSystemLogger.log(Level.INFO, MODULE, _sMethod, "IDPTO - Remove SP="
-									+ sp.getServiceProviderUrl() + " from TGT Key=" + sKey);
-							sso.removeServiceProvider(sp.getServiceProviderUrl());
-							// Overwrite the TGT (needed for database storage)
-							_oTGTManager.updateTGT(key, htTGTContext);
-						}
-						_oSystemLogger.log(Level.INFO, MODULE, _sMethod, "IDPTO - Send Logout to SP="
-								+ sp.getServiceProviderUrl());
-//						sendLogoutRequestToSp(sNameID, sp.getServiceProviderUrl());	// RH, 20190325, o
-						sendLogoutRequestToSp(sNameID, sp.getServiceProviderUrl(), htTGTContext);	// RH, 20190325, n
-					}
+		// Get the user's session
+		UserSsoSession sso = (UserSsoSession) htTGTContext.get("sso_session");
+		if (sso == null) {
+			_oSystemLogger.log(Level.WARNING, MODULE, _sMethod, "IDPTO - No sso_session in TGT");
+			return false;
+		}
+		List<ServiceProvider> spList = sso.getServiceProviders();
+
+		String sCreateTime = (String) htTGTContext.get("createtime");
+		long lCreateTime = 0;
+		try {
+			lCreateTime = Long.parseLong(sCreateTime);
+		}
+		catch (Exception exc) {
+			_oSystemLogger.log(Level.FINER, MODULE, _sMethod, "CreateTime was not set");
+		}
+		boolean danishLogout = (now >= lCreateTime + timeOutTime);
+
+		_oSystemLogger.log(Level.FINER, MODULE, _sMethod, "ExpInt=" + lExpInterval + " Timeout=" + timeOutTime
+				+ " Create=" + (lCreateTime - now) + " Danish=" + danishLogout + " Initiator="
+				+ sso.getLogoutInitiator());
+		String sKey = (key.length() > 30) ? key.substring(0, 30) + "..." : key;
+		for (ServiceProvider sp : spList) {
+			_oSystemLogger.log(Level.FINER, MODULE, _sMethod, " IDPTO - NameID=" + sNameID + " key=" + sKey
+					+ " LastSessionSync=" + (sp.getLastSessionSync() - now));
+		}
+
+		// For all SP's attached to this TGT, iterate a copy since sp's are removed from the list
+		for (ServiceProvider sp : new ArrayList<ServiceProvider>(spList)) {
+			long spLastSync = sp.getLastSessionSync();
+
+			if (spLastSync == 0) {
+				_oSystemLogger.log(Level.FINER, MODULE, _sMethod, "CIO - lastsync was not set!");
+				spLastSync = _oTGTManager.getTimestamp(key);
+			}
+			_oSystemLogger.log(Level.FINER, MODULE, _sMethod, "IDPTO - ListSize=" + spList.size()
+					+ ((danishLogout) ? " DANISH" : "") + ((spLastSync < now - lExpInterval) ? " EXPIRED" : "")
+					+ " ExpInt=" + lExpInterval + " LastSync=" + (spLastSync - now) + " Left="
+					+ (spLastSync + lExpInterval - now) + " SP=" + sp.getServiceProviderUrl());
+			if (danishLogout || spLastSync < now - lExpInterval) { // was: timeLimitSp) {
+				if (spList.size() == 1) {
+					_oSystemLogger.log(Level.INFO, MODULE, _sMethod, "IDPTO - Remove TGT Key=" + sKey);
+					_oTGTManager.remove(key);
+				}
+				else {
+					_oSystemLogger.log(Level.INFO, MODULE, _sMethod, "IDPTO - Remove SP="
+							+ sp.getServiceProviderUrl() + " from TGT Key=" + sKey);
+					sso.removeServiceProvider(sp.getServiceProviderUrl());
+					// Overwrite the TGT (needed for database storage)
+					_oTGTManager.updateTGT(key, htTGTContext);
 				}
+				_oSystemLogger.log(Level.INFO, MODULE, _sMethod, "IDPTO - Send Logout to SP="
+						+ sp.getServiceProviderUrl());
+				dispatchLogoutRequestToSp(sNameID, sp.getServiceProviderUrl(), htTGTContext);
+				bChanged = true;
 			}
 		}
-		catch (ASelectException ex) {
-			_oSystemLogger.log(Level.WARNING, MODULE, _sMethod, "IDPTO - Exception in checkSpTimeOut", ex);
-			throw new ASelectStorageException(Errors.ERROR_ASELECT_INTERNAL_ERROR);
-		}
+		return bChanged;
+	}
+
+	/**
+	 * Hand a logout request for an sp to the logout dispatcher.
+	 * 
+	 * @param sNameID
+	 *            String with the NameID
+	 * @param urlSp
+	 *            String where to send logout request
+	 * @param htTGTContext
+	 *            the TGT context, copied since the TGT can be changed before the request is sent
+	 */
+	private void dispatchLogoutRequestToSp(final String sNameID, final String urlSp, HashMap htTGTContext)
+	{
+		final HashMap htContext = new HashMap(htTGTContext);
+		_oLogoutDispatcher.dispatch(urlSp, new Runnable() {
+			public void run()
+			{
+				try {
+					sendLogoutRequestToSp(sNameID, urlSp, htContext);
+				}
+				catch (ASelectException e) {
+					_oSystemLogger.log(Level.WARNING, MODULE, "dispatchLogoutRequestToSp", "IDPTO - Logout to SP="
+							+ urlSp + " failed: " + e.getMessage());
+				}
+			}
+		});
 	}
 
 	/**
@@ -295,6 +472,17 @@ public class JDBCStorageHandlerTimeOut extends JDBCStorageHandler
 		}
 	}
 
+	/* (non-Javadoc)
+	 * @see org.aselect.system.storagemanager.handler.JDBCStorageHandler#destroy()
+	 */
+	@Override
+	public void destroy()
+	{
+		if (_oLogoutDispatcher != null)
+			_oLogoutDispatcher.shutdown();
+		super.destroy();
+	}
+
 	/**
 	 * Checks if is _b verify signature.
 	 * 
@@ -12,12 +12,13 @@
 package org.aselect.server.request.handler.xsaml20.idp;
 
 import java.security.PublicKey;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
 import java.util.logging.Level;
 
+import org.aselect.server.request.handler.xsaml20.LogoutDispatcher;
 import org.aselect.server.request.handler.xsaml20.ServiceProvider;
 import org.aselect.server.request.handler.xsaml20.SoapLogoutRequestSender;
 import org.aselect.server.tgt.TGTManager;
@@ -44,6 +45,8 @@ public class MemoryStorageHandlerTimeOut extends MemoryStorageHandler
 	private SystemLogger _oSystemLogger;
 	private String timeOut;
 	long timeOutTime = 0L;
+	private long _lExpireTime = 0L;
+	private LogoutDispatcher _oLogoutDispatcher;
 	private String _serverUrl;
 	private boolean _bVerifySignature = false;
 
@@ -90,6 +93,13 @@ public class MemoryStorageHandlerTimeOut extends MemoryStorageHandler
 			systemLogger.log(Level.WARNING, MODULE, sMethod, "No config item 'timeout' found", e);
 			throw new ASelectStorageException(Errors.ERROR_ASELECT_INIT_ERROR, e);
 		}
+		try {
+			_lExpireTime = Long.parseLong(oConfigManager.getParam(oTicketSection, "expire")) * 1000;
+		}
+		catch (Exception e) {
+			_oSystemLogger.log(Level.INFO, MODULE, sMethod, "No valid 'expire' config item found");
+		}
+		_oLogoutDispatcher = LogoutDispatcher.create(oConfigManager, oTicketSection, MODULE, systemLogger);
 
 		set_bVerifySignature(false);
 		try {
@@ -108,11 +118,12 @@ public class MemoryStorageHandlerTimeOut extends MemoryStorageHandler
 	// Bauke: added
 	// "createtime" is used to implement the "Danish" logout
 	// When now() > createtime + timeout-value -> Logout
+	// Called for every put, also for a create (INSERTONLY)
 	/* (non-Javadoc)
-	 * @see org.aselect.system.storagemanager.handler.MemoryStorageHandler#put(java.lang.Object, java.lang.Object, java.lang.Long)
+	 * @see org.aselect.system.storagemanager.handler.MemoryStorageHandler#prepareValue(java.lang.Object, java.lang.Object, java.lang.Long)
 	 */
 	@Override
-	public void put(Object oKey, Object oValue, Long lTimestamp)
+	protected Long prepareValue(Object oKey, Object oValue, Long lTimestamp)
 	throws ASelectStorageException
 	{
 		String _sMethod = "put";
@@ -127,10 +138,43 @@ public class MemoryStorageHandlerTimeOut extends MemoryStorageHandler
 			htValue.put("createtime", String.valueOf(now));
 			_oSystemLogger.log(Level.INFO, MODULE, _sMethod, "Added createtime=" + now);
 		}
-		super.put(oKey, oValue, lTimestamp);
-		// don't use the Jdbc construction here!!!!
-		//super.put(oKey, oValue, lTimestamp, hasKey ? UpdateMode.UPDATEFIRST : UpdateMode.INSERTFIRST);	// RH, 20111114, n
-		
+		return lTimestamp;
+	}
+
+	/**
+	 * Position the TGT in the expiry list at its earliest deadline. <br>
+	 * <br>
+	 * A TGT must be checked when its "Danish" timeout (createtime + timeout) passes or when the last session sync of
+	 * one of its sp's becomes older than the expire time. Since cleanup() is called with now minus the expire time, the
+	 * expire time is subtracted from the Danish deadline.
+	 * 
+	 * @param oValue
+	 *            the TGT context
+	 * @param lTimestamp
+	 *            the TGT timestamp
+	 * @return the expiry list timestamp
+	 * @see org.aselect.system.storagemanager.handler.MemoryStorageHandler#getExpiryTimestamp(java.lang.Object, long)
+	 */
+	@Override
+	protected long getExpiryTimestamp(Object oValue, long lTimestamp)
+	{
+		HashMap htTGTContext = (HashMap) oValue;
+		long lCreateTime = 0;
+		try {
+			lCreateTime = Long.parseLong((String) htTGTContext.get("createtime"));
+		}
+		catch (Exception e) {
+		}
+		long lExpiry = lCreateTime + timeOutTime - _lExpireTime;
+
+		UserSsoSession sso = (UserSsoSession) htTGTContext.get("sso_session");
+		if (sso != null) {
+			for (ServiceProvider sp : sso.getServiceProviders()) {
+				long spLastSync = sp.getLastSessionSync();
+				lExpiry = Math.min(lExpiry, (spLastSync == 0) ? lTimestamp : spLastSync);
+			}
+		}
+		return lExpiry;
 	}
 
 	// Called from system.StorageManager: Cleaner.run()
@@ -145,7 +189,7 @@ public class MemoryStorageHandlerTimeOut extends MemoryStorageHandler
 		long now = new Date().getTime();
 
 		_oSystemLogger.log(Level.FINER, MODULE, _sMethod, "CLEANUP { now="+now+" lTimestamp="+lTimestamp+" diff="+(now-lTimestamp));
-		checkTimeoutCondition();
+		checkTimeoutCondition(lTimestamp);
 		// Only the TGT Manager should use this class, therefore do not call super.cleanup()
 		_oSystemLogger.log(Level.FINER, MODULE, _sMethod, "} CLEANUP");
 	}
@@ -154,92 +198,40 @@ public class MemoryStorageHandlerTimeOut extends MemoryStorageHandler
 	 * Check for sp's that need to be time out <br>
 	 * <br>
 	 * <b>Description:</b> <br>
-	 * This method checks if there are sp's that need to be timeout <br>
-	 * .
+	 * This method checks if there are sp's that need to be timeout. <br>
+	 * Only the TGTs whose earliest deadline has passed are visited, see {@link #getExpiryTimestamp(Object, long)}. <br>
+	 * The logout requests are handed to the {@link LogoutDispatcher}, so a slow sp does not delay the cleanup. <br>
 	 * 
-	 * @throws ASelectException
-	 *             If check fails.
+	 * @param lTimestamp
+	 *            the expiry time passed to cleanup(), i.e. now minus the expire time of the TGTs
 	 * @throws ASelectStorageException
-	 *             the a select storage exception
+	 *             If check fails.
 	 */
-	@SuppressWarnings("unchecked")
-	private void checkTimeoutCondition()
+	private void checkTimeoutCondition(Long lTimestamp)
 	throws ASelectStorageException
 	{
 		String _sMethod = "checkTimeoutCondition";
 		long now = new Date().getTime();
+		long lExpInterval = now - lTimestamp;
 		_oSystemLogger.log(Level.FINER, MODULE, _sMethod, "IDPTO now=" + now);
 
-		HashMap allTgts = new HashMap();
 		try {
-			if (_oTGTManager != null) {
-				allTgts = _oTGTManager.getAll();
-			}
-			if (allTgts == null || allTgts.size() == 0)
+			List lKeys = getExpiredKeys(lTimestamp);
+			if (lKeys.isEmpty())
 				return;
-			_oSystemLogger.log(Level.FINER, MODULE, _sMethod, "SPTO _serverUrl="+_serverUrl+" - TGT Count="+allTgts.size());
+			_oSystemLogger.log(Level.FINER, MODULE, _sMethod, "IDPTO _serverUrl="+_serverUrl+" - Expired TGT Count="+lKeys.size());
 
-			// For all TGT's
-			Set keys = allTgts.keySet();
-			for (Object s : keys) {
+			// For all TGT's having a deadline that passed
+			for (Object s : lKeys) {
 				String key = (String) s;
-				HashMap htTGTContext = (HashMap) _oTGTManager.get(key);
-				String sNameID = (String) htTGTContext.get("name_id");
-				Long lExpInterval = _oTGTManager.getExpirationTime(key) - _oTGTManager.getTimestamp(key);
-
-				// Get the user's session
-				UserSsoSession sso = (UserSsoSession) htTGTContext.get("sso_session");
-				List<ServiceProvider> spList = sso.getServiceProviders();
-
-				String sCreateTime = (String) htTGTContext.get("createtime");
-				long lCreateTime = 0;
+				HashMap htTGTContext;
 				try {
-					lCreateTime = Long.parseLong(sCreateTime);
-				}
-				catch (Exception exc) {
-					_oSystemLogger.log(Level.FINER, MODULE, _sMethod, "CreateTime was not set");
+					htTGTContext = (HashMap) get(key);
 				}
-				boolean danishLogout = (now >= lCreateTime + timeOutTime);
-
-				_oSystemLogger.log(Level.FINER, MODULE, _sMethod, "ExpInt=" + lExpInterval + " Timeout=" + timeOutTime
-						+ " Create=" + (lCreateTime - now) + " Danish=" + danishLogout + " Initiator="
-						+ sso.getLogoutInitiator());
-				String sKey = Utils.firstPartOf(key, 30);
-				for (ServiceProvider sp : spList) {
-					_oSystemLogger.log(Level.FINER, MODULE, _sMethod, " IDPTO - NameID=" + sNameID + " key=" + sKey
-							+ " LastSessionSync=" + (sp.getLastSessionSync() - now));
-				}
-
-				// For all SP's attached to this TGT
-				for (ServiceProvider sp : spList) {
-					long spLastSync = sp.getLastSessionSync();
-
-					if (spLastSync == 0) {
-						_oSystemLogger.log(Level.FINER, MODULE, _sMethod, "CIO - lastsync was not set!");
-						spLastSync = _oTGTManager.getTimestamp(key);
-					}
-					_oSystemLogger.log(Level.FINER, MODULE, _sMethod, "IDPTO - ListSize=" + spList.size()
-							+ ((danishLogout) ? " DANISH" : "") + ((spLastSync < now - lExpInterval) ? " EXPIRED" : "")
-							+ " ExpInt=" + lExpInterval + " LastSync=" + (spLastSync - now) + " Left="
-							+ (spLastSync + lExpInterval - now) + " SP=" + sp.getServiceProviderUrl());
-					if (danishLogout || spLastSync < now - lExpInterval) { // was: timeLimitSp) {
-						if (spList.size() == 1) {
-							_oSystemLogger.log(Level.INFO, MODULE, _sMethod, "IDPTO - Remove TGT Key=" + sKey);
-							_oTGTManager.remove(key);
-						}
-						else {
-							_oSystemLogger.log(Level.INFO, MODULE, _sMethod, "IDPTO - Remove SP="
-									+ sp.getServiceProviderUrl() + " from TGT Key=" + sKey);
-							sso.removeServiceProvider(sp.getServiceProviderUrl());
-							// Overwrite the TGT (needed for database storage)
-							_oTGTManager.updateTGT(key, htTGTContext);
-						}
-						_oSystemLogger.log(Level.INFO, MODULE, _sMethod, "IDPTO - Send Logout to SP="
-								+ sp.getServiceProviderUrl());
-//						sendLogoutRequestToSp(sNameID, sp.getServiceProviderUrl());	// RH, 20190325, o
-						sendLogoutRequestToSp(sNameID, sp.getServiceProviderUrl(), htTGTContext);	// RH, 20190325, n
-					}
+				catch (ASelectStorageException e) {  // removed in the mean time
+					continue;
 				}
+				checkTgtTimeout(key, htTGTContext, now, lExpInterval);
 			}
 		}
 		catch (ASelectException ex) {
@@ -248,6 +240,115 @@ public class MemoryStorageHandlerTimeOut extends MemoryStorageHandler
 		}
 	}
 
+	/**
+	 * Time out the sp's of a single TGT. <br>
+	 * <br>
+	 * An sp times out when the "Danish" timeout of the TGT has passed or when its last session sync is older than
+	 * the expire time. When the last sp times out, the TGT is removed.
+	 * 
+	 * @param key
+	 *            the TGT key
+	 * @param htTGTContext
+	 *            the TGT context
+	 * @param now
+	 *            the current time
+	 * @param lExpInterval
+	 *            the expire time of the TGTs
+	 * @throws ASelectException
+	 *             If updating the TGT fails.
+	 */
+	@SuppressWarnings("unchecked")
+	private void checkTgtTimeout(String key, HashMap htTGTContext, long now, long lExpInterval)
+	throws ASelectException
+	{
+		String _sMethod = "checkTgtTimeout";
+		String sNameID = (String) htTGTContext.get("name_id");
+
+		// Get the user's session
+		UserSsoSession sso = (UserSsoSession) htTGTContext.get("sso_session");
+		if (sso == null) {
+			_oSystemLogger.log(Level.WARNING, MODULE, _sMethod, "IDPTO - No sso_session in TGT");
+			return;
+		}
+		List<ServiceProvider> spList = sso.getServiceProviders();
+
+		String sCreateTime = (String) htTGTContext.get("createtime");
+		long lCreateTime = 0;
+		try {
+			lCreateTime = Long.parseLong(sCreateTime);
+		}
+		catch (Exception exc) {
+			_oSystemLogger.log(Level.FINER, MODULE, _sMethod, "CreateTime was not set");
+		}
+		boolean danishLogout = (now >= lCreateTime + timeOutTime);
+
+		_oSystemLogger.log(Level.FINER, MODULE, _sMethod, "ExpInt=" + lExpInterval + " Timeout=" + timeOutTime
+				+ " Create=" + (lCreateTime - now) + " Danish=" + danishLogout + " Initiator="
+				+ sso.getLogoutInitiator());
+		String sKey = Utils.firstPartOf(key, 30);
+		for (ServiceProvider sp : spList) {
+			_oSystemLogger.log(Level.FINER, MODULE, _sMethod, " IDPTO - NameID=" + sNameID + " key=" + sKey
+					+ " LastSessionSync=" + (sp.getLastSessionSync() - now));
+		}
+
+		// For all SP's attached to this TGT, iterate a copy since sp's are removed from the list
+		for (ServiceProvider sp : new ArrayList<ServiceProvider>(spList)) {
+			long spLastSync = sp.getLastSessionSync();
+
+			if (spLastSync == 0) {
+				_oSystemLogger.log(Level.FINER, MODULE, _sMethod, "CIO - lastsync was not set!");
+				spLastSync = _oTGTManager.getTimestamp(key);
+			}
+			_oSystemLogger.log(Level.FINER, MODULE, _sMethod, "IDPTO - ListSize=" + spList.size()
+					+ ((danishLogout) ? " DANISH" : "") + ((spLastSync < now - lExpInterval) ? " EXPIRED" : "")
+					+ " ExpInt=" + lExpInterval + " LastSync=" + (spLastSync - now) + " Left="
+					+ (spLastSync + lExpInterval - now) + " SP=" + sp.getServiceProviderUrl());
+			if (danishLogout || spLastSync < now - lExpInterval) { // was: timeLimitSp) {
+				if (spList.size() == 1) {
+					_oSystemLogger.log(Level.INFO, MODULE, _sMethod, "IDPTO - Remove TGT Key=" + sKey);
+					_oTGTManager.remove(key);
+				}
+				else {
+					_oSystemLogger.log(Level.INFO, MODULE, _sMethod, "IDPTO - Remove SP="
+							+ sp.getServiceProviderUrl() + " from TGT Key=" + sKey);
+					sso.removeServiceProvider(sp.getServiceProviderUrl());
+					// Overwrite the TGT (needed for database storage)
+					_oTGTManager.updateTGT(key, htTGTContext);
+				}
+				_oSystemLogger.log(Level.INFO, MODULE, _sMethod, "IDPTO - Send Logout to SP="
+						+ sp.getServiceProviderUrl());
+				dispatchLogoutRequestToSp(sNameID, sp.getServiceProviderUrl(), htTGTContext);
+			}
+		}
+	}
+
+	/**
+	 * Hand a logout request for an sp to the logout dispatcher.
+	 * 
+	 * @param sNameID
+	 *            String with the NameID
+	 * @param urlSp
+	 *            String where to send logout request
+	 * @param htTGTContext
+	 *            the TGT context, copied since the TGT can be changed before the request is sent
+	 */
+	private void dispatchLogoutRequestToSp(final String sNameID, final String urlSp, HashMap htTGTContext)
+	{
+		final HashMap htContext = new HashMap(htTGTContext);
+		_oLogoutDispatcher.dispatch(urlSp, new Runnable() {
+			public void run()
+			{
+				try {
+					sendLogoutRequestToSp(sNameID, urlSp, htContext);
+				}
+				catch (ASelectException e) {
+					_oSystemLogger.log(Level.WARNING, MODULE, "dispatchLogoutRequestToSp", "IDPTO - Logout to SP="
+							+ urlSp + " failed: " + e.getMessage());
+				}
+			}
+		});
+	}
+
 	/**
 	 * Send Logout request to sp <br>
 	 * <br>
@@ -296,6 +397,17 @@ public class MemoryStorageHandlerTimeOut extends MemoryStorageHandler
 		}
 	}
 
+	/* (non-Javadoc)
+	 * @see org.aselect.system.storagemanager.handler.MemoryStorageHandler#destroy()
+	 */
+	@Override
+	public void destroy()
+	{
+		if (_oLogoutDispatcher != null)
+			_oLogoutDispatcher.shutdown();
+		super.destroy();
+	}
+
 	/**
 	 * Checks if is _b verify signature.
 	 * 
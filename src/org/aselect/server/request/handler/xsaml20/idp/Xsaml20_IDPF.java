@@ -360,7 +360,7 @@ public class Xsaml20_IDPF extends ProtoRequestHandler
 			}
 			// RH, 20160510, en
 
-			_oSessionManager.updateSession(extractedRid, _htSessionContext);
+			_oSessionManager.deferSessionUpdate(extractedRid, _htSessionContext);
 			
     		String loginrequest= "login1";
 
@@ -32,6 +32,7 @@ import org.aselect.system.error.Errors;
 import org.aselect.system.exception.ASelectConfigException;
 import org.aselect.system.exception.ASelectException;
 import org.aselect.system.logging.Audit;
+import org.aselect.system.logging.LogArgument;
 import org.aselect.system.utils.Tools;
 import org.aselect.system.utils.Utils;
 import org.aselect.system.utils.crypto.Auxiliary;
@@ -124,8 +125,7 @@ public class Xsaml20_SLO_Redirect extends Saml20_BrowserHandler
 
 		try {
 			LogoutRequest logoutRequest = (LogoutRequest) samlMessage;
-			_systemLogger.log(Level.FINEST, MODULE, sMethod, "received SAMLRequest: \n"
-					+ Auxiliary.obfuscate(XMLHelper.prettyPrintXML(logoutRequest.getDOM()), Auxiliary.REGEX_PATTERNS));
+			_systemLogger.log(Level.FINEST, MODULE, sMethod, "received SAMLRequest: \n", LogArgument.prettyPrinted(logoutRequest.getDOM(), Auxiliary.REGEX_PATTERNS));
 
 			Response errorResponse = validateLogoutRequest(logoutRequest, httpRequest);
 			if (errorResponse != null) {
@@ -28,6 +28,7 @@ import org.aselect.system.exception.ASelectCommunicationException;
 import org.aselect.system.exception.ASelectConfigException;
 import org.aselect.system.exception.ASelectException;
 import org.aselect.system.exception.ASelectStorageException;
+import org.aselect.system.logging.LogArgument;
 import org.aselect.system.utils.crypto.Auxiliary;
 import org.opensaml.common.SignableSAMLObject;
 import org.opensaml.saml2.core.Issuer;
@@ -140,8 +141,7 @@ public class Xsaml20_SLO_Response extends Saml20_BrowserHandler
 		XMLObject originalRequest = null;
 		try {
 			originalRequest = SamlTools.unmarshallElement(element);
-			_systemLogger.log(Level.FINEST, MODULE, sMethod, "originalRequest=" + Auxiliary.obfuscate(XMLHelper.prettyPrintXML(originalRequest.getDOM()), 
-					Auxiliary.REGEX_PATTERNS));	// RH, 20150224, n
+			_systemLogger.log(Level.FINEST, MODULE, sMethod, "originalRequest=", LogArgument.prettyPrinted(originalRequest.getDOM(), Auxiliary.REGEX_PATTERNS));	// RH, 20150224, n
 			
 		}
 		catch (MessageEncodingException e) {
@@ -190,8 +190,7 @@ public class Xsaml20_SLO_Response extends Saml20_BrowserHandler
 			XMLObject originatingSPRequest = null;
 			try {
 				originatingSPRequest = SamlTools.unmarshallElement(element2);
-				_systemLogger.log(Level.FINEST, MODULE, sMethod, "originatingSPRequest=" + Auxiliary.obfuscate(XMLHelper.prettyPrintXML(originatingSPRequest.getDOM()), 
-						Auxiliary.REGEX_PATTERNS));
+				_systemLogger.log(Level.FINEST, MODULE, sMethod, "originatingSPRequest=", LogArgument.prettyPrinted(originatingSPRequest.getDOM(), Auxiliary.REGEX_PATTERNS));
 			}
 			catch (MessageEncodingException e) {
 				_systemLogger.log(Level.WARNING, MODULE, sMethod, "Error while unmarshalling " + element, e);
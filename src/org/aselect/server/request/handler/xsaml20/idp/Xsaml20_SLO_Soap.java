@@ -34,6 +34,7 @@ import org.aselect.system.configmanager.ConfigManager;
 import org.aselect.system.error.Errors;
 import org.aselect.system.exception.ASelectConfigException;
 import org.aselect.system.exception.ASelectException;
+import org.aselect.system.logging.LogArgument;
 import org.aselect.system.logging.SystemLogger;
 import org.aselect.system.utils.Tools;
 import org.aselect.system.utils.Utils;
@@ -209,7 +210,7 @@ public class Xsaml20_SLO_Soap extends Saml20_BaseHandler
 			SoapManager soapManager = new SoapManager();
 			Envelope envelope = soapManager.buildSOAPMessage(logoutResponse);
 			Element envelopeElem = SamlTools.marshallMessage(envelope);
-			_systemLogger.log(Level.FINEST, MODULE, sMethod, "Send SAML response:\n" + Auxiliary.obfuscate(XMLHelper.nodeToString(envelopeElem), Auxiliary.REGEX_PATTERNS));
+			_systemLogger.log(Level.FINEST, MODULE, sMethod, "Send SAML response:\n", LogArgument.serialized(envelopeElem, Auxiliary.REGEX_PATTERNS));
 			SamlTools.sendSOAPResponse(request, response, XMLHelper.nodeToString(envelopeElem));  // x_LogoutReq_x Sp
 		}
 		catch (Exception e) {
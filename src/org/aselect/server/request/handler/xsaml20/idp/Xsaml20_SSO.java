@@ -46,6 +46,7 @@ import org.aselect.system.error.Errors;
 import org.aselect.system.exception.ASelectConfigException;
 import org.aselect.system.exception.ASelectException;
 import org.aselect.system.logging.Audit;
+import org.aselect.system.logging.LogArgument;
 import org.aselect.system.utils.BASE64Encoder;
 import org.aselect.system.utils.Tools;
 import org.aselect.system.utils.Utils;
@@ -932,7 +933,7 @@ public class Xsaml20_SSO extends Saml20_BrowserHandler
 		//_systemLogger.log(Level.INFO, MODULE, sMethod, "Response signing ======<"+response);
 		
 		String sResponse = XMLHelper.nodeToString(response.getDOM());
-		_systemLogger.log(Level.FINEST, MODULE, sMethod, "Response=" + Auxiliary.obfuscate(sResponse, Auxiliary.REGEX_PATTERNS));
+		_systemLogger.log(Level.FINEST, MODULE, sMethod, "Response=", LogArgument.obfuscated(sResponse, Auxiliary.REGEX_PATTERNS));
 		try {
 			byte[] bBase64Assertion = sResponse.getBytes("UTF-8");
 			BASE64Encoder b64enc = new BASE64Encoder();
@@ -1234,7 +1235,8 @@ public class Xsaml20_SSO extends Saml20_BrowserHandler
 						if (sValue == null) {	
 							sValue = htAttributes.get(sKey);
 						}// RH, 20130115, en
-						_systemLogger.log(Level.FINEST, MODULE, sMethod, "Retrieved Attr "+sKey+"="+Auxiliary.obfuscate(sValue));
+						if (_systemLogger.isLoggable(Level.FINEST))
+							_systemLogger.log(Level.FINEST, MODULE, sMethod, "Retrieved Attr "+sKey+"="+Auxiliary.obfuscate(sValue));
 						htAllAttributes.put(sKey, sValue);
 					}
 				}
@@ -1258,13 +1260,15 @@ public class Xsaml20_SSO extends Saml20_BrowserHandler
 						aValues = (Iterable)anyValue;
 				} else {
 //					_systemLogger.log(Level.FINEST, MODULE, sMethod, "Non Iterable attribute found, skipping:  "+sKey+"="+aValues);	// RH, 20190129, o
-					_systemLogger.log(Level.FINEST, MODULE, sMethod, "Non Iterable attribute found, skipping:  "+sKey+"="+Auxiliary.obfuscate(aValues));	// RH, 20190129, n
+					if (_systemLogger.isLoggable(Level.FINEST))
+						_systemLogger.log(Level.FINEST, MODULE, sMethod, "Non Iterable attribute found, skipping:  "+sKey+"="+Auxiliary.obfuscate(aValues));	// RH, 20190129, n
 					
 					continue;
 				}
 
 //				_systemLogger.log(Level.FINEST, MODULE, sMethod, "Setting Attr "+sKey+"="+aValues);	// RH, 20190129, o
-				_systemLogger.log(Level.FINEST, MODULE, sMethod, "Setting Attr "+sKey+"="+Auxiliary.obfuscate(aValues));	// RH, 20190129, n
+				if (_systemLogger.isLoggable(Level.FINEST))
+					_systemLogger.log(Level.FINEST, MODULE, sMethod, "Setting Attr "+sKey+"="+Auxiliary.obfuscate(aValues));	// RH, 20190129, n
 				// RH, 20210712, sn
 				// Should we do some encryption
 				// Get the pubKeys only once
@@ -1296,7 +1300,7 @@ public class Xsaml20_SSO extends Saml20_BrowserHandler
 					} else {
 //						_systemLogger.log(Level.FINEST, MODULE, sMethod, "Non String attribute found, skipping:  "+sKey+"="+aValues);	// RH, 20190129, o
 //						_systemLogger.log(Level.FINEST, MODULE, sMethod, "Non String attribute found, skipping:  "+sKey+"="+Auxiliary.obfuscate(aValues));	// RH, 20190129, n	//RH,  20200615, o
-						_systemLogger.log(Level.FINEST, MODULE, sMethod, "Non String attribute value found, only String type supported, skipping: " +Auxiliary.obfuscate(oValue));	// RH, 20190129, n	//RH,  20200615, n
+						_systemLogger.log(Level.FINEST, MODULE, sMethod, "Non String attribute value found, only String type supported, skipping: ", LogArgument.obfuscated(oValue));	// RH, 20190129, n	//RH,  20200615, n
 						continue;
 					}
 					
@@ -1568,14 +1572,15 @@ public class Xsaml20_SSO extends Saml20_BrowserHandler
 			if (appSpecNameIDAttribute != null) {
 				_systemLogger.log(Level.FINEST, MODULE, sMethod, "requested attribute for nameid=" + appSpecNameIDAttribute); // RH, 20161013, n
 				String sname = (String) htAttributes.get(appSpecNameIDAttribute);
-				_systemLogger.log(Level.FINEST, MODULE, sMethod, "value found=" + (sname == null ? "" : Auxiliary.obfuscate(sname))); // RH, 20161013, n
+				if (_systemLogger.isLoggable(Level.FINEST))
+					_systemLogger.log(Level.FINEST, MODULE, sMethod, "value found=" + (sname == null ? "" : Auxiliary.obfuscate(sname))); // RH, 20161013, n
 				nameID.setValue(sname == null ? "" : sname);
 			} else {	// the old way
 			// RH, 20161013, en
 				nameID.setValue((bNvlPersist)? sUid: sTgt);  // 20100811: depends on NameIDType
 			} // RH, 20161013, n
 //			_systemLogger.log(Level.FINER, MODULE, sMethod, "nameID=" + Utils.firstPartOf(nameID.getValue(), 30)); // RH, 20161013, o
-			_systemLogger.log(Level.FINER, MODULE, sMethod, "nameID=" + Auxiliary.obfuscate(Utils.firstPartOf(nameID.getValue(), 30))); // RH, 20161013, n
+			_systemLogger.log(Level.FINER, MODULE, sMethod, "nameID=", LogArgument.obfuscated(Utils.firstPartOf(nameID.getValue(), 30))); // RH, 20161013, n
 
 			SAMLObjectBuilder<Subject> subjectBuilder = (SAMLObjectBuilder<Subject>) builderFactory
 					.getBuilder(Subject.DEFAULT_ELEMENT_NAME);
@@ -38,6 +38,7 @@ import org.aselect.server.tgt.TGTManager;
 import org.aselect.system.error.Errors;
 //import org.aselect.system.exception.ASelectCommunicationException;
 import org.aselect.system.exception.ASelectException;
+import org.aselect.system.logging.LogArgument;
 import org.aselect.system.utils.Utils;
 import org.aselect.system.utils.crypto.Auxiliary;
 import org.joda.time.DateTime;
@@ -291,8 +292,7 @@ public class Xsaml20_SessionSync extends Saml20_BaseHandler
 		Element envelopeElem = null;
 		try {
 			envelopeElem = SamlTools.marshallMessage(envelope);
-			_systemLogger.log(Level.FINEST, MODULE, _sMethod, "Send SAML response:\n"
-					+ Auxiliary.obfuscate(XMLHelper.nodeToString(envelopeElem),Auxiliary.REGEX_PATTERNS));
+			_systemLogger.log(Level.FINEST, MODULE, _sMethod, "Send SAML response:\n", LogArgument.serialized(envelopeElem, Auxiliary.REGEX_PATTERNS));
 			// XMLHelper.prettyPrintXML(envelopeElem));
 		}
 		catch (MessageEncodingException e) {
@@ -617,7 +617,8 @@ public class Xsaml20_SessionSync extends Saml20_BaseHandler
 		try {
 			Node node = marshaller.marshall(response);
 			String msg = XMLHelper.prettyPrintXML(node);
-			_systemLogger.log(Level.FINEST, MODULE, sMethod, Auxiliary.obfuscate(msg, Auxiliary.REGEX_PATTERNS));
+			if (_systemLogger.isLoggable(Level.FINEST))
+				_systemLogger.log(Level.FINEST, MODULE, sMethod, Auxiliary.obfuscate(msg, Auxiliary.REGEX_PATTERNS));
 		}
 		catch (MarshallingException e) {
 			_systemLogger.log(Level.WARNING, MODULE, sMethod, e.getMessage(), e);
@@ -672,7 +673,7 @@ public class Xsaml20_SessionSync extends Saml20_BaseHandler
 			// RH, 20210930, eo
 			// RH, 20210930, sn
 			String sDoc = XMLHelper.prettyPrintXML(docReceivedSoap);
-			_systemLogger.log(Level.FINEST, MODULE, _sMethod, "docReceivedSoap: " + Auxiliary.obfuscate(sDoc));
+			_systemLogger.log(Level.FINEST, MODULE, _sMethod, "docReceivedSoap: ", LogArgument.obfuscated(sDoc));
 			// RH, 20210930, en
 
 			// Get AuthzDecision obj
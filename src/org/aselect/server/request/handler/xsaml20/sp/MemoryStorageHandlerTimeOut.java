@@ -16,10 +16,10 @@ import java.security.PublicKey;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
 import java.util.Vector;
 import java.util.logging.Level;
 
+import org.aselect.server.request.handler.xsaml20.LogoutDispatcher;
 import org.aselect.server.request.handler.xsaml20.PartnerData;
 import org.aselect.server.request.handler.xsaml20.SoapLogoutRequestSender;
 import org.aselect.server.tgt.TGTManager;
@@ -49,6 +49,7 @@ public class MemoryStorageHandlerTimeOut extends MemoryStorageHandler
 	private String _serverUrl;
 	private String _sFederationUrl = null;
 	private boolean _bVerifySignature = false;
+	private LogoutDispatcher _oLogoutDispatcher;
 
 	/* (non-Javadoc)
 	 * @see org.aselect.system.storagemanager.handler.MemoryStorageHandler#init(java.lang.Object, org.aselect.system.configmanager.ConfigManager, org.aselect.system.logging.SystemLogger, org.aselect.system.sam.agent.SAMAgent)
@@ -98,14 +99,23 @@ public class MemoryStorageHandlerTimeOut extends MemoryStorageHandler
 			_oSystemLogger.log(Level.INFO, MODULE, sMethod, "storagemanager id=\"tgt\": verify_signature not found, set to = "
 					+ is_bVerifySignature());
 		}
+		Object oTicketSection = null;
+		try {
+			oTicketSection = _oConfigManager.getSection(null, "storagemanager", "id=tgt");
+		}
+		catch (ASelectConfigException e) {
+			_oSystemLogger.log(Level.WARNING, MODULE, sMethod, "No 'storagemanager' config section found with id='tgt'");
+		}
+		_oLogoutDispatcher = LogoutDispatcher.create(_oConfigManager, oTicketSection, MODULE, _oSystemLogger);
 	}
 
 	// Bauke: replacement
+	// Called for every put, also for a create (INSERTONLY)
 	/* (non-Javadoc)
-	 * @see org.aselect.system.storagemanager.handler.MemoryStorageHandler#put(java.lang.Object, java.lang.Object, java.lang.Long)
+	 * @see org.aselect.system.storagemanager.handler.MemoryStorageHandler#prepareValue(java.lang.Object, java.lang.Object, java.lang.Long)
 	 */
 	@Override
-	public void put(Object oKey, Object oValue, Long lTimestamp)
+	protected Long prepareValue(Object oKey, Object oValue, Long lTimestamp)
 	throws ASelectStorageException
 	{
 		String _sMethod = "put";
@@ -129,9 +139,7 @@ public class MemoryStorageHandlerTimeOut extends MemoryStorageHandler
 			lTimestamp = _oTGTManager.getTimestamp(oKey);
 			htValue.remove("updatetimestamp");
 		}
-		super.put(oKey, oValue, lTimestamp);
-		// don't use the Jdbc construction here!!!!
-		// super.put(oKey, oValue, lTimestamp, hasKey ? UpdateMode.UPDATEFIRST : UpdateMode.INSERTFIRST);		// RH, 20111114, n
+		return lTimestamp;
 	}
 
 	/* (non-Javadoc)
@@ -145,7 +153,7 @@ public class MemoryStorageHandlerTimeOut extends MemoryStorageHandler
 		long now = new Date().getTime();
 
 		_oSystemLogger.log(Level.FINER, MODULE, _sMethod, "CLEANUP { now="+now+" lTimestamp="+lTimestamp+" diff="+(now-lTimestamp));
-		determineTimeOut();
+		determineTimeOut(lTimestamp);
 		// Only the TGT Manager should use this class, therefore do not call super.cleanup()
 		// super.cleanup(lTimestamp);
 		_oSystemLogger.log(Level.FINER, MODULE, _sMethod, "} CLEANUP");
@@ -153,78 +161,105 @@ public class MemoryStorageHandlerTimeOut extends MemoryStorageHandler
 
 	// When the TGT is expired, we need to send a Soap Logout Request to the Federation
 	/**
-	 * Determine time out.
+	 * Determine time out. <br>
+	 * <br>
+	 * Only the TGTs that expired are visited, using the expiry list of the {@link MemoryStorageHandler}. <br>
+	 * The logout requests are handed to the {@link LogoutDispatcher}, so a slow federation does not delay the
+	 * cleanup. <br>
 	 * 
+	 * @param lTimestamp
+	 *            the expiry time passed to cleanup(), i.e. now minus the expire time of the TGTs
 	 * @throws ASelectStorageException
 	 *             the a select storage exception
 	 */
-	@SuppressWarnings("unchecked")
-	private void determineTimeOut()
+	private void determineTimeOut(Long lTimestamp)
 	throws ASelectStorageException
 	{
 		String _sMethod = "determineTimeOut";
 
-		HashMap allTgts = new HashMap();
-		if (_oTGTManager != null) {
-			allTgts = _oTGTManager.getAll();
-		}
-		if (allTgts == null || allTgts.size() == 0)
+		List lKeys = getExpiredKeys(lTimestamp);
+		if (lKeys.isEmpty())
 			return;
-		_oSystemLogger.log(Level.FINER, MODULE, _sMethod, "SPTO _serverUrl="+_serverUrl+" - TGT Count="+allTgts.size());
-		Long updateInterval = -1L;
-		try {
-			HashMap htResult = SessionSyncRequestSender.getSessionSyncParameters(_oSystemLogger);
-			updateInterval = (Long) htResult.get("update_interval");
-			if (updateInterval == null) {
-				_oSystemLogger.log(Level.INFO, MODULE, _sMethod, "No 'update_interval' available");
-				updateInterval = -1L;
+		_oSystemLogger.log(Level.FINER, MODULE, _sMethod, "SPTO _serverUrl="+_serverUrl+" - Expired TGT Count="+lKeys.size());
+
+		for (Object s : lKeys) {
+			String key = (String) s;
+			HashMap htTGTContext;
+			try {
+				if (getTimestamp(key) > lTimestamp)
+					continue;  // updated in the mean time
+				htTGTContext = (HashMap) get(key);
 			}
+			catch (ASelectStorageException e) {  // removed in the mean time
+				continue;
+			}
+			timeOutTgt(key, htTGTContext);
 		}
-		catch (ASelectException ase) {
-			throw new ASelectStorageException(ase.toString());
-		}
+	}
 
-		// For all TGT's
-		Set keys = allTgts.keySet();
-		for (Object s : keys) {
-			String key = (String) s;
-			HashMap htTGTContext = (HashMap) _oTGTManager.get(key);
-			String sNameID = (String) htTGTContext.get("name_id");
-			String sSync = (String) htTGTContext.get("sessionsynctime");
-			long lastSync = (sSync==null)? 0: Long.parseLong(sSync);
-			Boolean bForcedAuthn = (Boolean) htTGTContext.get("forced_authenticate");
-			if (bForcedAuthn == null)
-				bForcedAuthn = false;
-			Long expireTime = _oTGTManager.getExpirationTime(key);
-			Long timeStamp = _oTGTManager.getTimestamp(key);
-			Long now = new Date().getTime();
+	/**
+	 * Remove an expired TGT and have a logout sent to the federation when needed.
+	 * 
+	 * @param key
+	 *            the TGT key
+	 * @param htTGTContext
+	 *            the TGT context
+	 * @return true, if the TGT was removed
+	 */
+	private boolean timeOutTgt(String key, HashMap htTGTContext)
+	{
+		String _sMethod = "timeOutTgt";
+		String sNameID = (String) htTGTContext.get("name_id");
+		Boolean bForcedAuthn = (Boolean) htTGTContext.get("forced_authenticate");
+		if (bForcedAuthn == null)
+			bForcedAuthn = false;
 
-			String sKey = Utils.firstPartOf(key, 30);
-			_oSystemLogger.log(Level.FINER, MODULE, _sMethod, "SPTO - NameID="+Utils.firstPartOf(sNameID,20)+
-					" Age="+(now-timeStamp)+" Time left="+(expireTime-now)+" Last Sync="+(now-lastSync)+" Key="+sKey);
+		String sKey = Utils.firstPartOf(key, 30);
+		String sAuthspType = (String) htTGTContext.get("authsp_type");
+		Boolean bToFed = (sAuthspType != null && sAuthspType.equals("saml20"));
+		_oSystemLogger.log(Level.INFO, MODULE, _sMethod, "SPTO: Remove TGT, Key="+sKey);
+		try {
+			_oTGTManager.remove(key);
+		}
+		catch (ASelectStorageException e) {
+			_oSystemLogger.log(Level.FINE, MODULE, _sMethod, "SPTO: TGT was already removed, Key="+sKey);
+			return false;
+		}
 
-			String sAuthspType = (String) htTGTContext.get("authsp_type");
-			Boolean bToFed = (sAuthspType != null && sAuthspType.equals("saml20"));
-			// Check Ticket Expiration
-			if (now >= expireTime) {
-				_oSystemLogger.log(Level.INFO, MODULE, _sMethod, "SPTO: Remove TGT, Key="+sKey);
-				_oTGTManager.remove(key);
+		// 20090622, Bauke, if forced_authenticate, the IdP does not have a ticket
+		if (bToFed && !bForcedAuthn) {
+			_oSystemLogger.log(Level.INFO, MODULE, _sMethod, "SPTO: saml20 and forced="+bForcedAuthn);
+			dispatchLogoutToFederation(sNameID, htTGTContext);
+		}
+		return true;
+	}
 
-				// 20090622, Bauke, if forced_authenticate, the IdP does not have a ticket
-				if (bToFed && !bForcedAuthn) {
-					_oSystemLogger.log(Level.INFO, MODULE, _sMethod, "SPTO: saml20 and forced="+bForcedAuthn);
-					sendLogoutToFederation(sNameID, htTGTContext);
+	/**
+	 * Hand a logout request for the federation to the logout dispatcher.
+	 * 
+	 * @param sNameID
+	 *            the s name id
+	 * @param htTGTContext
+	 *            the ht tgt context
+	 */
+	private void dispatchLogoutToFederation(final String sNameID, HashMap htTGTContext)
+	{
+		final HashMap htContext = new HashMap(htTGTContext);
+		String sFederationUrl = (String) htContext.get("federation_url");
+		if (sFederationUrl == null)
+			sFederationUrl = _sFederationUrl;
+		_oLogoutDispatcher.dispatch(String.valueOf(sFederationUrl), new Runnable() {
+			public void run()
+			{
+				try {
+					sendLogoutToFederation(sNameID, htContext);
+				}
+				catch (ASelectStorageException e) {
+					_oSystemLogger.log(Level.WARNING, MODULE, "dispatchLogoutToFederation", "SPTO - Logout to federation failed: "
+							+ e.getMessage());
 				}
 			}
-
-			// Check Session Sync
-			// Since the last Session Sync also updates the TGT's timestamp
-			// also skip a few seconds after lastSync
-			if (bToFed && updateInterval>0 && timeStamp>lastSync+10 && now>=lastSync+updateInterval) {
-				// Perform a Session Sync to the Federation
-				_oSystemLogger.log(Level.FINER, MODULE, _sMethod, "SPTO Skip this SessionSync");
-			}
-		}
+		});
 	}
 
 	/**
@@ -305,6 +340,17 @@ public class MemoryStorageHandlerTimeOut extends MemoryStorageHandler
 		return false;
 	}
 
+	/* (non-Javadoc)
+	 * @see org.aselect.system.storagemanager.handler.MemoryStorageHandler#destroy()
+	 */
+	@Override
+	public void destroy()
+	{
+		if (_oLogoutDispatcher != null)
+			_oLogoutDispatcher.shutdown();
+		super.destroy();
+	}
+
 	/**
 	 * Checks if is _b verify signature.
 	 * 
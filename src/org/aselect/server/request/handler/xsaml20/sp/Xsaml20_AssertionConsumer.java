@@ -52,6 +52,7 @@ import org.aselect.server.utils.AttributeSetter;
 import org.aselect.system.error.Errors;
 import org.aselect.system.exception.ASelectCommunicationException;
 import org.aselect.system.exception.ASelectException;
+import org.aselect.system.logging.LogArgument;
 import org.aselect.system.utils.Base64Codec;
 import org.aselect.system.utils.Utils;
 import org.aselect.system.utils.crypto.Auxiliary;
@@ -346,14 +347,15 @@ public class Xsaml20_AssertionConsumer extends Saml20_BaseHandler
 				_systemLogger.log(Level.FINEST, MODULE, sMethod, "Marshall");
 				Element envelopeElem = SamlTools.marshallMessage(envelope);
 //				_systemLogger.log(Level.INFO, MODULE, sMethod, "Writing SOAP message:\n"+ XMLHelper.nodeToString(envelopeElem));
-				_systemLogger.log(Level.FINEST, MODULE, sMethod, "Writing SOAP message:\n"+ Auxiliary.obfuscate(XMLHelper.nodeToString(envelopeElem), Auxiliary.REGEX_PATTERNS));
+				_systemLogger.log(Level.FINEST, MODULE, sMethod, "Writing SOAP message:\n", LogArgument.serialized(envelopeElem, Auxiliary.REGEX_PATTERNS));
 				// XMLHelper.prettyPrintXML(envelopeElem));
 	
 				// ------------ Send/Receive the SOAP message
 				String sSamlResponse = soapManager.sendSOAP(XMLHelper.nodeToString(envelopeElem), sASelectServerUrl);  // x_AssertionConsumer_x
 				//byte[] sSamlResponseAsBytes = sSamlResponse.getBytes();
 //				_systemLogger.log(Level.INFO, MODULE, sMethod, "Received response: "+sSamlResponse+" length=" + sSamlResponse.length());
-				_systemLogger.log(Level.FINEST, MODULE, sMethod, "Received response: "+Auxiliary.obfuscate(sSamlResponse)+" original length=" + sSamlResponse.length());
+				if (_systemLogger.isLoggable(Level.FINEST))
+					_systemLogger.log(Level.FINEST, MODULE, sMethod, "Received response: "+Auxiliary.obfuscate(sSamlResponse)+" original length=" + sSamlResponse.length());
 				
 				// save original, but, for (internal) transport, encode base64 
 				auth_proof = new String(org.apache.commons.codec.binary.Base64.encodeBase64(sSamlResponse.getBytes("UTF-8")));
@@ -481,8 +483,7 @@ public class Xsaml20_AssertionConsumer extends Saml20_BaseHandler
 			if (samlResponseObject instanceof Response) {
 				// SSO
 				Response samlResponse = (Response) samlResponseObject;
-				_systemLogger.log(Level.FINEST, MODULE, sMethod, "Processing Response=" + Auxiliary.obfuscate(XMLHelper.prettyPrintXML(samlResponse.getDOM()),
-						Auxiliary.REGEX_PATTERNS));
+				_systemLogger.log(Level.FINEST, MODULE, sMethod, "Processing Response=", LogArgument.prettyPrinted(samlResponse.getDOM(), Auxiliary.REGEX_PATTERNS));
 
 				// RH, 20121205, sn
 				MetaDataManagerSp metadataManager = MetaDataManagerSp.getHandle();
@@ -708,7 +709,7 @@ public class Xsaml20_AssertionConsumer extends Saml20_BaseHandler
 //					String sNameID = samlAssertion.getSubject().getNameID().getValue();	// RH, 20160216, o
 					if  ( nameid != null ) {
 						sNameID = nameid.getValue();
-						_systemLogger.log(Level.FINE, MODULE, sMethod, "NameID:" + Auxiliary.obfuscate(sNameID));
+						_systemLogger.log(Level.FINE, MODULE, sMethod, "NameID:", LogArgument.obfuscated(sNameID));
 						sNameIDQualifier = nameid.getNameQualifier();
 						_systemLogger.log(Level.FINE, MODULE, sMethod, "NameIDQualifier:" + sNameIDQualifier);
 						// RH, 20181030, sn
@@ -954,8 +955,7 @@ public class Xsaml20_AssertionConsumer extends Saml20_BaseHandler
 	          		                            xmlObj = attributevalue;
 	          		                            String sattributevaluesNameID = null;
 	           	                            	if (attributevalue != null) {
-	        	                            		_systemLogger.log(Level.FINEST, MODULE, sMethod, "Processing EncryptedID=" + Auxiliary.obfuscate(XMLHelper.prettyPrintXML(attributevalue.getDOM()),
-	        	                						Auxiliary.REGEX_PATTERNS));
+	        	                            		_systemLogger.log(Level.FINEST, MODULE, sMethod, "Processing EncryptedID=", LogArgument.prettyPrinted(attributevalue.getDOM(), Auxiliary.REGEX_PATTERNS));
 		        	                            	// This can be a NameID with NameQualifier object
 //	        	        							String attributevaluesLocalName = attributevalue.getOrderedChildren().get(0).getDOM().getLocalName();
 	        	        							String attributevaluesLocalName = attributevalue.getDOM().getLocalName();
@@ -965,7 +965,7 @@ public class Xsaml20_AssertionConsumer extends Saml20_BaseHandler
 		        	                					// start polymorf decryption
 		        	                					if  ( attributevalueameid != null ) {
 		        	                						sattributevaluesNameID = attributevalueameid.getValue();
-		        	                						_systemLogger.log(Level.FINE, MODULE, sMethod, "attributevalue NameID:" + Auxiliary.obfuscate(sattributevaluesNameID));
+		        	                						_systemLogger.log(Level.FINE, MODULE, sMethod, "attributevalue NameID:", LogArgument.obfuscated(sattributevaluesNameID));
 		        	                						String sattributevaluesNameIDQualifier = attributevalueameid.getNameQualifier();
 		        	                						_systemLogger.log(Level.FINE, MODULE, sMethod, "attributevalue NameIDQualifier:" + sattributevaluesNameIDQualifier);
 		        	                						
@@ -1171,7 +1171,7 @@ public class Xsaml20_AssertionConsumer extends Saml20_BaseHandler
 					if (attributeSetters != null && attributeSetters.size() > 0) {
 						Map newAttr = AttributeSetter.attributeProcessing(new HashMap(), hmSamlAttributes, attributeSetters, _systemLogger);
 						hmSamlAttributes.putAll(newAttr);
-						_systemLogger.log(Level.FINEST, MODULE, sMethod, "htRemoteAttributes after attributesetting=" + Auxiliary.obfuscate(hmSamlAttributes));
+						_systemLogger.log(Level.FINEST, MODULE, sMethod, "htRemoteAttributes after attributesetting=", LogArgument.obfuscated(hmSamlAttributes));
 					}
 					//	RH, 20160301, en
 					
@@ -1245,7 +1245,7 @@ public class Xsaml20_AssertionConsumer extends Saml20_BaseHandler
 					 */
 					// End of IdP token
 
-					_systemLogger.log(Level.FINER, MODULE, sMethod, "htRemoteAttributes=" + Auxiliary.obfuscate(hmSamlAttributes));
+					_systemLogger.log(Level.FINER, MODULE, sMethod, "htRemoteAttributes=", LogArgument.obfuscated(hmSamlAttributes));
 
 					handleSSOResponse(_htSessionContext, hmSamlAttributes, servletRequest, servletResponse);
 				}
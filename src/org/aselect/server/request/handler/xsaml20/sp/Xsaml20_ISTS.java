@@ -48,6 +48,7 @@ import org.aselect.system.exception.ASelectCommunicationException;
 import org.aselect.system.exception.ASelectConfigException;
 import org.aselect.system.exception.ASelectException;
 import org.aselect.system.exception.ASelectSAMException;
+import org.aselect.system.logging.LogArgument;
 import org.aselect.system.sam.agent.SAMResource;
 import org.aselect.system.utils.BASE64Encoder;
 import org.aselect.system.utils.Base64Codec;
@@ -788,8 +789,9 @@ public class Xsaml20_ISTS extends Saml20_BaseHandler
 				MarshallerFactory marshallerFactory = Configuration.getMarshallerFactory();
 				Marshaller marshaller = marshallerFactory.getMarshaller(messageContext.getOutboundSAMLMessage());
 				Node nodeMessageContext = marshaller.marshall(messageContext.getOutboundSAMLMessage());
-				_systemLogger.log(Level.FINEST, MODULE, sMethod, "RelayState="+sRelayState+" OutboundSAMLMessage:\n"+Auxiliary.obfuscate(XMLHelper.prettyPrintXML(nodeMessageContext), 
-						Auxiliary.REGEX_PATTERNS));
+				if (_systemLogger.isLoggable(Level.FINEST))
+					_systemLogger.log(Level.FINEST, MODULE, sMethod, "RelayState="+sRelayState+" OutboundSAMLMessage:\n"+Auxiliary.obfuscate(XMLHelper.prettyPrintXML(nodeMessageContext), 
+							Auxiliary.REGEX_PATTERNS));
 				
 				if (useSha256) {
 					Saml20_RedirectEncoder encoder = new Saml20_RedirectEncoder();  // is a HTTPRedirectDeflateEncoder
@@ -813,7 +815,7 @@ public class Xsaml20_ISTS extends Saml20_BaseHandler
 				_systemLogger.log(Level.FINER, MODULE, sMethod, "Signed the authnRequest ======<"+authnRequest);
 
 				String sAssertion = XMLHelper.nodeToString(authnRequest.getDOM());
-				_systemLogger.log(Level.FINEST, MODULE, sMethod, "Assertion=" + Auxiliary.obfuscate(sAssertion, Auxiliary.REGEX_PATTERNS));
+				_systemLogger.log(Level.FINEST, MODULE, sMethod, "Assertion=", LogArgument.obfuscated(sAssertion, Auxiliary.REGEX_PATTERNS));
 				try {
 					byte[] bBase64Assertion = sAssertion.getBytes("UTF-8");
 					BASE64Encoder b64enc = new BASE64Encoder();
@@ -973,8 +975,7 @@ public class Xsaml20_ISTS extends Saml20_BaseHandler
 //						_systemLogger.log(Level.FINEST, MODULE, sMethod, "Created result so far:" +result);
 				       Document doc = (Document) result.getNode();
 				       Element element = doc.getDocumentElement();
-						_systemLogger.log(Level.FINEST, MODULE, sMethod, "Created element so far:" +Auxiliary.obfuscate(XMLHelper.prettyPrintXML(element), 
-								Auxiliary.REGEX_PATTERNS));
+						_systemLogger.log(Level.FINEST, MODULE, sMethod, "Created element so far:", LogArgument.prettyPrinted(element, Auxiliary.REGEX_PATTERNS));
 						UnmarshallerFactory factory = org.opensaml.xml.Configuration.getUnmarshallerFactory();
 						Unmarshaller unmarshaller = factory.getUnmarshaller( XSAny.TYPE_NAME );
 						_systemLogger.log(Level.FINEST, MODULE, sMethod, "Created Unmarshaller:" + unmarshaller.toString());
@@ -996,8 +997,7 @@ public class Xsaml20_ISTS extends Saml20_BaseHandler
 //						_systemLogger.log(Level.FINEST, MODULE, sMethod, "Created result so far:" +result);
 				       Document doc = (Document) result.getNode();
 				       Element element = doc.getDocumentElement();
-						_systemLogger.log(Level.FINEST, MODULE, sMethod, "Created element so far:" +Auxiliary.obfuscate(XMLHelper.prettyPrintXML(element), 
-								Auxiliary.REGEX_PATTERNS));
+						_systemLogger.log(Level.FINEST, MODULE, sMethod, "Created element so far:", LogArgument.prettyPrinted(element, Auxiliary.REGEX_PATTERNS));
 						UnmarshallerFactory factory = org.opensaml.xml.Configuration.getUnmarshallerFactory();
 						Unmarshaller unmarshaller = factory.getUnmarshaller( XSAny.TYPE_NAME );
 						_systemLogger.log(Level.FINEST, MODULE, sMethod, "Created Unmarshaller:" + unmarshaller.toString());
@@ -1020,8 +1020,7 @@ public class Xsaml20_ISTS extends Saml20_BaseHandler
 //						_systemLogger.log(Level.FINEST, MODULE, sMethod, "Created result so far:" +result);
 				       Document doc = (Document) result.getNode();
 				       Element element = doc.getDocumentElement();
-						_systemLogger.log(Level.FINEST, MODULE, sMethod, "Created element so far:" +Auxiliary.obfuscate(XMLHelper.prettyPrintXML(element), 
-								Auxiliary.REGEX_PATTERNS));
+						_systemLogger.log(Level.FINEST, MODULE, sMethod, "Created element so far:", LogArgument.prettyPrinted(element, Auxiliary.REGEX_PATTERNS));
 						UnmarshallerFactory factory = org.opensaml.xml.Configuration.getUnmarshallerFactory();
 						Unmarshaller unmarshaller = factory.getUnmarshaller( XSAny.TYPE_NAME );
 						_systemLogger.log(Level.FINEST, MODULE, sMethod, "Created Unmarshaller:" + unmarshaller.toString());
@@ -1045,8 +1044,7 @@ public class Xsaml20_ISTS extends Saml20_BaseHandler
 //						_systemLogger.log(Level.FINEST, MODULE, sMethod, "Created result so far:" +result);
 				       Document doc = (Document) result.getNode();
 				       Element element = doc.getDocumentElement();
-						_systemLogger.log(Level.FINEST, MODULE, sMethod, "Created element so far:" +Auxiliary.obfuscate(XMLHelper.prettyPrintXML(element), 
-								Auxiliary.REGEX_PATTERNS));
+						_systemLogger.log(Level.FINEST, MODULE, sMethod, "Created element so far:", LogArgument.prettyPrinted(element, Auxiliary.REGEX_PATTERNS));
 						UnmarshallerFactory factory = org.opensaml.xml.Configuration.getUnmarshallerFactory();
 						Unmarshaller unmarshaller = factory.getUnmarshaller( XSAny.TYPE_NAME );
 						_systemLogger.log(Level.FINEST, MODULE, sMethod, "Created Unmarshaller:" + unmarshaller.toString());
@@ -1069,8 +1067,7 @@ public class Xsaml20_ISTS extends Saml20_BaseHandler
 //						_systemLogger.log(Level.FINEST, MODULE, sMethod, "Created result so far:" +result);
 				       Document doc = (Document) result.getNode();
 				       Element element = doc.getDocumentElement();
-						_systemLogger.log(Level.FINEST, MODULE, sMethod, "Created element so far:" +Auxiliary.obfuscate(XMLHelper.prettyPrintXML(element), 
-								Auxiliary.REGEX_PATTERNS));
+						_systemLogger.log(Level.FINEST, MODULE, sMethod, "Created element so far:", LogArgument.prettyPrinted(element, Auxiliary.REGEX_PATTERNS));
 						UnmarshallerFactory factory = org.opensaml.xml.Configuration.getUnmarshallerFactory();
 						Unmarshaller unmarshaller = factory.getUnmarshaller( XSAny.TYPE_NAME );
 						_systemLogger.log(Level.FINEST, MODULE, sMethod, "Created Unmarshaller:" + unmarshaller.toString());
@@ -1111,8 +1108,7 @@ public class Xsaml20_ISTS extends Saml20_BaseHandler
 //						_systemLogger.log(Level.FINEST, MODULE, sMethod, "Created result so far:" +result);
 				       Document doc = (Document) result.getNode();
 				       Element element = doc.getDocumentElement();
-						_systemLogger.log(Level.FINEST, MODULE, sMethod, "Created element so far:" +Auxiliary.obfuscate(XMLHelper.prettyPrintXML(element), 
-								Auxiliary.REGEX_PATTERNS));
+						_systemLogger.log(Level.FINEST, MODULE, sMethod, "Created element so far:", LogArgument.prettyPrinted(element, Auxiliary.REGEX_PATTERNS));
 						UnmarshallerFactory factory = org.opensaml.xml.Configuration.getUnmarshallerFactory();
 						Unmarshaller unmarshaller = factory.getUnmarshaller( XSAny.TYPE_NAME );
 						_systemLogger.log(Level.FINEST, MODULE, sMethod, "Created Unmarshaller:" + unmarshaller.toString());
@@ -1135,8 +1131,7 @@ public class Xsaml20_ISTS extends Saml20_BaseHandler
 //						_systemLogger.log(Level.FINEST, MODULE, sMethod, "Created result so far:" +result);
 				       Document doc = (Document) result.getNode();
 				       Element element = doc.getDocumentElement();
-						_systemLogger.log(Level.FINEST, MODULE, sMethod, "Created element so far:" +Auxiliary.obfuscate(XMLHelper.prettyPrintXML(element), 
-								Auxiliary.REGEX_PATTERNS));
+						_systemLogger.log(Level.FINEST, MODULE, sMethod, "Created element so far:", LogArgument.prettyPrinted(element, Auxiliary.REGEX_PATTERNS));
 						UnmarshallerFactory factory = org.opensaml.xml.Configuration.getUnmarshallerFactory();
 						Unmarshaller unmarshaller = factory.getUnmarshaller( XSAny.TYPE_NAME );
 						_systemLogger.log(Level.FINEST, MODULE, sMethod, "Created Unmarshaller:" + unmarshaller.toString());
@@ -1160,8 +1155,7 @@ public class Xsaml20_ISTS extends Saml20_BaseHandler
 //						_systemLogger.log(Level.FINEST, MODULE, sMethod, "Created result so far:" +result);
 				       Document doc = (Document) result.getNode();
 				       Element element = doc.getDocumentElement();
-						_systemLogger.log(Level.FINEST, MODULE, sMethod, "Created element so far:" +Auxiliary.obfuscate(XMLHelper.prettyPrintXML(element), 
-								Auxiliary.REGEX_PATTERNS));
+						_systemLogger.log(Level.FINEST, MODULE, sMethod, "Created element so far:", LogArgument.prettyPrinted(element, Auxiliary.REGEX_PATTERNS));
 						UnmarshallerFactory factory = org.opensaml.xml.Configuration.getUnmarshallerFactory();
 						Unmarshaller unmarshaller = factory.getUnmarshaller( XSAny.TYPE_NAME );
 						_systemLogger.log(Level.FINEST, MODULE, sMethod, "Created Unmarshaller:" + unmarshaller.toString());
@@ -1198,8 +1192,7 @@ public class Xsaml20_ISTS extends Saml20_BaseHandler
 //					_systemLogger.log(Level.FINEST, MODULE, sMethod, "Created result so far:" +result);
 					Document doc = (Document) result.getNode();
 					Element element = doc.getDocumentElement();
-					_systemLogger.log(Level.FINEST, MODULE, sMethod, "Created element so far:" +Auxiliary.obfuscate(XMLHelper.prettyPrintXML(element), 
-							Auxiliary.REGEX_PATTERNS));
+					_systemLogger.log(Level.FINEST, MODULE, sMethod, "Created element so far:", LogArgument.prettyPrinted(element, Auxiliary.REGEX_PATTERNS));
 					UnmarshallerFactory factory = org.opensaml.xml.Configuration.getUnmarshallerFactory();
 					Unmarshaller unmarshaller = factory.getUnmarshaller( XSAny.TYPE_NAME );
 //					_systemLogger.log(Level.FINEST, MODULE, sMethod, "Created Unmarshaller:" + unmarshaller.toString());
@@ -135,8 +135,9 @@ public class Xsaml20_SLO_Redirect extends Saml20_BaseHandler
 			decoder.decode(messageContext);
 
 			SignableSAMLObject samlMessage = (SignableSAMLObject) messageContext.getInboundSAMLMessage();
-			_systemLogger.log(Level.FINEST, MODULE, sMethod, Auxiliary.obfuscate(XMLHelper.prettyPrintXML(samlMessage.getDOM()), 
-					Auxiliary.REGEX_PATTERNS));
+			if (_systemLogger.isLoggable(Level.FINEST))
+				_systemLogger.log(Level.FINEST, MODULE, sMethod, Auxiliary.obfuscate(XMLHelper.prettyPrintXML(samlMessage.getDOM()), 
+						Auxiliary.REGEX_PATTERNS));
 
 			String elementName = samlMessage.getElementQName().getLocalPart();
 
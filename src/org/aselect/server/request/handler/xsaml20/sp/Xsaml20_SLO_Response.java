@@ -32,6 +32,7 @@ import org.aselect.server.request.handler.xsaml20.SamlTools;
 import org.aselect.server.tgt.TGTManager;
 import org.aselect.system.error.Errors;
 import org.aselect.system.exception.ASelectException;
+import org.aselect.system.logging.LogArgument;
 import org.aselect.system.utils.Tools;
 import org.aselect.system.utils.Utils;
 import org.aselect.system.utils.crypto.Auxiliary;
@@ -147,8 +148,9 @@ public class Xsaml20_SLO_Response extends Saml20_BaseHandler
 			decoder.decode(messageContext);
 
 			SignableSAMLObject samlMessage = (SignableSAMLObject) messageContext.getInboundSAMLMessage();
-			_systemLogger.log(Level.FINEST, MODULE, sMethod, Auxiliary.obfuscate(XMLHelper.prettyPrintXML(samlMessage.getDOM()), 
-					Auxiliary.REGEX_PATTERNS));
+			if (_systemLogger.isLoggable(Level.FINEST))
+				_systemLogger.log(Level.FINEST, MODULE, sMethod, Auxiliary.obfuscate(XMLHelper.prettyPrintXML(samlMessage.getDOM()), 
+						Auxiliary.REGEX_PATTERNS));
 
 			String elementName = samlMessage.getElementQName().getLocalPart();
 
@@ -322,8 +324,7 @@ public class Xsaml20_SLO_Response extends Saml20_BaseHandler
 			Document docReceivedSoap = builder.parse(inputSource);
 			Element elementReceivedSoap = docReceivedSoap.getDocumentElement();
 			Node logoutResponseNode = SamlTools.getNode(elementReceivedSoap, LOGOUTRESPONSE);
-			_systemLogger.log(Level.FINEST, MODULE, sMethod, "LogoutResponse:\n"
-					+ Auxiliary.obfuscate(XMLHelper.nodeToString(logoutResponseNode), Auxiliary.REGEX_PATTERNS));
+			_systemLogger.log(Level.FINEST, MODULE, sMethod, "LogoutResponse:\n", LogArgument.serialized(logoutResponseNode, Auxiliary.REGEX_PATTERNS));
 
 			// Unmarshall to the SAMLmessage
 			UnmarshallerFactory factory = org.opensaml.xml.Configuration.getUnmarshallerFactory();
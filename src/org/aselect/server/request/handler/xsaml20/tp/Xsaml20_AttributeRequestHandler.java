@@ -34,6 +34,7 @@ import org.aselect.server.request.handler.xsaml20.SamlTools;
 import org.aselect.server.tgt.TGTManager;
 import org.aselect.system.error.Errors;
 import org.aselect.system.exception.ASelectException;
+import org.aselect.system.logging.LogArgument;
 import org.aselect.system.utils.BASE64Decoder;
 import org.aselect.system.utils.Utils;
 import org.aselect.system.utils.crypto.Auxiliary;
@@ -267,7 +268,7 @@ public class Xsaml20_AttributeRequestHandler extends Saml20_BaseHandler
 			TGTManager tgtm = TGTManager.getHandle();
 			HashMap ht = tgtm.getTGT(subject);
 			StringBuffer sb = new StringBuffer();
-			_systemLogger.log(Level.FINER, MODULE, sMethod, "ht:" + ht);
+			_systemLogger.log(Level.FINER, MODULE, sMethod, "ht:", ht);
 			// RM_61_10
 			if (atts != null && ht != null && !ht.isEmpty()) {
 				for (int i = 0; i < atts.length; i++) {
@@ -337,8 +338,7 @@ public class Xsaml20_AttributeRequestHandler extends Saml20_BaseHandler
 			Document docReceivedAssertion = builder.parse(inputSource);
 			Element elementReceivedAssertion = docReceivedAssertion.getDocumentElement();
 
-			_systemLogger.log(Level.FINEST, MODULE, sMethod, "unmarhalling DOM:"
-					+ Auxiliary.obfuscate(XMLHelper.prettyPrintXML(elementReceivedAssertion), Auxiliary.REGEX_PATTERNS));
+			_systemLogger.log(Level.FINEST, MODULE, sMethod, "unmarhalling DOM:", LogArgument.prettyPrinted(elementReceivedAssertion, Auxiliary.REGEX_PATTERNS));
 			assertion = unmarshallAssertion(elementReceivedAssertion);
 		}
 		catch (ParserConfigurationException e) {
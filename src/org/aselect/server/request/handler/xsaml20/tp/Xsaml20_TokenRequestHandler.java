@@ -19,6 +19,7 @@ import org.aselect.server.request.handler.xsaml20.Saml20_BaseHandler;
 import org.aselect.server.tgt.TGTManager;
 import org.aselect.system.error.Errors;
 import org.aselect.system.exception.ASelectException;
+import org.aselect.system.logging.LogArgument;
 import org.aselect.system.utils.BASE64Encoder;
 import org.aselect.system.utils.Utils;
 import org.aselect.system.utils.crypto.Auxiliary;
@@ -188,7 +189,7 @@ public class Xsaml20_TokenRequestHandler extends Saml20_BaseHandler
 					HashMap ht = new HashMap(parms);
 					ht.put(TGT_NAMEID_KEY, uid);
 					subject = tgtm.createTGT(ht);
-					_systemLogger.log(Level.FINEST, MODULE, sMethod, "TGT created:" + Auxiliary.obfuscate(subject, Auxiliary.REGEX_PATTERNS));
+					_systemLogger.log(Level.FINEST, MODULE, sMethod, "TGT created:", LogArgument.obfuscated(subject, Auxiliary.REGEX_PATTERNS));
 				}
 				String sign = servletRequest.getParameter(PARM_NAME_REQUESTSIGNING);
 				Assertion ass = HandlerTools.createAttributeStatementAssertion(parms, issuer, subject, "true".equalsIgnoreCase(sign));
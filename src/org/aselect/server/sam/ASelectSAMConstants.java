@@ -124,4 +124,40 @@ public class ASelectSAMConstants
 	 * Name for 1.3.6.1.4.1.15396.10.10.2.2.1.9
 	 */
 	public final static String NAME_MAXTGTS = "a-select.statistics.specific.maxTGTs";
+
+	/**
+	 * OID for a-select.statistics.specific.dbPools
+	 */
+	public final static String OID_DBPOOLS = "1.3.6.1.4.1.15396.10.10.2.2.1.10";
+	/**
+	 * Name for 1.3.6.1.4.1.15396.10.10.2.2.1.10
+	 */
+	public final static String NAME_DBPOOLS = "a-select.statistics.specific.dbPools";
+
+	/**
+	 * OID for a-select.statistics.specific.storageCaches
+	 */
+	public final static String OID_STORAGECACHES = "1.3.6.1.4.1.15396.10.10.2.2.1.11";
+	/**
+	 * Name for 1.3.6.1.4.1.15396.10.10.2.2.1.11
+	 */
+	public final static String NAME_STORAGECACHES = "a-select.statistics.specific.storageCaches";
+
+	/**
+	 * OID for a-select.statistics.specific.storageReplication
+	 */
+	public final static String OID_STORAGEREPLICATION = "1.3.6.1.4.1.15396.10.10.2.2.1.12";
+	/**
+	 * Name for 1.3.6.1.4.1.15396.10.10.2.2.1.12
+	 */
+	public final static String NAME_STORAGEREPLICATION = "a-select.statistics.specific.storageReplication";
+
+	/**
+	 * OID for a-select.statistics.specific.httpDestinations
+	 */
+	public final static String OID_HTTPDESTINATIONS = "1.3.6.1.4.1.15396.10.10.2.2.1.14";
+	/**
+	 * Name for 1.3.6.1.4.1.15396.10.10.2.2.1.14
+	 */
+	public final static String NAME_HTTPDESTINATIONS = "a-select.statistics.specific.httpDestinations";
 }
@@ -70,9 +70,13 @@ import org.aselect.server.config.Version;
 import org.aselect.server.log.ASelectSystemLogger;
 import org.aselect.server.session.SessionManager;
 import org.aselect.server.tgt.TGTManager;
+import org.aselect.system.communication.client.HttpTransport;
+import org.aselect.system.db.connection.impl.PoolingConnectionHandler;
 import org.aselect.system.exception.ASelectConfigException;
 import org.aselect.system.logging.SystemLogger;
 import org.aselect.system.sam.service.SAMServiceServlet;
+import org.aselect.system.storagemanager.handler.CachingStorageHandler;
+import org.aselect.system.storagemanager.handler.ReplicatedStorageHandler;
 
 /**
  * The A-Select Server SAM Service servlet. <br>
@@ -121,6 +125,10 @@ public class SAMService extends SAMServiceServlet
 		_htOIDs.put(ASelectSAMConstants.OID_TGTCOUNT, ASelectSAMConstants.NAME_TGTCOUNT);
 		_htOIDs.put(ASelectSAMConstants.OID_CURTGTS, ASelectSAMConstants.NAME_CURTGTS);
 		_htOIDs.put(ASelectSAMConstants.OID_MAXTGTS, ASelectSAMConstants.NAME_MAXTGTS);
+		_htOIDs.put(ASelectSAMConstants.OID_DBPOOLS, ASelectSAMConstants.NAME_DBPOOLS);
+		_htOIDs.put(ASelectSAMConstants.OID_STORAGECACHES, ASelectSAMConstants.NAME_STORAGECACHES);
+		_htOIDs.put(ASelectSAMConstants.OID_STORAGEREPLICATION, ASelectSAMConstants.NAME_STORAGEREPLICATION);
+		_htOIDs.put(ASelectSAMConstants.OID_HTTPDESTINATIONS, ASelectSAMConstants.NAME_HTTPDESTINATIONS);
 
 		_bASelectOK = true;
 
@@ -209,16 +217,13 @@ public class SAMService extends SAMServiceServlet
 		long lSessions = -1;
 		SessionManager oSessionManager = SessionManager.getHandle();
 		if (oSessionManager != null) {
-			HashMap htSessionContexts = null;
 			try {
-				htSessionContexts = oSessionManager.getAll();
+				lSessions = oSessionManager.getCount();  // no need to retrieve the contexts
 				// RM_63_01
 			}
 			catch (Exception e) {
 				_systemLogger.log(Level.WARNING, MODULE, sMethod, "No contexts available", e);
 			}
-			if (htSessionContexts != null)
-				lSessions = htSessionContexts.size();
 		}
 
 		// maxsessions
@@ -258,20 +263,33 @@ public class SAMService extends SAMServiceServlet
 		long lActiveTGTs = -1;
 		oTGTManager = TGTManager.getHandle();
 		if (oTGTManager != null) {
-			HashMap htTGTContexts = null;
 			try {
-				htTGTContexts = oTGTManager.getAll();
+				lActiveTGTs = oTGTManager.getCount();
 				// RM_63_02
 			}
 			catch (Exception e) {
 				_systemLogger.log(Level.WARNING, MODULE, sMethod, "No contexts available", e);
 			}
-			if (htTGTContexts != null)
-				lActiveTGTs = htTGTContexts.size();
 		}
 
 		htInfo.put(ASelectSAMConstants.OID_CURTGTS, "" + lActiveTGTs);
 		htInfo.put(ASelectSAMConstants.OID_MAXTGTS, "" + lMaxTGT);
+
+		// Database connection pools
+		HashMap<String, String> htPoolStats = PoolingConnectionHandler.getPoolStatistics();
+		htInfo.put(ASelectSAMConstants.OID_DBPOOLS, htPoolStats.isEmpty() ? "&nbsp;" : htPoolStats.toString());
+
+		// Near caches of storage handlers
+		HashMap<String, String> htCacheStats = CachingStorageHandler.getCacheStatistics();
+		htInfo.put(ASelectSAMConstants.OID_STORAGECACHES, htCacheStats.isEmpty() ? "&nbsp;" : htCacheStats.toString());
+
+		// Replicated storage handlers
+		HashMap<String, String> htReplicationStats = ReplicatedStorageHandler.getReplicationStatistics();
+		htInfo.put(ASelectSAMConstants.OID_STORAGEREPLICATION, htReplicationStats.isEmpty() ? "&nbsp;" : htReplicationStats.toString());
+
+		// Latency of the other servers called
+		HashMap<String, String> htHttpStats = HttpTransport.getStatistics();
+		htInfo.put(ASelectSAMConstants.OID_HTTPDESTINATIONS, htHttpStats.isEmpty() ? "&nbsp;" : htHttpStats.toString());
 		return htInfo;
 	}
 
@@ -70,7 +70,15 @@
  */
 package org.aselect.server.session;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 
 import org.aselect.server.config.ASelectConfigManager;
@@ -100,10 +108,16 @@ import org.aselect.system.utils.Utils;
  * </ul>
  * The session contexts are stored using a <code>StorageManager</code>. <br>
  * <br>
+ * During a request a unit of work is active (see {@link #beginUnitOfWork()}). Within a unit of work every session is
+ * read from storage once. {@link #updateSession(String, HashMap)} writes at once, so its result can be checked.
+ * {@link #deferSessionUpdate(String, HashMap)} only marks the session, all changes to it are written at once when the
+ * unit of work is flushed. With <code>&lt;delta_update&gt;true&lt;/delta_update&gt;</code> in the storagemanager
+ * section, a session whose attributes did not change only gets a new timestamp. <br>
+ * <br>
  * <i>Note: This manager is implemented as a Singleton.</i> <br>
  * <br>
  * <b>Concurrency issues:</b> <br>
- * - <br>
+ * The unit of work is kept per thread. <br>
  * 
  * @author Alfa & Ariss
  */
@@ -116,14 +130,23 @@ public class SessionManager extends StorageManager
 	private static SessionManager _oSessionManager;
 
 	/** The number of session issued since startup. */
-	private long _lSessionsCounter = 0;
+	private final AtomicLong _lSessionsCounter = new AtomicLong(0);
 
 	/** The last process time. */
-	private long _lProcessTime;
+	private volatile long _lProcessTime;
 
 	/** The logger for system log entries. */
 	private SystemLogger _systemLogger;
 
+	/** The sessions used by the request of the current thread. */
+	private final ThreadLocal<UnitOfWork> _tlUnitOfWork = new ThreadLocal<UnitOfWork>();
+
+	/** Only renew the timestamp of sessions that did not change. */
+	private boolean _bDeltaUpdate = false;
+
+	/** Snapshot value of an attribute whose changes cannot be detected. */
+	private static final Object UNCOMPARABLE = new Object();
+
 	/**
 	 * Private constructor. <br>
 	 * <br>
@@ -182,8 +205,16 @@ public class SessionManager extends StorageManager
 
 			super.init(oSessionConfig, oConfigManager, _systemLogger, ASelectSAMAgent.getHandle());
 
+			try {
+				_bDeltaUpdate = Boolean.parseBoolean(oConfigManager.getParam(oSessionConfig, "delta_update"));
+			}
+			catch (ASelectConfigException e) {
+				_bDeltaUpdate = false;
+			}
+			_systemLogger.log(Level.INFO, MODULE, sMethod, "delta_update=" + _bDeltaUpdate);
+
 			// reset session counter
-			_lSessionsCounter = 0;
+			_lSessionsCounter.set(0);
 			_systemLogger.log(Level.INFO, MODULE, sMethod, "Session manager Successfully started.");
 		}
 		catch (ASelectException e) {
@@ -258,7 +289,7 @@ public class SessionManager extends StorageManager
 	 * Stores the <code>htSessionContext</code> supplied by the caller under a unique generated session id of 8 bytes. <br>
 	 * <br>
 	 * <b>Concurrency issues:</b> <br>
-	 * - <br>
+	 * Not synchronized, uniqueness is guaranteed by the storage layer (duplicate key on insert). <br>
 	 * <br>
 	 * <b>Preconditions:</b> <br>
 	 * <code>htSessionContext != null</code> <br>
@@ -272,7 +303,7 @@ public class SessionManager extends StorageManager
 	 * @throws ASelectException
 	 *             If server is busy.
 	 */
-	synchronized public String createSession(String sPredefinedRid, HashMap htSessionContext, boolean startPaused)
+	public String createSession(String sPredefinedRid, HashMap htSessionContext, boolean startPaused)
 	throws ASelectException
 	{
 		String sMethod = "createSession";
@@ -320,10 +351,13 @@ public class SessionManager extends StorageManager
 //			}
 //			// RH, 20111121, en
 			
-			_lSessionsCounter++;
+			_lSessionsCounter.incrementAndGet();
 			// Put "rid" and "status" in the local session cache
 			htSessionContext.put("status", "get");  // 20120401: indicates unchanged session
 			htSessionContext.put("rid", sSessionId);  // 20120401, Bauke: added to facilitate deferred session updates
+			UnitOfWork oUnit = _tlUnitOfWork.get();
+			if (oUnit != null)
+				oUnit._htSessions.put(sSessionId, new TrackedSession(htSessionContext, snapshot(htSessionContext)));
 		}
 		catch (ASelectStorageException e) {
 			if (e.getMessage().equals(Errors.ERROR_ASELECT_STORAGE_MAXIMUM_REACHED)) {
@@ -362,12 +396,20 @@ public class SessionManager extends StorageManager
 	{
 		String sMethod = "getSessionContext";
 		HashMap htContext = null;
+		UnitOfWork oUnit = _tlUnitOfWork.get();
+		TrackedSession oTracked = (oUnit == null) ? null : oUnit._htSessions.get(sSessionId);
+		if (oTracked != null) {  // already used by this request, may have pending changes
+			_systemLogger.log(Level.FINEST, MODULE, sMethod, "SessionId=" + sSessionId + " from unit of work");
+			return oTracked._htContext;
+		}
 		try {
 			_systemLogger.log(Level.FINEST, MODULE, sMethod, "SessionId=" + sSessionId); // + ", Context=" + htContext);
 			htContext = (HashMap) get(sSessionId);
 			if (htContext != null) {
 				htContext.put("status", "get");  // 20120401: indicates unchanged session
 				htContext.put("rid", sSessionId);  // 20120401, Bauke: added to facilitate deferred session updates
+				if (oUnit != null)
+					oUnit._htSessions.put(sSessionId, new TrackedSession(htContext, snapshot(htContext)));
 			}
 		}
 		catch (ASelectStorageException e) {
@@ -382,7 +424,9 @@ public class SessionManager extends StorageManager
 	 * Update a session context. <br>
 	 * <br>
 	 * <b>Description:</b> <br>
-	 * Overwrites the new session context with the given ID in the storage. <br>
+	 * Overwrites the new session context with the given ID in the storage. The session is written at once, also within
+	 * a unit of work, so a failure is reported to the caller. Use {@link #deferSessionUpdate(String, HashMap)} when the
+	 * result is not needed. <br>
 	 * <br>
 	 * <b>Preconditions:</b>
 	 * <ul>
@@ -403,21 +447,115 @@ public class SessionManager extends StorageManager
 	// 20120331, Bauke: previously called writeSession()
 	public boolean updateSession(String sSessionId, HashMap htSessionContext)
 	{
-		String sMethod = "updateSession";
+		UnitOfWork oUnit = _tlUnitOfWork.get();
+		if (oUnit == null)
+			return writeSession(sSessionId, htSessionContext, false);
+
+		TrackedSession oTracked = track(oUnit, sSessionId, htSessionContext);
+		oTracked._bPending = false;
+		return writeTracked(sSessionId, oTracked);
+	}
+
+	/**
+	 * Update a session context at the end of the request. <br>
+	 * <br>
+	 * <b>Description:</b> <br>
+	 * Within a unit of work the session is only marked, it is written when the unit of work is flushed, a failure is
+	 * logged. Outside a unit of work the session is written at once. <br>
+	 * <br>
+	 * <b>Preconditions:</b>
+	 * <ul>
+	 * <li><code>sSessionId != null</code></li>
+	 * <li><code>htSessionContext != null</code></li>
+	 * </ul>
+	 * 
+	 * @param sSessionId
+	 *            The ID of the session.
+	 * @param htSessionContext
+	 *            The new session context.
+	 */
+	public void deferSessionUpdate(String sSessionId, HashMap htSessionContext)
+	{
+		String sMethod = "deferSessionUpdate";
+		UnitOfWork oUnit = _tlUnitOfWork.get();
+		if (oUnit == null) {
+			writeSession(sSessionId, htSessionContext, false);
+			return;
+		}
+		TrackedSession oTracked = track(oUnit, sSessionId, htSessionContext);
+		oTracked._bPending = true;
+		_systemLogger.log(Level.FINEST, MODULE, sMethod, "SessionId=" + sSessionId + " deferred");
+	}
+
+	/**
+	 * Keep the new context of a session in the unit of work.
+	 */
+	private TrackedSession track(UnitOfWork oUnit, String sSessionId, HashMap htSessionContext)
+	{
+		TrackedSession oTracked = oUnit._htSessions.get(sSessionId);
+		if (oTracked == null) {
+			oTracked = new TrackedSession(htSessionContext, null);  // stored state unknown
+			oUnit._htSessions.put(sSessionId, oTracked);
+		}
+		oTracked._htContext = htSessionContext;
+		htSessionContext.put("status", "get");  // set hard, not through Utils.setSessionStatus()
+		htSessionContext.put("rid", sSessionId);
+		return oTracked;
+	}
+
+	/**
+	 * Write a session of the unit of work, only its timestamp if it did not change and delta updates are used.
+	 * 
+	 * @return True if updating succeeds, otherwise false.
+	 */
+	private boolean writeTracked(String sSessionId, TrackedSession oTracked)
+	{
+		String sMethod = "writeTracked";
+		boolean bUnchanged = false;
+		if (_bDeltaUpdate && oTracked._htSnapshot != null) {
+			List<String> lChanged = getChangedAttributes(oTracked._htSnapshot, oTracked._htContext);
+			_systemLogger.log(Level.FINEST, MODULE, sMethod, "SessionId=" + sSessionId + " changed=" + lChanged);
+			bUnchanged = lChanged.isEmpty();
+		}
+		if (!writeSession(sSessionId, oTracked._htContext, bUnchanged))
+			return false;
+		oTracked._htSnapshot = _bDeltaUpdate ? snapshot(oTracked._htContext) : null;
+		return true;
+	}
+
+	/**
+	 * Write a session context to storage.
+	 * 
+	 * @param sSessionId
+	 *            The ID of the session.
+	 * @param htSessionContext
+	 *            The new session context.
+	 * @param bUnchanged
+	 *            the context equals the stored context, only the timestamp needs to be renewed
+	 * @return True if updating succeeds, otherwise false.
+	 */
+	private boolean writeSession(String sSessionId, HashMap htSessionContext, boolean bUnchanged)
+	{
+		String sMethod = "writeSession";
 		boolean bReturn = false;
 		try {
-			_systemLogger.log(Level.FINEST, MODULE, sMethod, "SessionId=" + sSessionId);
+			_systemLogger.log(Level.FINEST, MODULE, sMethod, "SessionId=" + sSessionId + " unchanged=" + bUnchanged);
 //			RH, 20111117: writeSession is mostly used for updating sessions so use update instead of put
 //			put(sSessionId, htSessionContext); // insert or update
 			
 			// 20120330, Bauke: Do not persist "status"
-			String sStatus = (String)htSessionContext.get("status");
 			htSessionContext.remove("status");
 			htSessionContext.remove("rid");
-			update(sSessionId, htSessionContext); // insert or update
-			htSessionContext.put("status", "get");  // set hard, not through Utils.setSessionStatus()
-			htSessionContext.put("rid", sSessionId);
-			
+			try {
+				if (bUnchanged)
+					touch(sSessionId, htSessionContext);
+				else
+					update(sSessionId, htSessionContext); // insert or update
+			}
+			finally {
+				htSessionContext.put("status", "get");  // set hard, not through Utils.setSessionStatus()
+				htSessionContext.put("rid", sSessionId);
+			}
 			bReturn = true;
 		}
 		catch (ASelectStorageException e) {
@@ -426,6 +564,66 @@ public class SessionManager extends StorageManager
 		return bReturn;
 	}
 
+	/**
+	 * Start a unit of work for the current thread. <br>
+	 * <br>
+	 * <b>Description:</b> <br>
+	 * Until {@link #endUnitOfWork()} is called, the session contexts read by this thread are kept and
+	 * {@link #deferSessionUpdate(String, HashMap)} is deferred. Calls can be nested, only the outermost end flushes. <br>
+	 */
+	public void beginUnitOfWork()
+	{
+		UnitOfWork oUnit = _tlUnitOfWork.get();
+		if (oUnit == null) {
+			oUnit = new UnitOfWork();
+			_tlUnitOfWork.set(oUnit);
+		}
+		oUnit._iDepth++;
+	}
+
+	/**
+	 * Write the sessions updated in the unit of work of the current thread. <br>
+	 * <br>
+	 * <b>Description:</b> <br>
+	 * Every updated session is written once. Must be called before the response is sent, so the next request of the
+	 * user finds the updated session. The unit of work stays active, later updates are written by the next flush. <br>
+	 * 
+	 * @return false if a session could not be written, the response should report the error
+	 */
+	public boolean flushUnitOfWork()
+	{
+		UnitOfWork oUnit = _tlUnitOfWork.get();
+		if (oUnit == null)
+			return true;
+
+		boolean bWritten = true;
+		for (Map.Entry<String, TrackedSession> entry : oUnit._htSessions.entrySet()) {
+			TrackedSession oTracked = entry.getValue();
+			if (!oTracked._bPending)
+				continue;
+			oTracked._bPending = false;
+			if (!writeTracked(entry.getKey(), oTracked))
+				bWritten = false;
+		}
+		return bWritten;
+	}
+
+	/**
+	 * End the unit of work of the current thread, pending updates are written.
+	 */
+	public void endUnitOfWork()
+	{
+		UnitOfWork oUnit = _tlUnitOfWork.get();
+		if (oUnit == null || --oUnit._iDepth > 0)
+			return;
+		try {
+			flushUnitOfWork();
+		}
+		finally {
+			_tlUnitOfWork.remove();
+		}
+	}
+
 	/**
 	 * Sets the session's status to "upd" - updated.
 	 * At the end of a handler's lifetime we can then decide to write the info in permanent storage.
@@ -458,7 +656,7 @@ public class SessionManager extends StorageManager
 	 * @param sSessionId
 	 *            The ID of the session to be killed.
 	 */
-	public synchronized void deleteSession(String sSessionId, HashMap htSessionContext)
+	public void deleteSession(String sSessionId, HashMap htSessionContext)
 	{
 		String sMethod = "deleteSession";
 		try {
@@ -466,6 +664,9 @@ public class SessionManager extends StorageManager
 			// Retrieve session start time (timestamp) and calculate last processing time
 			// 20120405, Bauke, disabled, only used by the GUI
 			_lProcessTime = 0;  // System.currentTimeMillis() - getTimestamp(sSessionId);
+			UnitOfWork oUnit = _tlUnitOfWork.get();
+			if (oUnit != null)
+				oUnit._htSessions.remove(sSessionId);  // drop pending updates
 			remove(sSessionId);
 		}
 		catch (ASelectStorageException e) {
@@ -508,7 +709,7 @@ public class SessionManager extends StorageManager
 		if (sRid != null && "upd".equals(sStatus)) {
 			_systemLogger.log(Level.FINEST, MODULE, sMethod, "Final upd Session "+sRid);
 			if (doReally)
-				updateSession(sRid, htSessionContext);
+				deferSessionUpdate(sRid, htSessionContext);
 		}
 		else if (sRid != null && "del".equals(sStatus)) {
 			_systemLogger.log(Level.FINEST, MODULE, sMethod, "Final del Session "+sRid);
@@ -536,6 +737,99 @@ public class SessionManager extends StorageManager
 	 */
 	public long getCounter()
 	{
-		return _lSessionsCounter;
+		return _lSessionsCounter.get();
+	}
+
+	/**
+	 * Copy the attributes of a session context, to detect changes later on. <br>
+	 * <br>
+	 * <b>Description:</b> <br>
+	 * Immutable values are kept as is, maps and collections of immutable values are copied. Other values can be
+	 * changed without notice and are always considered changed. "status" and "rid" are not stored and skipped.
+	 */
+	private static HashMap<Object, Object> snapshot(HashMap htSessionContext)
+	{
+		HashMap<Object, Object> htSnapshot = new HashMap<Object, Object>();
+		for (Object oEntry : htSessionContext.entrySet()) {
+			Map.Entry entry = (Map.Entry) oEntry;
+			if ("status".equals(entry.getKey()) || "rid".equals(entry.getKey()))
+				continue;
+			htSnapshot.put(entry.getKey(), snapshotValue(entry.getValue()));
+		}
+		return htSnapshot;
+	}
+
+	private static Object snapshotValue(Object oValue)
+	{
+		if (isImmutable(oValue))
+			return oValue;
+		if (oValue instanceof Map) {
+			for (Object oEntry : ((Map) oValue).entrySet()) {
+				Map.Entry entry = (Map.Entry) oEntry;
+				if (!isImmutable(entry.getKey()) || !isImmutable(entry.getValue()))
+					return UNCOMPARABLE;
+			}
+			return new HashMap((Map) oValue);
+		}
+		if (oValue instanceof List || oValue instanceof Set) {
+			for (Object oElement : (Collection) oValue) {
+				if (!isImmutable(oElement))
+					return UNCOMPARABLE;
+			}
+			return (oValue instanceof List) ? new ArrayList((List) oValue) : new HashSet((Set) oValue);
+		}
+		return UNCOMPARABLE;
+	}
+
+	private static boolean isImmutable(Object oValue)
+	{
+		return oValue == null || oValue instanceof String || oValue instanceof Boolean || oValue instanceof Character
+				|| oValue instanceof Integer || oValue instanceof Long || oValue instanceof Short
+				|| oValue instanceof Byte || oValue instanceof Double || oValue instanceof Float;
+	}
+
+	/**
+	 * Get the names of the attributes that were added, removed or changed since the snapshot was taken.
+	 */
+	private static List<String> getChangedAttributes(HashMap<Object, Object> htSnapshot, HashMap htSessionContext)
+	{
+		List<String> lChanged = new ArrayList<String>();
+		HashMap<Object, Object> htCurrent = snapshot(htSessionContext);
+		for (Map.Entry<Object, Object> entry : htCurrent.entrySet()) {
+			Object oValue = entry.getValue();
+			Object oOld = htSnapshot.get(entry.getKey());
+			if (oValue == UNCOMPARABLE || oOld == UNCOMPARABLE || !htSnapshot.containsKey(entry.getKey())
+					|| (oValue == null ? oOld != null : !oValue.equals(oOld)))
+				lChanged.add(String.valueOf(entry.getKey()));
+		}
+		for (Object oKey : htSnapshot.keySet()) {
+			if (!htCurrent.containsKey(oKey))
+				lChanged.add(String.valueOf(oKey));
+		}
+		return lChanged;
+	}
+
+	/**
+	 * The sessions used by one request.
+	 */
+	private static class UnitOfWork
+	{
+		private final LinkedHashMap<String, TrackedSession> _htSessions = new LinkedHashMap<String, TrackedSession>();
+		private int _iDepth = 0;
+	}
+
+	/**
+	 * A session context and a snapshot of its stored attributes.
+	 */
+	private static class TrackedSession
+	{
+		private HashMap _htContext;
+		private HashMap<Object, Object> _htSnapshot;  // null if the stored state is unknown
+		private boolean _bPending = false;
+
+		private TrackedSession(HashMap htContext, HashMap<Object, Object> htSnapshot) {
+			_htContext = htContext;
+			_htSnapshot = htSnapshot;
+		}
 	}
 }
@@ -0,0 +1,167 @@
+/*
+ * * Copyright (c) Anoigo. All rights reserved.
+ *
+ * A-Select is a trademark registered by SURFnet bv.
+ *
+ * This program is distributed under the EUPL 1.0 (http://osor.eu/eupl)
+ * See the included LICENSE file for details.
+ *
+ * If you did not receive a copy of the LICENSE
+ * please contact Anoigo. (http://www.anoigo.nl)
+ */
+package org.aselect.server.session;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Response that writes the pending session updates before the response is sent. <br>
+ * <br>
+ * <b>Description:</b> <br>
+ * Session updates are deferred until the end of the request (see {@link SessionManager#beginUnitOfWork()}). The user
+ * can only act on a redirect or a page after it has been received, so the pending updates are flushed when the
+ * handler redirects, sends an error, writes to or flushes its writer, or asks for the binary output stream. A large
+ * page can reach the user before the handler flushes, so every write to the writer first flushes the pending updates,
+ * which costs nothing when there are none. When the
+ * updates can not be written, a redirect is replaced by an error, since the next step would not find the session as
+ * expected. <br>
+ * <br>
+ * <b>Concurrency issues:</b> <br>
+ * Used by a single request thread. <br>
+ *
+ * @author Anoigo
+ */
+public class UnitOfWorkResponse extends HttpServletResponseWrapper
+{
+	private final SessionManager _oSessionManager;
+	private PrintWriter _pwOut;
+
+	/**
+	 * Instantiates a new unit of work response.
+	 *
+	 * @param servletResponse
+	 *            the response of the servlet container
+	 * @param oSessionManager
+	 *            the session manager holding the unit of work
+	 */
+	public UnitOfWorkResponse(HttpServletResponse servletResponse, SessionManager oSessionManager)
+	{
+		super(servletResponse);
+		_oSessionManager = oSessionManager;
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.servlet.http.HttpServletResponseWrapper#sendRedirect(java.lang.String)
+	 */
+	@Override
+	public void sendRedirect(String sLocation)
+	throws IOException
+	{
+		if (!_oSessionManager.flushUnitOfWork()) {
+			super.sendError(SC_INTERNAL_SERVER_ERROR);
+			return;
+		}
+		super.sendRedirect(sLocation);
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.servlet.http.HttpServletResponseWrapper#sendError(int)
+	 */
+	@Override
+	public void sendError(int iStatus)
+	throws IOException
+	{
+		_oSessionManager.flushUnitOfWork();
+		super.sendError(iStatus);
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.servlet.http.HttpServletResponseWrapper#sendError(int, java.lang.String)
+	 */
+	@Override
+	public void sendError(int iStatus, String sMessage)
+	throws IOException
+	{
+		_oSessionManager.flushUnitOfWork();
+		super.sendError(iStatus, sMessage);
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.servlet.ServletResponseWrapper#flushBuffer()
+	 */
+	@Override
+	public void flushBuffer()
+	throws IOException
+	{
+		_oSessionManager.flushUnitOfWork();
+		super.flushBuffer();
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.servlet.ServletResponseWrapper#getOutputStream()
+	 */
+	@Override
+	public ServletOutputStream getOutputStream()
+	throws IOException
+	{
+		_oSessionManager.flushUnitOfWork();  // binary output is not wrapped
+		return super.getOutputStream();
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.servlet.ServletResponseWrapper#getWriter()
+	 */
+	@Override
+	public PrintWriter getWriter()
+	throws IOException
+	{
+		if (_pwOut == null) {
+			FilterWriter oFlushingWriter = new FilterWriter(super.getWriter()) {
+				@Override
+				public void write(int c)
+				throws IOException
+				{
+					_oSessionManager.flushUnitOfWork();
+					super.write(c);
+				}
+
+				@Override
+				public void write(char[] caBuffer, int iOffset, int iLength)
+				throws IOException
+				{
+					_oSessionManager.flushUnitOfWork();
+					super.write(caBuffer, iOffset, iLength);
+				}
+
+				@Override
+				public void write(String sText, int iOffset, int iLength)
+				throws IOException
+				{
+					_oSessionManager.flushUnitOfWork();
+					super.write(sText, iOffset, iLength);
+				}
+			};
+			_pwOut = new PrintWriter(oFlushingWriter) {
+				@Override
+				public void flush()
+				{
+					_oSessionManager.flushUnitOfWork();
+					super.flush();
+				}
+
+				@Override
+				public void close()
+				{
+					_oSessionManager.flushUnitOfWork();
+					super.close();
+				}
+			};
+		}
+		return _pwOut;
+	}
+}
@@ -228,7 +228,7 @@ public class TGTIssuer
 				sAppId = sbAppID.toString();
 			}
 
-			_systemLogger.log(Level.FINEST, MODULE, sMethod, "htRemoteAttributes=" + htRemoteAttributes);
+			_systemLogger.log(Level.FINEST, MODULE, sMethod, "htRemoteAttributes=", htRemoteAttributes);
 			HashMap htTGTContext = new HashMap();
 			// The Saml20 protocol needs a return address:
 			Utils.copyHashmapValue("sp_assert_url", htTGTContext, htRemoteAttributes);
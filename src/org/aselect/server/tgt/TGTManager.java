@@ -62,6 +62,7 @@
 package org.aselect.server.tgt;
 
 import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 
 import org.aselect.server.config.ASelectConfigManager;
@@ -110,7 +111,7 @@ public class TGTManager extends StorageManager
 	/**
 	 * Counts the TGT's
 	 */
-	private long _lTGTCounter;
+	private final AtomicLong _lTGTCounter = new AtomicLong(0);
 
 	/**
 	 * Should the tgt number be stored in the tgt session itself
@@ -180,7 +181,7 @@ public class TGTManager extends StorageManager
 			super.init(oTicketSection, oASelectConfigManager, _systemLogger, ASelectSAMAgent.getHandle());
 
 			// reset the tgt counter
-			_lTGTCounter = 0;
+			_lTGTCounter.set(0);
 			_systemLogger.log(Level.INFO, MODULE, sMethod, "Successfully initialized TGT Manager");
 		}
 		catch (ASelectStorageException e) {
@@ -208,7 +209,8 @@ public class TGTManager extends StorageManager
 	 * storage manager</li> <li>increases the tgt counter for monitoring purposes</li> <br>
 	 * <br>
 	 * <b>Concurrency issues:</b> <br>
-	 * - <br>
+	 * Not synchronized, uniqueness is guaranteed by the storage layer: an insert of an existing TGT fails with a
+	 * duplicate key and a new TGT is generated. <br>
 	 * <br>
 	 * <b>Preconditions:</b> <br>
 	 * - <br>
@@ -222,7 +224,7 @@ public class TGTManager extends StorageManager
 	 * @throws ASelectException
 	 *             If creation fails.
 	 */
-	synchronized public String createTGT(HashMap htTGTContext)
+	public String createTGT(HashMap htTGTContext)
 	throws ASelectException
 	{
 		String sMethod = "createTGT";
@@ -273,7 +275,7 @@ public class TGTManager extends StorageManager
 //			put(sTGT, htTGTContext);			// RH, 20111121, o
 
 			htTGTContext.put("status", "get");  // 20120405: unmodified
-			_lTGTCounter++;
+			_lTGTCounter.incrementAndGet();
 			sReturn = sTGT;
 		}
 		catch (ASelectStorageException e) {
@@ -373,6 +375,42 @@ public class TGTManager extends StorageManager
 		return htContext;
 	}
 
+	/**
+	 * Get the TGT's having the given "name_id". <br>
+	 * <br>
+	 * <b>Description:</b> <br>
+	 * Uses the storage handler's index on "name_id" if configured, otherwise all TGT's are searched. <br>
+	 * 
+	 * @param sNameID
+	 *            the name_id to look for
+	 * @return the TGT contexts found by TGT, empty if none
+	 * @throws ASelectStorageException
+	 *             if retrieving fails
+	 */
+	public HashMap getTGTsByNameID(String sNameID)
+	throws ASelectStorageException
+	{
+		return getByIndex("name_id", sNameID);
+	}
+
+	/**
+	 * Get the TGT's of a user. <br>
+	 * <br>
+	 * <b>Description:</b> <br>
+	 * Uses the storage handler's index on "uid" if configured, otherwise all TGT's are searched. <br>
+	 * 
+	 * @param sUid
+	 *            the user id
+	 * @return the TGT contexts found by TGT, empty if none
+	 * @throws ASelectStorageException
+	 *             if retrieving fails
+	 */
+	public HashMap getTGTsByUid(String sUid)
+	throws ASelectStorageException
+	{
+		return getByIndex("uid", sUid);
+	}
+
 	/**
 	 * Returns the number of TGT's that are created by the TGT manager for monitoring purposes.
 	 * 
@@ -380,7 +418,7 @@ public class TGTManager extends StorageManager
 	 */
 	public long getTGTCounter()
 	{
-		return _lTGTCounter;
+		return _lTGTCounter.get();
 	}
 
 	/**
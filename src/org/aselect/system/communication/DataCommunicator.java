@@ -23,9 +23,9 @@ import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 
-import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLSocketFactory;
 
+import org.aselect.system.communication.client.HttpTransport;
 import org.aselect.system.error.Errors;
 import org.aselect.system.exception.ASelectCommunicationException;
 import org.aselect.system.logging.SystemLogger;
@@ -101,7 +101,7 @@ public class DataCommunicator
 		StringBuffer sbBuf = new StringBuffer();
 		StringBuffer sbBuffer;
 		HttpURLConnection connection = null;
-		HttpsURLConnection  sslconnection = null;	// RH, 20200323, n
+		HttpTransport oTransport = null;
 
 		PrintStream osOutput = null;
 		URL url = new URL(sUrl);
@@ -111,19 +111,12 @@ public class DataCommunicator
 		systemLogger.log(Level.FINEST, MODULE, sMethod, "Using  RequestMethod: "+reqMethod);
 		systemLogger.log(Level.INFO, MODULE, sMethod, "Sending "+sMessage.length()+" [bytes] to: "+sUrl);
 		try {
-			// open HTTP connection to URL
-			connection = (HttpURLConnection) url.openConnection();
-			
-			// open HTTP connection to URL
-//			connection = (HttpURLConnection) url.openConnection();
+			// open HTTP connection to URL, the transport reuses a kept alive connection
 			if ( sslSocketFactory != null ) {
 				systemLogger.log(Level.FINEST, MODULE, sMethod, "Setting sslFactory =" + sslSocketFactory);
-				sslconnection = (HttpsURLConnection) url.openConnection();
-				sslconnection.setSSLSocketFactory(sslSocketFactory);
-				connection = sslconnection;
-			} else {
-				connection = (HttpURLConnection) url.openConnection();
 			}
+			oTransport = HttpTransport.open(url, sslSocketFactory);
+			connection = oTransport.getConnection();
 			
 			// enable sending to connection
 			connection.setDoOutput(true);
@@ -157,14 +150,14 @@ public class DataCommunicator
 			osOutput.println(sMessage);
 			osOutput.println("");  // is already <CR><NL> combination
 
-			int xRetCode = connection.getResponseCode();
+			int xRetCode = oTransport.getResponseCode();
 			systemLogger.log(Level.INFO, MODULE, sMethod, "Message send, response code: " + xRetCode);
 			switch (xRetCode) { // switch on HTTP response code
 			case 200: // ok
-				sbBuf = new StringBuffer(Tools.stream2string(connection.getInputStream(), true));
+				sbBuf = new StringBuffer(Tools.stream2string(oTransport.getInputStream(), true));
 				break;
 			case 204: // ok but no content
-				sbBuf = new StringBuffer(Tools.stream2string(connection.getInputStream(), true));
+				sbBuf = new StringBuffer(Tools.stream2string(oTransport.getInputStream(), true));
 				break;
 			case 400: // Bad request
 				systemLogger.log(Level.INFO, MODULE, sMethod, "Bad request: "+connection.getHeaderField(0));
@@ -203,8 +196,8 @@ public class DataCommunicator
 			systemLogger.log(Level.FINEST, MODULE, sMethod, "Close osOutput="+osOutput+" conn="+connection);
 			if (osOutput != null)
 				osOutput.close();
-			if (connection != null)
-				connection.disconnect();
+			if (oTransport != null)
+				oTransport.close();  // keeps the connection alive if the response was complete
 		}
 		return sbBuf.toString();
 	}
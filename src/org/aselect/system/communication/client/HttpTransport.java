@@ -0,0 +1,349 @@
+/*
+ * * Copyright (c) Anoigo. All rights reserved.
+ *
+ * A-Select is a trademark registered by SURFnet bv.
+ *
+ * This program is distributed under the EUPL 1.0 (http://osor.eu/eupl)
+ * See the included LICENSE file for details.
+ *
+ * If you did not receive a copy of the LICENSE
+ * please contact Anoigo. (http://www.anoigo.nl)
+ */
+package org.aselect.system.communication.client;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+import org.aselect.system.configmanager.ConfigManager;
+import org.aselect.system.exception.ASelectException;
+import org.aselect.system.logging.SystemLogger;
+import org.aselect.system.utils.LatencyStatistics;
+import org.aselect.system.utils.Utils;
+
+/**
+ * HTTP exchange of the client communicators with another server. <br>
+ * <br>
+ * <b>Description:</b> <br>
+ * Opens the <code>HttpURLConnection</code> with connect and read timeouts and at most <code>http_max_per_host</code>
+ * exchanges per destination at the same time. When the exchange is closed, the rest of the response is read, so the
+ * JVM keeps the connection alive and the next exchange with the destination reuses it, including its TLS session
+ * (keep-alive connections are shared per <code>SSLSocketFactory</code>, so use one factory per destination). The
+ * number of idle connections kept per destination is the JVM's <code>http.maxConnections</code> (default 5). E.g.: <br>
+ * <code>HttpTransport oTransport = HttpTransport.open(url, sslSocketFactory);<br>
+ * try {<br>
+ * &nbsp;&nbsp;HttpURLConnection connection = oTransport.getConnection();<br>
+ * &nbsp;&nbsp;... write the request ...<br>
+ * &nbsp;&nbsp;if (oTransport.getResponseCode() == 200)<br>
+ * &nbsp;&nbsp;&nbsp;&nbsp;sResponse = Tools.stream2string(oTransport.getInputStream(), true);<br>
+ * }<br>
+ * finally {<br>
+ * &nbsp;&nbsp;oTransport.close();<br>
+ * }</code> <br>
+ * <br>
+ * <b>Concurrency issues:</b> <br>
+ * An exchange is used by one thread, the limits and the statistics are shared. <br>
+ *
+ * @author Anoigo
+ */
+public class HttpTransport
+{
+	private static final String MODULE = "HttpTransport";
+
+	/** The rest of a response is read up to this size, a bigger rest closes the connection. */
+	private static final int MAX_DRAIN = 64 * 1024;
+
+	private static volatile int _iConnectTimeout = 10000;  // milliseconds, 0 waits forever
+	private static volatile int _iReadTimeout = 60000;  // milliseconds, 0 waits forever
+	private static volatile int _iMaxPerHost = 32;  // 0 is unlimited
+
+	/** The destinations by "scheme://host:port" */
+	private static final ConcurrentHashMap<String, Destination> _htDestinations = new ConcurrentHashMap<String, Destination>();
+
+	private final Destination _oDestination;
+	private final HttpURLConnection _connection;
+	private final long _lStart;
+	private int _iStatus = -1;
+	private ResponseStream _isResponse = null;
+	private boolean _bClosed = false;
+
+	/**
+	 * The limit and the statistics of a destination.
+	 */
+	private static class Destination
+	{
+		final int _iMaxPerHost;
+		final Semaphore _oPermits;
+		final LatencyStatistics _oStatistics = new LatencyStatistics();
+		final AtomicLong _lRejected = new AtomicLong();
+
+		Destination(int iMaxPerHost)
+		{
+			_iMaxPerHost = iMaxPerHost;
+			_oPermits = (iMaxPerHost > 0) ? new Semaphore(iMaxPerHost) : null;
+		}
+	}
+
+	/**
+	 * Response body that remembers whether it was closed.
+	 */
+	private static class ResponseStream extends FilterInputStream
+	{
+		boolean _bClosed = false;
+
+		ResponseStream(InputStream isInput)
+		{
+			super(isInput);
+		}
+
+		@Override
+		public void close()
+		throws IOException
+		{
+			_bClosed = true;
+			super.close();
+		}
+	}
+
+	/**
+	 * Read the timeouts and the limit from the configuration. <br>
+	 * <br>
+	 * The optional items are <code>http_connect_timeout</code> and <code>http_read_timeout</code> (milliseconds) and
+	 * <code>http_max_per_host</code>. A limit only applies to destinations that were not used yet.
+	 *
+	 * @param oConfigManager
+	 *            the config manager
+	 * @param oSysLog
+	 *            the system log
+	 * @param oConfigSection
+	 *            the section holding the items
+	 * @throws ASelectException
+	 *             if a value is not a number
+	 */
+	public static void init(ConfigManager oConfigManager, SystemLogger oSysLog, Object oConfigSection)
+	throws ASelectException
+	{
+		String sMethod = "init";
+		int iValue = Utils.getSimpleIntParam(oConfigManager, oSysLog, oConfigSection, "http_connect_timeout", false);
+		if (iValue >= 0)
+			_iConnectTimeout = iValue;
+		iValue = Utils.getSimpleIntParam(oConfigManager, oSysLog, oConfigSection, "http_read_timeout", false);
+		if (iValue >= 0)
+			_iReadTimeout = iValue;
+		iValue = Utils.getSimpleIntParam(oConfigManager, oSysLog, oConfigSection, "http_max_per_host", false);
+		if (iValue >= 0)
+			_iMaxPerHost = iValue;
+		oSysLog.log(Level.INFO, MODULE, sMethod, "http_connect_timeout=" + _iConnectTimeout + " http_read_timeout="
+				+ _iReadTimeout + " http_max_per_host=" + _iMaxPerHost);
+	}
+
+	/**
+	 * Get the statistics of all destinations that were used.
+	 *
+	 * @return key "scheme://host:port", value e.g. "n=120 errors=0 avg=35us p50=32us p99=256us active=1 rejected=0"
+	 */
+	public static HashMap<String, String> getStatistics()
+	{
+		HashMap<String, String> htStats = new HashMap<String, String>();
+		for (Map.Entry<String, Destination> entry : _htDestinations.entrySet()) {
+			Destination oDestination = entry.getValue();
+			StringBuffer sbStats = new StringBuffer(oDestination._oStatistics.toString());
+			if (oDestination._oPermits != null)
+				sbStats.append(" active=").append(oDestination._iMaxPerHost - oDestination._oPermits.availablePermits());
+			sbStats.append(" rejected=").append(oDestination._lRejected.get());
+			htStats.put(entry.getKey(), sbStats.toString());
+		}
+		return htStats;
+	}
+
+	/**
+	 * Start an exchange, waits at most the connect timeout when the destination is at its limit. <br>
+	 * <br>
+	 * The exchange must be closed by {@link #close()}.
+	 *
+	 * @param url
+	 *            the URL
+	 * @param sslSocketFactory
+	 *            the factory for a HTTPS URL, null for the default
+	 * @return the exchange
+	 * @throws IOException
+	 *             if the destination stays at its limit or the connection cannot be created
+	 */
+	public static HttpTransport open(URL url, SSLSocketFactory sslSocketFactory)
+	throws IOException
+	{
+		String sKey = getKey(url);
+		Destination oDestination = _htDestinations.get(sKey);
+		if (oDestination == null) {
+			Destination oNew = new Destination(_iMaxPerHost);
+			oDestination = _htDestinations.putIfAbsent(sKey, oNew);
+			if (oDestination == null)
+				oDestination = oNew;
+		}
+
+		if (oDestination._oPermits != null) {
+			boolean bAcquired;
+			try {
+				bAcquired = (_iConnectTimeout > 0) ? oDestination._oPermits.tryAcquire(_iConnectTimeout, TimeUnit.MILLISECONDS)
+						: acquire(oDestination._oPermits);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for " + sKey);
+			}
+			if (!bAcquired) {
+				oDestination._lRejected.incrementAndGet();
+				throw new IOException("Too many connections to " + sKey);
+			}
+		}
+
+		try {
+			HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+			if (sslSocketFactory != null && connection instanceof HttpsURLConnection)
+				((HttpsURLConnection) connection).setSSLSocketFactory(sslSocketFactory);
+			connection.setConnectTimeout(_iConnectTimeout);
+			connection.setReadTimeout(_iReadTimeout);
+			return new HttpTransport(oDestination, connection);
+		}
+		catch (IOException e) {
+			if (oDestination._oPermits != null)
+				oDestination._oPermits.release();
+			throw e;
+		}
+		catch (RuntimeException e) {
+			if (oDestination._oPermits != null)
+				oDestination._oPermits.release();
+			throw e;
+		}
+	}
+
+	private HttpTransport(Destination oDestination, HttpURLConnection connection)
+	{
+		_oDestination = oDestination;
+		_connection = connection;
+		_lStart = System.nanoTime();
+	}
+
+	/**
+	 * Get the connection, to set the request and write its body.
+	 *
+	 * @return the connection
+	 */
+	public HttpURLConnection getConnection()
+	{
+		return _connection;
+	}
+
+	/**
+	 * Get the HTTP response code.
+	 *
+	 * @return the response code
+	 * @throws IOException
+	 *             if no valid response was received
+	 */
+	public int getResponseCode()
+	throws IOException
+	{
+		_iStatus = _connection.getResponseCode();
+		return _iStatus;
+	}
+
+	/**
+	 * Get the response body.
+	 *
+	 * @return the body
+	 * @throws IOException
+	 *             if no valid response was received, or the response code is 400 or more
+	 */
+	public InputStream getInputStream()
+	throws IOException
+	{
+		if (_isResponse == null) {
+			getResponseCode();
+			_isResponse = new ResponseStream(_connection.getInputStream());
+		}
+		return _isResponse;
+	}
+
+	/**
+	 * End the exchange. <br>
+	 * <br>
+	 * Reads the rest of the response so the connection can be reused, or closes the connection if there is no
+	 * complete response. Records the duration, an exchange without a response or with a response code of 400 or more
+	 * is an error.
+	 */
+	public void close()
+	{
+		if (_bClosed)
+			return;
+		_bClosed = true;
+		boolean bReusable = false;
+		try {
+			if (_iStatus >= 400)
+				bReusable = drain(_connection.getErrorStream());
+			else if (_iStatus > 0)
+				bReusable = (_isResponse == null) ? drain(_connection.getInputStream())
+						: (_isResponse._bClosed || drain(_isResponse));
+		}
+		catch (IOException e) {
+			bReusable = false;
+		}
+		if (!bReusable)
+			_connection.disconnect();
+		if (_oDestination._oPermits != null)
+			_oDestination._oPermits.release();
+		_oDestination._oStatistics.record(_lStart, _iStatus > 0 && _iStatus < 400);
+	}
+
+	/**
+	 * Read and close a response body.
+	 *
+	 * @return true if the body was read completely
+	 */
+	private static boolean drain(InputStream isInput)
+	throws IOException
+	{
+		if (isInput == null)
+			return true;
+		try {
+			byte[] ba = new byte[4096];
+			int iTotal = 0;
+			int iRead;
+			while ((iRead = isInput.read(ba)) >= 0) {
+				iTotal += iRead;
+				if (iTotal > MAX_DRAIN)
+					return false;
+			}
+			return true;
+		}
+		finally {
+			isInput.close();
+		}
+	}
+
+	private static boolean acquire(Semaphore oPermits)
+	throws InterruptedException
+	{
+		oPermits.acquire();
+		return true;
+	}
+
+	private static String getKey(URL url)
+	{
+		int iPort = (url.getPort() >= 0) ? url.getPort() : url.getDefaultPort();
+		return url.getProtocol().toLowerCase() + "://" + url.getHost().toLowerCase() + ":" + iPort;
+	}
+}
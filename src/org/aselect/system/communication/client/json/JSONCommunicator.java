@@ -25,10 +25,10 @@ import java.util.Iterator;
 import java.util.Map;
 import java.util.logging.Level;
 
-import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLSocketFactory;
 
 import org.aselect.system.communication.DataCommunicator;
+import org.aselect.system.communication.client.HttpTransport;
 import org.aselect.system.communication.client.ISecureClientCommunicator;
 import org.aselect.system.error.Errors;
 import org.aselect.system.exception.ASelectCommunicationException;
@@ -322,6 +322,7 @@ public class JSONCommunicator implements ISecureClientCommunicator	// RH, 202003
 		String sInputLine = "";
 		URL urlSomeServer = null;
 		BufferedReader brInput = null;
+		HttpTransport oTransport = null;
 		StringBuffer sbBuffer = new StringBuffer();
 
 //		sbBuffer = new StringBuffer(sUrl).append("?").append(sParams);	// RH, 20151001, o
@@ -354,7 +355,8 @@ public class JSONCommunicator implements ISecureClientCommunicator	// RH, 202003
 			// RH, 20170221, sn
 //			if ( bearerToken != null ) {	// RH, 20170731, o
 			if ( bearerToken != null || getCommunicatorRequestProperties() != null) {	// RH, 20170731, n
-				URLConnection connectionurl = new URL(sbBuffer.toString()).openConnection();
+				oTransport = HttpTransport.open(new URL(sbBuffer.toString()), get_sslSocketFactory());	// reuses a kept alive connection
+				URLConnection connectionurl = oTransport.getConnection();
 				// RH, 20170731, sn
 				if (getCommunicatorRequestProperties() != null && !getCommunicatorRequestProperties().isEmpty()) {
 					Iterator<String> iter = getCommunicatorRequestProperties() .keySet().iterator();
@@ -373,26 +375,19 @@ public class JSONCommunicator implements ISecureClientCommunicator	// RH, 202003
 				// RH, 20200326, sn
 				if (get_sslSocketFactory() != null) {
 					_systemLogger.log(Level.FINEST, MODULE, sMethod, "Setting sslFactory =" + get_sslSocketFactory());
-					HttpsURLConnection sslconnection = (HttpsURLConnection) connectionurl;
-						sslconnection.setSSLSocketFactory(get_sslSocketFactory());
-						brInput = new BufferedReader(new InputStreamReader(sslconnection.getInputStream()), 16000);
-				} else {	// like we used to
+				}
 				// RH, 20200326, en
-					brInput = new BufferedReader(new InputStreamReader(connectionurl.getInputStream()), 16000);
-				}// RH, 20200326, n
+				brInput = new BufferedReader(new InputStreamReader(oTransport.getInputStream()), 16000);
 			} else {	// backwards compatibility
 				// RH, 20170221, en
 				urlSomeServer = new URL(sbBuffer.toString());
 				// RH, 20200326, sn
 				if (get_sslSocketFactory() != null) {
 					_systemLogger.log(Level.FINEST, MODULE, sMethod, "Setting sslFactory =" + get_sslSocketFactory());
-					HttpsURLConnection sslconnection = (HttpsURLConnection) urlSomeServer.openConnection();
-						sslconnection.setSSLSocketFactory(get_sslSocketFactory());
-						brInput = new BufferedReader(new InputStreamReader(sslconnection.getInputStream()), 16000);
-				} else {	// like we used to
-				// RH, 20200326, sn
-					brInput = new BufferedReader(new InputStreamReader(urlSomeServer.openStream()), 16000);
-				}// RH, 20200326, n
+				}
+				// RH, 20200326, en
+				oTransport = HttpTransport.open(urlSomeServer, get_sslSocketFactory());	// reuses a kept alive connection
+				brInput = new BufferedReader(new InputStreamReader(oTransport.getInputStream()), 16000);
 			}				// RH, 20170221, n
 			String s = null;
 			while ( (s = brInput.readLine()) != null) {
@@ -429,6 +424,8 @@ public class JSONCommunicator implements ISecureClientCommunicator	// RH, 202003
 				catch (IOException e) {
 					_systemLogger.log(Level.WARNING, MODULE, sMethod, "Couldn't close inputstream, continuing");
 				}
+			if (oTransport != null)
+				oTransport.close();
 		}
 		// RH, 20151001, en
 	}
@@ -107,10 +107,10 @@ import java.util.StringTokenizer;
 import java.util.Vector;
 import java.util.logging.Level;
 
-import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLSocketFactory;
 
 import org.aselect.system.communication.DataCommunicator;
+import org.aselect.system.communication.client.HttpTransport;
 import org.aselect.system.communication.client.ISecureClientCommunicator;
 import org.aselect.system.error.Errors;
 import org.aselect.system.exception.ASelectCommunicationException;
@@ -263,6 +263,7 @@ public class RawCommunicator implements ISecureClientCommunicator	// RH, 2020032
 		String sInputLine = "";
 		URL urlSomeServer = null;
 		BufferedReader brInput = null;
+		HttpTransport oTransport = null;
 		StringBuffer sbBuffer = new StringBuffer();
 
 		
@@ -296,13 +297,11 @@ public class RawCommunicator implements ISecureClientCommunicator	// RH, 2020032
 			// RH, 20200326, sn
 			if (get_sslSocketFactory() != null) {
 				_systemLogger.log(Level.FINEST, MODULE, sMethod, "Setting sslFactory =" + get_sslSocketFactory());
-				HttpsURLConnection sslconnection = (HttpsURLConnection) urlSomeServer.openConnection();
-					sslconnection.setSSLSocketFactory(get_sslSocketFactory());
-					brInput = new BufferedReader(new InputStreamReader(sslconnection.getInputStream()), 16000);
-			} else {	// like we used to
-			// RH, 20200326, sn
-				brInput = new BufferedReader(new InputStreamReader(urlSomeServer.openStream()), 16000);
-			}// RH, 20200326, n
+			}
+			// RH, 20200326, en
+			// the transport reuses a kept alive connection
+			oTransport = HttpTransport.open(urlSomeServer, get_sslSocketFactory());
+			brInput = new BufferedReader(new InputStreamReader(oTransport.getInputStream()), 16000);
 			String s = null;
 			while ( (s = brInput.readLine()) != null) {
 				_systemLogger.log(Level.FINEST, MODULE, sMethod, "Input from the other server=" +Auxiliary.obfuscate(s));
@@ -338,6 +337,8 @@ public class RawCommunicator implements ISecureClientCommunicator	// RH, 2020032
 				catch (IOException e) {
 					_systemLogger.log(Level.WARNING, MODULE, sMethod, "Couldn't close inputstream, continuing");
 				}
+			if (oTransport != null)
+				oTransport.close();
 		}
 		// RH, 20151001, en
 
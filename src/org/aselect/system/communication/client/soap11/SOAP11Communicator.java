@@ -96,6 +96,7 @@ import javax.xml.parsers.ParserConfigurationException;
 
 //import org.apache.xerces.dom.DocumentImpl;
 //import org.apache.xerces.parsers.DOMParser;
+import org.aselect.system.communication.client.HttpTransport;
 import org.aselect.system.communication.client.ISecureClientCommunicator;
 import org.aselect.system.error.Errors;
 import org.aselect.system.exception.ASelectCommunicationException;
@@ -371,13 +372,15 @@ public class SOAP11Communicator implements ISecureClientCommunicator	// RH, 2020
 		String sMethod = "send";
 		URL url = null;
 		HttpURLConnection connection = null;
+		HttpTransport oTransport = null;
 
 		// http://[target address]/[schema target]
 		url = new URL(sUrl);
 
 		try {
-			// open HTTP connection to URL
-			connection = (HttpURLConnection) url.openConnection();
+			// open HTTP connection to URL, the transport reuses a kept alive connection
+			oTransport = HttpTransport.open(url, null);
+			connection = oTransport.getConnection();
 			// enable sending to connection
 			connection.setDoOutput(true);
 
@@ -401,7 +404,7 @@ public class SOAP11Communicator implements ISecureClientCommunicator	// RH, 2020
 			// DataInputStream isInput = null;
 			// RH, 20080717, eo
 
-			int iRetCode = connection.getResponseCode();
+			int iRetCode = oTransport.getResponseCode();
 			switch (iRetCode) { // switch on HTTP response code
 			case 200: // ok
 			{
@@ -411,7 +414,7 @@ public class SOAP11Communicator implements ISecureClientCommunicator	// RH, 2020
 				 * sb.append(new String(ba, 0, xRead)); // clear the buffer Arrays.fill(ba, (byte)0); } //close the
 				 * stream isInput.close();
 				 */// RH, 20080717, eo
-				sb = new StringBuffer(Tools.stream2string(connection.getInputStream(), true)); // RH, 20080717, n
+				sb = new StringBuffer(Tools.stream2string(oTransport.getInputStream(), true)); // RH, 20080717, n
 				break;
 			}
 			case 500: // Internal server error
@@ -452,6 +455,10 @@ public class SOAP11Communicator implements ISecureClientCommunicator	// RH, 2020
 			_systemLogger.log(Level.WARNING, MODULE, sMethod, sbBuffer.toString(), eIO);
 			throw new ASelectCommunicationException(Errors.ERROR_ASELECT_IO, eIO);
 		}
+		finally {
+			if (oTransport != null)
+				oTransport.close();  // keeps the connection alive if the response was complete
+		}
 		return sb.toString();
 	}
 
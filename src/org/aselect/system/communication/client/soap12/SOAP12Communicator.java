@@ -79,6 +79,7 @@ import javax.xml.parsers.ParserConfigurationException;
 
 //import org.apache.xerces.dom.DocumentImpl;
 //import org.apache.xerces.parsers.DOMParser;
+import org.aselect.system.communication.client.HttpTransport;
 import org.aselect.system.communication.client.ISecureClientCommunicator;
 import org.aselect.system.communication.server.soap12.SOAPConstants;
 import org.aselect.system.error.Errors;
@@ -363,14 +364,16 @@ public class SOAP12Communicator implements ISecureClientCommunicator	// RH, 2020
 		StringBuffer sbBuf = new StringBuffer();
 		URL url = null;
 		HttpURLConnection connection = null;
+		HttpTransport oTransport = null;
 
 		// http://[target address]/[schema target]
 		url = new URL(sUrl);
 		_systemLogger.log(Level.FINEST, MODULE, sMethod, "url="+sUrl+" msg="+Auxiliary.obfuscate(sMessage));
 
 		try {
-			// open HTTP connection to URL
-			connection = (HttpURLConnection) url.openConnection();
+			// open HTTP connection to URL, the transport reuses a kept alive connection
+			oTransport = HttpTransport.open(url, null);
+			connection = oTransport.getConnection();
 			// enable sending to connection
 			connection.setDoOutput(true);
 
@@ -389,7 +392,7 @@ public class SOAP12Communicator implements ISecureClientCommunicator	// RH, 2020
 			// DataInputStream isInput = null;
 			// RH, 20080717, eo
 
-			int xRetCode = connection.getResponseCode();
+			int xRetCode = oTransport.getResponseCode();
 			switch (xRetCode) { // switch on HTTP response code
 			case 200: // ok
 			{
@@ -399,7 +402,7 @@ public class SOAP12Communicator implements ISecureClientCommunicator	// RH, 2020
 				 * sbBuf.append(new String(ba, 0, iRead)); // clear the buffer Arrays.fill(ba, (byte)0); } //close the
 				 * stream isInput.close();
 				 */// RH, 20080717, eo
-				sbBuf = new StringBuffer(Tools.stream2string(connection.getInputStream(), true)); // RH, 20080717, n
+				sbBuf = new StringBuffer(Tools.stream2string(oTransport.getInputStream(), true)); // RH, 20080717, n
 //				_systemLogger.log(Level.FINEST, MODULE, sMethod, "result="+Utils.firstPartOf(sbBuf.toString(), 40));
 				_systemLogger.log(Level.FINEST, MODULE, sMethod, "result="+Auxiliary.obfuscate(sbBuf.toString()));
 				break;
@@ -446,6 +449,10 @@ public class SOAP12Communicator implements ISecureClientCommunicator	// RH, 2020
 			_systemLogger.log(Level.WARNING, MODULE, sMethod, sbBuffer.toString(), eIO);
 			throw new ASelectCommunicationException(Errors.ERROR_ASELECT_IO, eIO);
 		}
+		finally {
+			if (oTransport != null)
+				oTransport.close();  // keeps the connection alive if the response was complete
+		}
 		return sbBuf.toString();
 	}
 
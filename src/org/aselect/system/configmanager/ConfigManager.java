@@ -77,8 +77,8 @@ public class ConfigManager implements IConfigManager
 	/** name of this module, used for logging */
 	private static final String MODULE = "ConfigManager";
 
-	/** ConfigHandler object used by this ConfigManager. */
-	private IConfigHandler _oConfigHandler;
+	/** ConfigHandler object used by this ConfigManager, replaced as a whole when the configuration is read again. */
+	private volatile IConfigHandler _oConfigHandler;
 
 	/** SystemLogger object were system logging is sent to. */
 	private SystemLogger _oSystemLogger;
@@ -121,10 +121,11 @@ public class ConfigManager implements IConfigManager
 			File fConfig = new File(sConfigFile);
 
 			if (fConfig != null && fConfig.exists()) { // only start initializing when config file exists
-				_oConfigHandler = resolveConfigHandler(fConfig);
-				if (_oConfigHandler != null) {
+				IConfigHandler oConfigHandler = resolveConfigHandler(fConfig);
+				if (oConfigHandler != null) {
 					_oSystemLogger.log(Level.INFO, MODULE, sMethod, "Read configuration from: "+sConfigFile);
-					_oConfigHandler.init(fConfig);
+					oConfigHandler.init(fConfig);
+					_oConfigHandler = oConfigHandler;  // other threads keep using the old one until it is read
 				}
 				else {
 					sbError.append("Can't open file: ").append(sConfigFile);
@@ -169,10 +170,11 @@ public class ConfigManager implements IConfigManager
 				throw new ASelectConfigException(Errors.ERROR_ASELECT_CANT_OPEN);
 			}
 
-			_oConfigHandler = resolveConfigHandler();
+			IConfigHandler oConfigHandler = resolveConfigHandler();
 
-			if (_oConfigHandler != null) {
-				_oConfigHandler.init(sUser, sPassword, sDatabaseURL, sDatabaseTable, sDriverName, sConfigId);
+			if (oConfigHandler != null) {
+				oConfigHandler.init(sUser, sPassword, sDatabaseURL, sDatabaseTable, sDriverName, sConfigId);
+				_oConfigHandler = oConfigHandler;
 			}
 			else {
 				sbError.append("Can't resolve configuration from database.");
@@ -78,7 +78,13 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.text.DateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.logging.Level;
 
 //import javax.xml.XMLConstants;
@@ -116,7 +122,8 @@ import org.xml.sax.SAXException;
  * table_name -> [id][XML data] where id is unique within the table. <br>
  * <br>
  * <b>Concurrency issues: </b> <br>
- * This <code>IConfigHandler</code> is threadsafe. <br>
+ * This <code>IConfigHandler</code> is threadsafe. Changes are synchronized, lookups are served without locking from
+ * an immutable snapshot that is rebuilt after every change. <br>
  * 
  * @author Alfa & Ariss
  */
@@ -175,6 +182,11 @@ public class XMLConfigHandler implements IConfigHandler
 	 */
 	private SQLDatabaseConnector _sdcConnector;
 
+	/**
+	 * Immutable index of the DOM Document used for the lookups, replaced after every change.
+	 */
+	private volatile Snapshot _oSnapshot;
+
 	/**
 	 * Default constructor. <br>
 	 * <br>
@@ -218,6 +230,7 @@ public class XMLConfigHandler implements IConfigHandler
 		try {
 			_fConfig = fConfig;
 			_oDomDocument = parseXML(_fConfig);
+			compile();
 			_oSystemLogger.log(Level.FINE, MODULE, sMethod, "XML parsed: "+_fConfig.getCanonicalPath());
 		}
 		catch (ParserConfigurationException e) {
@@ -299,6 +312,7 @@ public class XMLConfigHandler implements IConfigHandler
 
 				_sdcConnector.disconnect(oStatement);
 				_oDomDocument = parseXML(sData.getBytes("UTF-8"));
+				compile();
 			}
 			else {
 				sbError.append("Could not connect to database: ");
@@ -348,6 +362,7 @@ public class XMLConfigHandler implements IConfigHandler
 	/**
 	 * Retrieves a config section by it's type and id. <br>
 	 * <br>
+	 * Served from the compiled snapshot without locking, see {@link #compile()}.
 	 * 
 	 * @param oRootSection
 	 *            the o root section
@@ -361,7 +376,48 @@ public class XMLConfigHandler implements IConfigHandler
 	 * @see org.aselect.system.configmanager.IConfigHandler#getSection(java.lang.Object, java.lang.String,
 	 *      java.lang.String)
 	 */
-	public synchronized Object getSection(Object oRootSection, String sSectionType, String sSectionID)
+	public Object getSection(Object oRootSection, String sSectionType, String sSectionID)
+	throws ASelectConfigException
+	{
+		String sMethod = "getSection";
+		_oSystemLogger.log(Level.FINER, MODULE, sMethod, "Find:"+oRootSection+"/type="+sSectionType+"/id="+sSectionID);
+
+		Snapshot oSnapshot = _oSnapshot;
+		CompiledSection oRoot = (oSnapshot == null) ? null : oSnapshot.getSection(oRootSection);
+		String[] saID = (sSectionID == null) ? null : sSectionID.split("=", 2);
+		if (oRoot == null || sSectionType == null || saID == null || saID.length != 2)
+			return getSectionFromDom(oRootSection, sSectionType, sSectionID);  // handles the errors
+
+		Node nSection = oRoot.getSubSectionByID(oSnapshot, sSectionType, saID[0], saID[1]);
+		if (nSection == null) {
+			StringBuffer sbError = new StringBuffer("Section not found, rootSection=");
+			sbError.append(oRoot._sName);
+			sbError.append(", section type=");
+			sbError.append(sSectionType);
+			sbError.append(", section id=");
+			sbError.append(sSectionID);
+			_oSystemLogger.log(Level.FINE, MODULE, sMethod, sbError.toString());
+			throw new ASelectConfigException(Errors.ERROR_ASELECT_NOT_FOUND);
+		}
+		_oSystemLogger.log(Level.FINER, MODULE, sMethod, "Found/"+nSection);
+		return nSection;
+	}
+
+	/**
+	 * Retrieves a config section by it's type and id from the DOM, for sections that are not compiled. <br>
+	 * <br>
+	 * 
+	 * @param oRootSection
+	 *            the o root section
+	 * @param sSectionType
+	 *            the s section type
+	 * @param sSectionID
+	 *            the s section id
+	 * @return the section
+	 * @throws ASelectConfigException
+	 *             the a select config exception
+	 */
+	private synchronized Object getSectionFromDom(Object oRootSection, String sSectionType, String sSectionID)
 	throws ASelectConfigException
 	{
 		StringBuffer sbError = new StringBuffer();
@@ -409,6 +465,7 @@ public class XMLConfigHandler implements IConfigHandler
 	/**
 	 * Retrieves a config section by it's type. <br>
 	 * <br>
+	 * Served from the compiled snapshot without locking, see {@link #compile()}.
 	 * 
 	 * @param oRootSection
 	 *            the o root section
@@ -419,7 +476,39 @@ public class XMLConfigHandler implements IConfigHandler
 	 *             the a select config exception
 	 * @see org.aselect.system.configmanager.IConfigHandler#getSection(java.lang.Object, java.lang.String)
 	 */
-	public synchronized Object getSection(Object oRootSection, String sSectionType)
+	public Object getSection(Object oRootSection, String sSectionType)
+	throws ASelectConfigException
+	{
+		Snapshot oSnapshot = _oSnapshot;
+		CompiledSection oRoot = (oSnapshot == null) ? null : oSnapshot.getSection(oRootSection);
+		if (oRoot == null || sSectionType == null)
+			return getSectionFromDom(oRootSection, sSectionType);  // handles the errors
+
+		Node nSection = oRoot._htFirstChild.get(sSectionType);
+		if (nSection == null) {
+			StringBuffer sbError = new StringBuffer("Section not found, rootSection=");
+			sbError.append(oRoot._sName);
+			sbError.append(" sectionType=");
+			sbError.append(sSectionType);
+			_oSystemLogger.log(Level.FINE, MODULE, "getSection", sbError.toString());
+			throw new ASelectConfigException(Errors.ERROR_ASELECT_NOT_FOUND);
+		}
+		return nSection;
+	}
+
+	/**
+	 * Retrieves a config section by it's type from the DOM, for sections that are not compiled. <br>
+	 * <br>
+	 * 
+	 * @param oRootSection
+	 *            the o root section
+	 * @param sSectionType
+	 *            the s section type
+	 * @return the section
+	 * @throws ASelectConfigException
+	 *             the a select config exception
+	 */
+	private synchronized Object getSectionFromDom(Object oRootSection, String sSectionType)
 	throws ASelectConfigException
 	{
 		StringBuffer sbError = new StringBuffer();
@@ -505,6 +594,7 @@ public class XMLConfigHandler implements IConfigHandler
 
 		try {
 			nRoot.appendChild(nValue);
+			compile();
 			return nValue;
 
 		}
@@ -529,6 +619,7 @@ public class XMLConfigHandler implements IConfigHandler
 	/**
 	 * Retrieves the value of the config parameter from the config section that is supplied. <br>
 	 * <br>
+	 * Served from the compiled snapshot without locking, see {@link #compile()}.
 	 * 
 	 * @param oSection
 	 *            the o section
@@ -539,7 +630,39 @@ public class XMLConfigHandler implements IConfigHandler
 	 *             the a select config exception
 	 * @see org.aselect.system.configmanager.IConfigHandler#getParam(java.lang.Object, java.lang.String)
 	 */
-	public synchronized String getParam(Object oSection, String sConfigItem)
+	public String getParam(Object oSection, String sConfigItem)
+	throws ASelectConfigException
+	{
+		Snapshot oSnapshot = _oSnapshot;
+		CompiledSection oSectionData = (oSnapshot == null || oSection == null) ? null : oSnapshot.getSection(oSection);
+		if (oSectionData == null || sConfigItem == null)
+			return getParamFromDom(oSection, sConfigItem);  // handles the errors
+
+		String sValue = oSectionData.getParam(sConfigItem);
+		if (sValue == null) {
+			StringBuffer sbError = new StringBuffer("NO parameter: ").append(sConfigItem);
+			String sId = oSectionData._htAttributes.get("id");
+			if (sId != null)
+				sbError.append(", id=").append(sId);
+			_oSystemLogger.log(Level.FINEST, MODULE, "getParam", sbError.toString());
+			throw new ASelectConfigException(Errors.ERROR_ASELECT_NOT_FOUND);
+		}
+		return sValue;
+	}
+
+	/**
+	 * Retrieves the value of the config parameter from the DOM, for sections that are not compiled. <br>
+	 * <br>
+	 * 
+	 * @param oSection
+	 *            the o section
+	 * @param sConfigItem
+	 *            the s config item
+	 * @return the param
+	 * @throws ASelectConfigException
+	 *             the a select config exception
+	 */
+	private synchronized String getParamFromDom(Object oSection, String sConfigItem)
 	throws ASelectConfigException
 	{
 		StringBuffer sbError = new StringBuffer();
@@ -690,6 +813,7 @@ public class XMLConfigHandler implements IConfigHandler
 				setParamAsChild(oRootSection, sConfigItem, sConfigValue);
 				bReturn = true;
 			}
+			compile();
 		}
 		catch (DOMException e) {
 			sbError.append("XML DOM Error while setting parameter: ");
@@ -723,7 +847,27 @@ public class XMLConfigHandler implements IConfigHandler
 	 *             the a select config exception
 	 * @see org.aselect.system.configmanager.IConfigHandler#getNextSection(java.lang.Object)
 	 */
-	public synchronized Object getNextSection(Object oSection)
+	public Object getNextSection(Object oSection)
+	throws ASelectConfigException
+	{
+		Snapshot oSnapshot = _oSnapshot;
+		CompiledSection oSectionData = (oSnapshot == null || oSection == null) ? null : oSnapshot.getSection(oSection);
+		if (oSectionData == null)
+			return getNextSectionFromDom(oSection);
+		return oSectionData._nNext;
+	}
+
+	/**
+	 * Resolve the next section from the DOM, for sections that are not compiled. <br>
+	 * <br>
+	 * 
+	 * @param oSection
+	 *            the o section
+	 * @return the next section
+	 * @throws ASelectConfigException
+	 *             the a select config exception
+	 */
+	private synchronized Object getNextSectionFromDom(Object oSection)
 	throws ASelectConfigException
 	{
 		String sMethod = "getNextSection";
@@ -799,6 +943,7 @@ public class XMLConfigHandler implements IConfigHandler
 
 			// remove section
 			nRoot.removeChild(nSection);
+			compile();
 			bRet = true;
 		}
 		catch (ASelectConfigException e) {
@@ -879,6 +1024,7 @@ public class XMLConfigHandler implements IConfigHandler
 
 			// remove section
 			nRoot.removeChild(nSection);
+			compile();
 			bRet = true;
 		}
 		catch (ASelectConfigException e) {
@@ -1038,6 +1184,7 @@ public class XMLConfigHandler implements IConfigHandler
 		try {
 			Document _oNewDomDocument = parseXML(configFile);
 			importConfig(_oNewDomDocument);
+			compile();
 		}
 		catch (ParserConfigurationException e) {
 			sbError.append("Wrong parse configuration, while parsing the XML config file.");
@@ -1527,4 +1674,187 @@ public class XMLConfigHandler implements IConfigHandler
 	}
 	// RH, 20200302, en
 
+	/**
+	 * Build a new snapshot of the DOM and publish it. <br>
+	 * <br>
+	 * <b>Description: </b> <br>
+	 * The lookups on the request path (<code>getSection()</code>, <code>getParam()</code> and
+	 * <code>getNextSection()</code>) are served from the snapshot, so request threads do not lock this handler and do
+	 * not walk the DOM. The sections handed out are still the DOM elements, so callers do not notice the difference. <br>
+	 * <br>
+	 * <b>Concurrency issues: </b> <br>
+	 * Must be called after every change of the DOM, by the thread that made the change. Readers keep using the
+	 * previous snapshot until the new one is complete. <br>
+	 */
+	private synchronized void compile()
+	{
+		IdentityHashMap<Node, CompiledSection> htSections = new IdentityHashMap<Node, CompiledSection>();
+		Element elRoot = _oDomDocument.getDocumentElement();
+		if (elRoot != null)
+			compile(elRoot, null, htSections);
+		_oSnapshot = new Snapshot(elRoot, htSections);
+	}
+
+	/**
+	 * Compile a section and all its sub sections.
+	 */
+	private static void compile(Element elSection, Node nNext, IdentityHashMap<Node, CompiledSection> htSections)
+	{
+		ArrayList<Element> alChildren = new ArrayList<Element>();
+		for (Node nChild = elSection.getFirstChild(); nChild != null; nChild = nChild.getNextSibling()) {
+			if (nChild.getNodeType() == Node.ELEMENT_NODE)
+				alChildren.add((Element) nChild);
+		}
+		htSections.put(elSection, new CompiledSection(elSection, alChildren, nNext));
+
+		// the next section is the first following sibling with the same name
+		HashMap<String, Element> htFollowing = new HashMap<String, Element>();
+		for (int i = alChildren.size() - 1; i >= 0; i--) {
+			Element elChild = alChildren.get(i);
+			compile(elChild, htFollowing.get(elChild.getNodeName()), htSections);
+			htFollowing.put(elChild.getNodeName(), elChild);
+		}
+	}
+
+	/**
+	 * Immutable index of all sections of a DOM document.
+	 */
+	private static final class Snapshot
+	{
+		private final Element _elRoot;
+		private final IdentityHashMap<Node, CompiledSection> _htSections;
+
+		private Snapshot(Element elRoot, IdentityHashMap<Node, CompiledSection> htSections) {
+			_elRoot = elRoot;
+			_htSections = htSections;
+		}
+
+		/**
+		 * Get a compiled section, <code>null</code> means the document root.
+		 *
+		 * @return the section, <code>null</code> if it is not part of this snapshot
+		 */
+		private CompiledSection getSection(Object oSection)
+		{
+			return _htSections.get((oSection == null) ? _elRoot : oSection);
+		}
+	}
+
+	/**
+	 * The parameters and sub sections of one section, with the same results as the DOM lookups.
+	 */
+	private static final class CompiledSection
+	{
+		private final String _sName;
+		private final boolean _bHasAttributes;
+		/** Attributes, names are case sensitive */
+		private final Map<String, String> _htAttributes;
+		/** Parameters given as child tags, by lower case tag name */
+		private final Map<String, String> _htChildParams;
+		/** First sub section by (case sensitive) tag name */
+		private final Map<String, Node> _htFirstChild;
+		/** Sub sections by lower case tag name */
+		private final Map<String, List<Element>> _htChildrenByType;
+		/** First sub section by lower case tag name, attribute name and lower case attribute value */
+		private final Map<String, Node> _htChildByAttribute;
+		private final Node _nNext;
+
+		private CompiledSection(Element elSection, List<Element> alChildren, Node nNext) {
+			_sName = elSection.getNodeName();
+			_nNext = nNext;
+			_bHasAttributes = elSection.hasAttributes();
+			_htAttributes = getAttributes(elSection);
+
+			_htChildParams = new HashMap<String, String>();
+			_htFirstChild = new HashMap<String, Node>();
+			_htChildrenByType = new HashMap<String, List<Element>>();
+			_htChildByAttribute = new HashMap<String, Node>();
+			for (Element elChild : alChildren) {
+				String sName = elChild.getNodeName();
+				String sType = sName.toLowerCase(Locale.ROOT);
+				if (!_htFirstChild.containsKey(sName))
+					_htFirstChild.put(sName, elChild);
+
+				List<Element> alOfType = _htChildrenByType.get(sType);
+				if (alOfType == null) {
+					alOfType = new ArrayList<Element>();
+					_htChildrenByType.put(sType, alOfType);
+				}
+				alOfType.add(elChild);
+
+				if (elChild.hasAttributes()) {
+					NamedNodeMap nnmAttributes = elChild.getAttributes();
+					for (int i = 0; i < nnmAttributes.getLength(); i++) {
+						Node nAttribute = nnmAttributes.item(i);
+						String sKey = sType + "\n" + nAttribute.getNodeName() + "=" + nAttribute.getNodeValue().toLowerCase(Locale.ROOT);
+						if (!_htChildByAttribute.containsKey(sKey))
+							_htChildByAttribute.put(sKey, elChild);
+					}
+				}
+
+				// like getParamFromDom(): the last text of the last matching tag wins, an empty tag gives ""
+				String sValue = _htChildParams.get(sType);
+				NodeList nlSubNodes = elChild.getChildNodes();
+				if (nlSubNodes.getLength() == 0) {
+					if (sValue == null)
+						sValue = "";
+				}
+				else {
+					for (int i = 0; i < nlSubNodes.getLength(); i++) {
+						Node nSub = nlSubNodes.item(i);
+						if (nSub.getNodeType() == Node.TEXT_NODE)
+							sValue = (nSub.getNodeValue() == null) ? "" : nSub.getNodeValue();
+					}
+				}
+				if (sValue != null)
+					_htChildParams.put(sType, sValue);
+			}
+		}
+
+		private static Map<String, String> getAttributes(Element elSection)
+		{
+			HashMap<String, String> htAttributes = new HashMap<String, String>();
+			NamedNodeMap nnmAttributes = elSection.getAttributes();
+			for (int i = 0; nnmAttributes != null && i < nnmAttributes.getLength(); i++) {
+				Node nAttribute = nnmAttributes.item(i);
+				htAttributes.put(nAttribute.getNodeName(), nAttribute.getNodeValue());
+			}
+			return htAttributes;
+		}
+
+		/**
+		 * Get a parameter, an attribute takes precedence over a child tag.
+		 */
+		private String getParam(String sConfigItem)
+		{
+			String sValue = _htAttributes.get(sConfigItem);
+			return (sValue != null) ? sValue : _htChildParams.get(sConfigItem.toLowerCase(Locale.ROOT));
+		}
+
+		/**
+		 * Like getSubSectionByID(): the first sub section of the type (case insensitive) of which the attribute equals
+		 * the value (case insensitive).
+		 */
+		private Node getSubSectionByID(Snapshot oSnapshot, String sSectionType, String sKey, String sValue)
+		{
+			String sType = sSectionType.toLowerCase(Locale.ROOT);
+			Node nSection = _htChildByAttribute.get(sType + "\n" + sKey + "=" + sValue.toLowerCase(Locale.ROOT));
+			if (nSection != null)
+				return nSection;
+
+			// not indexed, e.g. a missing attribute matches an empty value
+			List<Element> alOfType = _htChildrenByType.get(sType);
+			if (alOfType == null)
+				return null;
+			for (Element elChild : alOfType) {
+				CompiledSection oChild = oSnapshot._htSections.get(elChild);
+				if (oChild._bHasAttributes) {
+					String sAttribute = oChild._htAttributes.get(sKey);
+					if (((sAttribute == null) ? "" : sAttribute).equalsIgnoreCase(sValue))
+						return elChild;
+				}
+			}
+			return null;
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,399 @@
+/*
+ * * Copyright (c) Anoigo. All rights reserved.
+ *
+ * A-Select is a trademark registered by SURFnet bv.
+ *
+ * This program is distributed under the EUPL 1.0 (http://osor.eu/eupl)
+ * See the included LICENSE file for details.
+ *
+ * If you did not receive a copy of the LICENSE
+ * please contact Anoigo. (http://www.anoigo.nl)
+ */
+package org.aselect.system.db.connection.impl;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.dbcp2.BasicDataSource;
+import org.aselect.system.configmanager.ConfigManager;
+import org.aselect.system.db.connection.AbstractConnectionHandler;
+import org.aselect.system.error.Errors;
+import org.aselect.system.exception.ASelectConfigException;
+import org.aselect.system.exception.ASelectSAMException;
+import org.aselect.system.exception.ASelectStorageException;
+import org.aselect.system.logging.SystemLogger;
+import org.aselect.system.sam.agent.SAMAgent;
+import org.aselect.system.sam.agent.SAMResource;
+
+/**
+ * Pooled connection handler. <br>
+ * <br>
+ * <b>Description: </b> <br>
+ * Hands out connections from a commons-dbcp2 pool instead of opening a new physical connection for every call. One
+ * pool is kept per SAM resource and shared by all handlers that use that resource. When SAM switches to another
+ * resource a new pool is created. A pool is closed when the last handler using it switched to another resource, or
+ * when the application stops. Other components, e.g. the authentication log, can share a pool through
+ * {@link #acquirePool(String, String, String, String, String, ConfigManager, Object, SystemLogger)}. <br>
+ * <br>
+ * Besides the usual "driver", "url", "username" and "password", the resource section may contain:
+ * <ul>
+ * <li>pool_initial_size (default 0)</li>
+ * <li>pool_min_idle (default 0)</li>
+ * <li>pool_max_idle (default 8)</li>
+ * <li>pool_max_total (default 32)</li>
+ * <li>pool_max_wait: milliseconds to wait for a free connection (default 5000)</li>
+ * <li>validation_query: e.g. "SELECT 1", tested on borrow and while idle</li>
+ * <li>pool_max_open_statements: size of the per connection statement cache, 0 disables caching (default 0)</li>
+ * <li>pool_abandoned_timeout: seconds after which a borrowed connection is considered leaked, 0 disables leak
+ * detection (default 0)</li>
+ * </ul>
+ * <br>
+ * <b>Concurrency issues: </b> <br>
+ * This class is thread-safe. <br>
+ *
+ * @author Anoigo
+ */
+public class PoolingConnectionHandler extends AbstractConnectionHandler
+{
+	/** name of this module, used for logging */
+	private static final String MODULE = "PoolingConnectionHandler";
+
+	private static final int DEFAULT_MAX_IDLE = 8;
+	private static final int DEFAULT_MAX_TOTAL = 32;
+	private static final long DEFAULT_MAX_WAIT = 5000;
+	private static final long EVICTION_INTERVAL = 30000;
+
+	/** All pools in this JVM, key is "resourcegroup/resource id" */
+	private static final HashMap<String, Pool> _htPools = new HashMap<String, Pool>();
+
+	/** The pool this handler holds a reference to */
+	private volatile Pool _oPool = null;
+
+	/**
+	 * A pool and the number of users holding a reference to it.
+	 */
+	private static class Pool
+	{
+		final String _sKey;
+		final BasicDataSource _oDataSource;
+		int _iUsers = 0;
+
+		Pool(String sKey, BasicDataSource oDataSource)
+		{
+			_sKey = sKey;
+			_oDataSource = oDataSource;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.aselect.system.db.connection.AbstractConnectionHandler#Init(org.aselect.system.configmanager.ConfigManager,
+	 * org.aselect.system.logging.SystemLogger, org.aselect.system.sam.agent.SAMAgent, java.lang.String)
+	 */
+	@Override
+	public void Init(ConfigManager configMan, SystemLogger systemLogger, SAMAgent sam, String resourcegroup)
+	{
+		super.Init(configMan, systemLogger, sam, resourcegroup);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.aselect.system.db.connection.AbstractConnectionHandler#getConnection()
+	 */
+	@Override
+	public Connection getConnection()
+	throws ASelectStorageException
+	{
+		String sMethod = "getConnection";
+
+		try {
+			SAMResource oResource = _oSAMAgent.getActiveResource(_sResourceGroup);
+			String sPoolKey = getPoolKey(oResource);
+			Pool oPool = _oPool;
+			if (oPool == null || !oPool._sKey.equals(sPoolKey)) {
+				synchronized (this) {
+					oPool = _oPool;
+					if (oPool == null || !oPool._sKey.equals(sPoolKey)) {
+						if (oPool != null) {
+							_systemLogger.log(Level.INFO, MODULE, sMethod, "Active resource changed from "
+									+ oPool._sKey + " to " + sPoolKey);
+							_oPool = null;
+							releasePool(oPool._sKey, _systemLogger);
+						}
+						Object oConfigSection = oResource.getAttributes();
+						oPool = acquire(sPoolKey, getMandatoryParam(oConfigSection, "driver"),
+								getMandatoryParam(oConfigSection, "url"), getMandatoryParam(oConfigSection, "username"),
+								getPassword(oConfigSection), _oConfigManager, oConfigSection, _systemLogger);
+						_oPool = oPool;
+					}
+				}
+			}
+			_oActiveResource = oResource;
+			return oPool._oDataSource.getConnection();
+		}
+		catch (ASelectStorageException eAS) {
+			throw eAS;
+		}
+		catch (ASelectSAMException e) {
+			_oActiveResource = null;
+			StringBuffer sbError = new StringBuffer("No resource was available, original cause: ");
+			sbError.append(e.getMessage());
+			_systemLogger.log(Level.WARNING, MODULE, sMethod, sbError.toString(), e);
+			throw new ASelectStorageException(Errors.ERROR_ASELECT_STORAGE_CONNECTION_FAILURE, e);
+		}
+		catch (Exception e) {
+			_systemLogger.log(Level.WARNING, MODULE, sMethod,
+					"An error occured while trying to get a connection from the pool", e);
+			throw new ASelectStorageException(Errors.ERROR_ASELECT_STORAGE_CONNECTION_FAILURE, e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.aselect.system.db.connection.AbstractConnectionHandler#releaseConnection(java.sql.Connection)
+	 */
+	@Override
+	public void releaseConnection(Connection oConnection)
+	{
+		String sMethod = "releaseConnection";
+		try { // closing a pooled connection returns it to the pool
+			if (oConnection != null)
+				oConnection.close();
+		}
+		catch (SQLException e) {
+			_systemLogger.log(Level.FINE, MODULE, sMethod, "Could not return connection to the pool", e);
+		}
+	}
+
+	/**
+	 * Get the statistics of all connection pools. <br>
+	 * <br>
+	 *
+	 * @return key "resourcegroup/resource id", value a readable summary of the pool state
+	 */
+	public static HashMap<String, String> getPoolStatistics()
+	{
+		HashMap<String, String> htStats = new HashMap<String, String>();
+		synchronized (_htPools) {
+			for (Map.Entry<String, Pool> entry : _htPools.entrySet()) {
+				BasicDataSource oDataSource = entry.getValue()._oDataSource;
+				StringBuffer sbStats = new StringBuffer("active=");
+				sbStats.append(oDataSource.getNumActive());
+				sbStats.append(" idle=").append(oDataSource.getNumIdle());
+				sbStats.append(" max=").append(oDataSource.getMaxTotal());
+				sbStats.append(" users=").append(entry.getValue()._iUsers);
+				htStats.put(entry.getKey(), sbStats.toString());
+			}
+		}
+		return htStats;
+	}
+
+	/**
+	 * Get a reference to a shared pool, the pool is created by the first user. <br>
+	 * <br>
+	 * Every call must be matched by a call to {@link #releasePool(String, SystemLogger)}, the pool is closed when the
+	 * last user released it. The pool settings (see the class description) are read from <code>oConfigSection</code>
+	 * by the first user.
+	 *
+	 * @param sPoolKey
+	 *            the key of the pool, e.g. "resourcegroup/resource id"
+	 * @param sDriver
+	 *            the JDBC driver class
+	 * @param sUrl
+	 *            the JDBC url
+	 * @param sUser
+	 *            the database user
+	 * @param sPassword
+	 *            the database password
+	 * @param oConfigManager
+	 *            the config manager
+	 * @param oConfigSection
+	 *            the section holding the pool settings
+	 * @param oSysLog
+	 *            the system log
+	 * @return the pool
+	 * @throws ASelectStorageException
+	 *             if a pool setting is invalid
+	 */
+	public static DataSource acquirePool(String sPoolKey, String sDriver, String sUrl, String sUser, String sPassword,
+			ConfigManager oConfigManager, Object oConfigSection, SystemLogger oSysLog)
+	throws ASelectStorageException
+	{
+		return acquire(sPoolKey, sDriver, sUrl, sUser, sPassword, oConfigManager, oConfigSection, oSysLog)._oDataSource;
+	}
+
+	private static Pool acquire(String sPoolKey, String sDriver, String sUrl, String sUser, String sPassword,
+			ConfigManager oConfigManager, Object oConfigSection, SystemLogger oSysLog)
+	throws ASelectStorageException
+	{
+		synchronized (_htPools) {
+			Pool oPool = _htPools.get(sPoolKey);
+			if (oPool == null) {
+				oPool = new Pool(sPoolKey, createDataSource(sDriver, sUrl, sUser, sPassword, oConfigManager, oConfigSection, oSysLog));
+				_htPools.put(sPoolKey, oPool);
+				oSysLog.log(Level.INFO, MODULE, "acquirePool", "Created connection pool for " + sPoolKey);
+			}
+			oPool._iUsers++;
+			return oPool;
+		}
+	}
+
+	/**
+	 * Release a reference to a shared pool, the last user closes the pool.
+	 *
+	 * @param sPoolKey
+	 *            the key of the pool
+	 * @param oSysLog
+	 *            the system log
+	 */
+	public static void releasePool(String sPoolKey, SystemLogger oSysLog)
+	{
+		BasicDataSource oDataSource = null;
+		synchronized (_htPools) {
+			Pool oPool = _htPools.get(sPoolKey);
+			if (oPool == null || --oPool._iUsers > 0)
+				return;
+			_htPools.remove(sPoolKey);
+			oDataSource = oPool._oDataSource;
+		}
+		try {
+			oDataSource.close();
+			oSysLog.log(Level.INFO, MODULE, "releasePool", "Closed connection pool for " + sPoolKey);
+		}
+		catch (SQLException e) {
+			oSysLog.log(Level.FINE, MODULE, "releasePool", "Could not close connection pool " + sPoolKey, e);
+		}
+	}
+
+	/**
+	 * Close all connection pools. <br>
+	 * Should only be called when the application stops, after the components using a pool have stopped.
+	 */
+	public static void closeAll()
+	{
+		ArrayList<Pool> alPools;
+		synchronized (_htPools) {
+			alPools = new ArrayList<Pool>(_htPools.values());
+			_htPools.clear();
+		}
+		for (Pool oPool : alPools) {
+			try {
+				oPool._oDataSource.close();
+			}
+			catch (SQLException e) {
+				// nothing left to do
+			}
+		}
+	}
+
+	/**
+	 * Create and configure a pool.
+	 *
+	 * @return the data source
+	 * @throws ASelectStorageException
+	 *             if a pool setting is invalid
+	 */
+	private static BasicDataSource createDataSource(String sDriver, String sUrl, String sUser, String sPassword,
+			ConfigManager oConfigManager, Object oConfigSection, SystemLogger oSysLog)
+	throws ASelectStorageException
+	{
+		String sMethod = "createDataSource";
+		BasicDataSource oDataSource = new BasicDataSource();
+
+		oDataSource.setDriverClassName(sDriver);
+		oDataSource.setUrl(sUrl);
+		oDataSource.setUsername(sUser);
+		oDataSource.setPassword(sPassword);
+
+		oDataSource.setInitialSize(getIntParam(oConfigManager, oSysLog, oConfigSection, "pool_initial_size", 0));
+		oDataSource.setMinIdle(getIntParam(oConfigManager, oSysLog, oConfigSection, "pool_min_idle", 0));
+		oDataSource.setMaxIdle(getIntParam(oConfigManager, oSysLog, oConfigSection, "pool_max_idle", DEFAULT_MAX_IDLE));
+		oDataSource.setMaxTotal(getIntParam(oConfigManager, oSysLog, oConfigSection, "pool_max_total", DEFAULT_MAX_TOTAL));
+		oDataSource.setMaxWaitMillis(getIntParam(oConfigManager, oSysLog, oConfigSection, "pool_max_wait", (int) DEFAULT_MAX_WAIT));
+		oDataSource.setTimeBetweenEvictionRunsMillis(EVICTION_INTERVAL);
+
+		try {
+			String sValidationQuery = oConfigManager.getParam(oConfigSection, "validation_query");
+			oDataSource.setValidationQuery(sValidationQuery);
+			oDataSource.setTestOnBorrow(true);
+			oDataSource.setTestWhileIdle(true);
+		}
+		catch (ASelectConfigException e) {
+			oSysLog.log(Level.CONFIG, MODULE, sMethod, "No 'validation_query' configured, using isValid()");
+			oDataSource.setTestOnBorrow(true);
+		}
+
+		int iMaxStatements = getIntParam(oConfigManager, oSysLog, oConfigSection, "pool_max_open_statements", 0);
+		if (iMaxStatements > 0) {
+			oDataSource.setPoolPreparedStatements(true);
+			oDataSource.setMaxOpenPreparedStatements(iMaxStatements);
+		}
+
+		int iAbandonedTimeout = getIntParam(oConfigManager, oSysLog, oConfigSection, "pool_abandoned_timeout", 0);
+		if (iAbandonedTimeout > 0) {
+			oDataSource.setRemoveAbandonedOnBorrow(true);
+			oDataSource.setRemoveAbandonedOnMaintenance(true);
+			oDataSource.setRemoveAbandonedTimeout(iAbandonedTimeout);
+			oDataSource.setLogAbandoned(true);
+		}
+
+		oSysLog.log(Level.INFO, MODULE, sMethod, "url=" + oDataSource.getUrl() + " minIdle="
+				+ oDataSource.getMinIdle() + " maxIdle=" + oDataSource.getMaxIdle() + " maxTotal="
+				+ oDataSource.getMaxTotal() + " maxWait=" + oDataSource.getMaxWaitMillis() + " statements="
+				+ iMaxStatements + " abandoned=" + iAbandonedTimeout);
+		return oDataSource;
+	}
+
+	private String getPoolKey(SAMResource oResource)
+	{
+		return _sResourceGroup + "/" + oResource.getId();
+	}
+
+	private String getMandatoryParam(Object oConfigSection, String sName)
+	throws ASelectStorageException
+	{
+		try {
+			return _oConfigManager.getParam(oConfigSection, sName);
+		}
+		catch (ASelectConfigException e) {
+			_systemLogger.log(Level.WARNING, MODULE, "getMandatoryParam", "No valid '" + sName + "' config item found", e);
+			throw new ASelectStorageException(Errors.ERROR_ASELECT_NOT_FOUND, e);
+		}
+	}
+
+	private String getPassword(Object oConfigSection)
+	{
+		try {
+			return _oConfigManager.getParam(oConfigSection, "password");
+		}
+		catch (ASelectConfigException e) {
+			_systemLogger.log(Level.CONFIG, MODULE, "getPassword",
+					"Invalid or empty password found in config, using empty password", e);
+			return "";
+		}
+	}
+
+	private static int getIntParam(ConfigManager oConfigManager, SystemLogger oSysLog, Object oConfigSection,
+			String sName, int iDefault)
+	throws ASelectStorageException
+	{
+		String sValue = null;
+		try {
+			sValue = oConfigManager.getParam(oConfigSection, sName);
+			return Integer.parseInt(sValue.trim());
+		}
+		catch (ASelectConfigException e) {
+			return iDefault;
+		}
+		catch (NumberFormatException e) {
+			oSysLog.log(Level.WARNING, MODULE, "getIntParam", "Invalid '" + sName + "' config item: " + sValue);
+			throw new ASelectStorageException(Errors.ERROR_ASELECT_DATABASE_INIT, e);
+		}
+	}
+}
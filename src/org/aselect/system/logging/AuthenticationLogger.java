@@ -79,18 +79,25 @@
 package org.aselect.system.logging;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 
+import javax.sql.DataSource;
+
 import org.aselect.system.configmanager.ConfigManager;
+import org.aselect.system.db.connection.impl.PoolingConnectionHandler;
 import org.aselect.system.error.Errors;
+import org.aselect.system.exception.ASelectConfigException;
 import org.aselect.system.exception.ASelectException;
 
 /**
@@ -102,7 +109,12 @@ import org.aselect.system.exception.ASelectException;
  * <b>Concurrency issues: </b> <br>
  * This class is thread-safe. <br>
  * <br>
- * This class only writes log items and can therefore use one resource (e.g. database connection). <br>
+ * Database connections are taken from a pool (see {@link PoolingConnectionHandler}), shared by the loggers that use
+ * the same database. <br>
+ * <br>
+ * When "async" is enabled for a database target, log items are put in a bounded queue and written in JDBC batches
+ * by a separate writer thread. Items that do not fit in the queue, or that can not be
+ * written to the database, are logged to the back-up logger. <br>
  * 
  * @author Alfa & Ariss
  */
@@ -116,6 +128,11 @@ public class AuthenticationLogger
 	 */
 	private final String DELIMITER = ",";
 
+	/** Defaults for asynchronous database logging */
+	private final int DEFAULT_QUEUE_SIZE = 10000;
+	private final int DEFAULT_BATCH_SIZE = 100;
+	private final long DEFAULT_FLUSH_INTERVAL = 1000;
+
 	/**
 	 * The component name that uses the logger
 	 */
@@ -126,8 +143,8 @@ public class AuthenticationLogger
 	 */
 	private String _sDelimiter;
 
-	/** Specify if database logging is enabled */
-	private boolean _bLogToDatabase = false;
+	/** Specify if database logging is enabled, reset when the logger is closed */
+	private volatile boolean _bLogToDatabase = false;
 
 	/**
 	 * The database connect url
@@ -163,15 +180,39 @@ public class AuthenticationLogger
 	private Vector _vColumnTypes = null;
 
 	/**
-	 * The database connecton. This connection is shared among all <code>AuthenticationLoggers</code>.
+	 * The database connection pool, shared with other users of the same database.
 	 */
-	private static Connection _conn = null;
+	private DataSource _oDataSource = null;
+
+	/**
+	 * The key of the connection pool.
+	 */
+	private String _sPoolKey = null;
 
 	/**
 	 * The backup logger. This logger is used in case of exception while logging
 	 */
 	private SystemLogger _systemLogger = null;
 
+	/** Log items waiting for the writer thread, <code>null</code> if logging is synchronous or the logger is closed */
+	private volatile ArrayBlockingQueue<QueuedItem> _qPending = null;
+
+	/** The thread writing the queued items */
+	private DatabaseWriter _oWriter = null;
+
+	/** Maximum number of items written in one batch */
+	private int _iBatchSize = DEFAULT_BATCH_SIZE;
+
+	/** Maximum time (ms) an item waits in the queue before the batch is written */
+	private long _lFlushInterval = DEFAULT_FLUSH_INTERVAL;
+
+	/** Statistics for asynchronous logging */
+	private final AtomicLong _lWritten = new AtomicLong();
+	private final AtomicLong _lDropped = new AtomicLong();
+	private final AtomicLong _lFailed = new AtomicLong();
+	private final AtomicLong _lTotalLatency = new AtomicLong();
+	private final AtomicLong _lMaxLatency = new AtomicLong();
+
 	/**
 	 * Create a new default instance. <br>
 	 * <br>
@@ -300,22 +341,29 @@ public class AuthenticationLogger
 
 			readConfig(oConfigManager, oLogTargetConfig);
 
-			// test connection
+			// test connection and read column types
+			Connection oConnection = null;
 			try {
-				connect();
+				connect(oConfigManager, oLogTargetConfig);
+				oConnection = _oDataSource.getConnection();
 			}
 			catch (Exception e) {
 				StringBuffer sbTemp = new StringBuffer("Could not connect with logger back-end: ");
 				sbTemp.append(_sUrl);
 				throw new ASelectException(sbTemp.toString(), e);
 			}
-
-			// read column types
-			_vColumnTypes = retrieveColumnTypes();
+			try {
+				_vColumnTypes = retrieveColumnTypes(oConnection);
+			}
+			finally {
+				oConnection.close();
+			}
 
 			// create query string
 			_sbPreparedQuery = createStatementQuery();
 
+			readAsyncConfig(oConfigManager, oLogTargetConfig);
+
 			// setting log to database to true
 			_bLogToDatabase = true;
 		}
@@ -425,7 +473,15 @@ public class AuthenticationLogger
 	public void log(Object[] oLogFields)
 	{
 		if (oLogFields != null) {
-			if (_bLogToDatabase)
+			ArrayBlockingQueue<QueuedItem> qPending = _qPending;
+			if (_bLogToDatabase && qPending != null) {
+				if (!qPending.offer(new QueuedItem(oLogFields))) {
+					// queue is full, don't block the caller
+					_lDropped.incrementAndGet();
+					logToFile(oLogFields);
+				}
+			}
+			else if (_bLogToDatabase)
 				try {
 					logToDB(oLogFields);
 				}
@@ -434,8 +490,7 @@ public class AuthenticationLogger
 						_systemLogger.log(Level.WARNING, MODULE, "log",
 								"Logging to database failed (first try), retrying.");
 
-						connect();
-						logToDB(oLogFields);
+						logToDB(oLogFields);  // the pool hands out a validated connection
 					}
 					catch (Exception eE) {
 						_systemLogger.log(Level.WARNING, MODULE, "log",
@@ -463,6 +518,7 @@ public class AuthenticationLogger
 	 * <b>Postconditions: </b>
 	 * <ul>
 	 * <li>All used log handlers are closed.</li>
+	 * <li>The queued items are written, items logged from now on go to the back-up logger.</li>
 	 * <li>The database connection is closed.</li>
 	 * </ul>
 	 * <br>
@@ -471,12 +527,82 @@ public class AuthenticationLogger
 	 */
 	public void closeHandlers()
 	{
-		if (!_bLogToDatabase && _systemLogger != null) {
+		boolean bLogToDatabase = _bLogToDatabase;
+		ArrayBlockingQueue<QueuedItem> qPending = _qPending;
+		_bLogToDatabase = false;
+		_qPending = null;
+		if (_oWriter != null) {
+			_oWriter.interrupt();
+			try {
+				_oWriter.join(_lFlushInterval + 5000);
+			}
+			catch (InterruptedException e) {
+			}
+			_oWriter = null;
+			_systemLogger.log(Level.INFO, MODULE, "closeHandlers", getStatistics());
+		}
+		if (qPending != null) {
+			// queued by callers that saw the queue before it was removed
+			QueuedItem oItem;
+			while ((oItem = qPending.poll()) != null) {
+				logToFile(oItem._oaFields);
+			}
+		}
+		if (!bLogToDatabase && _systemLogger != null) {
 			_systemLogger.closeHandlers();
 		}
 		disconnect();
 	}
 
+	/**
+	 * Get the statistics of asynchronous database logging. <br>
+	 * 
+	 * @return a readable summary: items written, dropped (queue full), failed (written to back-up logger), queued
+	 *         and the average and maximum latency in milliseconds
+	 */
+	public String getStatistics()
+	{
+		long lWritten = _lWritten.get();
+		StringBuffer sbStats = new StringBuffer("written=").append(lWritten);
+		sbStats.append(" dropped=").append(_lDropped.get());
+		sbStats.append(" failed=").append(_lFailed.get());
+		ArrayBlockingQueue<QueuedItem> qPending = _qPending;
+		sbStats.append(" queued=").append((qPending == null) ? 0 : qPending.size());
+		sbStats.append(" avg_latency=").append((lWritten == 0) ? 0 : _lTotalLatency.get() / lWritten);
+		sbStats.append(" max_latency=").append(_lMaxLatency.get());
+		return sbStats.toString();
+	}
+
+	/**
+	 * Get the number of items that did not fit in the queue. <br>
+	 * 
+	 * @return the number of dropped items
+	 */
+	public long getDroppedCount()
+	{
+		return _lDropped.get();
+	}
+
+	/**
+	 * Get the number of items written asynchronously to the database. <br>
+	 * 
+	 * @return the number of written items
+	 */
+	public long getWrittenCount()
+	{
+		return _lWritten.get();
+	}
+
+	/**
+	 * Get the maximum time between queueing and writing an item. <br>
+	 * 
+	 * @return the maximum latency in milliseconds
+	 */
+	public long getMaxLatency()
+	{
+		return _lMaxLatency.get();
+	}
+
 	/**
 	 * Logs the given object array to the file. <br>
 	 * <br>
@@ -541,68 +667,12 @@ public class AuthenticationLogger
 	throws ASelectException
 	{
 		String sMethod = "logToDB";
+		Connection oConnection = null;
 		PreparedStatement oStatement = null;
 		try {
-			int iFields = oLogFields.length;
-			// add one, because the first column will be filled with _sLogComponent
-			int iWriteFields = iFields + 1;
-			int iColumns = _vColumnTypes.size();
-			StringBuffer sbLastField = new StringBuffer();
-
-			// if more log fields are supplied, then the last log fields will be
-			// merged in the last column
-			if (iWriteFields > iColumns) {
-				for (int i = (iColumns - 1); i < iWriteFields; i++) {
-					Object oField = oLogFields[i - 1];
-					String sField = "";
-					if (oField instanceof String)
-						sField = (String) oField;
-
-					sbLastField.append(sField);
-
-					if ((i + 1) < iWriteFields)
-						sbLastField.append(",");
-				}
-			}
-
-			oStatement = _conn.prepareStatement(_sbPreparedQuery.toString());
-
-			for (int i = 1; i <= iColumns; i++) {
-				int iColumnType = ((Integer) _vColumnTypes.get(i - 1)).intValue();
-
-				if (i <= iWriteFields) {
-					Object oValue = null;
-
-					if (i == 1)
-						oValue = _sLogComponent;
-					else if (iColumns == i && iWriteFields > iColumns)
-						oValue = sbLastField.toString();
-					else
-						oValue = oLogFields[i - 2];
-
-					try {
-						oStatement.setObject(i, oValue, iColumnType);
-					}
-					catch (Exception e) {
-						oStatement.setNull(i, iColumnType);
-
-						StringBuffer sbInfo = new StringBuffer("Could not write object: '");
-						sbInfo.append(oValue);
-						sbInfo.append("' to column '");
-						sbInfo.append(i);
-						sbInfo.append("' of database table: ");
-						sbInfo.append(_sTableName);
-						_systemLogger.log(Level.FINE, MODULE, sMethod, sbInfo.toString());
-					}
-
-				}
-				else {
-					// if there are more fields in the statement then supplied to
-					// the log method, then add NULL fields
-					oStatement.setNull(i, iColumnType);
-				}
-			}
-
+			oConnection = _oDataSource.getConnection();
+			oStatement = oConnection.prepareStatement(_sbPreparedQuery.toString());
+			bindFields(oStatement, oLogFields);
 			oStatement.executeUpdate();
 		}
 		catch (ArrayIndexOutOfBoundsException eAIOOB) {
@@ -622,34 +692,178 @@ public class AuthenticationLogger
 				catch (SQLException e) {
 				}
 			}
+			if (oConnection != null) {
+				try {
+					oConnection.close();  // back to the pool
+				}
+				catch (SQLException e) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * Set the statement parameters for a log item. <br>
+	 * <br>
+	 * <b>Description:</b> <br>
+	 * The first column gets the <i>sLogComponent</i>, the other columns get the log fields. If there are more fields
+	 * than columns the remaining fields are concatenated (with ',') in the last column, missing fields are set to SQL
+	 * NULL. <br>
+	 * 
+	 * @param oStatement
+	 *            the prepared INSERT statement
+	 * @param oLogFields
+	 *            An array of objects that must be logged
+	 * @throws SQLException
+	 *             if a parameter can not be set
+	 */
+	private void bindFields(PreparedStatement oStatement, Object[] oLogFields)
+	throws SQLException
+	{
+		String sMethod = "bindFields";
+		int iFields = oLogFields.length;
+		// add one, because the first column will be filled with _sLogComponent
+		int iWriteFields = iFields + 1;
+		int iColumns = _vColumnTypes.size();
+		StringBuffer sbLastField = new StringBuffer();
+
+		// if more log fields are supplied, then the last log fields will be
+		// merged in the last column
+		if (iWriteFields > iColumns) {
+			for (int i = (iColumns - 1); i < iWriteFields; i++) {
+				Object oField = oLogFields[i - 1];
+				String sField = "";
+				if (oField instanceof String)
+					sField = (String) oField;
+
+				sbLastField.append(sField);
+
+				if ((i + 1) < iWriteFields)
+					sbLastField.append(",");
+			}
+		}
+
+		for (int i = 1; i <= iColumns; i++) {
+			int iColumnType = ((Integer) _vColumnTypes.get(i - 1)).intValue();
+
+			if (i <= iWriteFields) {
+				Object oValue = null;
+
+				if (i == 1)
+					oValue = _sLogComponent;
+				else if (iColumns == i && iWriteFields > iColumns)
+					oValue = sbLastField.toString();
+				else
+					oValue = oLogFields[i - 2];
+
+				try {
+					oStatement.setObject(i, oValue, iColumnType);
+				}
+				catch (Exception e) {
+					oStatement.setNull(i, iColumnType);
+
+					StringBuffer sbInfo = new StringBuffer("Could not write object: '");
+					sbInfo.append(oValue);
+					sbInfo.append("' to column '");
+					sbInfo.append(i);
+					sbInfo.append("' of database table: ");
+					sbInfo.append(_sTableName);
+					_systemLogger.log(Level.FINE, MODULE, sMethod, sbInfo.toString());
+				}
+
+			}
+			else {
+				// if there are more fields in the statement then supplied to
+				// the log method, then add NULL fields
+				oStatement.setNull(i, iColumnType);
+			}
 		}
 	}
 
 	/**
-	 * Connects to the database if applicable.
+	 * Writes a batch of queued log items to the database. <br>
+	 * <br>
+	 * <b>Concurrency issues:</b> <br>
+	 * Only called by the writer thread. <br>
 	 * 
-	 * @throws Exception
-	 *             If connection fails.
+	 * @param oConnection
+	 *            the connection, auto-commit is off
+	 * @param alBatch
+	 *            the items to write
+	 * @throws SQLException
+	 *             if the batch could not be written, nothing has been committed
 	 */
-	private synchronized void connect()
-	throws Exception
+	private void writeBatch(Connection oConnection, ArrayList<QueuedItem> alBatch)
+	throws SQLException
 	{
+		PreparedStatement oStatement = null;
 		try {
-			_conn.close();
+			oStatement = oConnection.prepareStatement(_sbPreparedQuery.toString());
+			for (QueuedItem oItem : alBatch) {
+				bindFields(oStatement, oItem._oaFields);
+				oStatement.addBatch();
+			}
+			oStatement.executeBatch();
+			oConnection.commit();
+		}
+		catch (SQLException e) {
+			try {
+				oConnection.rollback();
+			}
+			catch (SQLException eR) {
+			}
+			throw e;
 		}
-		catch (Exception eE) {
+		finally {
+			if (oStatement != null) {
+				try {
+					oStatement.close();
+				}
+				catch (SQLException e) {
+				}
+			}
 		}
 
-		_conn = null;
+		long lNow = System.currentTimeMillis();
+		for (QueuedItem oItem : alBatch) {
+			long lLatency = lNow - oItem._lQueued;
+			_lTotalLatency.addAndGet(lLatency);
+			long lMax = _lMaxLatency.get();
+			while (lLatency > lMax && !_lMaxLatency.compareAndSet(lMax, lLatency))
+				lMax = _lMaxLatency.get();
+		}
+		_lWritten.addAndGet(alBatch.size());
+	}
 
-		_conn = DriverManager.getConnection(_sUrl, _sUser, _sPassword);
+	/**
+	 * Gets the connection pool of the database. <br>
+	 * <br>
+	 * <b>Description: </b> <br>
+	 * The pool is shared by all users of the same database url and user, the optional pool settings (e.g.
+	 * "pool_max_total") are read from the target section. <br>
+	 * 
+	 * @param oConfigManager
+	 *            The config manager that is used to retrieve the configuration
+	 * @param oLogTargetConfig
+	 *            The configuration database target section
+	 * @throws ASelectException
+	 *             If a pool setting is invalid.
+	 */
+	private synchronized void connect(ConfigManager oConfigManager, Object oLogTargetConfig)
+	throws ASelectException
+	{
+		if (_oDataSource != null)
+			return;
+		_sPoolKey = "authenticationlog/" + _sUrl + "/" + _sUser;
+		_oDataSource = PoolingConnectionHandler.acquirePool(_sPoolKey, _sDriver, _sUrl, _sUser, _sPassword,
+				oConfigManager, oLogTargetConfig, _systemLogger);
 	}
 
 	/**
-	 * Closes the database connection. <br>
+	 * Releases the database connection pool. <br>
 	 * <br>
 	 * <b>Description: </b> <br>
-	 * Closes the connection to the database if database logging is enabled. <br>
+	 * Releases the connection pool if database logging is enabled, the last user closes the pool. <br>
 	 * <br>
 	 * <b>Concurrency issues: </b> <br>
 	 * This method is synchronized. <br>
@@ -658,25 +872,20 @@ public class AuthenticationLogger
 	 * -<br>
 	 * <br>
 	 * <b>Postconditions: </b> <br>
-	 * The database connection is closed. <br>
+	 * The connection pool is released. <br>
 	 */
 	private synchronized void disconnect()
 	{
 		String sMethod = new String("disconnect");
 
 		try {
-			if (_bLogToDatabase) {
-				if (_conn != null)
-					_conn.close();
-			}
-		}
-		catch (SQLException eS) {
-			altLog(sMethod, "Database Error" + eS.getMessage());
+			if (_oDataSource != null)
+				PoolingConnectionHandler.releasePool(_sPoolKey, _systemLogger);
 		}
 		catch (Exception eX) {
 			altLog(sMethod, "Internal Error" + eX.getMessage());
 		}
-		_conn = null;
+		_oDataSource = null;
 	}
 
 	/**
@@ -851,16 +1060,82 @@ public class AuthenticationLogger
 		}
 	}
 
+	/**
+	 * Reads the optional asynchronous logging configuration and starts the writer thread. <br>
+	 * <br>
+	 * <b>Description:</b> <br>
+	 * Reads "async" (true/false), "queue_size", "batch_size" and "flush_interval" (milliseconds) from the database
+	 * target section. <br>
+	 * 
+	 * @param oConfigManager
+	 *            The config manager that is used to retrieve the configuration
+	 * @param oLogTargetConfig
+	 *            The configuration database target section
+	 * @throws ASelectException
+	 *             if an invalid value is configured
+	 */
+	private void readAsyncConfig(ConfigManager oConfigManager, Object oLogTargetConfig)
+	throws ASelectException
+	{
+		String sMethod = "readAsyncConfig";
+		int iQueueSize = DEFAULT_QUEUE_SIZE;
+
+		try {
+			if (!Boolean.parseBoolean(oConfigManager.getParam(oLogTargetConfig, "async")))
+				return;
+		}
+		catch (Exception e) {
+			return;  // synchronous logging
+		}
+
+		try {
+			try {
+				iQueueSize = Integer.parseInt(oConfigManager.getParam(oLogTargetConfig, "queue_size"));
+			}
+			catch (ASelectConfigException e) {
+				_systemLogger.log(Level.CONFIG, MODULE, sMethod, "No 'queue_size' configured, using " + iQueueSize);
+			}
+			try {
+				_iBatchSize = Integer.parseInt(oConfigManager.getParam(oLogTargetConfig, "batch_size"));
+			}
+			catch (ASelectConfigException e) {
+				_systemLogger.log(Level.CONFIG, MODULE, sMethod, "No 'batch_size' configured, using " + _iBatchSize);
+			}
+			try {
+				_lFlushInterval = Long.parseLong(oConfigManager.getParam(oLogTargetConfig, "flush_interval"));
+			}
+			catch (ASelectConfigException e) {
+				_systemLogger.log(Level.CONFIG, MODULE, sMethod, "No 'flush_interval' configured, using " + _lFlushInterval);
+			}
+		}
+		catch (NumberFormatException e) {
+			_systemLogger.log(Level.WARNING, MODULE, sMethod, "Invalid asynchronous logging configuration", e);
+			throw new ASelectException(Errors.ERROR_ASELECT_INIT_ERROR, e);
+		}
+		if (iQueueSize < 1 || _iBatchSize < 1 || _lFlushInterval < 1) {
+			_systemLogger.log(Level.WARNING, MODULE, sMethod, "'queue_size', 'batch_size' and 'flush_interval' must be positive");
+			throw new ASelectException(Errors.ERROR_ASELECT_INIT_ERROR);
+		}
+
+		_qPending = new ArrayBlockingQueue<QueuedItem>(iQueueSize);
+		_oWriter = new DatabaseWriter(_qPending);
+		_oWriter.start();
+		_systemLogger.log(Level.INFO, MODULE, sMethod, "Asynchronous logging, queue_size=" + iQueueSize
+				+ " batch_size=" + _iBatchSize + " flush_interval=" + _lFlushInterval);
+	}
+
 	/**
 	 * Retrieves the column types of the configured database. <br>
 	 * The columns in the configured database must match the configured column names. <br>
 	 * <br>
 	 * 
+	 * @param oConnection
+	 *            the database connection
 	 * @return a <code>Vector</code> containing all column types that will be needed for database logging
 	 * @throws ASelectException
 	 *             if a column type or name could not be resolved
 	 */
-	private Vector retrieveColumnTypes()
+	private Vector retrieveColumnTypes(Connection oConnection)
 	throws ASelectException
 	{
 		String sMethod = "retrieveColumnTypes";
@@ -870,7 +1145,7 @@ public class AuthenticationLogger
 		Vector vReturn = new Vector();
 
 		try {
-			oStatement = _conn.createStatement();
+			oStatement = oConnection.createStatement();
 
 			StringBuffer sbQuery = new StringBuffer("SELECT * FROM ");
 			sbQuery.append(_sTableName);
@@ -970,4 +1245,128 @@ public class AuthenticationLogger
 
 		return sbPreparedQuery;
 	}
+
+	/**
+	 * A log item waiting in the queue.
+	 */
+	private static class QueuedItem
+	{
+		private final Object[] _oaFields;
+		private final long _lQueued;
+
+		private QueuedItem(Object[] oaFields) {
+			_oaFields = oaFields;
+			_lQueued = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * Writer thread for asynchronous database logging. <br>
+	 * <br>
+	 * <b>Description:</b> <br>
+	 * Collects items from the queue and writes them in one batch as soon as there are <i>_iBatchSize</i> items or the
+	 * first item has waited <i>_lFlushInterval</i>. If writing fails the batch is retried once on another connection from the pool,
+	 * after that the items are logged to the back-up logger. When interrupted the queue is drained before the thread
+	 * stops. <br>
+	 * <br>
+	 * <b>Concurrency issues:</b> <br>
+	 * The writer borrows a connection from the pool for every batch. <br>
+	 */
+	private class DatabaseWriter extends Thread
+	{
+		/** The queue, kept when the logger is closed so it can be drained */
+		private final ArrayBlockingQueue<QueuedItem> _qItems;
+
+		/**
+		 * Instantiates a new writer.
+		 * 
+		 * @param qItems
+		 *            the queue to write
+		 */
+		private DatabaseWriter(ArrayBlockingQueue<QueuedItem> qItems) {
+			super("AuthenticationLogger-" + _sLogComponent);
+			setDaemon(true);
+			_qItems = qItems;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Thread#run()
+		 */
+		@Override
+		public void run()
+		{
+			ArrayList<QueuedItem> alBatch = new ArrayList<QueuedItem>(_iBatchSize);
+			boolean bRunning = true;
+			while (bRunning || !_qItems.isEmpty()) {
+				try {
+					if (bRunning) {
+						// wait for the first item, or for more items until the first one is due
+						long lWait = alBatch.isEmpty() ? _lFlushInterval
+								: alBatch.get(0)._lQueued + _lFlushInterval - System.currentTimeMillis();
+						QueuedItem oItem = (lWait > 0) ? _qItems.poll(lWait, TimeUnit.MILLISECONDS) : null;
+						if (oItem != null)
+							alBatch.add(oItem);
+					}
+				}
+				catch (InterruptedException e) {
+					bRunning = false;
+				}
+				if (isInterrupted())
+					bRunning = false;
+				_qItems.drainTo(alBatch, _iBatchSize - alBatch.size());
+				if (!alBatch.isEmpty() && (!bRunning || alBatch.size() >= _iBatchSize
+						|| System.currentTimeMillis() - alBatch.get(0)._lQueued >= _lFlushInterval)) {
+					flush(alBatch);
+					alBatch.clear();
+				}
+			}
+		}
+
+		/**
+		 * Write the batch, retry once on a fresh connection, use the back-up logger if that also fails.
+		 */
+		private void flush(ArrayList<QueuedItem> alBatch)
+		{
+			String sMethod = "flush";
+			for (int iTry = 0; iTry < 2; iTry++) {
+				Connection oConnection = null;
+				try {
+					oConnection = _oDataSource.getConnection();
+					oConnection.setAutoCommit(false);
+					writeBatch(oConnection, alBatch);
+					return;
+				}
+				catch (Exception e) {
+					_systemLogger.log(Level.WARNING, MODULE, sMethod, "Writing " + alBatch.size()
+							+ " items to database failed" + ((iTry == 0) ? ", retrying" : ""), e);
+				}
+				finally {
+					closeConnection(oConnection);
+				}
+			}
+			_lFailed.addAndGet(alBatch.size());
+			for (QueuedItem oItem : alBatch) {
+				logToFile(oItem._oaFields);
+			}
+		}
+
+		/**
+		 * Return the connection to the pool.
+		 */
+		private void closeConnection(Connection oConnection)
+		{
+			if (oConnection != null) {
+				try {
+					oConnection.setAutoCommit(true);
+				}
+				catch (SQLException e) {
+				}
+				try {
+					oConnection.close();
+				}
+				catch (SQLException e) {
+				}
+			}
+		}
+	}
 }
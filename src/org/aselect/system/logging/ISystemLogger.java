@@ -165,6 +165,55 @@ public interface ISystemLogger
 	 */
 	public abstract void log(Level level, String sModule, String sMethod, String sMessage, Throwable cause);
 
+	/**
+	 * Write a log item with additional information and a deferred argument. <br>
+	 * <br>
+	 * <b>Description:</b> <br>
+	 * Formats a log message and log this message. The argument is appended to the message with
+	 * <code>String.valueOf()</code>, but only when the level is logged. Pass a {@link LogArgument} or a context
+	 * itself, instead of a string built from it, to skip the formatting on the levels that are not logged. <br>
+	 * <br>
+	 * <b>Concurrency issues:</b> <br>
+	 * - <br>
+	 * <br>
+	 * <b>Preconditions:</b>
+	 * <ul>
+	 * <li><code>level != null</code></li>
+	 * <li><code>sModule != null</code></li>
+	 * <li><code>sMethod != null</code></li>
+	 * <li><code>sMessage != null</code></li>
+	 * </ul>
+	 * <br>
+	 * <b>Postconditions:</b> <br>
+	 * - <br>
+	 * 
+	 * @param level
+	 *            The log level.
+	 * @param sModule
+	 *            The module name.
+	 * @param sMethod
+	 *            The method name.
+	 * @param sMessage
+	 *            The log message.
+	 * @param oArgument
+	 *            The argument appended to the log message, may be <code>null</code>.
+	 */
+	public abstract void log(Level level, String sModule, String sMethod, String sMessage, Object oArgument);
+
+	/**
+	 * Check if a log item with the given level would be logged. <br>
+	 * <br>
+	 * <b>Description:</b> <br>
+	 * Use this to skip building an expensive log message, e.g.
+	 * <code>if (_systemLogger.isLoggable(Level.FINEST)) _systemLogger.log(Level.FINEST, ...)</code>. Returns
+	 * <code>true</code> when the logger is not initialized yet, so those items still reach the console. <br>
+	 * 
+	 * @param level
+	 *            The log level.
+	 * @return <code>true</code> if items with this level are logged.
+	 */
+	public abstract boolean isLoggable(Level level);
+
 	/**
 	 * Set the level of the system logger. <br>
 	 * <br>
@@ -0,0 +1,148 @@
+/*
+ * * Copyright (c) Anoigo. All rights reserved.
+ *
+ * A-Select is a trademark registered by SURFnet bv.
+ *
+ * This program is distributed under the EUPL 1.0 (http://osor.eu/eupl)
+ * See the included LICENSE file for details.
+ *
+ * If you did not receive a copy of the LICENSE
+ * please contact Anoigo. (http://www.anoigo.nl)
+ */
+package org.aselect.system.logging;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.aselect.system.utils.crypto.Auxiliary;
+import org.opensaml.xml.util.XMLHelper;
+import org.w3c.dom.Node;
+
+/**
+ * Log message argument that is formatted when it is logged. <br>
+ * <br>
+ * <b>Description:</b> <br>
+ * Obfuscating a context or pretty printing a SAML message is expensive, and most of these log items are FINEST.
+ * Pass a <code>LogArgument</code> to {@link ISystemLogger#log(java.util.logging.Level, String, String, String, Object)}
+ * and the work is only done when the level is logged, e.g.: <br>
+ * <code>_systemLogger.log(Level.FINEST, MODULE, sMethod, "htInfo=", LogArgument.obfuscated(htInfo));</code> <br>
+ * <br>
+ * <b>Concurrency issues:</b> <br>
+ * The argument is formatted by the thread that logs it, the value must not change until the log call returns. <br>
+ *
+ * @author Anoigo
+ */
+public abstract class LogArgument
+{
+	/**
+	 * Format the argument.
+	 *
+	 * @return the text to log
+	 */
+	protected abstract String format();
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString()
+	{
+		return format();
+	}
+
+	/**
+	 * Defer {@link Auxiliary#obfuscate(Object)}.
+	 *
+	 * @param oValue
+	 *            the value, a String, Map or List
+	 * @return the deferred argument
+	 */
+	public static LogArgument obfuscated(final Object oValue)
+	{
+		return new LogArgument() {
+			@Override
+			protected String format()
+			{
+				return String.valueOf(Auxiliary.obfuscate(oValue));
+			}
+		};
+	}
+
+	/**
+	 * Defer {@link Auxiliary#obfuscate(String, List)}.
+	 *
+	 * @param sValue
+	 *            the value
+	 * @param lPatterns
+	 *            the patterns of the parts to obfuscate, e.g. {@link Auxiliary#REGEX_PATTERNS}
+	 * @return the deferred argument
+	 */
+	public static LogArgument obfuscated(final String sValue, final List<Pattern> lPatterns)
+	{
+		return new LogArgument() {
+			@Override
+			protected String format()
+			{
+				return Auxiliary.obfuscate(sValue, lPatterns);
+			}
+		};
+	}
+
+	/**
+	 * Defer serializing an XML node and obfuscating the parts matching the patterns.
+	 *
+	 * @param oNode
+	 *            the node, e.g. the DOM of a SOAP envelope
+	 * @param lPatterns
+	 *            the patterns of the parts to obfuscate, e.g. {@link Auxiliary#REGEX_PATTERNS}
+	 * @return the deferred argument
+	 */
+	public static LogArgument serialized(final Node oNode, final List<Pattern> lPatterns)
+	{
+		return new LogArgument() {
+			@Override
+			protected String format()
+			{
+				return Auxiliary.obfuscate(XMLHelper.nodeToString(oNode), lPatterns);
+			}
+		};
+	}
+
+	/**
+	 * Defer pretty printing of an XML node.
+	 *
+	 * @param oNode
+	 *            the node, e.g. the DOM of a SAML message
+	 * @return the deferred argument
+	 */
+	public static LogArgument prettyPrinted(final Node oNode)
+	{
+		return new LogArgument() {
+			@Override
+			protected String format()
+			{
+				return XMLHelper.prettyPrintXML(oNode);
+			}
+		};
+	}
+
+	/**
+	 * Defer pretty printing of an XML node and obfuscating the parts matching the patterns.
+	 *
+	 * @param oNode
+	 *            the node, e.g. the DOM of a SAML message
+	 * @param lPatterns
+	 *            the patterns of the parts to obfuscate, e.g. {@link Auxiliary#REGEX_PATTERNS}
+	 * @return the deferred argument
+	 */
+	public static LogArgument prettyPrinted(final Node oNode, final List<Pattern> lPatterns)
+	{
+		return new LogArgument() {
+			@Override
+			protected String format()
+			{
+				return Auxiliary.obfuscate(XMLHelper.prettyPrintXML(oNode), lPatterns);
+			}
+		};
+	}
+}
@@ -107,6 +107,22 @@ public class SystemLogger implements ISystemLogger
 		_logger.log(level, module, method, message, cause);
 	}
 
+	/* (non-Javadoc)
+	 * @see org.aselect.system.logging.ISystemLogger#log(java.util.logging.Level, java.lang.String, java.lang.String, java.lang.String, java.lang.Object)
+	 */
+	public void log(Level level, String module, String method, String message, Object argument)
+	{
+		_logger.log(level, module, method, message, argument);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.logging.ISystemLogger#isLoggable(java.util.logging.Level)
+	 */
+	public boolean isLoggable(Level level)
+	{
+		return _logger.isLoggable(level);
+	}
+
 	/* (non-Javadoc)
 	 * @see org.aselect.system.logging.ISystemLogger#setLevel(java.util.logging.Level)
 	 */
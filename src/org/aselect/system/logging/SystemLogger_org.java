@@ -396,6 +396,8 @@ public class SystemLogger_org implements ISystemLogger
 	 */
 	public void log(Level level, String sModule, String sMethod, String sMessage)
 	{
+		if (!isLoggable(level))
+			return;
 		StringBuffer sbError = new StringBuffer(sModule);
 		sbError.append(".");
 		sbError.append(sMethod);
@@ -439,13 +441,48 @@ public class SystemLogger_org implements ISystemLogger
 	 */
 	public void log(Level level, String sModule, String sMethod, String sMessage, Throwable cause)
 	{
+		if (!isLoggable(level))
+			return;
 		StringBuffer sbError = new StringBuffer(sModule);
 		sbError.append(".");
 		sbError.append(sMethod);
 		sbError.append(" -> ");
 		sbError.append(sMessage);
 		log(level, sbError.toString(), cause);
+	}
 
+	/**
+	 * Write a log item with additional information and a deferred argument. <br>
+	 * <br>
+	 * <b>Description:</b> <br>
+	 * Formats a log message and log this message, the argument is only converted to a string when the level is
+	 * logged. <br>
+	 * <br>
+	 * <b>Concurrency issues:</b> <br>
+	 * - <br>
+	 * 
+	 * @param level
+	 *            The log level.
+	 * @param sModule
+	 *            The module name.
+	 * @param sMethod
+	 *            The method name.
+	 * @param sMessage
+	 *            The log message.
+	 * @param oArgument
+	 *            The argument appended to the log message.
+	 */
+	public void log(Level level, String sModule, String sMethod, String sMessage, Object oArgument)
+	{
+		if (!isLoggable(level))
+			return;
+		StringBuffer sbError = new StringBuffer(sModule);
+		sbError.append(".");
+		sbError.append(sMethod);
+		sbError.append(" -> ");
+		sbError.append(sMessage);
+		sbError.append(oArgument);
+		log(level, sbError.toString());
 	}
 
 	/**
@@ -603,4 +640,12 @@ public class SystemLogger_org implements ISystemLogger
 	{
 		return _bDebug;
 	}
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.logging.ISystemLogger#isLoggable(java.util.logging.Level)
+	 */
+	public boolean isLoggable(Level level)
+	{
+		return _oLogger == null || _oLogger.isLoggable(level);
+	}
 }
\ No newline at end of file
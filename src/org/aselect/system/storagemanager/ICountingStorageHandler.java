@@ -0,0 +1,50 @@
+/*
+ * * Copyright (c) Anoigo. All rights reserved.
+ *
+ * A-Select is a trademark registered by SURFnet bv.
+ *
+ * This program is distributed under the EUPL 1.0 (http://osor.eu/eupl)
+ * See the included LICENSE file for details.
+ *
+ * If you did not receive a copy of the LICENSE
+ * please contact Anoigo. (http://www.anoigo.nl)
+ */
+package org.aselect.system.storagemanager;
+
+import org.aselect.system.exception.ASelectStorageException;
+
+/**
+ * Optional interface for storage handlers that know whether a put inserted a new item. <br>
+ * <br>
+ * <b>Description:</b> <br>
+ * Used by the {@link StorageManager} to keep its approximate item count without asking the storage whether the key
+ * exists before every put, e.g. a JDBC handler knows from its INSERT or UPDATE whether a row was added. <br>
+ * <br>
+ * When the handler does not implement this interface, the {@link StorageManager} only counts the items it inserts
+ * with <code>INSERTONLY</code>, the periodic refresh of the count corrects the rest. <br>
+ * <br>
+ * <b>Concurrency issues:</b> <br>
+ * Implementations must be thread-safe. <br>
+ *
+ * @author Anoigo
+ */
+public interface ICountingStorageHandler extends IStorageHandler
+{
+	/**
+	 * Store an item like {@link IStorageHandler#put(Object, Object, Long, IStorageHandler.UpdateMode)}.
+	 *
+	 * @param oKey
+	 *            the key
+	 * @param oValue
+	 *            the value
+	 * @param lTimestamp
+	 *            the timestamp
+	 * @param eMode
+	 *            the update mode
+	 * @return <code>true</code> if the key was not stored before
+	 * @throws ASelectStorageException
+	 *             if storing fails, or the key exists for <code>INSERTONLY</code>
+	 */
+	public boolean putCounted(Object oKey, Object oValue, Long lTimestamp, IStorageHandler.UpdateMode eMode)
+	throws ASelectStorageException;
+}
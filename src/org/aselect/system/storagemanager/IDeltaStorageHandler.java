@@ -0,0 +1,46 @@
+/*
+ * * Copyright (c) Anoigo. All rights reserved.
+ *
+ * A-Select is a trademark registered by SURFnet bv.
+ *
+ * This program is distributed under the EUPL 1.0 (http://osor.eu/eupl)
+ * See the included LICENSE file for details.
+ *
+ * If you did not receive a copy of the LICENSE
+ * please contact Anoigo. (http://www.anoigo.nl)
+ */
+package org.aselect.system.storagemanager;
+
+import org.aselect.system.exception.ASelectStorageException;
+
+/**
+ * Optional interface for storage handlers that can renew the timestamp of an item without rewriting it. <br>
+ * <br>
+ * <b>Description:</b> <br>
+ * Used when the caller knows the stored value did not change, e.g. a JDBC handler then only updates the timestamp
+ * column instead of writing the encoded value again. <br>
+ * <br>
+ * When the handler does not implement this interface, the {@link StorageManager} falls back to storing the whole
+ * item. <br>
+ * <br>
+ * <b>Concurrency issues:</b> <br>
+ * Implementations must be thread-safe. <br>
+ *
+ * @author Anoigo
+ */
+public interface IDeltaStorageHandler extends IStorageHandler
+{
+	/**
+	 * Set the timestamp of a stored item.
+	 *
+	 * @param oKey
+	 *            the key
+	 * @param lTimestamp
+	 *            the new timestamp
+	 * @return <code>false</code> if the item was not found, the caller must store the whole item
+	 * @throws ASelectStorageException
+	 *             if updating fails
+	 */
+	public boolean touch(Object oKey, Long lTimestamp)
+	throws ASelectStorageException;
+}
@@ -0,0 +1,59 @@
+/*
+ * * Copyright (c) Anoigo. All rights reserved.
+ *
+ * A-Select is a trademark registered by SURFnet bv.
+ *
+ * This program is distributed under the EUPL 1.0 (http://osor.eu/eupl)
+ * See the included LICENSE file for details.
+ *
+ * If you did not receive a copy of the LICENSE
+ * please contact Anoigo. (http://www.anoigo.nl)
+ */
+package org.aselect.system.storagemanager;
+
+import java.util.HashMap;
+
+import org.aselect.system.exception.ASelectStorageException;
+
+/**
+ * Optional interface for storage handlers that maintain secondary indexes. <br>
+ * <br>
+ * <b>Description:</b> <br>
+ * A storage handler implementing this interface can look up stored items by the value of a field, instead of by
+ * their key. Only values that are a <code>Map</code> (e.g. a TGT context) are indexed, the indexed field is an entry
+ * in that map (e.g. "name_id"). The fields to index are configured using <code>&lt;index field="..."/&gt;</code>
+ * items in the storage handler section. <br>
+ * <br>
+ * When the handler does not implement this interface, or the field is not indexed, the {@link StorageManager} falls
+ * back to scanning all items. <br>
+ * <br>
+ * <b>Concurrency issues:</b> <br>
+ * Implementations must be thread-safe. <br>
+ *
+ * @author Anoigo
+ */
+public interface IIndexedStorageHandler extends IStorageHandler
+{
+	/**
+	 * Check whether a field is indexed.
+	 *
+	 * @param sField
+	 *            the field name
+	 * @return <code>true</code> if lookups on the field are supported by this handler
+	 */
+	public boolean isIndexed(String sField);
+
+	/**
+	 * Retrieve all stored items having the given value in the indexed field.
+	 *
+	 * @param sField
+	 *            the indexed field
+	 * @param oValue
+	 *            the value to look for
+	 * @return the matching items as key/value, empty if none
+	 * @throws ASelectStorageException
+	 *             if retrieving fails
+	 */
+	public HashMap getByIndex(String sField, Object oValue)
+	throws ASelectStorageException;
+}
@@ -0,0 +1,49 @@
+/*
+ * * Copyright (c) Anoigo. All rights reserved.
+ *
+ * A-Select is a trademark registered by SURFnet bv.
+ *
+ * This program is distributed under the EUPL 1.0 (http://osor.eu/eupl)
+ * See the included LICENSE file for details.
+ *
+ * If you did not receive a copy of the LICENSE
+ * please contact Anoigo. (http://www.anoigo.nl)
+ */
+package org.aselect.system.storagemanager;
+
+import java.util.List;
+
+import org.aselect.system.exception.ASelectStorageException;
+
+/**
+ * Optional interface for storage handlers that can list their keys page by page. <br>
+ * <br>
+ * <b>Description:</b> <br>
+ * A storage handler implementing this interface returns a range of keys without retrieving or decoding the stored
+ * values, e.g. for displaying a part of the stored items in a monitor. The sequence of the keys is determined by the
+ * handler and is only guaranteed to be stable as long as no items are added or removed. <br>
+ * <br>
+ * When the handler does not implement this interface, the {@link StorageManager} falls back to retrieving all
+ * items. <br>
+ * <br>
+ * <b>Concurrency issues:</b> <br>
+ * Implementations must be thread-safe. <br>
+ *
+ * @author Anoigo
+ */
+public interface IPagedStorageHandler extends IStorageHandler
+{
+	/**
+	 * Retrieve a range of the stored keys.
+	 *
+	 * @param iFirst
+	 *            the number of keys to skip
+	 * @param iMax
+	 *            the maximum number of keys to return
+	 * @return the keys, empty if there are no keys in the range
+	 * @throws ASelectStorageException
+	 *             if retrieving fails
+	 */
+	public List getKeys(int iFirst, int iMax)
+	throws ASelectStorageException;
+}
@@ -0,0 +1,206 @@
+/*
+ * * Copyright (c) Anoigo. All rights reserved.
+ *
+ * A-Select is a trademark registered by SURFnet bv.
+ *
+ * This program is distributed under the EUPL 1.0 (http://osor.eu/eupl)
+ * See the included LICENSE file for details.
+ *
+ * If you did not receive a copy of the LICENSE
+ * please contact Anoigo. (http://www.anoigo.nl)
+ */
+package org.aselect.system.storagemanager;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import org.aselect.system.communication.client.IClientCommunicator;
+import org.aselect.system.configmanager.ConfigManager;
+import org.aselect.system.logging.SystemLogger;
+import org.aselect.system.utils.Tools;
+import org.aselect.system.utils.Utils;
+
+/**
+ * Asynchronous reporting to the LB sensor. <br>
+ * <br>
+ * <b>Description:</b> <br>
+ * Request threads only put the measured processing time in a bounded queue, a single sender thread delivers it to the
+ * <code>&lt;lbsensor&gt;</code> sensor_url. The sender reads the configuration and creates its client communicator
+ * once and keeps using them until a request fails. Values that arrive while a request is in progress are coalesced:
+ * the sender reports all queued values (at most <code>BATCH_SIZE</code>) in one request, as their sum
+ * (<code>total</code>) and number (<code>count</code>), so the sensor weighs them as separate values. The
+ * <code>data</code> parameter holds their average for sensors that only read a single value. When the queue is full
+ * new values are dropped, so a slow or unreachable sensor never delays the caller. <br>
+ * <br>
+ * <b>Concurrency issues:</b> <br>
+ * This is a singleton, {@link #addEntry(ConfigManager, SystemLogger, long)} can be called by any thread. <br>
+ *
+ * @author Anoigo
+ */
+public class LbSensorQueue
+{
+	public static final String MODULE = "LbSensorQueue";
+
+	private static final int QUEUE_SIZE = 1000;
+	private static final int BATCH_SIZE = 100;
+	private static final long RETRY_DELAY = 10000;  // mSec to wait after a failed report
+
+	private static LbSensorQueue _oLbSensorQueue = new LbSensorQueue();
+
+	private final ArrayBlockingQueue<Long> _qData = new ArrayBlockingQueue<Long>(QUEUE_SIZE);
+	private final AtomicLong _lDropped = new AtomicLong();
+	private final AtomicLong _lReported = new AtomicLong();
+
+	private ConfigManager _oConfMgr = null;
+	private SystemLogger _oLogger = null;
+	private volatile Sender _oSender = null;
+
+	private LbSensorQueue()
+	{
+	}
+
+	// This is a singleton
+	public static LbSensorQueue getHandle()
+	{
+		return _oLbSensorQueue;
+	}
+
+	/**
+	 * Queue a value for the LB sensor, the sender thread is started on first use.
+	 *
+	 * @param oConfMgr
+	 *            the config manager
+	 * @param oSysLog
+	 *            the system logger
+	 * @param lValue
+	 *            the value to report
+	 */
+	public void addEntry(ConfigManager oConfMgr, SystemLogger oSysLog, long lValue)
+	{
+		String sMethod = "addEntry";
+
+		if (_oSender == null)
+			start(oConfMgr, oSysLog);
+		if (!_qData.offer(Long.valueOf(lValue))) {
+			long lDropped = _lDropped.incrementAndGet();
+			if (lDropped % QUEUE_SIZE == 1)
+				oSysLog.log(Level.WARNING, MODULE, sMethod, "Queue full, dropped=" + lDropped);
+		}
+	}
+
+	/**
+	 * Stop the sender thread, values still queued are discarded.
+	 */
+	public synchronized void stop()
+	{
+		if (_oSender != null) {
+			_oSender.interrupt();
+			_oLogger.log(Level.INFO, MODULE, "stop", "reported=" + _lReported.get() + " dropped=" + _lDropped.get());
+			_oSender = null;
+		}
+		_qData.clear();
+	}
+
+	/**
+	 * Start the sender thread if not yet running.
+	 */
+	private synchronized void start(ConfigManager oConfMgr, SystemLogger oSysLog)
+	{
+		if (_oSender != null)
+			return;
+		_oConfMgr = oConfMgr;
+		_oLogger = oSysLog;
+		_oSender = new Sender();
+		_oSender.start();
+		_oLogger.log(Level.INFO, MODULE, "start", "LB sensor sender started");
+	}
+
+	/**
+	 * The thread delivering the queued values.
+	 */
+	private class Sender extends Thread
+	{
+		private IClientCommunicator _oClientCommunicator = null;
+		private String _sSensorUrl = null;
+
+		/**
+		 * Instantiates a new sender.
+		 */
+		private Sender() {
+			super(MODULE);
+			setDaemon(true);
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Thread#run()
+		 */
+		@Override
+		public void run()
+		{
+			String sMethod = "run";
+			ArrayList<Long> alBatch = new ArrayList<Long>(BATCH_SIZE);
+
+			while (!isInterrupted()) {
+				try {
+					alBatch.add(_qData.take());
+					_qData.drainTo(alBatch, BATCH_SIZE - 1);
+
+					long lTotal = 0;
+					for (Long lValue : alBatch)
+						lTotal += lValue.longValue();
+					if (!report(lTotal, alBatch.size()))
+						Thread.sleep(RETRY_DELAY);
+					else
+						_lReported.addAndGet(alBatch.size());
+					alBatch.clear();
+				}
+				catch (InterruptedException e) {
+					break;
+				}
+				catch (Exception e) {
+					_oLogger.log(Level.WARNING, MODULE, sMethod, "Sensor report failed: " + e.getClass() + ": " + e.getMessage());
+					alBatch.clear();
+				}
+			}
+		}
+
+		/**
+		 * Send the sum and number of values, (re)reading the configuration when needed.
+		 *
+		 * @return true if the sensor was contacted
+		 */
+		private boolean report(long lTotal, int iCount)
+		{
+			String sMethod = "report";
+
+			try {
+				if (_oClientCommunicator == null) {
+					Object oConfig = Utils.getSimpleSection(_oConfMgr, _oLogger, null, "aselect", true);
+					Object oSensorSection = Utils.getSimpleSection(_oConfMgr, _oLogger, oConfig, "lbsensor", false);
+					if (oSensorSection == null) {
+						_oLogger.log(Level.WARNING, MODULE, sMethod, "Section aselect/lbsensor not found, no sensor reporting");
+						return false;
+					}
+					_sSensorUrl = Utils.getSimpleParam(_oConfMgr, _oLogger, oSensorSection, "sensor_url", true);
+					_oClientCommunicator = Tools.initClientCommunicator(_oConfMgr, _oLogger, oSensorSection);
+				}
+				HashMap<String, String> htRequest = new HashMap<String, String>();
+				htRequest.put("request", "store");
+				htRequest.put("data", Long.toString(lTotal / iCount));
+				htRequest.put("total", Long.toString(lTotal));
+				htRequest.put("count", Integer.toString(iCount));
+				HashMap htResponse = _oClientCommunicator.sendMessage(htRequest, _sSensorUrl);
+				_oLogger.log(Level.FINE, MODULE, sMethod, "total=" + lTotal + " count=" + iCount + " GET Result=" + htResponse);
+				return true;
+			}
+			catch (Exception e) {
+				_oLogger.log(Level.WARNING, MODULE, sMethod, "Could not contact LB Sensor at: " + _sSensorUrl);
+				_oClientCommunicator = null;  // start afresh next time
+				return false;
+			}
+		}
+	}
+}
@@ -56,7 +56,11 @@
 
 package org.aselect.system.storagemanager;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 
 import org.aselect.system.configmanager.ConfigManager;
@@ -103,6 +107,18 @@ public class StorageManager
 	/** The storage expiration time. */
 	private long _lExpireTime = 0;
 
+	/** Use the approximate item count instead of asking the handler on every write. */
+	private boolean _bApproximateMax = false;
+
+	/** Approximate number of stored items, adjusted on inserts and removes and reconciled by the Cleaner. */
+	private final AtomicLong _lApproximateCount = new AtomicLong(0);
+
+	/** Time of the last reconciliation of <code>_lApproximateCount</code>. */
+	private final AtomicLong _lCountRefreshed = new AtomicLong(0);
+
+	/** Maximum age of the approximate count before it is reconciled on the calling thread. */
+	private long _lCountRefreshInterval = 60000;
+
 	/**
 	 * Default constructor.
 	 */
@@ -235,6 +251,16 @@ public class StorageManager
 			systemLogger.log(Level.CONFIG, MODULE, sMethod, "'expire' config item not specified. Cleaning disabled.");
 		}
 
+		// "exact" asks the handler on every write, "approximate" uses a counter
+		try {
+			String sMaxCheck = oConfigManager.getParam(oConfigSection, "max_check");
+			_bApproximateMax = "approximate".equals(sMaxCheck.trim());
+		}
+		catch (ASelectConfigException e) {
+			_bApproximateMax = false;
+		}
+		systemLogger.log(Level.CONFIG, MODULE, sMethod, "max_check=" + (_bApproximateMax ? "approximate" : "exact"));
+
 		long lInterval = 0;
 		if (_lExpireTime != I_UNLIMITED) {
 			try {
@@ -254,6 +280,10 @@ public class StorageManager
 			systemLogger.log(Level.INFO, MODULE, sMethod, "ConfigManager=" + oConfigManager + " id="+sStorageHandlerId+
 					" ConfigSection="+oStorageHandlerSection + " this=" + this.getClass() + " handler=" + _oStorageHandler.getClass());
 			_oStorageHandler.init(oStorageHandlerSection, oConfigManager, systemLogger, oSAMAgent);
+			if (lInterval > 0)
+				_lCountRefreshInterval = lInterval;
+			if (isCounting())
+				refreshCount();
 
 			// The cleaner will keep the storage clean.
 			_oCleaner = new Cleaner();
@@ -411,6 +441,95 @@ public class StorageManager
 		return _oStorageHandler.getCount();
 	}
 
+	/**
+	 * Retrieve a range of the keys of the stored objects. <br>
+	 * <br>
+	 * <b>Description: </b> <br>
+	 * Returns at most <code>iMax</code> keys, skipping the first <code>iFirst</code>. If the handler supports it (see
+	 * {@link IPagedStorageHandler}) the stored objects are not retrieved, otherwise all objects are retrieved once.<br>
+	 * <br>
+	 * <b>Concurrency issues: </b> <br>
+	 * -<br>
+	 * <br>
+	 * <b>Preconditions: </b> <br>
+	 * The storage manager and handler must be initialized. <br>
+	 * <br>
+	 * <b>Postconditions: </b> <br>
+	 * -<br>
+	 * 
+	 * @param iFirst
+	 *            the number of keys to skip
+	 * @param iMax
+	 *            the maximum number of keys to return
+	 * @return A <code>List</code> containing the keys.
+	 * @throws ASelectStorageException
+	 *             if retrieving fails.
+	 */
+	public List getKeys(int iFirst, int iMax)
+	throws ASelectStorageException
+	{
+		if (_oStorageHandler instanceof IPagedStorageHandler)
+			return ((IPagedStorageHandler) _oStorageHandler).getKeys(iFirst, iMax);
+
+		ArrayList alKeys = new ArrayList();
+		int i = 0;
+		for (Object oKey : _oStorageHandler.getAll().keySet()) {
+			if (alKeys.size() >= iMax)
+				break;
+			if (i++ >= iFirst)
+				alKeys.add(oKey);
+		}
+		return alKeys;
+	}
+
+	/**
+	 * Retrieve the stored objects having a given value in a field. <br>
+	 * <br>
+	 * <b>Description: </b> <br>
+	 * Returns all stored objects that are a <code>Map</code> containing <code>oValue</code> for the key
+	 * <code>sField</code>. If the handler has an index on the field (see {@link IIndexedStorageHandler}) the index is
+	 * used, otherwise all objects are retrieved and checked. A <code>null</code> value matches nothing, as no index
+	 * holds it.<br>
+	 * <br>
+	 * <b>Concurrency issues: </b> <br>
+	 * -<br>
+	 * <br>
+	 * <b>Preconditions: </b> <br>
+	 * The storage manager and handler must be initialized. <br>
+	 * <br>
+	 * <b>Postconditions: </b> <br>
+	 * -<br>
+	 * 
+	 * @param sField
+	 *            the field, e.g. "name_id"
+	 * @param oValue
+	 *            the value to look for, may be <code>null</code>
+	 * @return A <code>HashMap</code> containing the matching objects as key/value.
+	 * @throws ASelectStorageException
+	 *             if retrieving fails.
+	 */
+	public HashMap getByIndex(String sField, Object oValue)
+	throws ASelectStorageException
+	{
+		HashMap htResult = new HashMap();
+		if (oValue == null)  // e.g. a TGT without name_id
+			return htResult;
+
+		if (_oStorageHandler instanceof IIndexedStorageHandler
+				&& ((IIndexedStorageHandler) _oStorageHandler).isIndexed(sField)) {
+			return ((IIndexedStorageHandler) _oStorageHandler).getByIndex(sField, oValue);
+		}
+
+		HashMap htAll = _oStorageHandler.getAll();
+		for (Object oEntry : htAll.entrySet()) {
+			Map.Entry entry = (Map.Entry) oEntry;
+			Object oStored = entry.getValue();
+			if (oStored instanceof Map && oValue.equals(((Map) oStored).get(sField)))
+				htResult.put(entry.getKey(), oStored);
+		}
+		return htResult;
+	}
+
 	/**
 	 * Insert an object in storage. <br>
 	 * This method should be used to insert an object, otherwise use update<br>
@@ -446,7 +565,7 @@ public class StorageManager
 //		String sMethod = "put";
 		// Allow for "unlimited" storage
 		// if (_oStorageHandler.isMaximum(_iMax)) // RH, 20090529, o
-		if (_iMax != I_UNLIMITED && _oStorageHandler.isMaximum(_iMax)) // RH, 20090529, n
+		if (isMaximum()) // RH, 20090529, n
 			throw new ASelectStorageException(Errors.ERROR_ASELECT_STORAGE_MAXIMUM_REACHED);
 
 		// _oSystemLogger.log(Level.INFO, MODULE, sMethod,
@@ -455,7 +574,7 @@ public class StorageManager
 		////////////////////////////////////////////////////////////////
 //		_oStorageHandler.put(oKey, oValue, lTimestamp);
 		// This method should be used to insert an object, otherwise use update		// RH, 20111117, o
-		_oStorageHandler.put(oKey, oValue, lTimestamp, UpdateMode.INSERTFIRST);		// RH, 20111117, n
+		store(oKey, oValue, lTimestamp, UpdateMode.INSERTFIRST);		// RH, 20111117, n
 	}
 
 	/**
@@ -493,7 +612,7 @@ public class StorageManager
 	{
 		// RH, 20111117, sn
 		// Sometimes the update is used to insert new values, so check for max
-		if (_iMax != I_UNLIMITED && _oStorageHandler.isMaximum(_iMax)) 
+		if (isMaximum()) 
 			throw new ASelectStorageException(Errors.ERROR_ASELECT_STORAGE_MAXIMUM_REACHED);
 		// RH, 20111117, en
 		Long lTimestamp = new Long(System.currentTimeMillis());
@@ -501,10 +620,82 @@ public class StorageManager
 //		_oStorageHandler.put(oKey, oValue, lTimestamp);		// RH, 20111117, o
 		// RH, 20111117, sn
 		// Update hopes for an existing key so does an UPDATEFIRST
-		_oStorageHandler.put(oKey, oValue, lTimestamp, UpdateMode.UPDATEFIRST);
+		store(oKey, oValue, lTimestamp, UpdateMode.UPDATEFIRST);
 		// RH, 20111117, en
 	}
 
+	/**
+	 * Store an object and count it when its key is new. <br>
+	 * <br>
+	 * A handler implementing {@link ICountingStorageHandler} reports whether it inserted the key. For other handlers
+	 * an INSERTFIRST is done as an INSERTONLY followed by an UPDATEFIRST on a duplicate key, an UPDATEFIRST that
+	 * inserts is not counted until the next refresh of the count.
+	 * 
+	 * @param oKey
+	 *            The identifier of the object.
+	 * @param oValue
+	 *            The object that is to be stored.
+	 * @param lTimestamp
+	 *            The timestamp.
+	 * @param eMode
+	 *            INSERTFIRST or UPDATEFIRST
+	 * @throws ASelectStorageException
+	 *             If storing fails.
+	 */
+	private void store(Object oKey, Object oValue, Long lTimestamp, UpdateMode eMode)
+	throws ASelectStorageException
+	{
+		if (!isCounting()) {
+			_oStorageHandler.put(oKey, oValue, lTimestamp, eMode);
+			return;
+		}
+		boolean bInserted = false;
+		if (_oStorageHandler instanceof ICountingStorageHandler)
+			bInserted = ((ICountingStorageHandler) _oStorageHandler).putCounted(oKey, oValue, lTimestamp, eMode);
+		else if (eMode == UpdateMode.INSERTFIRST) {
+			try {
+				_oStorageHandler.put(oKey, oValue, lTimestamp, UpdateMode.INSERTONLY);
+				bInserted = true;
+			}
+			catch (ASelectStorageException ase) {
+				if (!Errors.ERROR_ASELECT_STORAGE_DUPLICATE_KEY.equals(ase.getMessage()))
+					throw ase;
+				_oStorageHandler.put(oKey, oValue, lTimestamp, UpdateMode.UPDATEFIRST);
+			}
+		}
+		else
+			_oStorageHandler.put(oKey, oValue, lTimestamp, eMode);
+		if (bInserted)
+			_lApproximateCount.incrementAndGet();
+	}
+
+	/**
+	 * Renews the timestamp of an unchanged object in storage. <br>
+	 * <br>
+	 * <b>Description: </b> <br>
+	 * The caller guarantees <code>oValue</code> equals the stored object. If the handler supports it (see
+	 * {@link IDeltaStorageHandler}) only the timestamp is written, otherwise the object is stored using
+	 * {@link #update(Object, Object)}. <br>
+	 * <br>
+	 * <b>Concurrency issues: </b> <br>
+	 * -<br>
+	 * 
+	 * @param oKey
+	 *            The identifier of the object.
+	 * @param oValue
+	 *            The unchanged object, stored if the handler cannot update the timestamp only.
+	 * @throws ASelectStorageException
+	 *             If storing fails.
+	 */
+	public void touch(Object oKey, Object oValue)
+	throws ASelectStorageException
+	{
+		if (_oStorageHandler instanceof IDeltaStorageHandler
+				&& ((IDeltaStorageHandler) _oStorageHandler).touch(oKey, new Long(System.currentTimeMillis())))
+			return;
+		update(oKey, oValue);
+	}
+
 	
 	/**
 	 * Creates an object in storage. <br>
@@ -543,13 +734,15 @@ public class StorageManager
 		boolean createOK = false;
 		// _oSystemLogger.log(Level.INFO, MODULE, "create",
 		// "StorageHandlerClass="+_oStorageHandler.getClass()+" this="+this.getClass());
-		if (_iMax != I_UNLIMITED && _oStorageHandler.isMaximum(_iMax)) 
+		if (isMaximum()) 
 			throw new ASelectStorageException(Errors.ERROR_ASELECT_STORAGE_MAXIMUM_REACHED);
 		
 		Long lTimestamp = new Long(System.currentTimeMillis());
 		try {
 			_oStorageHandler.put(oKey, oValue, lTimestamp, UpdateMode.INSERTONLY);
 			createOK = true;
+			if (isCounting())
+				_lApproximateCount.incrementAndGet();
 		}
 		catch (ASelectStorageException ase) {	// Duplicate key returns false, everything else throws exception
 			if ( !Errors.ERROR_ASELECT_STORAGE_DUPLICATE_KEY.equals( ase.getMessage()) ) {
@@ -601,7 +794,13 @@ public class StorageManager
 	public void remove(Object oKey)
 	throws ASelectStorageException
 	{
-		_oStorageHandler.remove(oKey);
+		_oStorageHandler.remove(oKey);  // throws when the key was not found
+		if (isCounting()) {
+			long lCount;
+			do {
+				lCount = _lApproximateCount.get();
+			} while (lCount > 0 && !_lApproximateCount.compareAndSet(lCount, lCount - 1));
+		}
 	}
 
 	/**
@@ -627,6 +826,84 @@ public class StorageManager
 	throws ASelectStorageException
 	{
 		_oStorageHandler.removeAll();
+		_lApproximateCount.set(0);
+	}
+
+	/**
+	 * Remove the expired objects now. <br>
+	 * <br>
+	 * <b>Description: </b> <br>
+	 * Calls the handler its <code>cleanup()</code> with the current time minus the expire time, like the Cleaner does
+	 * every interval, e.g. to measure the cleanup in a benchmark. Nothing expires when no expire time is configured.<br>
+	 * <br>
+	 * <b>Concurrency issues: </b> <br>
+	 * Can run at the same time as the Cleaner, the handler its <code>cleanup()</code> must be thread safe.<br>
+	 * 
+	 * @throws ASelectStorageException
+	 *             If the cleanup fails.
+	 * @see IStorageHandler#cleanup(Long)
+	 */
+	public void cleanup()
+	throws ASelectStorageException
+	{
+		if (_lExpireTime == I_UNLIMITED)
+			return;
+		_oStorageHandler.cleanup(new Long(System.currentTimeMillis() - _lExpireTime));
+		if (isCounting())
+			refreshCount();
+	}
+
+	/**
+	 * Checks if the configured maximum number of items is reached. <br>
+	 * <br>
+	 * <b>Description: </b> <br>
+	 * With "max_check" set to "exact" the handler is asked (for JDBC handlers this is a count query on every write).
+	 * With "approximate" the locally maintained count is used, it is reconciled with the handler by the Cleaner or,
+	 * if it gets too old, by the first caller that notices. <br>
+	 * 
+	 * @return true if the maximum is reached
+	 * @throws ASelectStorageException
+	 *             if the handler could not be queried
+	 */
+	private boolean isMaximum()
+	throws ASelectStorageException
+	{
+		if (_iMax == I_UNLIMITED)
+			return false;
+		if (!_bApproximateMax)
+			return _oStorageHandler.isMaximum(_iMax);
+
+		long lRefreshed = _lCountRefreshed.get();
+		if (System.currentTimeMillis() - lRefreshed > _lCountRefreshInterval
+				&& _lCountRefreshed.compareAndSet(lRefreshed, System.currentTimeMillis())) {
+			refreshCount();
+		}
+		return _lApproximateCount.get() >= _iMax;
+	}
+
+	/**
+	 * Is the approximate count used?
+	 * 
+	 * @return true if "max_check" is "approximate" and there is a maximum
+	 */
+	private boolean isCounting()
+	{
+		return _bApproximateMax && _iMax != I_UNLIMITED;
+	}
+
+	/**
+	 * Reconcile the approximate count with the number of items in the storage handler.
+	 * 
+	 * @throws ASelectStorageException
+	 *             if the handler could not be queried
+	 */
+	private void refreshCount()
+	throws ASelectStorageException
+	{
+		long lCount = _oStorageHandler.getCount();
+		if (lCount >= 0)
+			_lApproximateCount.set(lCount);
+		_lCountRefreshed.set(System.currentTimeMillis());
 	}
 
 	/**
@@ -764,10 +1041,9 @@ public class StorageManager
 					sleep(_lInterval);
 
 					long lCurrentTimestamp = System.currentTimeMillis();
-					Long lCleanupTimestamp = new Long(lCurrentTimestamp - _lExpireTime);
 
 					_systemLogger.log(Level.FINEST, MODULE, sMethod, "Go cleanup: "+_sId+" now="+lCurrentTimestamp+" expiration time="+_lExpireTime);
-					_oStorageHandler.cleanup(lCleanupTimestamp);
+					cleanup();
 					_systemLogger.log(Level.FINEST, MODULE, sMethod, "Cleaned-up: "+_sId);
 				}
 				catch (ASelectStorageException eAS) {
@@ -0,0 +1,463 @@
+/*
+ * * Copyright (c) Anoigo. All rights reserved.
+ *
+ * A-Select is a trademark registered by SURFnet bv.
+ *
+ * This program is distributed under the EUPL 1.0 (http://osor.eu/eupl)
+ * See the included LICENSE file for details.
+ *
+ * If you did not receive a copy of the LICENSE
+ * please contact Anoigo. (http://www.anoigo.nl)
+ */
+package org.aselect.system.storagemanager.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Vector;
+
+/**
+ * Compact binary storage codec. <br>
+ * <br>
+ * <b>Description:</b> <br>
+ * Encodes the object graphs that are typically stored (maps and lists of strings and numbers) in a compact, versioned
+ * binary format:
+ * <ul>
+ * <li>a two byte header: 0xFE followed by the format version</li>
+ * <li>per value a one byte type tag followed by the value, lengths are written as variable length integers</li>
+ * </ul>
+ * Only the exact classes <code>HashMap</code>, <code>Hashtable</code>, <code>ArrayList</code>,
+ * <code>Vector</code> and <code>HashSet</code> are written as containers, so a decoded value has the same class as
+ * the stored one. Other values are written using Java serialization inside the binary format. Subclasses can add
+ * their own types by implementing {@link #writeCustom(DataOutputStream, Object)} and
+ * {@link #readCustom(int, DataInputStream)} using tags from {@link #TAG_CUSTOM} onwards. <br>
+ * <br>
+ * <code>String</code> keys are stored as their plain UTF-8 bytes, so they are readable and can be indexed. <br>
+ * <br>
+ * Values and keys that were stored using Java serialization are still decoded, which allows existing data to be
+ * read after switching to this codec. <br>
+ * <br>
+ * <b>Concurrency issues:</b> <br>
+ * - <br>
+ *
+ * @author Anoigo
+ */
+public class BinaryStorageCodec extends JavaStorageCodec
+{
+	/** First byte of every encoded value, never the first byte of an UTF-8 string or a serialization stream. */
+	protected static final int MAGIC = 0xFE;
+
+	/** The current format version. */
+	protected static final int VERSION = 1;
+
+	protected static final int TAG_NULL = 0;
+	protected static final int TAG_STRING = 1;
+	protected static final int TAG_INTEGER = 2;
+	protected static final int TAG_LONG = 3;
+	protected static final int TAG_BOOLEAN_FALSE = 4;
+	protected static final int TAG_BOOLEAN_TRUE = 5;
+	protected static final int TAG_DOUBLE = 6;
+	protected static final int TAG_BYTES = 7;
+	protected static final int TAG_DATE = 8;
+	protected static final int TAG_HASHMAP = 9;
+	protected static final int TAG_HASHTABLE = 10;
+	protected static final int TAG_ARRAYLIST = 11;
+	protected static final int TAG_VECTOR = 12;
+	protected static final int TAG_HASHSET = 13;
+	protected static final int TAG_SERIALIZED = 14;
+
+	/** First tag available to subclasses. */
+	protected static final int TAG_CUSTOM = 64;
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.storagemanager.codec.JavaStorageCodec#encode(java.lang.Object)
+	 */
+	@Override
+	public byte[] encode(Object oValue)
+	throws IOException
+	{
+		ByteArrayOutputStream osBytes = new ByteArrayOutputStream(256);
+		DataOutputStream osData = new DataOutputStream(osBytes);
+		osData.writeByte(MAGIC);
+		osData.writeByte(VERSION);
+		writeValue(osData, oValue);
+		osData.flush();
+		return osBytes.toByteArray();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.storagemanager.codec.JavaStorageCodec#decode(byte[])
+	 */
+	@Override
+	public Object decode(byte[] baBytes)
+	throws IOException, ClassNotFoundException
+	{
+		if (isSerialized(baBytes))
+			return super.decode(baBytes);  // stored before this codec was used
+		if (baBytes == null || baBytes.length < 2 || (baBytes[0] & 0xFF) != MAGIC)
+			throw new IOException("Unknown storage format");
+		int iVersion = baBytes[1] & 0xFF;
+		if (iVersion > VERSION)
+			throw new IOException("Unsupported storage format version: " + iVersion);
+
+		DataInputStream isData = new DataInputStream(new ByteArrayInputStream(baBytes, 2, baBytes.length - 2));
+		Object oResponse = readValue(isData);
+		if (oResponse == null) {
+			throw new IOException("No bytes have been decoded.");
+		}
+		return oResponse;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.storagemanager.codec.JavaStorageCodec#encodeKey(java.lang.Object)
+	 */
+	@Override
+	public byte[] encodeKey(Object oKey)
+	throws IOException
+	{
+		if (oKey instanceof String)
+			return ((String) oKey).getBytes(StandardCharsets.UTF_8);
+		return encode(oKey);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.storagemanager.codec.JavaStorageCodec#decodeKey(byte[])
+	 */
+	@Override
+	public Object decodeKey(byte[] baBytes)
+	throws IOException, ClassNotFoundException
+	{
+		if (isSerialized(baBytes) || (baBytes.length > 0 && (baBytes[0] & 0xFF) == MAGIC))
+			return decode(baBytes);
+		return new String(baBytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Write a single value, including its type tag.
+	 *
+	 * @param osData
+	 *            the output
+	 * @param oValue
+	 *            the value, may be <code>null</code>
+	 * @throws IOException
+	 *             if writing fails or the value can not be serialized
+	 */
+	protected void writeValue(DataOutputStream osData, Object oValue)
+	throws IOException
+	{
+		if (oValue == null) {
+			osData.writeByte(TAG_NULL);
+			return;
+		}
+		Class<?> cValue = oValue.getClass();
+		if (cValue == String.class) {
+			osData.writeByte(TAG_STRING);
+			writeString(osData, (String) oValue);
+		}
+		else if (cValue == Integer.class) {
+			osData.writeByte(TAG_INTEGER);
+			osData.writeInt(((Integer) oValue).intValue());
+		}
+		else if (cValue == Long.class) {
+			osData.writeByte(TAG_LONG);
+			osData.writeLong(((Long) oValue).longValue());
+		}
+		else if (cValue == Boolean.class) {
+			osData.writeByte(((Boolean) oValue).booleanValue() ? TAG_BOOLEAN_TRUE : TAG_BOOLEAN_FALSE);
+		}
+		else if (cValue == Double.class) {
+			osData.writeByte(TAG_DOUBLE);
+			osData.writeDouble(((Double) oValue).doubleValue());
+		}
+		else if (cValue == byte[].class) {
+			osData.writeByte(TAG_BYTES);
+			writeBytes(osData, (byte[]) oValue);
+		}
+		else if (cValue == Date.class) {
+			osData.writeByte(TAG_DATE);
+			osData.writeLong(((Date) oValue).getTime());
+		}
+		else if (cValue == HashMap.class) {
+			osData.writeByte(TAG_HASHMAP);
+			writeMap(osData, (Map<?, ?>) oValue);
+		}
+		else if (cValue == Hashtable.class) {
+			osData.writeByte(TAG_HASHTABLE);
+			writeMap(osData, (Map<?, ?>) oValue);
+		}
+		else if (cValue == ArrayList.class) {
+			osData.writeByte(TAG_ARRAYLIST);
+			writeCollection(osData, (Collection<?>) oValue);
+		}
+		else if (cValue == Vector.class) {
+			osData.writeByte(TAG_VECTOR);
+			writeCollection(osData, (Collection<?>) oValue);
+		}
+		else if (cValue == HashSet.class) {
+			osData.writeByte(TAG_HASHSET);
+			writeCollection(osData, (Collection<?>) oValue);
+		}
+		else if (!writeCustom(osData, oValue)) {
+			osData.writeByte(TAG_SERIALIZED);
+			writeBytes(osData, super.encode(oValue));
+		}
+	}
+
+	/**
+	 * Read a single value, including its type tag.
+	 *
+	 * @param isData
+	 *            the input
+	 * @return the value, may be <code>null</code>
+	 * @throws IOException
+	 *             if reading fails or an unknown tag is found
+	 * @throws ClassNotFoundException
+	 *             if a serialized value refers to an unknown class
+	 */
+	protected Object readValue(DataInputStream isData)
+	throws IOException, ClassNotFoundException
+	{
+		int iTag = isData.readUnsignedByte();
+		switch (iTag) {
+		case TAG_NULL:
+			return null;
+		case TAG_STRING:
+			return readString(isData);
+		case TAG_INTEGER:
+			return Integer.valueOf(isData.readInt());
+		case TAG_LONG:
+			return Long.valueOf(isData.readLong());
+		case TAG_BOOLEAN_FALSE:
+			return Boolean.FALSE;
+		case TAG_BOOLEAN_TRUE:
+			return Boolean.TRUE;
+		case TAG_DOUBLE:
+			return Double.valueOf(isData.readDouble());
+		case TAG_BYTES:
+			return readBytes(isData);
+		case TAG_DATE:
+			return new Date(isData.readLong());
+		case TAG_HASHMAP: {
+			int iSize = readLength(isData);
+			return readEntries(isData, new HashMap<Object, Object>(Math.max(16, iSize * 4 / 3 + 1)), iSize);
+		}
+		case TAG_HASHTABLE: {
+			int iSize = readLength(isData);
+			return readEntries(isData, new Hashtable<Object, Object>(Math.max(11, iSize * 4 / 3 + 1)), iSize);
+		}
+		case TAG_ARRAYLIST: {
+			int iSize = readLength(isData);
+			return readElements(isData, new ArrayList<Object>(iSize), iSize);
+		}
+		case TAG_VECTOR: {
+			int iSize = readLength(isData);
+			return readElements(isData, new Vector<Object>(iSize), iSize);
+		}
+		case TAG_HASHSET: {
+			int iSize = readLength(isData);
+			return readElements(isData, new HashSet<Object>(Math.max(16, iSize * 4 / 3 + 1)), iSize);
+		}
+		case TAG_SERIALIZED:
+			return super.decode(readBytes(isData));
+		default:
+			return readCustom(iTag, isData);
+		}
+	}
+
+	/**
+	 * Write a value of a type that is not handled by this codec. <br>
+	 * Subclasses write their tag (<code>TAG_CUSTOM</code> or higher) followed by the value.
+	 *
+	 * @param osData
+	 *            the output
+	 * @param oValue
+	 *            the value, not <code>null</code>
+	 * @return <code>true</code> if the value was written, <code>false</code> to use Java serialization
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	protected boolean writeCustom(DataOutputStream osData, Object oValue)
+	throws IOException
+	{
+		return false;
+	}
+
+	/**
+	 * Read a value written by {@link #writeCustom(DataOutputStream, Object)}.
+	 *
+	 * @param iTag
+	 *            the tag that was read
+	 * @param isData
+	 *            the input, positioned after the tag
+	 * @return the value
+	 * @throws IOException
+	 *             if reading fails or the tag is unknown
+	 * @throws ClassNotFoundException
+	 *             if a nested serialized value refers to an unknown class
+	 */
+	protected Object readCustom(int iTag, DataInputStream isData)
+	throws IOException, ClassNotFoundException
+	{
+		throw new IOException("Unknown type tag: " + iTag);
+	}
+
+	/**
+	 * Write a string as length and UTF-8 bytes.
+	 *
+	 * @param osData
+	 *            the output
+	 * @param sValue
+	 *            the string
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	protected void writeString(DataOutputStream osData, String sValue)
+	throws IOException
+	{
+		writeBytes(osData, sValue.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Read a string written by {@link #writeString(DataOutputStream, String)}.
+	 *
+	 * @param isData
+	 *            the input
+	 * @return the string
+	 * @throws IOException
+	 *             if reading fails
+	 */
+	protected String readString(DataInputStream isData)
+	throws IOException
+	{
+		return new String(readBytes(isData), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Write a length followed by the bytes.
+	 */
+	private void writeBytes(DataOutputStream osData, byte[] baValue)
+	throws IOException
+	{
+		writeLength(osData, baValue.length);
+		osData.write(baValue);
+	}
+
+	/**
+	 * Read bytes written by writeBytes().
+	 */
+	private byte[] readBytes(DataInputStream isData)
+	throws IOException
+	{
+		byte[] baValue = new byte[readLength(isData)];
+		isData.readFully(baValue);
+		return baValue;
+	}
+
+	/**
+	 * Write the entry count followed by alternating keys and values.
+	 */
+	private void writeMap(DataOutputStream osData, Map<?, ?> mValue)
+	throws IOException
+	{
+		writeLength(osData, mValue.size());
+		Iterator<? extends Map.Entry<?, ?>> itEntries = mValue.entrySet().iterator();
+		while (itEntries.hasNext()) {
+			Map.Entry<?, ?> oEntry = itEntries.next();
+			writeValue(osData, oEntry.getKey());
+			writeValue(osData, oEntry.getValue());
+		}
+	}
+
+	/**
+	 * Read iSize map entries into mResult.
+	 */
+	private Map<Object, Object> readEntries(DataInputStream isData, Map<Object, Object> mResult, int iSize)
+	throws IOException, ClassNotFoundException
+	{
+		for (int i = 0; i < iSize; i++) {
+			Object oKey = readValue(isData);
+			mResult.put(oKey, readValue(isData));
+		}
+		return mResult;
+	}
+
+	/**
+	 * Write the element count followed by the elements.
+	 */
+	private void writeCollection(DataOutputStream osData, Collection<?> cValue)
+	throws IOException
+	{
+		writeLength(osData, cValue.size());
+		for (Object oElement : cValue) {
+			writeValue(osData, oElement);
+		}
+	}
+
+	/**
+	 * Read iSize elements into cResult.
+	 */
+	private Collection<Object> readElements(DataInputStream isData, Collection<Object> cResult, int iSize)
+	throws IOException, ClassNotFoundException
+	{
+		for (int i = 0; i < iSize; i++) {
+			cResult.add(readValue(isData));
+		}
+		return cResult;
+	}
+
+	/**
+	 * Write a non-negative length using 7 bits per byte.
+	 *
+	 * @param osData
+	 *            the output
+	 * @param iLength
+	 *            the length
+	 * @throws IOException
+	 *             if writing fails
+	 */
+	protected void writeLength(DataOutputStream osData, int iLength)
+	throws IOException
+	{
+		while ((iLength & ~0x7F) != 0) {
+			osData.writeByte((iLength & 0x7F) | 0x80);
+			iLength >>>= 7;
+		}
+		osData.writeByte(iLength);
+	}
+
+	/**
+	 * Read a length written by {@link #writeLength(DataOutputStream, int)}.
+	 *
+	 * @param isData
+	 *            the input
+	 * @return the length
+	 * @throws IOException
+	 *             if reading fails or the length is invalid
+	 */
+	protected int readLength(DataInputStream isData)
+	throws IOException
+	{
+		int iLength = 0;
+		for (int iShift = 0; iShift < 32; iShift += 7) {
+			int b = isData.readUnsignedByte();
+			iLength |= (b & 0x7F) << iShift;
+			if ((b & 0x80) == 0) {
+				if (iLength < 0)
+					break;
+				return iLength;
+			}
+		}
+		throw new IOException("Invalid length in stored data");
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * * Copyright (c) Anoigo. All rights reserved.
+ *
+ * A-Select is a trademark registered by SURFnet bv.
+ *
+ * This program is distributed under the EUPL 1.0 (http://osor.eu/eupl)
+ * See the included LICENSE file for details.
+ *
+ * If you did not receive a copy of the LICENSE
+ * please contact Anoigo. (http://www.anoigo.nl)
+ */
+package org.aselect.system.storagemanager.codec;
+
+import java.io.IOException;
+
+/**
+ * Interface for storage codecs. <br>
+ * <br>
+ * <b>Description:</b> <br>
+ * A storage codec converts the keys and values that are put into a storage handler to bytes and back. Storage
+ * handlers that write to an external medium (e.g. <code>JDBCStorageHandler</code>) use a codec instead of encoding
+ * objects themselves, so the storage format can be configured. <br>
+ * <br>
+ * <b>Concurrency issues:</b> <br>
+ * Implementations are shared by all threads using the storage handler and must be thread-safe. <br>
+ *
+ * @author Anoigo
+ */
+public interface IStorageCodec
+{
+	/**
+	 * Encode a value for storage.
+	 *
+	 * @param oValue
+	 *            the value, not <code>null</code>
+	 * @return the encoded value
+	 * @throws IOException
+	 *             if the value can not be encoded
+	 */
+	public byte[] encode(Object oValue)
+	throws IOException;
+
+	/**
+	 * Decode a stored value.
+	 *
+	 * @param baBytes
+	 *            the stored bytes
+	 * @return the decoded value
+	 * @throws IOException
+	 *             if the bytes can not be decoded
+	 * @throws ClassNotFoundException
+	 *             if the stored value refers to an unknown class
+	 */
+	public Object decode(byte[] baBytes)
+	throws IOException, ClassNotFoundException;
+
+	/**
+	 * Encode a key for storage. <br>
+	 * The result is used to look up stored items, equal keys must give equal bytes.
+	 *
+	 * @param oKey
+	 *            the key, not <code>null</code>
+	 * @return the encoded key
+	 * @throws IOException
+	 *             if the key can not be encoded
+	 */
+	public byte[] encodeKey(Object oKey)
+	throws IOException;
+
+	/**
+	 * Decode a stored key.
+	 *
+	 * @param baBytes
+	 *            the stored bytes
+	 * @return the decoded key
+	 * @throws IOException
+	 *             if the bytes can not be decoded
+	 * @throws ClassNotFoundException
+	 *             if the stored key refers to an unknown class
+	 */
+	public Object decodeKey(byte[] baBytes)
+	throws IOException, ClassNotFoundException;
+}
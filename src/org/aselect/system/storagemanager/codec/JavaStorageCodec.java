@@ -0,0 +1,103 @@
+/*
+ * * Copyright (c) Anoigo. All rights reserved.
+ *
+ * A-Select is a trademark registered by SURFnet bv.
+ *
+ * This program is distributed under the EUPL 1.0 (http://osor.eu/eupl)
+ * See the included LICENSE file for details.
+ *
+ * If you did not receive a copy of the LICENSE
+ * please contact Anoigo. (http://www.anoigo.nl)
+ */
+package org.aselect.system.storagemanager.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * Storage codec using Java serialization. <br>
+ * <br>
+ * <b>Description:</b> <br>
+ * Keys and values are encoded using the <code>ObjectOutputStream</code> mechanism of Java. This is the format used
+ * by the storage handlers before codecs were introduced and remains the default. <br>
+ * <br>
+ * <b>Concurrency issues:</b> <br>
+ * - <br>
+ *
+ * @author Anoigo
+ */
+public class JavaStorageCodec implements IStorageCodec
+{
+	/**
+	 * Check whether the bytes hold a Java serialization stream.
+	 *
+	 * @param baBytes
+	 *            the bytes to check
+	 * @return <code>true</code> if the bytes start with the serialization stream header
+	 */
+	public static boolean isSerialized(byte[] baBytes)
+	{
+		return baBytes != null && baBytes.length >= 2 && (baBytes[0] & 0xFF) == 0xAC && (baBytes[1] & 0xFF) == 0xED;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.storagemanager.codec.IStorageCodec#encode(java.lang.Object)
+	 */
+	public byte[] encode(Object oValue)
+	throws IOException
+	{
+		byte[] baResponse = null;
+		ByteArrayOutputStream osBytes = new ByteArrayOutputStream();
+		ObjectOutputStream osObject = new ObjectOutputStream(osBytes);
+		osObject.writeObject(oValue);
+		osObject.close();
+		baResponse = osBytes.toByteArray();
+		osBytes.close();
+
+		if (baResponse == null) {
+			throw new IOException("No bytes have been encoded.");
+		}
+		return baResponse;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.storagemanager.codec.IStorageCodec#decode(byte[])
+	 */
+	public Object decode(byte[] baBytes)
+	throws IOException, ClassNotFoundException
+	{
+		Object oResponse = null;
+
+		ByteArrayInputStream isBytes = new ByteArrayInputStream(baBytes);
+		ObjectInputStream isObject = new ObjectInputStream(isBytes);
+		oResponse = isObject.readObject();
+		isObject.close();
+		isBytes.close();
+
+		if (oResponse == null) {
+			throw new IOException("No bytes have been decoded.");
+		}
+		return oResponse;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.storagemanager.codec.IStorageCodec#encodeKey(java.lang.Object)
+	 */
+	public byte[] encodeKey(Object oKey)
+	throws IOException
+	{
+		return encode(oKey);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.storagemanager.codec.IStorageCodec#decodeKey(byte[])
+	 */
+	public Object decodeKey(byte[] baBytes)
+	throws IOException, ClassNotFoundException
+	{
+		return decode(baBytes);
+	}
+}
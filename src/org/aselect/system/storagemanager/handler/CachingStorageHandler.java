@@ -0,0 +1,662 @@
+/*
+ * * Copyright (c) Anoigo. All rights reserved.
+ *
+ * A-Select is a trademark registered by SURFnet bv.
+ *
+ * This program is distributed under the EUPL 1.0 (http://osor.eu/eupl)
+ * See the included LICENSE file for details.
+ *
+ * If you did not receive a copy of the LICENSE
+ * please contact Anoigo. (http://www.anoigo.nl)
+ */
+package org.aselect.system.storagemanager.handler;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.MulticastSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import org.aselect.system.configmanager.ConfigManager;
+import org.aselect.system.error.Errors;
+import org.aselect.system.exception.ASelectConfigException;
+import org.aselect.system.exception.ASelectStorageException;
+import org.aselect.system.logging.SystemLogger;
+import org.aselect.system.sam.agent.SAMAgent;
+import org.aselect.system.storagemanager.ICountingStorageHandler;
+import org.aselect.system.storagemanager.IDeltaStorageHandler;
+import org.aselect.system.storagemanager.IIndexedStorageHandler;
+import org.aselect.system.storagemanager.IPagedStorageHandler;
+import org.aselect.system.storagemanager.IStorageHandler;
+
+/**
+ * Near cache in front of another storage handler. <br>
+ * <br>
+ * <b>Description:</b> <br>
+ * Keeps recently used items of a (remote) storage handler, e.g. the {@link JDBCStorageHandler}, in memory, so items
+ * that are read several times during a login do not need a database round trip and decoding every time. The
+ * configuration is read from the <code>cache</code> section in the storage handler section:
+ * <ul>
+ * <li><code>handler</code>: class of the storage handler that is cached, it is initialized using the same storage
+ * handler section</li>
+ * <li><code>ttl</code>: optional, seconds an item is kept, default 5</li>
+ * <li><code>max</code>: optional, maximum number of cached items, default 10000</li>
+ * <li><code>name</code>: optional, name used in the statistics, default the storage handler id</li>
+ * <li><code>invalidation_address</code> and <code>invalidation_port</code>: optional multicast group used to tell
+ * the other servers which keys were changed</li>
+ * </ul>
+ * Local writes and removes update the cache immediately. Changes made by other servers are only seen after
+ * <code>ttl</code> seconds, unless all servers use the same multicast group. Invalidation messages can get lost, so
+ * <code>ttl</code> must be kept short. <br>
+ * <br>
+ * Like with the {@link MemoryStorageHandler}, the cached objects are returned as is, callers must store their changes
+ * using <code>put()</code>. <br>
+ * <br>
+ * <b>Concurrency issues:</b> <br>
+ * Thread-safe. An item read from the cached handler is only cached when no write or invalidation took place while it
+ * was being read. A written item is only cached when no other write overlapped with it, as the order in which the
+ * cached handler applied overlapping writes is not known. <br>
+ *
+ * @author Anoigo
+ */
+public class CachingStorageHandler implements IIndexedStorageHandler, IPagedStorageHandler, IDeltaStorageHandler,
+		ICountingStorageHandler
+{
+	/** The module name. */
+	public final static String MODULE = "CachingStorageHandler";
+
+	private static final long DEFAULT_TTL = 5;
+	private static final int DEFAULT_MAX = 10000;
+
+	/** Invalidation message types */
+	private static final char MSG_KEY = 'K';
+	private static final char MSG_CLEAR = 'C';
+
+	/** All caches by name, for the statistics */
+	private static final ConcurrentHashMap<String, CachingStorageHandler> _htCaches = new ConcurrentHashMap<String, CachingStorageHandler>();
+
+	private SystemLogger _systemLogger;
+	private IStorageHandler _oHandler;
+	private String _sName;
+	private long _lTTL;
+	private int _iMax;
+
+	private final ConcurrentHashMap<Object, CacheEntry> _htCache = new ConcurrentHashMap<Object, CacheEntry>();
+
+	/** Incremented on every write and invalidation, see cache() */
+	private final AtomicLong _lGeneration = new AtomicLong();
+
+	/** The number of writes in progress, see store() */
+	private final AtomicInteger _iWriting = new AtomicInteger();
+
+	private final AtomicLong _lHits = new AtomicLong();
+	private final AtomicLong _lMisses = new AtomicLong();
+	private final AtomicLong _lStale = new AtomicLong();
+	private final AtomicLong _lEvictions = new AtomicLong();
+	private final AtomicLong _lRemoteInvalidations = new AtomicLong();
+
+	/** Identifies the messages sent by this instance */
+	private final String _sNodeId = UUID.randomUUID().toString();
+	private MulticastSocket _oSocket;
+	private InetAddress _oGroup;
+	private int _iPort;
+
+	/**
+	 * Initialize the cache and the cached storage handler. <br>
+	 * <br>
+	 *
+	 * @param oConfigSection
+	 *            the storage handler section
+	 * @param oConfigManager
+	 *            the config manager
+	 * @param systemLogger
+	 *            the system logger
+	 * @param oSAMAgent
+	 *            the SAM agent
+	 * @throws ASelectStorageException
+	 *             if the configuration is invalid or the cached handler fails to initialize
+	 * @see org.aselect.system.storagemanager.IStorageHandler#init(java.lang.Object,
+	 *      org.aselect.system.configmanager.ConfigManager, org.aselect.system.logging.SystemLogger,
+	 *      org.aselect.system.sam.agent.SAMAgent)
+	 */
+	public void init(Object oConfigSection, ConfigManager oConfigManager, SystemLogger systemLogger, SAMAgent oSAMAgent)
+	throws ASelectStorageException
+	{
+		String sMethod = "init";
+		_systemLogger = systemLogger;
+
+		Object oCacheSection = null;
+		String sHandlerClass = null;
+		try {
+			oCacheSection = oConfigManager.getSection(oConfigSection, "cache");
+			sHandlerClass = oConfigManager.getParam(oCacheSection, "handler");
+		}
+		catch (ASelectConfigException e) {
+			_systemLogger.log(Level.WARNING, MODULE, sMethod, "No valid 'cache' section with a 'handler' item found");
+			throw new ASelectStorageException(Errors.ERROR_ASELECT_INIT_ERROR, e);
+		}
+
+		try {
+			_lTTL = 1000 * Long.parseLong(getOptionalParam(oConfigManager, oCacheSection, "ttl", "" + DEFAULT_TTL));
+			_iMax = Integer.parseInt(getOptionalParam(oConfigManager, oCacheSection, "max", "" + DEFAULT_MAX));
+		}
+		catch (NumberFormatException e) {
+			_systemLogger.log(Level.WARNING, MODULE, sMethod, "Invalid 'ttl' or 'max' item in 'cache' section");
+			throw new ASelectStorageException(Errors.ERROR_ASELECT_INIT_ERROR, e);
+		}
+		String sId = getOptionalParam(oConfigManager, oConfigSection, "id", MODULE);
+		_sName = getOptionalParam(oConfigManager, oCacheSection, "name", sId);
+
+		try {
+			_oHandler = (IStorageHandler) Class.forName(sHandlerClass).newInstance();
+		}
+		catch (Exception e) {
+			_systemLogger.log(Level.WARNING, MODULE, sMethod, "Cannot instantiate storage handler class: " + sHandlerClass, e);
+			throw new ASelectStorageException(Errors.ERROR_ASELECT_INIT_ERROR, e);
+		}
+		_oHandler.init(oConfigSection, oConfigManager, systemLogger, oSAMAgent);
+
+		String sAddress = getOptionalParam(oConfigManager, oCacheSection, "invalidation_address", null);
+		if (sAddress != null) {
+			try {
+				_iPort = Integer.parseInt(getOptionalParam(oConfigManager, oCacheSection, "invalidation_port", ""));
+				_oGroup = InetAddress.getByName(sAddress);
+				_oSocket = new MulticastSocket(_iPort);
+				_oSocket.setTimeToLive(1);
+				_oSocket.joinGroup(_oGroup);
+			}
+			catch (Exception e) {
+				_systemLogger.log(Level.WARNING, MODULE, sMethod, "Cannot join invalidation group " + sAddress
+						+ ", a valid 'invalidation_port' is required", e);
+				_oHandler.destroy();
+				throw new ASelectStorageException(Errors.ERROR_ASELECT_INIT_ERROR, e);
+			}
+			Thread oListener = new InvalidationListener(_oSocket);
+			oListener.setName(MODULE + "-" + _sName);
+			oListener.setDaemon(true);
+			oListener.start();
+		}
+		_htCaches.put(_sName, this);
+		_systemLogger.log(Level.INFO, MODULE, sMethod, _sName + ": caching " + sHandlerClass + " ttl=" + (_lTTL / 1000)
+				+ " max=" + _iMax + ((sAddress == null) ? "" : " invalidation=" + sAddress + ":" + _iPort));
+	}
+
+	/**
+	 * Get the statistics of all caches. <br>
+	 * <br>
+	 *
+	 * @return key cache name, value a readable summary of the cache state
+	 */
+	public static HashMap<String, String> getCacheStatistics()
+	{
+		HashMap<String, String> htStats = new HashMap<String, String>();
+		for (Map.Entry<String, CachingStorageHandler> entry : _htCaches.entrySet()) {
+			htStats.put(entry.getKey(), entry.getValue().getStatistics());
+		}
+		return htStats;
+	}
+
+	/**
+	 * Get the statistics of this cache.
+	 *
+	 * @return a readable summary of the cache state
+	 */
+	public String getStatistics()
+	{
+		StringBuffer sbStats = new StringBuffer("size=");
+		sbStats.append(_htCache.size());
+		sbStats.append(" hits=").append(_lHits.get());
+		sbStats.append(" misses=").append(_lMisses.get());
+		sbStats.append(" stale=").append(_lStale.get());
+		sbStats.append(" evictions=").append(_lEvictions.get());
+		sbStats.append(" invalidations=").append(_lRemoteInvalidations.get());
+		return sbStats.toString();
+	}
+
+	/**
+	 * Get the cached handler.
+	 *
+	 * @return the handler
+	 */
+	public IStorageHandler getHandler()
+	{
+		return _oHandler;
+	}
+
+	/**
+	 * Get an item, from the cache if present and not older than <code>ttl</code>. <br>
+	 * <br>
+	 *
+	 * @param oKey
+	 *            the key
+	 * @return the item
+	 * @throws ASelectStorageException
+	 *             if the item is not found
+	 * @see org.aselect.system.storagemanager.IStorageHandler#get(java.lang.Object)
+	 */
+	public Object get(Object oKey)
+	throws ASelectStorageException
+	{
+		CacheEntry oEntry = getEntry(oKey);
+		if (oEntry != null)
+			return oEntry._oValue;
+
+		// Another thread may write or invalidate the item while we are reading it, the older value must not be cached
+		long lGeneration = _lGeneration.get();
+		Object oValue = _oHandler.get(oKey);
+		cache(oKey, oValue, lGeneration);
+		return oValue;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.storagemanager.IStorageHandler#containsKey(java.lang.Object)
+	 */
+	public boolean containsKey(Object oKey)
+	throws ASelectStorageException
+	{
+		return getEntry(oKey) != null || _oHandler.containsKey(oKey);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.storagemanager.IStorageHandler#getTimestamp(java.lang.Object)
+	 */
+	public long getTimestamp(Object oKey)
+	throws ASelectStorageException
+	{
+		return _oHandler.getTimestamp(oKey);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.storagemanager.IStorageHandler#getAll()
+	 */
+	public HashMap getAll()
+	throws ASelectStorageException
+	{
+		return _oHandler.getAll();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.storagemanager.IStorageHandler#getCount()
+	 */
+	public long getCount()
+	throws ASelectStorageException
+	{
+		return _oHandler.getCount();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.storagemanager.IPagedStorageHandler#getKeys(int, int)
+	 */
+	public List getKeys(int iFirst, int iMax)
+	throws ASelectStorageException
+	{
+		if (_oHandler instanceof IPagedStorageHandler)
+			return ((IPagedStorageHandler) _oHandler).getKeys(iFirst, iMax);
+
+		List lKeys = new ArrayList(_oHandler.getAll().keySet());
+		return lKeys.subList(Math.min(iFirst, lKeys.size()), Math.min(iFirst + iMax, lKeys.size()));
+	}
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.storagemanager.IIndexedStorageHandler#isIndexed(java.lang.String)
+	 */
+	public boolean isIndexed(String sField)
+	{
+		return (_oHandler instanceof IIndexedStorageHandler) && ((IIndexedStorageHandler) _oHandler).isIndexed(sField);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.storagemanager.IIndexedStorageHandler#getByIndex(java.lang.String, java.lang.Object)
+	 */
+	public HashMap getByIndex(String sField, Object oValue)
+	throws ASelectStorageException
+	{
+		if (!isIndexed(sField))
+			throw new ASelectStorageException(Errors.ERROR_ASELECT_STORAGE_RETRIEVE);
+		return ((IIndexedStorageHandler) _oHandler).getByIndex(sField, oValue);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.storagemanager.IStorageHandler#put(java.lang.Object, java.lang.Object, java.lang.Long)
+	 */
+	public void put(Object oKey, Object oValue, Long lTimestamp)
+	throws ASelectStorageException
+	{
+		store(oKey, oValue, lTimestamp, null);
+	}
+
+	/**
+	 * Store an item in the cached handler and in the cache. <br>
+	 * <br>
+	 *
+	 * @param oKey
+	 *            the key
+	 * @param oValue
+	 *            the value
+	 * @param lTimestamp
+	 *            the timestamp
+	 * @param eMode
+	 *            the update mode
+	 * @throws ASelectStorageException
+	 *             if storing fails, the item is no longer cached
+	 * @see org.aselect.system.storagemanager.IStorageHandler#put(java.lang.Object, java.lang.Object, java.lang.Long,
+	 *      org.aselect.system.storagemanager.IStorageHandler.UpdateMode)
+	 */
+	public void put(Object oKey, Object oValue, Long lTimestamp, UpdateMode eMode)
+	throws ASelectStorageException
+	{
+		store(oKey, oValue, lTimestamp, eMode);
+	}
+
+	/**
+	 * Store an item like {@link #put(Object, Object, Long, UpdateMode)}. <br>
+	 * <br>
+	 *
+	 * @return <code>true</code> if the cached handler reports the key as new, <code>false</code> if it does not
+	 *         know
+	 * @see org.aselect.system.storagemanager.ICountingStorageHandler#putCounted(java.lang.Object, java.lang.Object,
+	 *      java.lang.Long, org.aselect.system.storagemanager.IStorageHandler.UpdateMode)
+	 */
+	public boolean putCounted(Object oKey, Object oValue, Long lTimestamp, UpdateMode eMode)
+	throws ASelectStorageException
+	{
+		return store(oKey, oValue, lTimestamp, eMode);
+	}
+
+	/**
+	 * Store an item using the put() of the cached handler that matches the update mode.
+	 *
+	 * @return <code>true</code> if the cached handler reports the key as new
+	 */
+	private boolean store(Object oKey, Object oValue, Long lTimestamp, UpdateMode eMode)
+	throws ASelectStorageException
+	{
+		boolean bInserted = false, bLatest = false;
+		_iWriting.incrementAndGet();
+		long lGeneration = invalidate(oKey);
+		try {
+			if (eMode == null)
+				_oHandler.put(oKey, oValue, lTimestamp);
+			else if (_oHandler instanceof ICountingStorageHandler)
+				bInserted = ((ICountingStorageHandler) _oHandler).putCounted(oKey, oValue, lTimestamp, eMode);
+			else
+				_oHandler.put(oKey, oValue, lTimestamp, eMode);
+		}
+		finally {
+			// Our value is the stored one only when no other write started during the put or is still running
+			bLatest = _iWriting.get() == 1 && _lGeneration.compareAndSet(lGeneration, lGeneration + 1);
+			if (!bLatest)
+				_lGeneration.incrementAndGet();
+			_iWriting.decrementAndGet();
+			publish(oKey);
+		}
+		if (bLatest)
+			cache(oKey, oValue, lGeneration + 1);
+		return bInserted;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.storagemanager.IDeltaStorageHandler#touch(java.lang.Object, java.lang.Long)
+	 */
+	public boolean touch(Object oKey, Long lTimestamp)
+	throws ASelectStorageException
+	{
+		// The value does not change, the cached item stays valid
+		return (_oHandler instanceof IDeltaStorageHandler) && ((IDeltaStorageHandler) _oHandler).touch(oKey, lTimestamp);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.storagemanager.IStorageHandler#remove(java.lang.Object)
+	 */
+	public void remove(Object oKey)
+	throws ASelectStorageException
+	{
+		invalidate(oKey);
+		try {
+			_oHandler.remove(oKey);
+		}
+		finally {
+			invalidate(oKey);
+			publish(oKey);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.storagemanager.IStorageHandler#removeAll()
+	 */
+	public void removeAll()
+	throws ASelectStorageException
+	{
+		try {
+			_oHandler.removeAll();
+		}
+		finally {
+			invalidateAll();
+			publish(null);
+		}
+	}
+
+	/**
+	 * Remove expired items from the cached handler. <br>
+	 * <br>
+	 * <b>Description:</b> <br>
+	 * The timestamps of the cached items are not known, so the whole cache is cleared. The other servers run their
+	 * own cleanup and are not notified. <br>
+	 *
+	 * @param lTimestamp
+	 *            the expiration time
+	 * @throws ASelectStorageException
+	 *             if the cleanup fails
+	 * @see org.aselect.system.storagemanager.IStorageHandler#cleanup(java.lang.Long)
+	 */
+	public void cleanup(Long lTimestamp)
+	throws ASelectStorageException
+	{
+		try {
+			_oHandler.cleanup(lTimestamp);
+		}
+		finally {
+			invalidateAll();
+			_systemLogger.log(Level.FINE, MODULE, "cleanup", _sName + ": " + getStatistics());
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.storagemanager.IStorageHandler#destroy()
+	 */
+	public void destroy()
+	{
+		_htCaches.remove(_sName, this);
+		if (_oSocket != null)
+			_oSocket.close();  // stops the listener
+		invalidateAll();
+		if (_oHandler != null)
+			_oHandler.destroy();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.storagemanager.IStorageHandler#isMaximum(long)
+	 */
+	public boolean isMaximum(long lItemCount)
+	throws ASelectStorageException
+	{
+		return _oHandler.isMaximum(lItemCount);
+	}
+
+	/**
+	 * Get a cached item that is not too old, a too old item is removed.
+	 */
+	private CacheEntry getEntry(Object oKey)
+	{
+		CacheEntry oEntry = _htCache.get(oKey);
+		if (oEntry == null) {
+			_lMisses.incrementAndGet();
+			return null;
+		}
+		if (System.currentTimeMillis() - oEntry._lLoaded > _lTTL) {
+			_htCache.remove(oKey, oEntry);
+			_lStale.incrementAndGet();
+			_lMisses.incrementAndGet();
+			return null;
+		}
+		_lHits.incrementAndGet();
+		return oEntry;
+	}
+
+	/**
+	 * Keep the cache below <code>max</code> items, first by removing the items that are too old, then by removing
+	 * arbitrary items until 10% of the cache is free.
+	 */
+	private void makeRoom()
+	{
+		if (_htCache.size() < _iMax)
+			return;
+
+		long lOldest = System.currentTimeMillis() - _lTTL;
+		Iterator<Map.Entry<Object, CacheEntry>> itEntries = _htCache.entrySet().iterator();
+		while (itEntries.hasNext()) {
+			if (itEntries.next().getValue()._lLoaded < lOldest) {
+				itEntries.remove();
+				_lEvictions.incrementAndGet();
+			}
+		}
+		int iTarget = _iMax - Math.max(1, _iMax / 10);
+		itEntries = _htCache.entrySet().iterator();
+		while (_htCache.size() > iTarget && itEntries.hasNext()) {
+			itEntries.next();
+			itEntries.remove();
+			_lEvictions.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Cache a value that was read or written at the given generation. <br>
+	 * Nothing is cached when another write or invalidation happened since then, and the entry is dropped again when
+	 * one happens while it is added, as that write or invalidation may have missed it.
+	 */
+	private void cache(Object oKey, Object oValue, long lGeneration)
+	{
+		if (_lGeneration.get() != lGeneration)
+			return;
+		makeRoom();
+		CacheEntry oEntry = new CacheEntry(oValue);
+		_htCache.put(oKey, oEntry);
+		if (_lGeneration.get() != lGeneration)
+			_htCache.remove(oKey, oEntry);
+	}
+
+	/**
+	 * Remove an item from the cache.
+	 *
+	 * @return the new generation
+	 */
+	private long invalidate(Object oKey)
+	{
+		long lGeneration = _lGeneration.incrementAndGet();
+		_htCache.remove(oKey);
+		return lGeneration;
+	}
+
+	private void invalidateAll()
+	{
+		_lGeneration.incrementAndGet();
+		_htCache.clear();
+	}
+
+	/**
+	 * Tell the other servers a key was changed, non-string keys clear their whole cache.
+	 *
+	 * @param oKey
+	 *            the key, <code>null</code> for all keys
+	 */
+	private void publish(Object oKey)
+	{
+		if (_oSocket == null)
+			return;
+
+		String sMessage = _sNodeId + "\n" + ((oKey instanceof String) ? MSG_KEY + "\n" + oKey : MSG_CLEAR + "\n");
+		byte[] baMessage = sMessage.getBytes(StandardCharsets.UTF_8);
+		try {
+			_oSocket.send(new DatagramPacket(baMessage, baMessage.length, _oGroup, _iPort));
+		}
+		catch (IOException e) {
+			_systemLogger.log(Level.WARNING, MODULE, "publish", "Cannot send invalidation to " + _oGroup + ":" + _iPort, e);
+		}
+	}
+
+	/**
+	 * Read an optional parameter.
+	 */
+	private static String getOptionalParam(ConfigManager oConfigManager, Object oSection, String sParam, String sDefault)
+	{
+		try {
+			return oConfigManager.getParam(oSection, sParam);
+		}
+		catch (ASelectConfigException e) {
+			return sDefault;
+		}
+	}
+
+	/**
+	 * A cached item.
+	 */
+	private static final class CacheEntry
+	{
+		private final Object _oValue;
+		private final long _lLoaded = System.currentTimeMillis();
+
+		private CacheEntry(Object oValue) {
+			_oValue = oValue;
+		}
+	}
+
+	/**
+	 * Receives the invalidation messages of the other servers.
+	 */
+	private class InvalidationListener extends Thread
+	{
+		private final MulticastSocket _oListenSocket;
+
+		private InvalidationListener(MulticastSocket oSocket) {
+			_oListenSocket = oSocket;
+		}
+
+		@Override
+		public void run()
+		{
+			String sMethod = "run";
+			byte[] baBuffer = new byte[65535];
+
+			while (!_oListenSocket.isClosed()) {
+				DatagramPacket oPacket = new DatagramPacket(baBuffer, baBuffer.length);
+				try {
+					_oListenSocket.receive(oPacket);
+				}
+				catch (IOException e) {
+					if (!_oListenSocket.isClosed())
+						_systemLogger.log(Level.WARNING, MODULE, sMethod, "Cannot receive invalidation", e);
+					continue;
+				}
+				String[] saMessage = new String(oPacket.getData(), 0, oPacket.getLength(), StandardCharsets.UTF_8).split("\n", 3);
+				if (saMessage.length < 2 || saMessage[0].equals(_sNodeId))
+					continue;
+
+				_lRemoteInvalidations.incrementAndGet();
+				if (saMessage[1].length() == 1 && saMessage[1].charAt(0) == MSG_KEY && saMessage.length == 3)
+					invalidate(saMessage[2]);
+				else
+					invalidateAll();
+			}
+		}
+	}
+}
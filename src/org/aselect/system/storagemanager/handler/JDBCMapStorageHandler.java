@@ -174,7 +174,9 @@ public class JDBCMapStorageHandler implements IStorageHandler
 			_oConnectionHandler.Init(_oConfigManager, _systemLogger, _oSAMAgent, _sResourceGroup);
 
 			// This also prepares the connection
-			String intentifierQuoteString = getConnection().getMetaData().getIdentifierQuoteString();
+			Connection oConnection = getConnection();
+			String intentifierQuoteString = oConnection.getMetaData().getIdentifierQuoteString();
+			_oConnectionHandler.releaseConnection(oConnection);	// a pooling handler needs it back
 			// getIdentifierQuoteString() returns " " (space) if quoting is unsupported
 			if (intentifierQuoteString != null)
 				identifierQuote = intentifierQuoteString.trim();
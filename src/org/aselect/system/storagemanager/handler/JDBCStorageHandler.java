@@ -72,18 +72,20 @@
 
 package org.aselect.system.storagemanager.handler;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 
 import org.aselect.system.configmanager.ConfigManager;
@@ -94,7 +96,13 @@ import org.aselect.system.exception.ASelectStorageException;
 import org.aselect.system.logging.SystemLogger;
 import org.aselect.system.sam.agent.SAMAgent;
 import org.aselect.system.sam.agent.SAMResource;
+import org.aselect.system.storagemanager.ICountingStorageHandler;
+import org.aselect.system.storagemanager.IDeltaStorageHandler;
+import org.aselect.system.storagemanager.IIndexedStorageHandler;
+import org.aselect.system.storagemanager.IPagedStorageHandler;
 import org.aselect.system.storagemanager.IStorageHandler;
+import org.aselect.system.storagemanager.codec.IStorageCodec;
+import org.aselect.system.storagemanager.codec.JavaStorageCodec;
 import org.aselect.system.utils.crypto.Auxiliary;
 
 /**
@@ -103,17 +111,29 @@ import org.aselect.system.utils.crypto.Auxiliary;
  * <b>Description: </b> <br>
  * The JDBCStorageHandler uses a DBMS for physical storage. <br>
  * <br>
- * The DBMS is accessed through JDBC. Objects that are written to the DBMS are encoded to bytes, using the
- * <code>ObjectOutputStream</code> mechanism of Java. <br>
+ * The DBMS is accessed through JDBC. Objects that are written to the DBMS are encoded to bytes by an
+ * {@link IStorageCodec}, configured with the optional "codec" section. By default the <code>ObjectOutputStream</code>
+ * mechanism of Java is used. With another codec, rows that were written using Java serialization are rewritten in
+ * the format of the configured codec during initialization. When "migrate" is set to "false" in the codec section
+ * (e.g. while other servers still write Java serialized rows), a key that is not found is looked up in its Java
+ * serialized form, and such a row gets the new key. <br>
+ * <br>
+ * Every configured <code>&lt;index field="..." column="..."/&gt;</code> stores the value of that field in an extra
+ * (indexed) column, so items can be found using {@link #getByIndex(String, Object)} without reading the whole
+ * table. <br>
+ * <br>
+ * {@link #getCount()} and {@link #getKeys(int, int)} only read the key column, no objects are decoded,
+ * {@link #touch(Object, Long)} only writes the timestamp column. <br>
  * <br>
  * <b>Concurrency issues: </b> <br>
  * -<br>
  * 
  * @author Alfa & Ariss
  */
-public class JDBCStorageHandler implements IStorageHandler
+public class JDBCStorageHandler implements IIndexedStorageHandler, IPagedStorageHandler, IDeltaStorageHandler, ICountingStorageHandler
 {
 	private static final String DEFAULT_CONNECTION_HANDLER = "org.aselect.system.db.connection.impl.NonClosingConnectionHandler";
+	private static final String DEFAULT_CODEC = "org.aselect.system.storagemanager.codec.JavaStorageCodec";
 	// private static final String DEFAULT_CONNECTION_HANDLER =
 	// "org.aselect.system.db.connection.impl.ClosingConnectionHandler";
 	protected static final String DEFAULTIDENTIFIERQUOTE = "\""; // use double-quote as default
@@ -158,6 +178,18 @@ public class JDBCStorageHandler implements IStorageHandler
 	protected IConnectionHandler _oConnectionHandler;
 	protected Class cClass;
 
+	/** Converts keys and values to bytes and back */
+	protected IStorageCodec _oCodec;
+
+	/** Encodes keys the way they were stored before a codec could be configured */
+	private static final JavaStorageCodec _oLegacyCodec = new JavaStorageCodec();
+
+	/** Rows may still have a Java serialized key */
+	protected boolean _bLegacyKeys = false;
+
+	/** The indexed fields and their (quoted) column */
+	protected LinkedHashMap<String, String> _htIndexColumns = new LinkedHashMap<String, String>();
+
 	/**
 	 * Initialize the <code>JDBCStorageHandler</code>. <br>
 	 * <br>
@@ -241,7 +273,9 @@ public class JDBCStorageHandler implements IStorageHandler
 
 			// RH, 20090604, sn
 			// This also prepares the connection
-			String intentifierQuoteString = getConnection().getMetaData().getIdentifierQuoteString(); // RH, 20090604, n
+			Connection oConnection = getConnection();
+			String intentifierQuoteString = oConnection.getMetaData().getIdentifierQuoteString(); // RH, 20090604, n
+			_oConnectionHandler.releaseConnection(oConnection);	// a pooling handler needs it back
 			// getIdentifierQuoteString() returns " " (space) if quoting is unsupported
 			if (intentifierQuoteString != null)
 				identifierQuote = intentifierQuoteString.trim();
@@ -299,6 +333,68 @@ public class JDBCStorageHandler implements IStorageHandler
 				_systemLogger.log(Level.WARNING, MODULE, sMethod, "No valid 'value' config item in 'table' section found");
 				throw new ASelectStorageException(Errors.ERROR_ASELECT_INIT_ERROR, e);
 			}
+
+			String sCodec = DEFAULT_CODEC;
+			boolean bMigrate = true;
+			Object oCodecSection = null;
+			try {
+				oCodecSection = oConfigManager.getSection(oConfigSection, "codec");
+			}
+			catch (ASelectConfigException e) {
+				_systemLogger.log(Level.CONFIG, MODULE, sMethod, "No 'codec' section found, using '" + DEFAULT_CODEC + "'");
+			}
+			if (oCodecSection != null) {
+				try {
+					sCodec = oConfigManager.getParam(oCodecSection, "class");
+				}
+				catch (ASelectConfigException e) {
+					_systemLogger.log(Level.WARNING, MODULE, sMethod, "No valid 'class' config item in 'codec' section found");
+					throw new ASelectStorageException(Errors.ERROR_ASELECT_INIT_ERROR, e);
+				}
+				try {
+					bMigrate = !"false".equalsIgnoreCase(oConfigManager.getParam(oCodecSection, "migrate"));
+				}
+				catch (ASelectConfigException e) {
+					// migrating
+				}
+			}
+			try {
+				_oCodec = (IStorageCodec) Class.forName(sCodec).newInstance();
+			}
+			catch (Exception e) {
+				_systemLogger.log(Level.WARNING, MODULE, sMethod, "The configured codec is not a valid IStorageCodec: " + sCodec);
+				throw new ASelectStorageException(Errors.ERROR_ASELECT_INIT_ERROR, e);
+			}
+			_systemLogger.log(Level.INFO, MODULE, sMethod, "Using codec: " + sCodec);
+
+			_htIndexColumns = new LinkedHashMap<String, String>();
+			Object oIndexSection = null;
+			try {
+				oIndexSection = oConfigManager.getSection(oConfigSection, "index");
+			}
+			catch (ASelectConfigException e) {
+				// no indexes
+			}
+			while (oIndexSection != null) {
+				try {
+					String sField = oConfigManager.getParam(oIndexSection, "field");
+					String sColumn = oConfigManager.getParam(oIndexSection, "column");
+					_htIndexColumns.put(sField, identifierQuote + sColumn + identifierQuote);
+					_systemLogger.log(Level.INFO, MODULE, sMethod, "Index on field: " + sField + " column: " + sColumn);
+				}
+				catch (ASelectConfigException e) {
+					_systemLogger.log(Level.WARNING, MODULE, sMethod, "No valid 'field' and 'column' config items in 'index' section found");
+					throw new ASelectStorageException(Errors.ERROR_ASELECT_INIT_ERROR, e);
+				}
+				oIndexSection = oConfigManager.getNextSection(oIndexSection);
+			}
+			if (_oCodec.getClass() != JavaStorageCodec.class) {
+				if (bMigrate)
+					migrateLegacyRows();
+				else
+					_bLegacyKeys = true;
+				_systemLogger.log(Level.INFO, MODULE, sMethod, "migrate=" + bMigrate + " legacy key lookup=" + _bLegacyKeys);
+			}
 			// getConnection(); // RH, 20090604, o
 		}
 		catch (ASelectStorageException e) {
@@ -344,11 +440,17 @@ public class JDBCStorageHandler implements IStorageHandler
 
 			// 20090212, Bauke: use oKey as key to the table instead of the hashvalue
 			// oStatement.setInt(1, iKey); // old
-			byte[] baKey = encode(oKey); // new
+			byte[] baKey = encodeKey(oKey); // new
 			oStatement.setBytes(1, baKey); // new
 			oResultSet = oStatement.executeQuery();
+			boolean bFound = oResultSet.next();
+			if (!bFound && rekeyLegacyRow(oConnection, oKey)) {
+				oResultSet.close();
+				oResultSet = oStatement.executeQuery();
+				bFound = oResultSet.next();
+			}
 
-			if (oResultSet.next()) { // record exists.
+			if (bFound) { // record exists.
 
 				// oRet = decode(oResultSet.getBytes(_sContextValue.replace(identifierQuote, " ").trim())); // o
 				oRet = decode(oResultSet.getBytes(_sContextValue.substring(identifierQuote.length(),
@@ -433,11 +535,17 @@ public class JDBCStorageHandler implements IStorageHandler
 			oConnection = getConnection(); // RH, 20090604, n
 			oStatement = oConnection.prepareStatement(sbQuery.toString());
 			// oStatement.setInt(1, iKey); // old
-			byte[] baKey = encode(oKey); // new
+			byte[] baKey = encodeKey(oKey); // new
 			oStatement.setBytes(1, baKey); // new
 			oResultSet = oStatement.executeQuery();
+			boolean bFound = oResultSet.next();
+			if (!bFound && rekeyLegacyRow(oConnection, oKey)) {
+				oResultSet.close();
+				oResultSet = oStatement.executeQuery();
+				bFound = oResultSet.next();
+			}
 
-			if (oResultSet.next()) // record exists.
+			if (bFound) // record exists.
 			{
 				Timestamp oTimestamp = oResultSet.getTimestamp(1);
 				lRet = oTimestamp.getTime();
@@ -579,7 +687,7 @@ public class JDBCStorageHandler implements IStorageHandler
 				// Object oKey = decode(oResultSet.getBytes(_sContextKey.replace(identifierQuote, ' ').trim())); // o
 				// Object oValue = decode(oResultSet.getBytes(_sContextValue.replace(identifierQuote, ' ').trim())); //
 				// o
-				Object oKey = decode(oResultSet.getBytes(_sContextKey.substring(identifierQuote.length(), _sContextKey
+				Object oKey = decodeKey(oResultSet.getBytes(_sContextKey.substring(identifierQuote.length(), _sContextKey
 						.length()
 						- identifierQuote.length())));
 				Object oValue = decode(oResultSet.getBytes(_sContextValue.substring(identifierQuote.length(),
@@ -618,9 +726,354 @@ public class JDBCStorageHandler implements IStorageHandler
 		return htResponse;
 	}
 
+	/* (non-Javadoc)
+	 * @see org.aselect.system.storagemanager.IIndexedStorageHandler#isIndexed(java.lang.String)
+	 */
+	public boolean isIndexed(String sField)
+	{
+		return getIndexColumns().containsKey(sField);
+	}
+
+	/**
+	 * Returns the objects having the given value in an indexed field. <br>
+	 * <br>
+	 * Only the rows having the value in the index column are read.
+	 * 
+	 * @param sField
+	 *            the indexed field
+	 * @param oValue
+	 *            the value
+	 * @return the objects found
+	 * @throws ASelectStorageException
+	 *             if the field is not indexed or retrieving fails
+	 * @see org.aselect.system.storagemanager.IIndexedStorageHandler#getByIndex(java.lang.String, java.lang.Object)
+	 */
+	public HashMap getByIndex(String sField, Object oValue)
+	throws ASelectStorageException
+	{
+		return selectByIndex("getByIndex", sField, " = ?", oValue, 0);
+	}
+
+	/**
+	 * Returns the objects having at most the given value in an indexed field, lowest value first. <br>
+	 * <br>
+	 * The values are compared as strings by the database, subclasses indexing numbers must write them with a fixed
+	 * length, see {@link #getIndexValue(String, Object, Long)}.
+	 * 
+	 * @param sField
+	 *            the indexed field
+	 * @param oValue
+	 *            the highest value
+	 * @param iMax
+	 *            the maximum number of objects to return
+	 * @return the objects found as key/value
+	 * @throws ASelectStorageException
+	 *             if the field is not indexed or retrieving fails
+	 */
+	protected HashMap getByIndexUpTo(String sField, Object oValue, int iMax)
+	throws ASelectStorageException
+	{
+		return selectByIndex("getByIndexUpTo", sField, " <= ?", oValue, iMax);
+	}
+
+	/**
+	 * Read the objects whose index column matches the condition, ordered by that column when iMax is set.
+	 */
+	private HashMap selectByIndex(String sMethod, String sField, String sCondition, Object oValue, int iMax)
+	throws ASelectStorageException
+	{
+		HashMap htResponse = new LinkedHashMap();
+		Connection oConnection = null;
+		PreparedStatement oStatement = null;
+		ResultSet oResultSet = null;
+
+		String sColumn = getIndexColumns().get(sField);
+		if (sColumn == null) {
+			_systemLogger.log(Level.WARNING, MODULE, sMethod, "Field is not indexed: " + sField);
+			throw new ASelectStorageException(Errors.ERROR_ASELECT_STORAGE_RETRIEVE);
+		}
+		try {
+			StringBuffer sbBuffer = new StringBuffer();
+			sbBuffer.append("SELECT ").append(_sContextKey).append(", ").append(_sContextValue).append(" ");
+			sbBuffer.append("FROM ").append(_sTableName).append(" ");
+			sbBuffer.append("WHERE ").append(sColumn).append(sCondition);
+			if (iMax > 0)
+				sbBuffer.append(" ORDER BY ").append(sColumn);
+			_systemLogger.log(Level.FINER, MODULE, sMethod, "sql=" + sbBuffer + ((iMax > 0) ? " max=" + iMax : ""));
+
+			oConnection = getConnection();
+			oStatement = oConnection.prepareStatement(sbBuffer.toString());
+			if (iMax > 0)
+				oStatement.setMaxRows(iMax);
+			oStatement.setString(1, oValue.toString());
+			oResultSet = oStatement.executeQuery();
+
+			while (oResultSet.next()) {
+				Object oKey = decodeKey(oResultSet.getBytes(1));
+				htResponse.put(oKey, decode(oResultSet.getBytes(2)));
+			}
+		}
+		catch (IOException eIO) {
+			_systemLogger.log(Level.WARNING, MODULE, sMethod, "Could not decode one or more objects", eIO);
+			throw new ASelectStorageException(Errors.ERROR_ASELECT_STORAGE_RETRIEVE, eIO);
+		}
+		catch (ClassNotFoundException eCNF) {
+			_systemLogger.log(Level.WARNING, MODULE, sMethod, "Could not decode one or more objects", eCNF);
+			throw new ASelectStorageException(Errors.ERROR_ASELECT_STORAGE_RETRIEVE, eCNF);
+		}
+		catch (ASelectStorageException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			_systemLogger.log(Level.WARNING, MODULE, sMethod,
+					"An error occured while retrieving objects from the database", e);
+			throw new ASelectStorageException(Errors.ERROR_ASELECT_STORAGE_RETRIEVE, e);
+		}
+		finally {
+			try {
+				if (oResultSet != null)
+					oResultSet.close();
+				if (oStatement != null)
+					oStatement.close();
+			}
+			catch (SQLException e) {
+				_systemLogger.log(Level.FINE, MODULE, sMethod, "Could not close database resource.", e);
+			}
+			finally {
+				_oConnectionHandler.releaseConnection(oConnection);
+			}
+		}
+		return htResponse;
+	}
+
+	/**
+	 * Returns a range of the keys stored in the table. <br>
+	 * <br>
+	 * Only the key column is read, in key sequence. The number of rows fetched is limited using
+	 * <code>setMaxRows()</code>, so no database specific paging syntax is needed.
+	 * 
+	 * @param iFirst
+	 *            the number of keys to skip
+	 * @param iMax
+	 *            the maximum number of keys to return
+	 * @return the keys
+	 * @throws ASelectStorageException
+	 *             if retrieving fails
+	 * @see org.aselect.system.storagemanager.IPagedStorageHandler#getKeys(int, int)
+	 */
+	public List getKeys(int iFirst, int iMax)
+	throws ASelectStorageException
+	{
+		ArrayList alKeys = new ArrayList();
+		String sMethod = "getKeys";
+		Connection oConnection = null;
+		PreparedStatement oStatement = null;
+		ResultSet oResultSet = null;
+
+		if (iMax <= 0)
+			return alKeys;
+		try {
+			StringBuffer sbBuffer = new StringBuffer();
+			sbBuffer.append("SELECT ").append(_sContextKey).append(" ");
+			sbBuffer.append("FROM ").append(_sTableName).append(" ");
+			sbBuffer.append("ORDER BY ").append(_sContextKey);
+			_systemLogger.log(Level.FINER, MODULE, sMethod, "sql=" + sbBuffer + " first=" + iFirst + " max=" + iMax);
+
+			oConnection = getConnection();
+			oStatement = oConnection.prepareStatement(sbBuffer.toString());
+			oStatement.setMaxRows((int) Math.min((long) iFirst + iMax, Integer.MAX_VALUE));
+			oResultSet = oStatement.executeQuery();
+
+			for (int i = 0; oResultSet.next(); i++) {
+				if (i >= iFirst)
+					alKeys.add(decodeKey(oResultSet.getBytes(1)));
+			}
+		}
+		catch (IOException eIO) {
+			_systemLogger.log(Level.WARNING, MODULE, sMethod, "Could not decode one or more keys", eIO);
+			throw new ASelectStorageException(Errors.ERROR_ASELECT_STORAGE_RETRIEVE, eIO);
+		}
+		catch (ClassNotFoundException eCNF) {
+			_systemLogger.log(Level.WARNING, MODULE, sMethod, "Could not decode one or more keys", eCNF);
+			throw new ASelectStorageException(Errors.ERROR_ASELECT_STORAGE_RETRIEVE, eCNF);
+		}
+		catch (Exception e) {
+			_systemLogger.log(Level.WARNING, MODULE, sMethod,
+					"An error occured while retrieving keys from the database", e);
+			throw new ASelectStorageException(Errors.ERROR_ASELECT_STORAGE_RETRIEVE, e);
+		}
+		finally {
+			try {
+				if (oResultSet != null)
+					oResultSet.close();
+				if (oStatement != null)
+					oStatement.close();
+			}
+			catch (SQLException e) {
+				_systemLogger.log(Level.FINE, MODULE, sMethod, "Could not close database resource.", e);
+			}
+			finally {
+				_oConnectionHandler.releaseConnection(oConnection);
+			}
+		}
+		return alKeys;
+	}
+
+	/**
+	 * Returns the objects that expired at the given time, earliest first. <br>
+	 * <br>
+	 * Only rows having a timestamp up to <code>lTimestamp</code> are read, at most <code>iMax</code> of them. The
+	 * objects are not removed, subclasses handling expired objects themselves can call this method repeatedly.
+	 * 
+	 * @param lTimestamp
+	 *            the expiry time, see {@link #cleanup(Long)}
+	 * @param iMax
+	 *            the maximum number of objects to return
+	 * @return the expired objects as key/value
+	 * @throws ASelectStorageException
+	 *             if retrieving fails
+	 */
+	protected HashMap getExpired(Long lTimestamp, int iMax)
+	throws ASelectStorageException
+	{
+		HashMap htResponse = new LinkedHashMap();
+		String sMethod = "getExpired";
+		Connection oConnection = null;
+		PreparedStatement oStatement = null;
+		ResultSet oResultSet = null;
+
+		try {
+			StringBuffer sbBuffer = new StringBuffer();
+			sbBuffer.append("SELECT ").append(_sContextKey).append(", ").append(_sContextValue).append(" ");
+			sbBuffer.append("FROM ").append(_sTableName).append(" ");
+			sbBuffer.append("WHERE ").append(_sContextTimestamp).append(" <= ? ");
+			sbBuffer.append("ORDER BY ").append(_sContextTimestamp);
+			_systemLogger.log(Level.FINER, MODULE, sMethod, "sql=" + sbBuffer + " -> " + lTimestamp + " max=" + iMax);
+
+			oConnection = getConnection();
+			oStatement = oConnection.prepareStatement(sbBuffer.toString());
+			oStatement.setMaxRows(iMax);
+			oStatement.setTimestamp(1, new Timestamp(lTimestamp.longValue()));
+			oResultSet = oStatement.executeQuery();
+
+			while (oResultSet.next()) {
+				Object oKey = decodeKey(oResultSet.getBytes(1));
+				htResponse.put(oKey, decode(oResultSet.getBytes(2)));
+			}
+		}
+		catch (IOException eIO) {
+			_systemLogger.log(Level.WARNING, MODULE, sMethod, "Could not decode one or more objects", eIO);
+			throw new ASelectStorageException(Errors.ERROR_ASELECT_STORAGE_RETRIEVE, eIO);
+		}
+		catch (ClassNotFoundException eCNF) {
+			_systemLogger.log(Level.WARNING, MODULE, sMethod, "Could not decode one or more objects", eCNF);
+			throw new ASelectStorageException(Errors.ERROR_ASELECT_STORAGE_RETRIEVE, eCNF);
+		}
+		catch (Exception e) {
+			_systemLogger.log(Level.WARNING, MODULE, sMethod,
+					"An error occured while retrieving objects from the database", e);
+			throw new ASelectStorageException(Errors.ERROR_ASELECT_STORAGE_RETRIEVE, e);
+		}
+		finally {
+			try {
+				if (oResultSet != null)
+					oResultSet.close();
+				if (oStatement != null)
+					oStatement.close();
+			}
+			catch (SQLException e) {
+				_systemLogger.log(Level.FINE, MODULE, sMethod, "Could not close database resource.", e);
+			}
+			finally {
+				_oConnectionHandler.releaseConnection(oConnection);
+			}
+		}
+		return htResponse;
+	}
+
+	/**
+	 * Get the indexed fields and their column. <br>
+	 * Subclasses using a table without index columns return an empty map.
+	 * 
+	 * @return the index columns by field name
+	 */
+	protected Map<String, String> getIndexColumns()
+	{
+		return _htIndexColumns;
+	}
+
+	/**
+	 * Append ", column" + sSuffix for every index column.
+	 */
+	private void appendIndexColumns(StringBuffer sbBuffer, String sSuffix)
+	{
+		for (String sColumn : getIndexColumns().values())
+			sbBuffer.append(", ").append(sColumn).append(sSuffix);
+	}
+
+	/**
+	 * Append ",?" for every index column.
+	 */
+	private void appendIndexPlaceholders(StringBuffer sbBuffer)
+	{
+		for (int i = getIndexColumns().size(); i > 0; i--)
+			sbBuffer.append(",?");
+	}
+
+	/**
+	 * Get the value to write to the index column of a field. <br>
+	 * By default the value of the field in the stored <code>Map</code>, subclasses can index a value derived from
+	 * the object, e.g. a deadline.
+	 * 
+	 * @param sField
+	 *            the indexed field
+	 * @param oValue
+	 *            the object being stored
+	 * @param lTimestamp
+	 *            the timestamp of the object
+	 * @return the index value, <code>null</code> if none
+	 */
+	protected Object getIndexValue(String sField, Object oValue, Long lTimestamp)
+	{
+		return (oValue instanceof Map) ? ((Map) oValue).get(sField) : null;
+	}
+
+	/**
+	 * Set the index column values for oValue, starting at parameter iFirst.
+	 * 
+	 * @return the next parameter index
+	 */
+	private int setIndexValues(PreparedStatement oStatement, int iFirst, Object oValue, Long lTimestamp)
+	throws SQLException
+	{
+		int i = iFirst;
+		for (String sField : getIndexColumns().keySet()) {
+			Object oIndexValue = getIndexValue(sField, oValue, lTimestamp);
+			if (oIndexValue == null)
+				oStatement.setNull(i++, Types.VARCHAR);
+			else
+				oStatement.setString(i++, oIndexValue.toString());
+		}
+		return i;
+	}
+
 	////////////////////////////////////////////////////////////////////////////////////////////////////
 	public void put(Object oKey, Object oValue, Long lTimestamp, IStorageHandler.UpdateMode eMode)
 	throws ASelectStorageException
+	{
+		putCounted(oKey, oValue, lTimestamp, eMode);
+	}
+
+	/**
+	 * Store an object and report whether a row was inserted. <br>
+	 * <br>
+	 * The result follows from the statement that succeeded, no extra query is done.
+	 * 
+	 * @see org.aselect.system.storagemanager.ICountingStorageHandler#putCounted(java.lang.Object, java.lang.Object,
+	 *      java.lang.Long, org.aselect.system.storagemanager.IStorageHandler.UpdateMode)
+	 */
+	public boolean putCounted(Object oKey, Object oValue, Long lTimestamp, IStorageHandler.UpdateMode eMode)
+	throws ASelectStorageException
 	{
 		String sMethod = "put(), with MODE flag";
 		// RM_69_02
@@ -630,6 +1083,7 @@ public class JDBCStorageHandler implements IStorageHandler
 					"Doing put with eMode INSERTFIRST" );
 			try {
 				create(oKey, oValue, lTimestamp);
+				return true;
 			}
 			catch (SQLException e) {
 				// If create fails we try update
@@ -637,6 +1091,7 @@ public class JDBCStorageHandler implements IStorageHandler
 				"INSERTFIRST fails where it should succeed, trying update" );
 				try {
 					update(oKey, oValue, lTimestamp);
+					return false;
 				}
 				catch (SQLException e1) {
 					// If update also fails we throw an ASelectStorageException
@@ -645,18 +1100,19 @@ public class JDBCStorageHandler implements IStorageHandler
 					throw new ASelectStorageException(Errors.ERROR_ASELECT_STORAGE_INSERT,  e1);
 				}
 			}
-			break;
 		case UPDATEFIRST: // do updatefirst
 			_systemLogger.log(Level.FINER, MODULE, sMethod,
 			"Doing put with eMode UPDATEFIRST" );
 			try {
 				update(oKey, oValue, lTimestamp);
+				return false;
 			}
 			catch (SQLException e) {
 				_systemLogger.log(Level.WARNING, MODULE, sMethod,
 				"UPDATEFIRST fails where it should succeed, trying create" );
 				try {
 					create(oKey, oValue, lTimestamp);
+					return true;
 				}
 				catch (SQLException e1) {
 					// If create also fails we throw an ASelectStorageException
@@ -665,12 +1121,12 @@ public class JDBCStorageHandler implements IStorageHandler
 					throw new ASelectStorageException(Errors.ERROR_ASELECT_STORAGE_INSERT,  e1);
 				}
 			}
-			break;
 		case INSERTONLY: // do only insert, throw exception on duplicate key
 			_systemLogger.log(Level.FINER, MODULE, sMethod,
 			"Doing put with eMode INSERTONLY" );
 			try {
 				create(oKey, oValue, lTimestamp);
+				return true;
 			}
 			catch (SQLException e) {
 				_systemLogger.log(Level.WARNING, MODULE, sMethod,
@@ -684,12 +1140,11 @@ public class JDBCStorageHandler implements IStorageHandler
 					throw new ASelectStorageException(Errors.ERROR_ASELECT_STORAGE_INSERT);
 				}
 			}
-			break;
 		default:	// do the old stuff for backward compatibility
 			_systemLogger.log(Level.FINER, MODULE, sMethod,
 			"Doing put with eMode default" );
 			put(oKey, oValue, lTimestamp);
-			break;
+			return false;  // not known
 		}
 	}
 	////////////////////////////////////////////////////////////////////////////////////////////////////	
@@ -720,11 +1175,13 @@ public class JDBCStorageHandler implements IStorageHandler
 		try {
 			int iKey = 0; // old: oKey.hashCode();
 			Timestamp oTimestamp = new Timestamp(lTimestamp.longValue());
-			byte[] baKey = encode(oKey);
+			byte[] baKey = encodeKey(oKey);
 			byte[] baValue = encode(oValue);
 
 			StringBuffer sbBuffer = new StringBuffer();
 			oConnection = getConnection(); // RH, 20090604, n
+			if (rekeyLegacyRow(oConnection, oKey))
+				throw new SQLException("Duplicate key");  // stored before with a legacy key
 			
 			sbBuffer = new StringBuffer();
 			sbBuffer.append("INSERT INTO ").append(_sTableName).append(" ");
@@ -735,9 +1192,12 @@ public class JDBCStorageHandler implements IStorageHandler
 			sbBuffer.append(_sContextTimestamp).append(", ");
 			sbBuffer.append(_sContextKey).append(", ");
 			sbBuffer.append(_sContextValue).append(" ");
+			appendIndexColumns(sbBuffer, "");
 			sbBuffer.append(") ");
 			// RH, 20080714, en
-			sbBuffer.append("VALUES (?,?,?,?)");
+			sbBuffer.append("VALUES (?,?,?,?");
+			appendIndexPlaceholders(sbBuffer);
+			sbBuffer.append(")");
 			_systemLogger.log(Level.FINEST, MODULE, sMethod, "sql=" + sbBuffer + " -> " + Auxiliary.obfuscate(oValue));
 
 			oStatement = oConnection.prepareStatement(sbBuffer.toString());
@@ -745,6 +1205,7 @@ public class JDBCStorageHandler implements IStorageHandler
 			oStatement.setTimestamp(2, oTimestamp);
 			oStatement.setBytes(3, baKey);
 			oStatement.setBytes(4, baValue);
+			setIndexValues(oStatement, 5, oValue, lTimestamp);
 			
 			int rowsAffected = oStatement.executeUpdate();
 			_systemLogger.log(Level.FINER, MODULE, sMethod, "Rows affected -> " + rowsAffected);
@@ -800,7 +1261,7 @@ public class JDBCStorageHandler implements IStorageHandler
 		try {
 			int iKey = 0; // old: oKey.hashCode();
 			Timestamp oTimestamp = new Timestamp(lTimestamp.longValue());
-			byte[] baKey = encode(oKey);
+			byte[] baKey = encodeKey(oKey);
 			byte[] baValue = encode(oValue);
 
 			StringBuffer sbBuffer = new StringBuffer();
@@ -808,15 +1269,19 @@ public class JDBCStorageHandler implements IStorageHandler
 				sbBuffer = new StringBuffer();
 				sbBuffer.append("UPDATE ").append(_sTableName).append(" ");
 				sbBuffer.append("SET ").append(_sContextValue).append(" = ? , ").append(_sContextTimestamp).append(" = ? ");
+				appendIndexColumns(sbBuffer, " = ? ");
 				sbBuffer.append("WHERE ").append(_sContextKey).append(" = ?"); // new
 				_systemLogger.log(Level.FINEST, MODULE, sMethod, "sql=" + sbBuffer + " -> " + Auxiliary.obfuscate(oValue));
 
 				oStatement = oConnection.prepareStatement(sbBuffer.toString());
 				oStatement.setBytes(1, baValue);
 				oStatement.setTimestamp(2, oTimestamp);
-				oStatement.setBytes(3, baKey); // new
+				int iNext = setIndexValues(oStatement, 3, oValue, lTimestamp);
+				oStatement.setBytes(iNext, baKey); // new
 
 			int rowsAffected = oStatement.executeUpdate();
+			if (rowsAffected == 0 && rekeyLegacyRow(oConnection, oKey))
+				rowsAffected = oStatement.executeUpdate();
 			_systemLogger.log(Level.FINER, MODULE, sMethod, "Rows affected -> " + rowsAffected);
 			if (rowsAffected != 1) {
 				throw new SQLException("Invalid number of rows affected");
@@ -867,7 +1332,7 @@ public class JDBCStorageHandler implements IStorageHandler
 		try {
 			int iKey = 0; // old: oKey.hashCode();
 			Timestamp oTimestamp = new Timestamp(lTimestamp.longValue());
-			byte[] baKey = encode(oKey);
+			byte[] baKey = encodeKey(oKey);
 			byte[] baValue = encode(oValue);
 
 			StringBuffer sbBuffer = new StringBuffer();
@@ -882,11 +1347,12 @@ public class JDBCStorageHandler implements IStorageHandler
 			oStatement.setBytes(1, baKey); // new
 			oResultSet = oStatement.executeQuery();
 
-			if (oResultSet.next()) { // record exists.
+			if (oResultSet.next() || rekeyLegacyRow(oConnection, oKey)) { // record exists.
 				sbBuffer = new StringBuffer();
 				sbBuffer.append("UPDATE ").append(_sTableName).append(" ");
 				sbBuffer.append("SET ").append(_sContextValue).append(" = ? , ").append(_sContextTimestamp).append(
 						" = ? ");
+				appendIndexColumns(sbBuffer, " = ? ");
 				// sbBuffer.append("WHERE ").append(_sContextKeyHash).append(" = ?"); // old
 				sbBuffer.append("WHERE ").append(_sContextKey).append(" = ?"); // new
 				_systemLogger.log(Level.FINEST, MODULE, sMethod, "sql=" + sbBuffer + " -> " + oKey);
@@ -900,8 +1366,9 @@ public class JDBCStorageHandler implements IStorageHandler
 				oStatement = oConnection.prepareStatement(sbBuffer.toString());
 				oStatement.setBytes(1, baValue);
 				oStatement.setTimestamp(2, oTimestamp);
+				int iNext = setIndexValues(oStatement, 3, oValue, lTimestamp);
 				// oStatement.setInt(3, iKey); // old
-				oStatement.setBytes(3, baKey); // new
+				oStatement.setBytes(iNext, baKey); // new
 			}
 			else { // new record.
 				sbBuffer = new StringBuffer();
@@ -913,9 +1380,12 @@ public class JDBCStorageHandler implements IStorageHandler
 				sbBuffer.append(_sContextTimestamp).append(", ");
 				sbBuffer.append(_sContextKey).append(", ");
 				sbBuffer.append(_sContextValue).append(" ");
+				appendIndexColumns(sbBuffer, "");
 				sbBuffer.append(") ");
 				// RH, 20080714, en
-				sbBuffer.append("VALUES (?,?,?,?)");
+				sbBuffer.append("VALUES (?,?,?,?");
+				appendIndexPlaceholders(sbBuffer);
+				sbBuffer.append(")");
 				_systemLogger.log(Level.FINER, MODULE, sMethod, "sql=" + sbBuffer + " -> " + oKey);
 
 				try { // added 1.5.4
@@ -929,6 +1399,7 @@ public class JDBCStorageHandler implements IStorageHandler
 				oStatement.setTimestamp(2, oTimestamp);
 				oStatement.setBytes(3, baKey);
 				oStatement.setBytes(4, baValue);
+				setIndexValues(oStatement, 5, oValue, lTimestamp);
 			}
 			// oStatement.executeUpdate();
 			int rowsAffected = oStatement.executeUpdate();
@@ -961,6 +1432,63 @@ public class JDBCStorageHandler implements IStorageHandler
 		}
 	}
 
+	/**
+	 * Update the timestamp of an object, the stored value is not rewritten.
+	 * 
+	 * @param oKey
+	 *            the key
+	 * @param lTimestamp
+	 *            the new timestamp
+	 * @return <code>false</code> if the object was not found
+	 * @throws ASelectStorageException
+	 *             the a select storage exception
+	 * @see org.aselect.system.storagemanager.IDeltaStorageHandler#touch(java.lang.Object, java.lang.Long)
+	 */
+	public boolean touch(Object oKey, Long lTimestamp)
+	throws ASelectStorageException
+	{
+		String sMethod = "touch";
+		Connection oConnection = null;
+		PreparedStatement oStatement = null;
+
+		try {
+			StringBuffer sbBuffer = new StringBuffer();
+			sbBuffer.append("UPDATE ").append(_sTableName).append(" ");
+			sbBuffer.append("SET ").append(_sContextTimestamp).append(" = ? ");
+			sbBuffer.append("WHERE ").append(_sContextKey).append(" = ?");
+			_systemLogger.log(Level.FINEST, MODULE, sMethod, "sql=" + sbBuffer + " -> " + oKey);
+
+			oConnection = getConnection();
+			oStatement = oConnection.prepareStatement(sbBuffer.toString());
+			oStatement.setTimestamp(1, new Timestamp(lTimestamp.longValue()));
+			oStatement.setBytes(2, encodeKey(oKey));
+			int rowsAffected = oStatement.executeUpdate();
+			if (rowsAffected == 0 && rekeyLegacyRow(oConnection, oKey))
+				rowsAffected = oStatement.executeUpdate();
+			_systemLogger.log(Level.FINER, MODULE, sMethod, "Rows affected -> " + rowsAffected);
+			return rowsAffected == 1;
+		}
+		catch (ASelectStorageException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			_systemLogger.log(Level.WARNING, MODULE, sMethod, "An error occured while updating the timestamp", e);
+			throw new ASelectStorageException(Errors.ERROR_ASELECT_STORAGE_INSERT, e);
+		}
+		finally {
+			try {
+				if (oStatement != null)
+					oStatement.close();
+			}
+			catch (SQLException e) {
+				_systemLogger.log(Level.FINE, MODULE, sMethod, "Could not close database resource", e);
+			}
+			finally {
+				_oConnectionHandler.releaseConnection(oConnection);
+			}
+		}
+	}
+
 	/**
 	 * Removes a particular object from the database.
 	 * 
@@ -1001,10 +1529,13 @@ public class JDBCStorageHandler implements IStorageHandler
 
 			oStatement = oConnection.prepareStatement(sbBuffer.toString());
 			// oStatement.setInt(1, iKey); // old
-			byte[] baKey = encode(oKey); // new
+			byte[] baKey = encodeKey(oKey); // new
 			oStatement.setBytes(1, baKey); // new
 
-			if (oStatement.executeUpdate() == 0) {
+			int rowsAffected = oStatement.executeUpdate();
+			if (rowsAffected == 0 && rekeyLegacyRow(oConnection, oKey))
+				rowsAffected = oStatement.executeUpdate();
+			if (rowsAffected == 0) {
 				StringBuffer sbError = new StringBuffer("Could not remove object: ");
 				sbError.append(oKey);
 				_systemLogger.log(Level.WARNING, MODULE, sMethod, sbError.toString());
@@ -1247,14 +1778,14 @@ public class JDBCStorageHandler implements IStorageHandler
 		try {
 			oConnection = getConnection(); // RH, 20090604, n
 			oStatement = oConnection.prepareStatement(sbQuery.toString());
-			byte[] baKey = encode(oKey); // new
+			byte[] baKey = encodeKey(oKey); // new
 			oStatement.setBytes(1, baKey); // new
 			oResultSet = oStatement.executeQuery();
 
 			if (oResultSet.next()) // record exists.
 				bReturn = true;
 			else
-				bReturn = false;
+				bReturn = rekeyLegacyRow(oConnection, oKey);
 		}
 		catch (ASelectStorageException e) {
 			throw e;
@@ -1393,18 +1924,25 @@ public class JDBCStorageHandler implements IStorageHandler
 	protected byte[] encode(Object o)
 	throws IOException
 	{
-		byte[] baResponse = null;
-		ByteArrayOutputStream osBytes = new ByteArrayOutputStream();
-		ObjectOutputStream osObject = new ObjectOutputStream(osBytes);
-		osObject.writeObject(o);
-		osObject.close();
-		baResponse = osBytes.toByteArray();
-		osBytes.close();
-
-		if (baResponse == null) {
-			throw new IOException("No bytes have been encoded.");
-		}
-		return baResponse;
+		return _oCodec.encode(o);
+	}
+
+	/**
+	 * Encode a key for storage. <br>
+	 * <br>
+	 * <b>Description:</b> <br>
+	 * Encodes a key using the configured codec, the result is used to look up rows. <br>
+	 * 
+	 * @param oKey
+	 *            The key that needs to be encoded.
+	 * @return The encoded key.
+	 * @throws IOException
+	 *             If encoding fails.
+	 */
+	protected byte[] encodeKey(Object oKey)
+	throws IOException
+	{
+		return _oCodec.encodeKey(oKey);
 	}
 
 	/**
@@ -1436,17 +1974,167 @@ public class JDBCStorageHandler implements IStorageHandler
 	protected Object decode(byte[] baBytes)
 	throws IOException, ClassNotFoundException
 	{
-		Object oResponse = null;
+		return _oCodec.decode(baBytes);
+	}
 
-		ByteArrayInputStream isBytes = new ByteArrayInputStream(baBytes);
-		ObjectInputStream isObject = new ObjectInputStream(isBytes);
-		oResponse = isObject.readObject();
-		isObject.close();
-		isBytes.close();
+	/**
+	 * Decodes a key that is returned from the database.
+	 * 
+	 * @param baBytes
+	 *            the bytes to be decoded.
+	 * @return The decoded key.
+	 * @throws IOException
+	 *             if decoding fails.
+	 * @throws ClassNotFoundException
+	 *             if decoding fails.
+	 */
+	protected Object decodeKey(byte[] baBytes)
+	throws IOException, ClassNotFoundException
+	{
+		return _oCodec.decodeKey(baBytes);
+	}
 
-		if (oResponse == null) {
-			throw new IOException("No bytes have been decoded.");
+	/**
+	 * Give a row that was stored with a Java serialized key the key of the configured codec. <br>
+	 * <br>
+	 * <b>Description:</b> <br>
+	 * Called when a key was not found. Only looks for the legacy key when rows were not migrated during
+	 * initialization and the codec encodes the key differently. The value is left as is, the codec still decodes Java
+	 * serialized values. <br>
+	 * 
+	 * @param oConnection
+	 *            the connection to use
+	 * @param oKey
+	 *            the key that was not found
+	 * @return true if a row was found and now has the new key
+	 */
+	protected boolean rekeyLegacyRow(Connection oConnection, Object oKey)
+	{
+		String sMethod = "rekeyLegacyRow";
+		if (!_bLegacyKeys)
+			return false;
+		PreparedStatement oStatement = null;
+		try {
+			byte[] baKey = encodeKey(oKey);
+			byte[] baLegacyKey = _oLegacyCodec.encodeKey(oKey);
+			if (Arrays.equals(baKey, baLegacyKey))
+				return false;
+
+			StringBuffer sbBuffer = new StringBuffer();
+			sbBuffer.append("UPDATE ").append(_sTableName).append(" ");
+			sbBuffer.append("SET ").append(_sContextKey).append(" = ? ");
+			sbBuffer.append("WHERE ").append(_sContextKey).append(" = ?");
+			oStatement = oConnection.prepareStatement(sbBuffer.toString());
+			oStatement.setBytes(1, baKey);
+			oStatement.setBytes(2, baLegacyKey);
+			int rowsAffected = oStatement.executeUpdate();
+			if (rowsAffected > 0)
+				_systemLogger.log(Level.FINE, MODULE, sMethod, "New key for legacy row: " + oKey);
+			return rowsAffected > 0;
+		}
+		catch (IOException e) {
+			_systemLogger.log(Level.FINE, MODULE, sMethod, "Could not encode the key", e);
+			return false;
+		}
+		catch (SQLException e) {
+			_systemLogger.log(Level.WARNING, MODULE, sMethod, "Could not update the legacy key", e);
+			return false;
+		}
+		finally {
+			try {
+				if (oStatement != null)
+					oStatement.close();
+			}
+			catch (SQLException e) {
+				_systemLogger.log(Level.FINE, MODULE, sMethod, "Could not close database resource", e);
+			}
+		}
+	}
+
+	/**
+	 * Rewrite rows that were stored using Java serialization. <br>
+	 * <br>
+	 * <b>Description:</b> <br>
+	 * Reads all rows and rewrites the ones with a Java serialized key or value in the format of the configured codec.
+	 * Rows that can not be decoded are left untouched, they will be removed by the cleanup when they expire. <br>
+	 * <br>
+	 * <b>Concurrency issues:</b> <br>
+	 * Should be called during initialization, before the handler is used. <br>
+	 * 
+	 * @throws ASelectStorageException
+	 *             if the rows can not be read or updated
+	 */
+	protected void migrateLegacyRows()
+	throws ASelectStorageException
+	{
+		String sMethod = "migrateLegacyRows";
+		Connection oConnection = null;
+		PreparedStatement oSelect = null;
+		PreparedStatement oUpdate = null;
+		ResultSet oResultSet = null;
+		int iMigrated = 0;
+		int iFailed = 0;
+
+		if (_oCodec.getClass() == JavaStorageCodec.class) {
+			_systemLogger.log(Level.INFO, MODULE, sMethod, "Codec uses Java serialization, nothing to migrate");
+			return;
+		}
+		try {
+			StringBuffer sbBuffer = new StringBuffer();
+			sbBuffer.append("SELECT ").append(_sContextKey).append(", ").append(_sContextValue).append(" ");
+			sbBuffer.append("FROM ").append(_sTableName);
+			_systemLogger.log(Level.FINER, MODULE, sMethod, "sql=" + sbBuffer);
+
+			StringBuffer sbUpdate = new StringBuffer();
+			sbUpdate.append("UPDATE ").append(_sTableName).append(" ");
+			sbUpdate.append("SET ").append(_sContextKey).append(" = ? , ").append(_sContextValue).append(" = ? ");
+			sbUpdate.append("WHERE ").append(_sContextKey).append(" = ?");
+
+			oConnection = getConnection();
+			oSelect = oConnection.prepareStatement(sbBuffer.toString());
+			oUpdate = oConnection.prepareStatement(sbUpdate.toString());
+			oResultSet = oSelect.executeQuery();
+			while (oResultSet.next()) {
+				byte[] baKey = oResultSet.getBytes(1);
+				byte[] baValue = oResultSet.getBytes(2);
+				if (!JavaStorageCodec.isSerialized(baKey) && !JavaStorageCodec.isSerialized(baValue))
+					continue;
+				try {
+					oUpdate.setBytes(1, encodeKey(decodeKey(baKey)));
+					oUpdate.setBytes(2, encode(decode(baValue)));
+					oUpdate.setBytes(3, baKey);
+					oUpdate.executeUpdate();
+					iMigrated++;
+				}
+				catch (IOException e) {
+					iFailed++;
+				}
+				catch (ClassNotFoundException e) {
+					iFailed++;
+				}
+			}
+			_systemLogger.log(Level.INFO, MODULE, sMethod, "Migrated " + iMigrated + " rows in " + _sTableName
+					+ ((iFailed > 0) ? ", could not decode " + iFailed + " rows" : ""));
+		}
+		catch (Exception e) {
+			_systemLogger.log(Level.WARNING, MODULE, sMethod, "An error occured while migrating rows", e);
+			throw new ASelectStorageException(Errors.ERROR_ASELECT_STORAGE_INSERT, e);
+		}
+		finally {
+			try {
+				if (oResultSet != null)
+					oResultSet.close();
+				if (oSelect != null)
+					oSelect.close();
+				if (oUpdate != null)
+					oUpdate.close();
+			}
+			catch (SQLException e) {
+				_systemLogger.log(Level.FINE, MODULE, sMethod, "Could not close database resource.", e);
+			}
+			finally {
+				_oConnectionHandler.releaseConnection(oConnection);
+			}
 		}
-		return oResponse;
 	}
 }
\ No newline at end of file
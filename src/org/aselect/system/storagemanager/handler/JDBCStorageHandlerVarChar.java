@@ -17,6 +17,8 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.logging.Level;
 
 import org.aselect.system.error.Errors;
@@ -31,6 +33,17 @@ import org.aselect.system.utils.crypto.Auxiliary;
 @Deprecated
 public class JDBCStorageHandlerVarChar extends JDBCStorageHandler
 {
+	/**
+	 * Index columns are not supported by this handler.
+	 * 
+	 * @return an empty map
+	 * @see org.aselect.system.storagemanager.handler.JDBCStorageHandler#getIndexColumns()
+	 */
+	@Override
+	protected Map<String, String> getIndexColumns()
+	{
+		return new HashMap<String, String>();
+	}
 	
 	/**
 	 * Returns a particular object from the database.
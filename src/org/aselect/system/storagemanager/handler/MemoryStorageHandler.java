@@ -11,16 +11,27 @@
  */
 package org.aselect.system.storagemanager.handler;
 
+import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 
 import org.aselect.system.configmanager.ConfigManager;
 import org.aselect.system.error.Errors;
+import org.aselect.system.exception.ASelectConfigException;
 import org.aselect.system.exception.ASelectStorageException;
 import org.aselect.system.logging.SystemLogger;
 import org.aselect.system.sam.agent.SAMAgent;
+import org.aselect.system.storagemanager.ICountingStorageHandler;
+import org.aselect.system.storagemanager.IIndexedStorageHandler;
+import org.aselect.system.storagemanager.IPagedStorageHandler;
 import org.aselect.system.storagemanager.IStorageHandler;
 import org.aselect.system.utils.Tools;
 import org.aselect.system.utils.Utils;
@@ -41,8 +52,14 @@ import org.aselect.system.utils.crypto.Auxiliary;
  *  		key: String &quot;timestamp&quot; value: Long xTimestamp
  *  		key: String &quot;contents&quot; value: Object xValue } 
  *  }
+ * </pre></code>
+ * For every configured <code>&lt;index field="..."/&gt;</code> a reverse map from field value to the keys having
+ * that value is kept, see {@link IIndexedStorageHandler}. <br>
+ * <br>
+ * The keys are also kept in a skip list ordered by timestamp, so {@link #cleanup(Long)} only visits the objects that
+ * have expired instead of all stored objects. <br>
  */
-public class MemoryStorageHandler implements IStorageHandler
+public class MemoryStorageHandler implements IIndexedStorageHandler, IPagedStorageHandler, ICountingStorageHandler
 {
 	/** The module name. */
 	public final static String MODULE = "MemoryStorageHandler";
@@ -54,6 +71,15 @@ public class MemoryStorageHandler implements IStorageHandler
 	private SystemLogger _systemLogger;
 	
 	private ConfigManager _configManager;
+
+	/** Keys ordered by timestamp, the container of a key holds its ExpiryKey under "expiry" */
+	private ConcurrentSkipListMap<ExpiryKey, Object> _slExpiry = new ConcurrentSkipListMap<ExpiryKey, Object>();
+
+	/** Tie breaker for keys having the same timestamp */
+	private final AtomicLong _lExpirySequence = new AtomicLong();
+
+	/** Reverse maps per indexed field: field value -> keys */
+	private HashMap<String, ConcurrentHashMap<Object, HashSet<Object>>> _htIndexes = new HashMap<String, ConcurrentHashMap<Object, HashSet<Object>>>();
 	
 	/**
 	 * Initialize the <code>MemoryStorageHandler</code>. <br>
@@ -93,9 +119,83 @@ public class MemoryStorageHandler implements IStorageHandler
 	public void init(Object oConfigSection, ConfigManager oConfigManager, SystemLogger systemLogger, SAMAgent oSAMAgent)
 	throws ASelectStorageException
 	{
+		String sMethod = "init";
 		_systemLogger = systemLogger;
 		_htStorage = new ConcurrentHashMap(200);
+		_slExpiry = new ConcurrentSkipListMap<ExpiryKey, Object>();
 		_configManager = oConfigManager;
+
+		_htIndexes = new HashMap<String, ConcurrentHashMap<Object, HashSet<Object>>>();
+		Object oIndexSection = null;
+		try {
+			oIndexSection = (oConfigSection == null) ? null : oConfigManager.getSection(oConfigSection, "index");
+		}
+		catch (ASelectConfigException e) {
+			// no indexes
+		}
+		try {
+			while (oIndexSection != null) {
+				String sField = oConfigManager.getParam(oIndexSection, "field");
+				_htIndexes.put(sField, new ConcurrentHashMap<Object, HashSet<Object>>());
+				_systemLogger.log(Level.INFO, MODULE, sMethod, "Index on field: " + sField);
+				oIndexSection = oConfigManager.getNextSection(oIndexSection);
+			}
+		}
+		catch (ASelectConfigException e) {
+			_systemLogger.log(Level.WARNING, MODULE, sMethod, "No valid 'field' config item in 'index' section found");
+			throw new ASelectStorageException(Errors.ERROR_ASELECT_INIT_ERROR, e);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.storagemanager.IIndexedStorageHandler#isIndexed(java.lang.String)
+	 */
+	public boolean isIndexed(String sField)
+	{
+		return _htIndexes.containsKey(sField);
+	}
+
+	/**
+	 * Get the stored objects having the given value in an indexed field. <br>
+	 * Keys whose object no longer has that value are dropped from the index.
+	 * 
+	 * @param sField
+	 *            the indexed field
+	 * @param oValue
+	 *            the value
+	 * @return the objects found
+	 * @throws ASelectStorageException
+	 *             if the field is not indexed
+	 * @see org.aselect.system.storagemanager.IIndexedStorageHandler#getByIndex(java.lang.String, java.lang.Object)
+	 */
+	public HashMap getByIndex(String sField, Object oValue)
+	throws ASelectStorageException
+	{
+		String sMethod = "getByIndex";
+		HashMap htReturnTable = new HashMap();
+
+		ConcurrentHashMap<Object, HashSet<Object>> htIndex = _htIndexes.get(sField);
+		if (htIndex == null) {
+			_systemLogger.log(Level.WARNING, MODULE, sMethod, "Field is not indexed: " + sField);
+			throw new ASelectStorageException(Errors.ERROR_ASELECT_STORAGE_RETRIEVE);
+		}
+		HashSet<Object> hsKeys = (oValue == null) ? null : htIndex.get(oValue);
+		if (hsKeys == null)
+			return htReturnTable;
+
+		ArrayList<Object> alKeys;
+		synchronized (hsKeys) {
+			alKeys = new ArrayList<Object>(hsKeys);
+		}
+		for (Object oKey : alKeys) {
+			HashMap htStorageContainer = (HashMap) _htStorage.get(oKey);
+			if (oValue.equals(getIndexValue(htStorageContainer, sField)))
+				htReturnTable.put(oKey, htStorageContainer.get("contents"));
+			else  // left behind by a concurrent update
+				removeFromIndex(htIndex, oValue, oKey);
+		}
+		_systemLogger.log(Level.FINER, MODULE, sMethod, "field=" + sField + " found=" + htReturnTable.size());
+		return htReturnTable;
 	}
 
 	/**
@@ -176,7 +276,8 @@ public class MemoryStorageHandler implements IStorageHandler
 
 	// added 1.5.4
 	/**
-	 * Returns the number of objects stored in memory.
+	 * Returns the number of objects stored in memory. <br>
+	 * The <code>ConcurrentHashMap</code> keeps a running count, the objects are not traversed.
 	 * 
 	 * @return the count
 	 * @throws ASelectStorageException
@@ -217,6 +318,31 @@ public class MemoryStorageHandler implements IStorageHandler
 		return htReturnTable;
 	}
 
+	/**
+	 * Get a range of the keys in memory, the stored objects are not touched.
+	 * 
+	 * @param iFirst
+	 *            the number of keys to skip
+	 * @param iMax
+	 *            the maximum number of keys to return
+	 * @return the keys
+	 * @throws ASelectStorageException
+	 *             the a select storage exception
+	 * @see org.aselect.system.storagemanager.IPagedStorageHandler#getKeys(int, int)
+	 */
+	public List getKeys(int iFirst, int iMax)
+	throws ASelectStorageException
+	{
+		ArrayList alKeys = new ArrayList();
+		Enumeration eKeys = _htStorage.keys();
+		for (int i = 0; eKeys.hasMoreElements() && alKeys.size() < iMax; i++) {
+			Object oKey = eKeys.nextElement();
+			if (i >= iFirst)
+				alKeys.add(oKey);
+		}
+		return alKeys;
+	}
+
 	
 	////////////////////////////////////////////////////////////////////////////////////////////////////
 	public void put(Object oKey, Object oValue, Long lTimestamp, IStorageHandler.UpdateMode eMode)
@@ -232,13 +358,14 @@ public class MemoryStorageHandler implements IStorageHandler
 			put(oKey, oValue, lTimestamp);
 			break;
 		case INSERTONLY: // do create, throw exception if key exists
-			synchronized (_htStorage) {
-				if ( containsKey(oKey) ) {
-					throw new ASelectStorageException(Errors.ERROR_ASELECT_STORAGE_DUPLICATE_KEY);
-				} else {
-					put(oKey, oValue, lTimestamp);
-				}
+			// atomic insert-if-absent, no global lock needed
+			lTimestamp = prepareValue(oKey, oValue, lTimestamp);
+			HashMap htStorageContainer = createContainer(oKey, oValue, lTimestamp);
+			if (_htStorage.putIfAbsent(oKey, htStorageContainer) != null) {
+				throw new ASelectStorageException(Errors.ERROR_ASELECT_STORAGE_DUPLICATE_KEY);
 			}
+			addExpiry(oKey, htStorageContainer);
+			updateIndexes(oKey, null, htStorageContainer);
 			break;
 		default:	// do the old stuff for backward compatibility
 			put(oKey, oValue, lTimestamp);
@@ -247,8 +374,22 @@ public class MemoryStorageHandler implements IStorageHandler
 	
 	}
 	////////////////////////////////////////////////////////////////////////////////////////////////////	
-	
-	
+
+	/**
+	 * Put object in memory and report whether the key is new.
+	 * 
+	 * @see org.aselect.system.storagemanager.ICountingStorageHandler#putCounted(java.lang.Object, java.lang.Object,
+	 *      java.lang.Long, org.aselect.system.storagemanager.IStorageHandler.UpdateMode)
+	 */
+	public boolean putCounted(Object oKey, Object oValue, Long lTimestamp, IStorageHandler.UpdateMode eMode)
+	throws ASelectStorageException
+	{
+		if (eMode == IStorageHandler.UpdateMode.INSERTONLY) {
+			put(oKey, oValue, lTimestamp, eMode);
+			return true;
+		}
+		return store(oKey, oValue, lTimestamp);
+	}
 	
 	/**
 	 * Put object in memory.
@@ -265,6 +406,17 @@ public class MemoryStorageHandler implements IStorageHandler
 	 */
 	public void put(Object oKey, Object oValue, Long lTimestamp)
 	throws ASelectStorageException
+	{
+		store(oKey, oValue, lTimestamp);
+	}
+
+	/**
+	 * Put object in memory.
+	 * 
+	 * @return <code>true</code> if the key was not stored before
+	 */
+	private boolean store(Object oKey, Object oValue, Long lTimestamp)
+	throws ASelectStorageException
 	{
 		String sMethod = "put";
 		_systemLogger.log(Level.FINEST, MODULE, sMethod, "this=" + this); // +" store="+_htStorage);
@@ -273,6 +425,62 @@ public class MemoryStorageHandler implements IStorageHandler
 //		_systemLogger.log(Level.FINEST, MODULE, sMethod, "MSH put(" + Utils.firstPartOf(oKey.toString(), 30) + ") ="
 //				+ Auxiliary.obfuscate(oValue.toString()) + " TS=" + lTimestamp);
 
+		lTimestamp = prepareValue(oKey, oValue, lTimestamp);
+		HashMap htStorageContainer = createContainer(oKey, oValue, lTimestamp);
+		try {
+			// synchronized (_htStorage) {
+			HashMap htOldContainer = (HashMap) _htStorage.put(oKey, htStorageContainer);
+			// }
+			addExpiry(oKey, htStorageContainer);
+			removeExpiry(htOldContainer);
+			updateIndexes(oKey, htOldContainer, htStorageContainer);
+			return htOldContainer == null;
+		}
+		catch (NullPointerException eNP) {
+			_systemLogger.log(Level.WARNING, MODULE, sMethod, "Empty (null) key-object supplied", eNP);
+			throw new ASelectStorageException(Errors.ERROR_ASELECT_STORAGE_INSERT, eNP);
+		}
+	}
+
+	/**
+	 * Prepare a value before it is stored. <br>
+	 * <br>
+	 * Called by every put, whatever the update mode, before the value is stored. By default the value and timestamp
+	 * are stored as given. Subclasses can add their own items to the value or keep the stored timestamp.
+	 * 
+	 * @param oKey
+	 *            the key
+	 * @param oValue
+	 *            the value, may be changed
+	 * @param lTimestamp
+	 *            the timestamp
+	 * @return the timestamp to store
+	 * @throws ASelectStorageException
+	 *             if the value cannot be stored
+	 */
+	protected Long prepareValue(Object oKey, Object oValue, Long lTimestamp)
+	throws ASelectStorageException
+	{
+		return lTimestamp;
+	}
+
+	/**
+	 * Create the storage container for a value.
+	 * 
+	 * @param oKey
+	 *            the key, used for logging only
+	 * @param oValue
+	 *            the value
+	 * @param lTimestamp
+	 *            the timestamp
+	 * @return the container
+	 * @throws ASelectStorageException
+	 *             if the value is null
+	 */
+	private HashMap createContainer(Object oKey, Object oValue, Long lTimestamp)
+	throws ASelectStorageException
+	{
+		String sMethod = "put";
 		HashMap htStorageContainer = new HashMap();
 		try {
 			htStorageContainer.put("timestamp", lTimestamp);
@@ -284,15 +492,86 @@ public class MemoryStorageHandler implements IStorageHandler
 			_systemLogger.log(Level.WARNING, MODULE, sMethod, "The supplied value was null", eNP);
 			throw new ASelectStorageException(Errors.ERROR_ASELECT_STORAGE_INSERT, eNP);
 		}
-		try {
-			// synchronized (_htStorage) {
-			_htStorage.put(oKey, htStorageContainer);
-			// }
+		if (!_htIndexes.isEmpty()) {
+			// Keep the indexed values as stored, the value itself may be changed by the caller later on
+			HashMap<String, Object> htIndexValues = new HashMap<String, Object>();
+			if (oValue instanceof Map) {
+				for (String sField : _htIndexes.keySet()) {
+					Object oIndexValue = ((Map) oValue).get(sField);
+					if (oIndexValue != null)
+						htIndexValues.put(sField, oIndexValue);
+				}
+			}
+			htStorageContainer.put("index", htIndexValues);
 		}
-		catch (NullPointerException eNP) {
-			_systemLogger.log(Level.WARNING, MODULE, sMethod, "Empty (null) key-object supplied", eNP);
-			throw new ASelectStorageException(Errors.ERROR_ASELECT_STORAGE_INSERT, eNP);
+		if (lTimestamp != null) {
+			long lExpiry = getExpiryTimestamp(oValue, lTimestamp.longValue());
+			htStorageContainer.put("expiry", new ExpiryKey(lExpiry, _lExpirySequence.incrementAndGet()));
+		}
+		return htStorageContainer;
+	}
+
+	/**
+	 * Add a stored container to the expiry skip list. <br>
+	 * Must be called after the container was stored, an entry left behind by a concurrent remove is dropped by
+	 * cleanup().
+	 */
+	private void addExpiry(Object oKey, HashMap htStorageContainer)
+	{
+		ExpiryKey oExpiryKey = (ExpiryKey) htStorageContainer.get("expiry");
+		if (oExpiryKey != null)
+			_slExpiry.put(oExpiryKey, oKey);
+	}
+
+	/**
+	 * Get the timestamp that determines the position of an object in the expiry skip list. <br>
+	 * <br>
+	 * By default this is the timestamp of the object. Subclasses having their own expiry rules can return an earlier
+	 * time, so their objects are found by {@link #getExpiredKeys(Long)} in time.
+	 * 
+	 * @param oValue
+	 *            the object being stored
+	 * @param lTimestamp
+	 *            the timestamp of the object
+	 * @return the timestamp to use for the expiry skip list
+	 */
+	protected long getExpiryTimestamp(Object oValue, long lTimestamp)
+	{
+		return lTimestamp;
+	}
+
+	/**
+	 * Get the keys of the objects that expired at the given time, earliest first. <br>
+	 * <br>
+	 * Only the expired part of the expiry skip list is visited, the objects themselves are not removed. Entries left
+	 * behind by a concurrent remove are dropped.
+	 * 
+	 * @param lTimestamp
+	 *            the expiry time, see {@link #cleanup(Long)}
+	 * @return the keys
+	 */
+	protected List getExpiredKeys(Long lTimestamp)
+	{
+		LinkedHashSet hsKeys = new LinkedHashSet();
+		Map<ExpiryKey, Object> htExpired = _slExpiry.headMap(new ExpiryKey(lTimestamp.longValue(), Long.MAX_VALUE), true);
+		for (Map.Entry<ExpiryKey, Object> entry : htExpired.entrySet()) {
+			HashMap htStorageContainer = (HashMap) _htStorage.get(entry.getValue());
+			if (htStorageContainer == null || htStorageContainer.get("expiry") != entry.getKey())
+				_slExpiry.remove(entry.getKey());
+			else
+				hsKeys.add(entry.getValue());
 		}
+		return new ArrayList(hsKeys);
+	}
+
+	/**
+	 * Remove the entry of a container from the expiry skip list.
+	 */
+	private void removeExpiry(HashMap htStorageContainer)
+	{
+		Object oExpiryKey = (htStorageContainer == null) ? null : htStorageContainer.get("expiry");
+		if (oExpiryKey != null)
+			_slExpiry.remove(oExpiryKey);
 	}
 
 	/**
@@ -312,10 +591,13 @@ public class MemoryStorageHandler implements IStorageHandler
 		_systemLogger.log(Level.FINER, MODULE, sMethod, "MSH remove(" + Utils.firstPartOf(oKey.toString(), 30) + ") ");
 		try {
 			// synchronized (_htStorage) {
-			if (_htStorage.remove(oKey) == null) {
+			HashMap htOldContainer = (HashMap) _htStorage.remove(oKey);
+			if (htOldContainer == null) {
 				_systemLogger.log(Level.WARNING, MODULE, sMethod, "Could not remove object: " + oKey);
 				throw new ASelectStorageException(Errors.ERROR_ASELECT_STORAGE_NO_SUCH_KEY);
 			}
+			removeExpiry(htOldContainer);
+			updateIndexes(oKey, htOldContainer, null);
 			// }
 		}
 		catch (NullPointerException eNP) {
@@ -337,10 +619,15 @@ public class MemoryStorageHandler implements IStorageHandler
 		// synchronized (_htStorage) {
 		_htStorage.clear();
 		// }
+		_slExpiry.clear();
+		for (ConcurrentHashMap<Object, HashSet<Object>> htIndex : _htIndexes.values())
+			htIndex.clear();
 	}
 
 	/**
-	 * Removes the objects from memory table that have been expired.
+	 * Removes the objects from memory table that have been expired. <br>
+	 * Only the expired part of the expiry skip list is visited. An object is only removed when its own timestamp has
+	 * expired, an object listed earlier by {@link #getExpiryTimestamp(Object, long)} is listed again at its timestamp.
 	 * 
 	 * @param lTimestamp
 	 *            the l timestamp
@@ -352,20 +639,30 @@ public class MemoryStorageHandler implements IStorageHandler
 	throws ASelectStorageException
 	{
 		String sMethod = "cleanup";
-		int countAll = 0, countRemoved = 0;
+		int countAll = _htStorage.size(), countRemoved = 0;
 
 		_systemLogger.log(Level.FINER, MODULE, sMethod, " CleanupTime=" + lTimestamp);
 		// synchronized (_htStorage) {
-		Enumeration eKeys = _htStorage.keys();
-		while (eKeys.hasMoreElements()) {
-			Object oKey = eKeys.nextElement();
+		Map<ExpiryKey, Object> htExpired = _slExpiry.headMap(new ExpiryKey(lTimestamp.longValue(), Long.MAX_VALUE), true);
+		for (Map.Entry<ExpiryKey, Object> entry : htExpired.entrySet()) {
+			Object oKey = entry.getValue();
+			_slExpiry.remove(entry.getKey());
 
-			countAll++;
 			HashMap htStorageContainer = (HashMap)_htStorage.get(oKey);
+			if (htStorageContainer == null || htStorageContainer.get("expiry") != entry.getKey())
+				continue;  // removed or replaced in the mean time
 			Long lStorageTime = (Long)htStorageContainer.get("timestamp");
 			_systemLogger.log(Level.FINER, MODULE, sMethod, "StorageTime=" + lStorageTime);
+			if (lStorageTime != null && lStorageTime.longValue() > lTimestamp.longValue()) {
+				// Listed earlier by getExpiryTimestamp(), but not expired: list it again at its own timestamp
+				HashMap htLaterContainer = new HashMap(htStorageContainer);
+				htLaterContainer.put("expiry", new ExpiryKey(lStorageTime.longValue(), _lExpirySequence.incrementAndGet()));
+				if (_htStorage.replace(oKey, htStorageContainer, htLaterContainer))
+					addExpiry(oKey, htLaterContainer);
+				continue;
+			}
 
-			if (lTimestamp.longValue() >= lStorageTime.longValue()) {
+			if (_htStorage.remove(oKey, htStorageContainer)) {
 				// Try, report left-over sessions
 				
 //				HashMap hm = (HashMap)htStorageContainer.get("contents");	// RH, 20130614, o 	// unfortunately we cannot be sure this is a HashMap
@@ -376,7 +673,7 @@ public class MemoryStorageHandler implements IStorageHandler
 						Tools.calculateAndReportSensorData(_configManager, _systemLogger, "srv_mem", (String)oKey, hm, null, false);
 					}
 				}
-				_htStorage.remove(oKey);
+				updateIndexes(oKey, htStorageContainer, null);
 				countRemoved++;
 				String sTxt = Utils.firstPartOf(oKey.toString(), 30);
 				_systemLogger.log(Level.FINEST, MODULE, sMethod, "MSH Key=" + sTxt + " TimeStamp=" + lStorageTime
@@ -389,6 +686,76 @@ public class MemoryStorageHandler implements IStorageHandler
 				+ " removed " + countRemoved + " left " + countLeft);
 	}
 
+	/**
+	 * Update the indexes after the container of a key was replaced.
+	 * 
+	 * @param oKey
+	 *            the key
+	 * @param htOldContainer
+	 *            the previous container, <code>null</code> if none
+	 * @param htNewContainer
+	 *            the new container, <code>null</code> if removed
+	 */
+	private void updateIndexes(Object oKey, HashMap htOldContainer, HashMap htNewContainer)
+	{
+		if (_htIndexes.isEmpty())
+			return;
+		for (Map.Entry<String, ConcurrentHashMap<Object, HashSet<Object>>> entry : _htIndexes.entrySet()) {
+			Object oOldValue = getIndexValue(htOldContainer, entry.getKey());
+			Object oNewValue = getIndexValue(htNewContainer, entry.getKey());
+			if (oOldValue != null && !oOldValue.equals(oNewValue))
+				removeFromIndex(entry.getValue(), oOldValue, oKey);
+			if (oNewValue != null && !oNewValue.equals(oOldValue))
+				addToIndex(entry.getValue(), oNewValue, oKey);
+		}
+	}
+
+	/**
+	 * Get the value of an indexed field as it was stored in the container.
+	 */
+	private static Object getIndexValue(HashMap htStorageContainer, String sField)
+	{
+		Map htIndexValues = (htStorageContainer == null) ? null : (Map) htStorageContainer.get("index");
+		return (htIndexValues == null) ? null : htIndexValues.get(sField);
+	}
+
+	/**
+	 * Add a key to the index, the key set of a value is locked while it is changed.
+	 */
+	private static void addToIndex(ConcurrentHashMap<Object, HashSet<Object>> htIndex, Object oValue, Object oKey)
+	{
+		while (true) {
+			HashSet<Object> hsKeys = htIndex.get(oValue);
+			if (hsKeys == null) {
+				hsKeys = new HashSet<Object>();
+				HashSet<Object> hsPrevious = htIndex.putIfAbsent(oValue, hsKeys);
+				if (hsPrevious != null)
+					hsKeys = hsPrevious;
+			}
+			synchronized (hsKeys) {
+				if (htIndex.get(oValue) == hsKeys) {  // not removed in the mean time
+					hsKeys.add(oKey);
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Remove a key from the index, an empty key set is removed as well.
+	 */
+	private static void removeFromIndex(ConcurrentHashMap<Object, HashSet<Object>> htIndex, Object oValue, Object oKey)
+	{
+		HashSet<Object> hsKeys = htIndex.get(oValue);
+		if (hsKeys == null)
+			return;
+		synchronized (hsKeys) {
+			hsKeys.remove(oKey);
+			if (hsKeys.isEmpty())
+				htIndex.remove(oValue, hsKeys);
+		}
+	}
+
 	/**
 	 * Clear the storage <code>HashMap</code>.
 	 * 
@@ -400,6 +767,7 @@ public class MemoryStorageHandler implements IStorageHandler
 			_htStorage.clear();
 			_htStorage = null;
 		}
+		_slExpiry.clear();
 	}
 
 	/**
@@ -437,4 +805,30 @@ public class MemoryStorageHandler implements IStorageHandler
 		_systemLogger.log(Level.FINER, MODULE, "containsKey", "Key=" + Utils.firstPartOf(oKey.toString(), 30));
 		return _htStorage.containsKey(oKey);
 	}
+
+	/**
+	 * Position of a stored object in the expiry skip list.
+	 */
+	private static final class ExpiryKey implements Comparable<ExpiryKey>
+	{
+		private final long _lTimestamp;
+		private final long _lSequence;
+
+		private ExpiryKey(long lTimestamp, long lSequence) {
+			_lTimestamp = lTimestamp;
+			_lSequence = lSequence;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Comparable#compareTo(java.lang.Object)
+		 */
+		public int compareTo(ExpiryKey oOther)
+		{
+			if (_lTimestamp != oOther._lTimestamp)
+				return (_lTimestamp < oOther._lTimestamp) ? -1 : 1;
+			if (_lSequence != oOther._lSequence)
+				return (_lSequence < oOther._lSequence) ? -1 : 1;
+			return 0;
+		}
+	}
 }
\ No newline at end of file
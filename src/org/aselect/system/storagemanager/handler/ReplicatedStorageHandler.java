@@ -0,0 +1,1176 @@
+/*
+ * * Copyright (c) Anoigo. All rights reserved.
+ *
+ * A-Select is a trademark registered by SURFnet bv.
+ *
+ * This program is distributed under the EUPL 1.0 (http://osor.eu/eupl)
+ * See the included LICENSE file for details.
+ *
+ * If you did not receive a copy of the LICENSE
+ * please contact Anoigo. (http://www.anoigo.nl)
+ */
+package org.aselect.system.storagemanager.handler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.aselect.system.configmanager.ConfigManager;
+import org.aselect.system.error.Errors;
+import org.aselect.system.exception.ASelectConfigException;
+import org.aselect.system.exception.ASelectStorageException;
+import org.aselect.system.logging.SystemLogger;
+import org.aselect.system.sam.agent.SAMAgent;
+import org.aselect.system.storagemanager.ICountingStorageHandler;
+import org.aselect.system.storagemanager.IDeltaStorageHandler;
+import org.aselect.system.storagemanager.IIndexedStorageHandler;
+import org.aselect.system.storagemanager.IPagedStorageHandler;
+import org.aselect.system.storagemanager.IStorageHandler;
+import org.aselect.system.storagemanager.codec.IStorageCodec;
+
+/**
+ * In-memory storage handler that is replicated to the other A-Select servers of a cluster. <br>
+ * <br>
+ * <b>Description:</b> <br>
+ * Every server keeps all items in a local storage handler, by default the {@link MemoryStorageHandler}. Reads are
+ * served from the local copy, writes are applied locally and sent to the other servers in the background (local-read,
+ * async-write). The configuration is read from the <code>replication</code> section in the storage handler section:
+ * <ul>
+ * <li><code>handler</code>: optional, class of the local storage handler, default {@link #DEFAULT_HANDLER}, it is
+ * initialized using the same storage handler section</li>
+ * <li><code>listen_port</code>: TCP port on which the changes of the other servers are received</li>
+ * <li><code>listen_address</code>: optional, local address to listen on, default all addresses</li>
+ * <li><code>secret</code>: shared secret of the cluster, the servers prove it to each other when connecting and use it
+ * to encrypt and authenticate every change</li>
+ * <li><code>codec</code>: optional, the {@link IStorageCodec} used to send the items, default
+ * {@link #DEFAULT_CODEC}</li>
+ * <li><code>queue</code>: optional, maximum number of changes waiting for a server, default 100000</li>
+ * <li><code>timeout</code>: optional, timeout in seconds for connecting and for a silent connection, default 5</li>
+ * <li><code>retry</code>: optional, seconds between connection attempts, default 5</li>
+ * <li><code>name</code>: optional, name used in the statistics, default the storage handler id</li>
+ * <li><code>peer</code>: one section for every other server, with the <code>host</code> and <code>port</code> it
+ * listens on</li>
+ * </ul>
+ * Whenever a connection to a server is made, including the start of either server, all local items are sent to that
+ * server (anti-entropy). The receiving server keeps the item with the newest timestamp, so the clocks of the servers
+ * must be synchronized. Removed items are remembered until they expire, so they are not restored by such a resync.
+ * When the queue of a server overflows, the queue is dropped and a resync is done instead. <br>
+ * <br>
+ * Both sides of a connection prove the secret using a fresh nonce of the other side. After that every message is
+ * encrypted with AES in counter mode and followed by a MAC over its sequence number and the encrypted message. Both
+ * keys are derived from the secret and both nonces, so they differ per connection. A message that is changed, replayed
+ * or dropped closes the connection. The protection is only as strong as the secret, which must be long and random.
+ * A received item only replaces a local item with an older or the same timestamp, and is ignored
+ * when the key was removed later. Each server runs its own cleanup, using the replicated timestamps. <br>
+ * <br>
+ * <b>Concurrency issues:</b> <br>
+ * Thread-safe. Changes of one server arrive at another server in the order they were made, changes of different
+ * servers to the same key are not ordered. A key is locked (one of {@link #LOCK_STRIPES} locks) while a local change
+ * is applied and queued, and while a received change is compared with the local item and applied, so the newest
+ * version always wins. <code>INSERTONLY</code> only checks the local copy. <br>
+ *
+ * @author Anoigo
+ */
+public class ReplicatedStorageHandler implements IIndexedStorageHandler, IPagedStorageHandler, IDeltaStorageHandler,
+		ICountingStorageHandler
+{
+	/** The module name. */
+	public final static String MODULE = "ReplicatedStorageHandler";
+
+	/** The local storage handler when none is configured */
+	public static final String DEFAULT_HANDLER = "org.aselect.system.storagemanager.handler.MemoryStorageHandler";
+
+	/** The codec used when none is configured */
+	public static final String DEFAULT_CODEC = "org.aselect.system.storagemanager.codec.BinaryStorageCodec";
+
+	private static final int DEFAULT_QUEUE = 100000;
+	private static final int DEFAULT_TIMEOUT = 5;
+	private static final int DEFAULT_RETRY = 5;
+
+	private static final String MAC_ALGORITHM = "HmacSHA256";
+	private static final int MAC_LENGTH = 32;
+	private static final int NONCE_LENGTH = 16;
+	private static final String CIPHER_ALGORITHM = "AES/CTR/NoPadding";
+	private static final int CIPHER_KEY_LENGTH = 16;
+
+	/** Number of locks the keys are spread over, a power of two */
+	private static final int LOCK_STRIPES = 256;
+
+	/** Labels of the handshake proofs and the connection key, so one can not be used as another */
+	private static final byte PROOF_SENDER = 1;
+	private static final byte PROOF_RECEIVER = 2;
+	private static final byte CHANNEL_KEY = 3;
+	private static final byte CIPHER_KEY = 4;
+	private static final int MAX_MESSAGE = 64 * 1024 * 1024;
+
+	/** Message types */
+	private static final byte MSG_PING = 0;
+	private static final byte MSG_PUT = 1;
+	private static final byte MSG_REMOVE = 2;
+	private static final byte MSG_TOUCH = 3;
+	private static final byte MSG_CLEAR = 4;
+	private static final byte MSG_SYNC_PUT = 5;
+	private static final byte MSG_SYNC_REMOVE = 6;
+	private static final byte[] PING = new byte[] { MSG_PING };
+
+	/** All replicated handlers by name, for the statistics */
+	private static final ConcurrentHashMap<String, ReplicatedStorageHandler> _htReplicas = new ConcurrentHashMap<String, ReplicatedStorageHandler>();
+
+	private SystemLogger _systemLogger;
+	private IStorageHandler _oHandler;
+	private IStorageCodec _oCodec;
+	private String _sName;
+	private byte[] _baSecret;
+	private int _iQueueSize;
+	private int _iTimeout;
+	private long _lRetry;
+
+	/** Identifies this instance, so it does not connect to itself */
+	private final String _sNodeId = UUID.randomUUID().toString();
+	private final SecureRandom _oRandom = new SecureRandom();
+
+	private ServerSocket _oServerSocket;
+	private final List<Peer> _alPeers = new CopyOnWriteArrayList<Peer>();
+	private final Set<Socket> _hsReceiving = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+	private volatile boolean _bActive;
+
+	/** Keys removed on this server with the time of removal, sent during a resync */
+	private final ConcurrentHashMap<Object, Long> _htRemoved = new ConcurrentHashMap<Object, Long>();
+
+	/** Locks a key while it is changed, see getLock() */
+	private final Object[] _aLocks = new Object[LOCK_STRIPES];
+	{
+		for (int i = 0; i < LOCK_STRIPES; i++)
+			_aLocks[i] = new Object();
+	}
+
+	private final AtomicLong _lReceived = new AtomicLong();
+	private final AtomicLong _lRejected = new AtomicLong();
+
+	/**
+	 * Initialize the local storage handler and start the replication. <br>
+	 * <br>
+	 *
+	 * @param oConfigSection
+	 *            the storage handler section
+	 * @param oConfigManager
+	 *            the config manager
+	 * @param systemLogger
+	 *            the system logger
+	 * @param oSAMAgent
+	 *            the SAM agent
+	 * @throws ASelectStorageException
+	 *             if the configuration is invalid, the local handler fails to initialize or the port can not be used
+	 * @see org.aselect.system.storagemanager.IStorageHandler#init(java.lang.Object,
+	 *      org.aselect.system.configmanager.ConfigManager, org.aselect.system.logging.SystemLogger,
+	 *      org.aselect.system.sam.agent.SAMAgent)
+	 */
+	public void init(Object oConfigSection, ConfigManager oConfigManager, SystemLogger systemLogger, SAMAgent oSAMAgent)
+	throws ASelectStorageException
+	{
+		String sMethod = "init";
+		_systemLogger = systemLogger;
+
+		Object oReplicationSection = null;
+		int iListenPort = 0;
+		try {
+			oReplicationSection = oConfigManager.getSection(oConfigSection, "replication");
+			iListenPort = Integer.parseInt(oConfigManager.getParam(oReplicationSection, "listen_port"));
+			_baSecret = oConfigManager.getParam(oReplicationSection, "secret").getBytes(StandardCharsets.UTF_8);
+		}
+		catch (ASelectConfigException e) {
+			_systemLogger.log(Level.WARNING, MODULE, sMethod, "No valid 'replication' section with 'listen_port' and 'secret' items found");
+			throw new ASelectStorageException(Errors.ERROR_ASELECT_INIT_ERROR, e);
+		}
+		catch (NumberFormatException e) {
+			_systemLogger.log(Level.WARNING, MODULE, sMethod, "Invalid 'listen_port' item in 'replication' section");
+			throw new ASelectStorageException(Errors.ERROR_ASELECT_INIT_ERROR, e);
+		}
+
+		try {
+			_iQueueSize = Integer.parseInt(getOptionalParam(oConfigManager, oReplicationSection, "queue", "" + DEFAULT_QUEUE));
+			_iTimeout = 1000 * Integer.parseInt(getOptionalParam(oConfigManager, oReplicationSection, "timeout", "" + DEFAULT_TIMEOUT));
+			_lRetry = 1000L * Integer.parseInt(getOptionalParam(oConfigManager, oReplicationSection, "retry", "" + DEFAULT_RETRY));
+		}
+		catch (NumberFormatException e) {
+			_systemLogger.log(Level.WARNING, MODULE, sMethod, "Invalid 'queue', 'timeout' or 'retry' item in 'replication' section");
+			throw new ASelectStorageException(Errors.ERROR_ASELECT_INIT_ERROR, e);
+		}
+		String sId = getOptionalParam(oConfigManager, oConfigSection, "id", MODULE);
+		_sName = getOptionalParam(oConfigManager, oReplicationSection, "name", sId);
+
+		String sCodec = getOptionalParam(oConfigManager, oReplicationSection, "codec", DEFAULT_CODEC);
+		String sHandlerClass = getOptionalParam(oConfigManager, oReplicationSection, "handler", DEFAULT_HANDLER);
+		try {
+			_oCodec = (IStorageCodec) Class.forName(sCodec).newInstance();
+			_oHandler = (IStorageHandler) Class.forName(sHandlerClass).newInstance();
+		}
+		catch (Exception e) {
+			_systemLogger.log(Level.WARNING, MODULE, sMethod, "Cannot instantiate codec " + sCodec + " or storage handler "
+					+ sHandlerClass, e);
+			throw new ASelectStorageException(Errors.ERROR_ASELECT_INIT_ERROR, e);
+		}
+
+		try {
+			Object oPeerSection = oConfigManager.getSection(oReplicationSection, "peer");
+			while (oPeerSection != null) {
+				String sHost = oConfigManager.getParam(oPeerSection, "host");
+				int iPort = Integer.parseInt(oConfigManager.getParam(oPeerSection, "port"));
+				_alPeers.add(new Peer(sHost, iPort));
+				oPeerSection = oConfigManager.getNextSection(oPeerSection);
+			}
+		}
+		catch (ASelectConfigException e) {
+			if (!_alPeers.isEmpty()) {
+				_systemLogger.log(Level.WARNING, MODULE, sMethod, "A 'peer' section needs a 'host' and a 'port' item");
+				throw new ASelectStorageException(Errors.ERROR_ASELECT_INIT_ERROR, e);
+			}
+			_systemLogger.log(Level.WARNING, MODULE, sMethod, "No 'peer' sections found, the items are not replicated");
+		}
+		catch (NumberFormatException e) {
+			_systemLogger.log(Level.WARNING, MODULE, sMethod, "Invalid 'port' item in 'peer' section");
+			throw new ASelectStorageException(Errors.ERROR_ASELECT_INIT_ERROR, e);
+		}
+
+		_oHandler.init(oConfigSection, oConfigManager, systemLogger, oSAMAgent);
+
+		String sListenAddress = getOptionalParam(oConfigManager, oReplicationSection, "listen_address", null);
+		try {
+			_oServerSocket = new ServerSocket();
+			_oServerSocket.setReuseAddress(true);
+			_oServerSocket.bind((sListenAddress == null) ? new InetSocketAddress(iListenPort)
+					: new InetSocketAddress(InetAddress.getByName(sListenAddress), iListenPort));
+		}
+		catch (IOException e) {
+			_systemLogger.log(Level.WARNING, MODULE, sMethod, "Cannot listen on port " + iListenPort, e);
+			_oHandler.destroy();
+			throw new ASelectStorageException(Errors.ERROR_ASELECT_INIT_ERROR, e);
+		}
+
+		_bActive = true;
+		Thread oAcceptor = new Acceptor();
+		oAcceptor.setName(MODULE + "-" + _sName);
+		oAcceptor.setDaemon(true);
+		oAcceptor.start();
+		for (Peer oPeer : _alPeers) {
+			oPeer.setName(MODULE + "-" + _sName + "-" + oPeer._sHost + ":" + oPeer._iPort);
+			oPeer.setDaemon(true);
+			oPeer.start();
+		}
+		_htReplicas.put(_sName, this);
+		_systemLogger.log(Level.INFO, MODULE, sMethod, _sName + ": " + sHandlerClass + " replicated to " + _alPeers.size()
+				+ " servers, listening on port " + iListenPort);
+	}
+
+	/**
+	 * Get the statistics of all replicated handlers. <br>
+	 * <br>
+	 *
+	 * @return key handler name, value a readable summary of the replication state
+	 */
+	public static HashMap<String, String> getReplicationStatistics()
+	{
+		HashMap<String, String> htStats = new HashMap<String, String>();
+		for (Map.Entry<String, ReplicatedStorageHandler> entry : _htReplicas.entrySet()) {
+			htStats.put(entry.getKey(), entry.getValue().getStatistics());
+		}
+		return htStats;
+	}
+
+	/**
+	 * Get the statistics of this handler.
+	 *
+	 * @return a readable summary of the replication state
+	 */
+	public String getStatistics()
+	{
+		StringBuffer sbStats = new StringBuffer("received=");
+		sbStats.append(_lReceived.get());
+		sbStats.append(" rejected=").append(_lRejected.get());
+		sbStats.append(" removed=").append(_htRemoved.size());
+		for (Peer oPeer : _alPeers) {
+			sbStats.append(" [").append(oPeer._sHost).append(":").append(oPeer._iPort);
+			sbStats.append(oPeer._bConnected ? " connected" : " disconnected");
+			sbStats.append(" queued=").append(oPeer._oQueue.size());
+			sbStats.append(" sent=").append(oPeer._lSent.get());
+			sbStats.append(" resyncs=").append(oPeer._lResyncs.get());
+			sbStats.append(" failures=").append(oPeer._lFailures.get()).append("]");
+		}
+		return sbStats.toString();
+	}
+
+	/**
+	 * Get the local handler.
+	 *
+	 * @return the handler
+	 */
+	public IStorageHandler getHandler()
+	{
+		return _oHandler;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.storagemanager.IStorageHandler#get(java.lang.Object)
+	 */
+	public Object get(Object oKey)
+	throws ASelectStorageException
+	{
+		return _oHandler.get(oKey);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.storagemanager.IStorageHandler#containsKey(java.lang.Object)
+	 */
+	public boolean containsKey(Object oKey)
+	throws ASelectStorageException
+	{
+		return _oHandler.containsKey(oKey);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.storagemanager.IStorageHandler#getTimestamp(java.lang.Object)
+	 */
+	public long getTimestamp(Object oKey)
+	throws ASelectStorageException
+	{
+		return _oHandler.getTimestamp(oKey);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.storagemanager.IStorageHandler#getAll()
+	 */
+	public HashMap getAll()
+	throws ASelectStorageException
+	{
+		return _oHandler.getAll();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.storagemanager.IStorageHandler#getCount()
+	 */
+	public long getCount()
+	throws ASelectStorageException
+	{
+		return _oHandler.getCount();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.storagemanager.IPagedStorageHandler#getKeys(int, int)
+	 */
+	public List getKeys(int iFirst, int iMax)
+	throws ASelectStorageException
+	{
+		if (_oHandler instanceof IPagedStorageHandler)
+			return ((IPagedStorageHandler) _oHandler).getKeys(iFirst, iMax);
+
+		List lKeys = new ArrayList(_oHandler.getAll().keySet());
+		return lKeys.subList(Math.min(iFirst, lKeys.size()), Math.min(iFirst + iMax, lKeys.size()));
+	}
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.storagemanager.IIndexedStorageHandler#isIndexed(java.lang.String)
+	 */
+	public boolean isIndexed(String sField)
+	{
+		return (_oHandler instanceof IIndexedStorageHandler) && ((IIndexedStorageHandler) _oHandler).isIndexed(sField);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.storagemanager.IIndexedStorageHandler#getByIndex(java.lang.String, java.lang.Object)
+	 */
+	public HashMap getByIndex(String sField, Object oValue)
+	throws ASelectStorageException
+	{
+		if (!isIndexed(sField))
+			throw new ASelectStorageException(Errors.ERROR_ASELECT_STORAGE_RETRIEVE);
+		return ((IIndexedStorageHandler) _oHandler).getByIndex(sField, oValue);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.storagemanager.IStorageHandler#put(java.lang.Object, java.lang.Object, java.lang.Long)
+	 */
+	public void put(Object oKey, Object oValue, Long lTimestamp)
+	throws ASelectStorageException
+	{
+		store(oKey, oValue, lTimestamp, null);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.storagemanager.IStorageHandler#put(java.lang.Object, java.lang.Object, java.lang.Long,
+	 *      org.aselect.system.storagemanager.IStorageHandler.UpdateMode)
+	 */
+	public void put(Object oKey, Object oValue, Long lTimestamp, UpdateMode eMode)
+	throws ASelectStorageException
+	{
+		store(oKey, oValue, lTimestamp, eMode);
+	}
+
+	/**
+	 * Store an item like {@link #put(Object, Object, Long, UpdateMode)}. <br>
+	 * <br>
+	 *
+	 * @return <code>true</code> if the local handler reports the key as new, <code>false</code> if it does not know
+	 * @see org.aselect.system.storagemanager.ICountingStorageHandler#putCounted(java.lang.Object, java.lang.Object,
+	 *      java.lang.Long, org.aselect.system.storagemanager.IStorageHandler.UpdateMode)
+	 */
+	public boolean putCounted(Object oKey, Object oValue, Long lTimestamp, UpdateMode eMode)
+	throws ASelectStorageException
+	{
+		return store(oKey, oValue, lTimestamp, eMode);
+	}
+
+	/**
+	 * Store an item locally and send it to the other servers. <br>
+	 * The item is encoded first, so the other servers receive the value as it was when it was stored.
+	 *
+	 * @return <code>true</code> if the local handler reports the key as new
+	 */
+	private boolean store(Object oKey, Object oValue, Long lTimestamp, UpdateMode eMode)
+	throws ASelectStorageException
+	{
+		byte[] baMessage = _alPeers.isEmpty() ? null : createMessage(MSG_PUT, oKey, lTimestamp.longValue(), oValue);
+		boolean bInserted = false;
+		synchronized (getLock(oKey)) {  // queued in the order the changes were applied
+			if (eMode == null)
+				_oHandler.put(oKey, oValue, lTimestamp);
+			else if (_oHandler instanceof ICountingStorageHandler)
+				bInserted = ((ICountingStorageHandler) _oHandler).putCounted(oKey, oValue, lTimestamp, eMode);
+			else
+				_oHandler.put(oKey, oValue, lTimestamp, eMode);
+			_htRemoved.remove(oKey);
+			send(baMessage);
+		}
+		return bInserted;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.storagemanager.IDeltaStorageHandler#touch(java.lang.Object, java.lang.Long)
+	 */
+	public boolean touch(Object oKey, Long lTimestamp)
+	throws ASelectStorageException
+	{
+		if (!(_oHandler instanceof IDeltaStorageHandler))
+			return false;
+		byte[] baMessage = _alPeers.isEmpty() ? null : createMessage(MSG_TOUCH, oKey, lTimestamp.longValue(), null);
+		synchronized (getLock(oKey)) {
+			if (!((IDeltaStorageHandler) _oHandler).touch(oKey, lTimestamp))
+				return false;
+			send(baMessage);
+		}
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.storagemanager.IStorageHandler#remove(java.lang.Object)
+	 */
+	public void remove(Object oKey)
+	throws ASelectStorageException
+	{
+		long lNow = System.currentTimeMillis();
+		byte[] baMessage = _alPeers.isEmpty() ? null : createMessage(MSG_REMOVE, oKey, lNow, null);
+		synchronized (getLock(oKey)) {
+			try {
+				_oHandler.remove(oKey);
+			}
+			finally {
+				// also when not found locally, the other servers may still have it
+				if (baMessage != null)
+					_htRemoved.put(oKey, Long.valueOf(lNow));
+				send(baMessage);
+			}
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.storagemanager.IStorageHandler#removeAll()
+	 */
+	public void removeAll()
+	throws ASelectStorageException
+	{
+		_oHandler.removeAll();
+		if (!_alPeers.isEmpty())
+			send(createMessage(MSG_CLEAR, null, 0, null));
+	}
+
+	/**
+	 * Remove the expired items from the local handler. <br>
+	 * <br>
+	 * <b>Description:</b> <br>
+	 * The other servers are not notified, they remove the same items during their own cleanup. Removed keys are
+	 * forgotten once items stored at that time have expired. <br>
+	 *
+	 * @param lTimestamp
+	 *            the expiration time
+	 * @throws ASelectStorageException
+	 *             if the cleanup fails
+	 * @see org.aselect.system.storagemanager.IStorageHandler#cleanup(java.lang.Long)
+	 */
+	public void cleanup(Long lTimestamp)
+	throws ASelectStorageException
+	{
+		Iterator<Long> itRemoved = _htRemoved.values().iterator();
+		while (itRemoved.hasNext()) {
+			if (itRemoved.next().longValue() <= lTimestamp.longValue())
+				itRemoved.remove();
+		}
+		_oHandler.cleanup(lTimestamp);
+		_systemLogger.log(Level.FINE, MODULE, "cleanup", _sName + ": " + getStatistics());
+	}
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.storagemanager.IStorageHandler#destroy()
+	 */
+	public void destroy()
+	{
+		_bActive = false;
+		_htReplicas.remove(_sName, this);
+		if (_oServerSocket != null) {
+			try {
+				_oServerSocket.close();  // stops the acceptor
+			}
+			catch (IOException e) {
+				_systemLogger.log(Level.FINE, MODULE, "destroy", "Cannot close server socket", e);
+			}
+		}
+		for (Peer oPeer : _alPeers) {
+			oPeer.interrupt();
+			oPeer.disconnect();
+		}
+		for (Socket oSocket : _hsReceiving) {
+			try {
+				oSocket.close();  // stops the receiver
+			}
+			catch (IOException e) {
+				// ignore
+			}
+		}
+		if (_oHandler != null)
+			_oHandler.destroy();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.storagemanager.IStorageHandler#isMaximum(long)
+	 */
+	public boolean isMaximum(long lItemCount)
+	throws ASelectStorageException
+	{
+		return _oHandler.isMaximum(lItemCount);
+	}
+
+	/**
+	 * Queue a message for all servers.
+	 */
+	private void send(byte[] baMessage)
+	{
+		if (baMessage == null)
+			return;
+		for (Peer oPeer : _alPeers)
+			oPeer.send(baMessage);
+	}
+
+	/**
+	 * Create a message: type, key, timestamp and the optional value.
+	 *
+	 * @throws ASelectStorageException
+	 *             if the key or the value can not be encoded
+	 */
+	private byte[] createMessage(byte bType, Object oKey, long lTimestamp, Object oValue)
+	throws ASelectStorageException
+	{
+		try {
+			ByteArrayOutputStream osMessage = new ByteArrayOutputStream(256);
+			DataOutputStream dosMessage = new DataOutputStream(osMessage);
+			dosMessage.writeByte(bType);
+			if (oKey != null) {
+				byte[] baKey = _oCodec.encodeKey(oKey);
+				dosMessage.writeInt(baKey.length);
+				dosMessage.write(baKey);
+				dosMessage.writeLong(lTimestamp);
+			}
+			if (oValue != null) {
+				byte[] baValue = _oCodec.encode(oValue);
+				dosMessage.writeInt(baValue.length);
+				dosMessage.write(baValue);
+			}
+			dosMessage.flush();
+			return osMessage.toByteArray();
+		}
+		catch (IOException e) {
+			_systemLogger.log(Level.WARNING, MODULE, "createMessage", "Cannot encode item for replication", e);
+			throw new ASelectStorageException(Errors.ERROR_ASELECT_STORAGE_INSERT, e);
+		}
+	}
+
+	/**
+	 * Apply a message received from another server to the local handler.
+	 */
+	private void apply(byte[] baMessage)
+	throws IOException, ClassNotFoundException, ASelectStorageException
+	{
+		DataInputStream disMessage = new DataInputStream(new ByteArrayInputStream(baMessage));
+		byte bType = disMessage.readByte();
+		if (bType == MSG_PING)
+			return;
+		if (bType == MSG_CLEAR) {
+			_oHandler.removeAll();
+			return;
+		}
+
+		Object oKey = _oCodec.decodeKey(readBytes(disMessage));
+		long lTimestamp = disMessage.readLong();
+		synchronized (getLock(oKey)) {  // no local change between the comparison and applying the change
+			apply(bType, oKey, lTimestamp, disMessage);
+		}
+	}
+
+	/**
+	 * Apply a change to a key, the key is locked.
+	 */
+	private void apply(byte bType, Object oKey, long lTimestamp, DataInputStream disMessage)
+	throws IOException, ClassNotFoundException, ASelectStorageException
+	{
+		switch (bType) {
+		case MSG_PUT:
+			// keep the newest version, changes of one server arrive in order so the same timestamp is newer
+			Long lPutRemoved = _htRemoved.get(oKey);
+			if (lTimestamp >= getLocalTimestamp(oKey) && (lPutRemoved == null || lPutRemoved.longValue() < lTimestamp)) {
+				_oHandler.put(oKey, _oCodec.decode(readBytes(disMessage)), Long.valueOf(lTimestamp));
+				_htRemoved.remove(oKey, lPutRemoved);
+			}
+			break;
+		case MSG_REMOVE:
+			// remember the removal, so an older version received later is not restored
+			recordRemoved(oKey, lTimestamp);
+			long lStored = getLocalTimestamp(oKey);
+			if (lStored != 0 && lStored <= lTimestamp)
+				_oHandler.remove(oKey);
+			break;
+		case MSG_TOUCH:
+			if (_oHandler instanceof IDeltaStorageHandler)
+				((IDeltaStorageHandler) _oHandler).touch(oKey, Long.valueOf(lTimestamp));
+			break;
+		case MSG_SYNC_PUT:
+			// keep the newest version, and do not restore an item that was removed later
+			Long lRemoved = _htRemoved.get(oKey);
+			if (lTimestamp > getLocalTimestamp(oKey) && (lRemoved == null || lRemoved.longValue() < lTimestamp))
+				_oHandler.put(oKey, _oCodec.decode(readBytes(disMessage)), Long.valueOf(lTimestamp));
+			break;
+		case MSG_SYNC_REMOVE:
+			long lLocal = getLocalTimestamp(oKey);
+			if (lLocal != 0 && lLocal <= lTimestamp)
+				_oHandler.remove(oKey);
+			break;
+		default:
+			throw new IOException("Unknown message type " + bType);
+		}
+	}
+
+	/**
+	 * Get the lock of a key, shared by the keys with the same hash bits.
+	 */
+	private Object getLock(Object oKey)
+	{
+		int iHash = oKey.hashCode();
+		return _aLocks[(iHash ^ (iHash >>> 16)) & (LOCK_STRIPES - 1)];
+	}
+
+	/**
+	 * Remember a removed key, keeping the latest time of removal.
+	 */
+	private void recordRemoved(Object oKey, long lTimestamp)
+	{
+		Long lNew = Long.valueOf(lTimestamp);
+		Long lOld = _htRemoved.putIfAbsent(oKey, lNew);
+		while (lOld != null && lOld.longValue() < lTimestamp && !_htRemoved.replace(oKey, lOld, lNew)) {
+			lOld = _htRemoved.putIfAbsent(oKey, lNew);
+		}
+	}
+
+	/**
+	 * Get the timestamp of a local item, 0 if not present.
+	 */
+	private long getLocalTimestamp(Object oKey)
+	{
+		try {
+			return _oHandler.containsKey(oKey) ? _oHandler.getTimestamp(oKey) : 0;
+		}
+		catch (ASelectStorageException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Send all local items and removed keys to a server.
+	 */
+	private int writeSync(Channel oChannel, DataOutputStream dosOut)
+	throws IOException
+	{
+		int iCount = 0;
+		HashMap htAll = null;
+		try {
+			htAll = _oHandler.getAll();
+		}
+		catch (ASelectStorageException e) {
+			throw new IOException("Cannot read local items", e);
+		}
+		for (Object oEntry : htAll.entrySet()) {
+			Map.Entry entry = (Map.Entry) oEntry;
+			long lTimestamp = getLocalTimestamp(entry.getKey());
+			if (lTimestamp == 0 || entry.getValue() == null)
+				continue;  // removed meanwhile
+			try {
+				oChannel.write(dosOut, createMessage(MSG_SYNC_PUT, entry.getKey(), lTimestamp, entry.getValue()));
+				iCount++;
+			}
+			catch (ASelectStorageException e) {
+				// logged, skip this item
+			}
+		}
+		for (Map.Entry<Object, Long> entry : _htRemoved.entrySet()) {
+			try {
+				oChannel.write(dosOut, createMessage(MSG_SYNC_REMOVE, entry.getKey(), entry.getValue().longValue(), null));
+			}
+			catch (ASelectStorageException e) {
+				// logged, skip this key
+			}
+		}
+		dosOut.flush();
+		return iCount;
+	}
+
+	private static byte[] readBytes(DataInputStream disIn)
+	throws IOException
+	{
+		int iLength = disIn.readInt();
+		if (iLength < 0 || iLength > MAX_MESSAGE)
+			throw new IOException("Invalid length " + iLength);
+		byte[] baBytes = new byte[iLength];
+		disIn.readFully(baBytes);
+		return baBytes;
+	}
+
+	/**
+	 * Compute the proof of the shared secret for a handshake.
+	 *
+	 * @param bRole
+	 *            {@link #PROOF_SENDER} or {@link #PROOF_RECEIVER}
+	 * @param baNonce
+	 *            the nonce of the other side
+	 * @param sNodeId
+	 *            the node id of the side giving the proof
+	 */
+	private byte[] sign(byte bRole, byte[] baNonce, String sNodeId)
+	throws IOException
+	{
+		Mac oMac = createMac(_baSecret);
+		oMac.update(bRole);
+		oMac.update(baNonce);
+		return oMac.doFinal(sNodeId.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static Mac createMac(byte[] baKey)
+	throws IOException
+	{
+		try {
+			Mac oMac = Mac.getInstance(MAC_ALGORITHM);
+			oMac.init(new SecretKeySpec(baKey, MAC_ALGORITHM));
+			return oMac;
+		}
+		catch (GeneralSecurityException e) {
+			throw new IOException("Cannot compute " + MAC_ALGORITHM, e);
+		}
+	}
+
+	/**
+	 * Encrypts and authenticates the messages of one connection. <br>
+	 * <br>
+	 * The messages of a connection form one AES/CTR key stream, every encrypted message is followed by a MAC over its
+	 * sequence number and the encrypted message, so a message can not be read, changed, replayed or dropped. The keys
+	 * are derived from the secret and the nonces of both sides of the handshake, a key stream is never used twice.
+	 * Used by one thread.
+	 */
+	private class Channel
+	{
+		private final Mac _oMac;
+		private final Cipher _oCipher;
+		private long _lSequence = 0;
+
+		/**
+		 * @param bSender
+		 *            <code>true</code> to encrypt, <code>false</code> to decrypt
+		 */
+		private Channel(byte[] baReceiverNonce, byte[] baSenderNonce, boolean bSender)
+		throws IOException
+		{
+			_oMac = createMac(deriveKey(CHANNEL_KEY, baReceiverNonce, baSenderNonce));
+			byte[] baCipherKey = Arrays.copyOf(deriveKey(CIPHER_KEY, baReceiverNonce, baSenderNonce), CIPHER_KEY_LENGTH);
+			try {
+				_oCipher = Cipher.getInstance(CIPHER_ALGORITHM);
+				_oCipher.init(bSender ? Cipher.ENCRYPT_MODE : Cipher.DECRYPT_MODE, new SecretKeySpec(baCipherKey, "AES"),
+						new IvParameterSpec(new byte[16]));
+			}
+			catch (GeneralSecurityException e) {
+				throw new IOException("Cannot use " + CIPHER_ALGORITHM, e);
+			}
+		}
+
+		private byte[] deriveKey(byte bLabel, byte[] baReceiverNonce, byte[] baSenderNonce)
+		throws IOException
+		{
+			Mac oKeyMac = createMac(_baSecret);
+			oKeyMac.update(bLabel);
+			oKeyMac.update(baReceiverNonce);
+			return oKeyMac.doFinal(baSenderNonce);
+		}
+
+		/**
+		 * Write a message encrypted, with its MAC.
+		 */
+		private void write(DataOutputStream dosOut, byte[] baMessage)
+		throws IOException
+		{
+			byte[] baEncrypted = crypt(baMessage);
+			dosOut.writeInt(baEncrypted.length);
+			dosOut.write(baEncrypted);
+			dosOut.write(sign(baEncrypted));
+		}
+
+		/**
+		 * Read a message, check its MAC and decrypt it.
+		 *
+		 * @return the message, <code>null</code> if the MAC is wrong
+		 */
+		private byte[] read(DataInputStream disIn)
+		throws IOException
+		{
+			byte[] baEncrypted = readBytes(disIn);
+			byte[] baMac = new byte[MAC_LENGTH];
+			disIn.readFully(baMac);
+			return MessageDigest.isEqual(baMac, sign(baEncrypted)) ? crypt(baEncrypted) : null;
+		}
+
+		/**
+		 * Encrypt or decrypt the next part of the key stream.
+		 */
+		private byte[] crypt(byte[] baInput)
+		throws IOException
+		{
+			byte[] baOutput = _oCipher.update(baInput);
+			if (baOutput == null)
+				baOutput = new byte[0];
+			if (baOutput.length != baInput.length)  // counter mode is a stream cipher
+				throw new IOException(CIPHER_ALGORITHM + " returned " + baOutput.length + " of " + baInput.length + " bytes");
+			return baOutput;
+		}
+
+		private byte[] sign(byte[] baMessage)
+		{
+			long lSequence = _lSequence++;
+			for (int i = 56; i >= 0; i -= 8) {
+				_oMac.update((byte) (lSequence >>> i));
+			}
+			return _oMac.doFinal(baMessage);
+		}
+	}
+
+	/**
+	 * Read an optional parameter.
+	 */
+	private static String getOptionalParam(ConfigManager oConfigManager, Object oSection, String sParam, String sDefault)
+	{
+		try {
+			return oConfigManager.getParam(oSection, sParam);
+		}
+		catch (ASelectConfigException e) {
+			return sDefault;
+		}
+	}
+
+	/**
+	 * Accepts the connections of the other servers.
+	 */
+	private class Acceptor extends Thread
+	{
+		@Override
+		public void run()
+		{
+			String sMethod = "run";
+			while (_bActive) {
+				try {
+					Socket oSocket = _oServerSocket.accept();
+					Thread oReceiver = new Receiver(oSocket);
+					oReceiver.setName(getName() + "-" + oSocket.getRemoteSocketAddress());
+					oReceiver.setDaemon(true);
+					oReceiver.start();
+				}
+				catch (IOException e) {
+					if (_bActive)
+						_systemLogger.log(Level.WARNING, MODULE, sMethod, "Cannot accept connection", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Receives the changes of one other server.
+	 */
+	private class Receiver extends Thread
+	{
+		private final Socket _oSocket;
+
+		private Receiver(Socket oSocket) {
+			_oSocket = oSocket;
+		}
+
+		@Override
+		public void run()
+		{
+			String sMethod = "run";
+			String sRemote = "" + _oSocket.getRemoteSocketAddress();
+			try {
+				_oSocket.setSoTimeout(_iTimeout);
+				DataInputStream disIn = new DataInputStream(new BufferedInputStream(_oSocket.getInputStream()));
+				DataOutputStream dosOut = new DataOutputStream(_oSocket.getOutputStream());
+
+				byte[] baNonce = new byte[NONCE_LENGTH];
+				_oRandom.nextBytes(baNonce);
+				dosOut.write(baNonce);
+				dosOut.writeUTF(_sNodeId);
+				dosOut.flush();
+				String sNodeId = disIn.readUTF();
+				byte[] baSenderNonce = new byte[NONCE_LENGTH];
+				disIn.readFully(baSenderNonce);
+				byte[] baProof = new byte[MAC_LENGTH];
+				disIn.readFully(baProof);
+				if (!MessageDigest.isEqual(baProof, sign(PROOF_SENDER, baNonce, sNodeId))) {
+					_systemLogger.log(Level.WARNING, MODULE, sMethod, "Connection from " + sRemote + " does not know the secret");
+					_lRejected.incrementAndGet();
+					return;
+				}
+				if (sNodeId.equals(_sNodeId))
+					return;  // a peer entry points to this server
+				dosOut.write(sign(PROOF_RECEIVER, baSenderNonce, _sNodeId));
+				dosOut.flush();
+				Channel oChannel = new Channel(baNonce, baSenderNonce, false);
+				_systemLogger.log(Level.INFO, MODULE, sMethod, _sName + ": receiving from " + sRemote);
+
+				// the sender pings every second, a silent connection is dead
+				_hsReceiving.add(_oSocket);
+				while (_bActive) {
+					byte[] baMessage = oChannel.read(disIn);
+					if (baMessage == null) {
+						_systemLogger.log(Level.WARNING, MODULE, sMethod, "Invalid MAC from " + sRemote + ", connection closed");
+						_lRejected.incrementAndGet();
+						break;
+					}
+					try {
+						apply(baMessage);
+						if (baMessage[0] != MSG_PING)
+							_lReceived.incrementAndGet();
+					}
+					catch (ClassNotFoundException e) {
+						_systemLogger.log(Level.WARNING, MODULE, sMethod, "Cannot decode item from " + sRemote, e);
+					}
+					catch (ASelectStorageException e) {
+						_systemLogger.log(Level.WARNING, MODULE, sMethod, "Cannot store item from " + sRemote, e);
+					}
+					catch (RuntimeException e) {
+						if (!_bActive)
+							break;  // the local handler was destroyed meanwhile
+						_systemLogger.log(Level.WARNING, MODULE, sMethod, "Cannot apply change from " + sRemote, e);
+					}
+				}
+			}
+			catch (IOException e) {
+				if (_bActive)
+					_systemLogger.log(Level.INFO, MODULE, sMethod, _sName + ": connection from " + sRemote + " closed: " + e);
+			}
+			finally {
+				_hsReceiving.remove(_oSocket);
+				try {
+					_oSocket.close();
+				}
+				catch (IOException e) {
+					// ignore
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sends the changes to one other server.
+	 */
+	private class Peer extends Thread
+	{
+		private final String _sHost;
+		private final int _iPort;
+		private final LinkedBlockingQueue<byte[]> _oQueue = new LinkedBlockingQueue<byte[]>(_iQueueSize);
+
+		/** Changes are only queued while connected, a connection starts with a resync */
+		private volatile boolean _bConnected;
+		private volatile boolean _bResync;
+		private volatile Socket _oSocket;
+		private Channel _oChannel;
+
+		private final AtomicLong _lSent = new AtomicLong();
+		private final AtomicLong _lResyncs = new AtomicLong();
+		private final AtomicLong _lFailures = new AtomicLong();
+
+		private Peer(String sHost, int iPort) {
+			_sHost = sHost;
+			_iPort = iPort;
+		}
+
+		/**
+		 * Queue a message, when the queue is full a resync is done instead.
+		 */
+		private void send(byte[] baMessage)
+		{
+			if (_bConnected && !_oQueue.offer(baMessage))
+				_bResync = true;
+		}
+
+		@Override
+		public void run()
+		{
+			String sMethod = "run";
+			while (_bActive) {
+				try {
+					DataOutputStream dosOut = connect();
+					if (dosOut == null) {
+						_systemLogger.log(Level.INFO, MODULE, sMethod, _sName + ": " + _sHost + ":" + _iPort + " is this server, not replicated");
+						_alPeers.remove(this);
+						return;
+					}
+					_systemLogger.log(Level.INFO, MODULE, sMethod, _sName + ": connected to " + _sHost + ":" + _iPort);
+					_bResync = true;
+					while (_bActive) {
+						if (_bResync) {
+							// the local items include all changes made before this point
+							_bResync = false;
+							_oQueue.clear();
+							int iCount = writeSync(_oChannel, dosOut);
+							_lResyncs.incrementAndGet();
+							_systemLogger.log(Level.INFO, MODULE, sMethod, _sName + ": sent " + iCount + " items to " + _sHost + ":" + _iPort);
+						}
+						byte[] baMessage = _oQueue.poll();
+						if (baMessage == null) {
+							dosOut.flush();
+							baMessage = _oQueue.poll(1, TimeUnit.SECONDS);
+						}
+						if (baMessage == null) {
+							_oChannel.write(dosOut, PING);  // also detects a broken connection
+							dosOut.flush();
+							continue;
+						}
+						_oChannel.write(dosOut, baMessage);
+						_lSent.incrementAndGet();
+					}
+				}
+				catch (IOException e) {
+					_lFailures.incrementAndGet();
+					_systemLogger.log(Level.FINE, MODULE, sMethod, _sName + ": no connection to " + _sHost + ":" + _iPort + ": " + e);
+				}
+				catch (InterruptedException e) {
+					// destroyed
+				}
+				finally {
+					disconnect();
+				}
+				try {
+					if (_bActive)
+						Thread.sleep(_lRetry);
+				}
+				catch (InterruptedException e) {
+					// destroyed
+				}
+			}
+		}
+
+		/**
+		 * Connect, prove the shared secret and check the proof of the other server.
+		 *
+		 * @return the output stream, <code>null</code> if this peer is the local server
+		 */
+		private DataOutputStream connect()
+		throws IOException
+		{
+			Socket oSocket = new Socket();
+			_oSocket = oSocket;
+			oSocket.connect(new InetSocketAddress(_sHost, _iPort), _iTimeout);
+			oSocket.setSoTimeout(_iTimeout);
+			oSocket.setTcpNoDelay(true);
+			oSocket.setKeepAlive(true);
+
+			DataInputStream disIn = new DataInputStream(oSocket.getInputStream());
+			byte[] baNonce = new byte[NONCE_LENGTH];
+			disIn.readFully(baNonce);
+			String sNodeId = disIn.readUTF();
+			if (sNodeId.equals(_sNodeId))
+				return null;
+			byte[] baOwnNonce = new byte[NONCE_LENGTH];
+			_oRandom.nextBytes(baOwnNonce);
+			DataOutputStream dosOut = new DataOutputStream(new BufferedOutputStream(oSocket.getOutputStream(), 65536));
+			dosOut.writeUTF(_sNodeId);
+			dosOut.write(baOwnNonce);
+			dosOut.write(sign(PROOF_SENDER, baNonce, _sNodeId));
+			dosOut.flush();
+			byte[] baProof = new byte[MAC_LENGTH];
+			disIn.readFully(baProof);
+			if (!MessageDigest.isEqual(baProof, sign(PROOF_RECEIVER, baOwnNonce, sNodeId))) {
+				_systemLogger.log(Level.WARNING, MODULE, "connect", _sHost + ":" + _iPort + " does not know the secret");
+				throw new IOException(_sHost + ":" + _iPort + " does not know the secret");
+			}
+			_oChannel = new Channel(baNonce, baOwnNonce, true);
+			_bConnected = true;
+			return dosOut;
+		}
+
+		private void disconnect()
+		{
+			_bConnected = false;
+			_oQueue.clear();
+			Socket oSocket = _oSocket;
+			if (oSocket != null) {
+				try {
+					oSocket.close();
+				}
+				catch (IOException e) {
+					// ignore
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,843 @@
+/*
+ * * Copyright (c) Anoigo. All rights reserved.
+ *
+ * A-Select is a trademark registered by SURFnet bv.
+ *
+ * This program is distributed under the EUPL 1.0 (http://osor.eu/eupl)
+ * See the included LICENSE file for details.
+ *
+ * If you did not receive a copy of the LICENSE
+ * please contact Anoigo. (http://www.anoigo.nl)
+ */
+package org.aselect.system.storagemanager.handler;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+
+import org.aselect.system.configmanager.ConfigManager;
+import org.aselect.system.error.Errors;
+import org.aselect.system.exception.ASelectConfigException;
+import org.aselect.system.exception.ASelectStorageException;
+import org.aselect.system.logging.SystemLogger;
+import org.aselect.system.sam.agent.SAMAgent;
+import org.aselect.system.storagemanager.ICountingStorageHandler;
+import org.aselect.system.storagemanager.IDeltaStorageHandler;
+import org.aselect.system.storagemanager.IPagedStorageHandler;
+import org.aselect.system.storagemanager.IStorageHandler;
+import org.aselect.system.storagemanager.codec.IStorageCodec;
+import org.aselect.system.utils.Tools;
+import org.aselect.system.utils.Utils;
+
+/**
+ * Sharded memory storage handler. <br>
+ * <br>
+ * <b>Description:</b> <br>
+ * Memory storage for large numbers of items. The keys are spread over a number of shards, every shard has its own
+ * lock, so an insert-if-absent (INSERTONLY) only locks a single shard. Per item one small entry holding the timestamp
+ * and the value is kept, instead of a container <code>HashMap</code>. <br>
+ * <br>
+ * The entries of a shard are kept in the order they were written. This is usually the order of their timestamps, since
+ * the {@link org.aselect.system.storagemanager.StorageManager} uses the current time, so {@link #cleanup(Long)} only
+ * visits the expired entries. Entries written with an older timestamp than an earlier write (e.g. copies from another
+ * server by the {@link ReplicatedStorageHandler}) are also kept in a set per shard and checked one by one. <br>
+ * <br>
+ * Configuration in the storage handler section:
+ * <ul>
+ * <li><code>shards</code>: optional, number of shards, rounded up to a power of two, default 64</li>
+ * <li><code>offheap</code>: optional section, values are encoded and stored outside the Java heap in direct buffers,
+ * so they do not add to the garbage collection work. <code>size</code> is the maximum in megabytes, shared by the
+ * shards, when a shard is full its new items are refused. The number of shards is reduced when needed, so every shard
+ * gets at least 1 MB. <code>codec</code> is the {@link IStorageCodec}, default {@link #DEFAULT_CODEC}.</li>
+ * </ul>
+ * Off-heap values are decoded on every <code>get()</code>, so like with the {@link JDBCStorageHandler}, changes to a
+ * retrieved object must be stored using <code>put()</code>. Values larger than 1 MB are kept on the heap. <br>
+ * <br>
+ * No secondary indexes are kept, see {@link MemoryStorageHandler} when they are needed. <br>
+ * <br>
+ * <b>Concurrency issues:</b> <br>
+ * Thread-safe, a shard is locked while it is used. Values are encoded and decoded outside the lock. <br>
+ *
+ * @author Anoigo
+ */
+public class ShardedMemoryStorageHandler implements IPagedStorageHandler, IDeltaStorageHandler, ICountingStorageHandler
+{
+	/** The module name. */
+	public final static String MODULE = "ShardedMemoryStorageHandler";
+
+	/** The codec used for off-heap values when none is configured */
+	public static final String DEFAULT_CODEC = "org.aselect.system.storagemanager.codec.BinaryStorageCodec";
+
+	private static final int DEFAULT_SHARDS = 64;
+
+	private SystemLogger _systemLogger;
+	private ConfigManager _configManager;
+
+	private Shard[] _aShards;
+	private int _iShardMask;
+
+	/** Encodes off-heap values, <code>null</code> if values are kept on the heap */
+	private IStorageCodec _oCodec;
+
+	/**
+	 * Initialize the handler. <br>
+	 * <br>
+	 *
+	 * @param oConfigSection
+	 *            the storage handler section
+	 * @param oConfigManager
+	 *            the config manager
+	 * @param systemLogger
+	 *            the system logger
+	 * @param oSAMAgent
+	 *            the SAM agent
+	 * @throws ASelectStorageException
+	 *             if the configuration is invalid
+	 * @see org.aselect.system.storagemanager.IStorageHandler#init(java.lang.Object,
+	 *      org.aselect.system.configmanager.ConfigManager, org.aselect.system.logging.SystemLogger,
+	 *      org.aselect.system.sam.agent.SAMAgent)
+	 */
+	public void init(Object oConfigSection, ConfigManager oConfigManager, SystemLogger systemLogger, SAMAgent oSAMAgent)
+	throws ASelectStorageException
+	{
+		String sMethod = "init";
+		_systemLogger = systemLogger;
+		_configManager = oConfigManager;
+
+		int iShards = DEFAULT_SHARDS;
+		long lOffHeapSize = 0;
+		String sCodec = DEFAULT_CODEC;
+		try {
+			try {
+				iShards = Integer.parseInt(oConfigManager.getParam(oConfigSection, "shards"));
+			}
+			catch (ASelectConfigException e) {
+				// default
+			}
+			Object oOffHeapSection = null;
+			try {
+				oOffHeapSection = oConfigManager.getSection(oConfigSection, "offheap");
+			}
+			catch (ASelectConfigException e) {
+				// values on the heap
+			}
+			if (oOffHeapSection != null) {
+				try {
+					lOffHeapSize = 1024L * 1024L * Long.parseLong(oConfigManager.getParam(oOffHeapSection, "size"));
+				}
+				catch (ASelectConfigException e) {
+					_systemLogger.log(Level.WARNING, MODULE, sMethod, "No valid 'size' config item in 'offheap' section found");
+					throw new ASelectStorageException(Errors.ERROR_ASELECT_INIT_ERROR, e);
+				}
+				try {
+					sCodec = oConfigManager.getParam(oOffHeapSection, "codec");
+				}
+				catch (ASelectConfigException e) {
+					// default codec
+				}
+			}
+		}
+		catch (NumberFormatException e) {
+			_systemLogger.log(Level.WARNING, MODULE, sMethod, "Invalid 'shards' or offheap 'size' config item");
+			throw new ASelectStorageException(Errors.ERROR_ASELECT_INIT_ERROR, e);
+		}
+		if (iShards < 1 || lOffHeapSize < 0) {
+			_systemLogger.log(Level.WARNING, MODULE, sMethod, "The 'shards' and offheap 'size' must be positive");
+			throw new ASelectStorageException(Errors.ERROR_ASELECT_INIT_ERROR);
+		}
+		iShards = Integer.highestOneBit(iShards - 1) << 1;  // power of two
+		if (iShards == 0)
+			iShards = 1;
+		if (lOffHeapSize > 0 && lOffHeapSize / iShards < OffHeapArea.MAX_BLOCK) {
+			iShards = (int) Long.highestOneBit(lOffHeapSize / OffHeapArea.MAX_BLOCK);
+			_systemLogger.log(Level.INFO, MODULE, sMethod, "Number of shards reduced to " + iShards
+					+ ", every shard needs at least 1 MB off-heap");
+		}
+
+		if (lOffHeapSize > 0) {
+			try {
+				_oCodec = (IStorageCodec) Class.forName(sCodec).newInstance();
+			}
+			catch (Exception e) {
+				_systemLogger.log(Level.WARNING, MODULE, sMethod, "The configured codec is not a valid IStorageCodec: " + sCodec);
+				throw new ASelectStorageException(Errors.ERROR_ASELECT_INIT_ERROR, e);
+			}
+		}
+
+		_aShards = new Shard[iShards];
+		_iShardMask = iShards - 1;
+		for (int i = 0; i < iShards; i++)
+			_aShards[i] = new Shard((lOffHeapSize > 0) ? new OffHeapArea(lOffHeapSize / iShards) : null);
+		_systemLogger.log(Level.INFO, MODULE, sMethod, "shards=" + iShards
+				+ ((lOffHeapSize > 0) ? " offheap=" + (lOffHeapSize / (1024 * 1024)) + "MB codec=" + sCodec : ""));
+	}
+
+	/**
+	 * Get an object. <br>
+	 * <br>
+	 *
+	 * @param oKey
+	 *            the key
+	 * @return the object, a new copy if it is stored off-heap
+	 * @throws ASelectStorageException
+	 *             if the key is not found or the value cannot be decoded
+	 * @see org.aselect.system.storagemanager.IStorageHandler#get(java.lang.Object)
+	 */
+	public Object get(Object oKey)
+	throws ASelectStorageException
+	{
+		String sMethod = "get";
+		Shard oShard = getShard(oKey);
+		Entry oEntry;
+		byte[] baValue = null;
+		synchronized (oShard) {
+			oEntry = oShard._htEntries.get(oKey);
+			if (oEntry != null && oEntry._oValue == null)
+				baValue = oShard._oArea.read(oEntry._lAddress, oEntry._iLength);
+		}
+		if (oEntry == null) {
+			_systemLogger.log(Level.WARNING, MODULE, sMethod, "Key " + Utils.firstPartOf(oKey.toString(), 30)
+					+ " was not found, cause: " + Errors.ERROR_ASELECT_STORAGE_NO_SUCH_KEY);
+			throw new ASelectStorageException(Errors.ERROR_ASELECT_STORAGE_NO_SUCH_KEY);
+		}
+		return (baValue == null) ? oEntry._oValue : decode(baValue);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.storagemanager.IStorageHandler#getTimestamp(java.lang.Object)
+	 */
+	public long getTimestamp(Object oKey)
+	throws ASelectStorageException
+	{
+		Shard oShard = getShard(oKey);
+		synchronized (oShard) {
+			Entry oEntry = oShard._htEntries.get(oKey);
+			if (oEntry != null)
+				return oEntry._lTimestamp;
+		}
+		_systemLogger.log(Level.WARNING, MODULE, "getTimestamp", "The supplied key is not mapped to any value, cause: "
+				+ Errors.ERROR_ASELECT_STORAGE_NO_SUCH_KEY);
+		throw new ASelectStorageException(Errors.ERROR_ASELECT_STORAGE_NO_SUCH_KEY);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.storagemanager.IStorageHandler#getCount()
+	 */
+	public long getCount()
+	throws ASelectStorageException
+	{
+		long lCount = 0;
+		for (Shard oShard : _aShards) {
+			synchronized (oShard) {
+				lCount += oShard._htEntries.size();
+			}
+		}
+		return lCount;
+	}
+
+	/**
+	 * Get all objects, off-heap values are decoded. <br>
+	 * <br>
+	 *
+	 * @return the objects by key
+	 * @throws ASelectStorageException
+	 *             if a value cannot be decoded
+	 * @see org.aselect.system.storagemanager.IStorageHandler#getAll()
+	 */
+	public HashMap getAll()
+	throws ASelectStorageException
+	{
+		HashMap htReturnTable = new HashMap();
+		for (Shard oShard : _aShards) {
+			HashMap<Object, Object> htShard = new HashMap<Object, Object>();
+			synchronized (oShard) {
+				for (Map.Entry<Object, Entry> entry : oShard._htEntries.entrySet()) {
+					Entry oEntry = entry.getValue();
+					htShard.put(entry.getKey(), (oEntry._oValue != null) ? oEntry._oValue
+							: new OffHeapBytes(oShard._oArea.read(oEntry._lAddress, oEntry._iLength)));
+				}
+			}
+			for (Map.Entry<Object, Object> entry : htShard.entrySet()) {
+				Object oValue = entry.getValue();
+				htReturnTable.put(entry.getKey(), (oValue instanceof OffHeapBytes) ? decode(((OffHeapBytes) oValue)._baValue) : oValue);
+			}
+		}
+		return htReturnTable;
+	}
+
+	/**
+	 * Get a range of the keys, shard by shard, the values are not decoded.
+	 *
+	 * @param iFirst
+	 *            the number of keys to skip
+	 * @param iMax
+	 *            the maximum number of keys to return
+	 * @return the keys
+	 * @see org.aselect.system.storagemanager.IPagedStorageHandler#getKeys(int, int)
+	 */
+	public List getKeys(int iFirst, int iMax)
+	{
+		ArrayList alKeys = new ArrayList();
+		int iSkip = iFirst;
+		for (Shard oShard : _aShards) {
+			synchronized (oShard) {
+				int iSize = oShard._htEntries.size();
+				if (iSkip >= iSize) {
+					iSkip -= iSize;
+					continue;
+				}
+				for (Object oKey : oShard._htEntries.keySet()) {
+					if (alKeys.size() >= iMax)
+						return alKeys;
+					if (iSkip > 0)
+						iSkip--;
+					else
+						alKeys.add(oKey);
+				}
+			}
+		}
+		return alKeys;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.storagemanager.IStorageHandler#put(java.lang.Object, java.lang.Object, java.lang.Long)
+	 */
+	public void put(Object oKey, Object oValue, Long lTimestamp)
+	throws ASelectStorageException
+	{
+		store(oKey, oValue, lTimestamp, false);
+	}
+
+	/**
+	 * Store an object. <br>
+	 * <br>
+	 * INSERTONLY fails with a duplicate key error if the key exists, the other modes insert or replace the object.
+	 *
+	 * @param oKey
+	 *            the key
+	 * @param oValue
+	 *            the value
+	 * @param lTimestamp
+	 *            the timestamp
+	 * @param eMode
+	 *            the update mode
+	 * @throws ASelectStorageException
+	 *             if the key exists (INSERTONLY) or the off-heap storage is full
+	 * @see org.aselect.system.storagemanager.IStorageHandler#put(java.lang.Object, java.lang.Object, java.lang.Long,
+	 *      org.aselect.system.storagemanager.IStorageHandler.UpdateMode)
+	 */
+	public void put(Object oKey, Object oValue, Long lTimestamp, IStorageHandler.UpdateMode eMode)
+	throws ASelectStorageException
+	{
+		store(oKey, oValue, lTimestamp, eMode == IStorageHandler.UpdateMode.INSERTONLY);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.storagemanager.ICountingStorageHandler#putCounted(java.lang.Object, java.lang.Object,
+	 *      java.lang.Long, org.aselect.system.storagemanager.IStorageHandler.UpdateMode)
+	 */
+	public boolean putCounted(Object oKey, Object oValue, Long lTimestamp, IStorageHandler.UpdateMode eMode)
+	throws ASelectStorageException
+	{
+		return store(oKey, oValue, lTimestamp, eMode == IStorageHandler.UpdateMode.INSERTONLY);
+	}
+
+	/**
+	 * Store an object, encoding happens before the shard is locked.
+	 *
+	 * @return <code>true</code> if the key was not stored before
+	 */
+	private boolean store(Object oKey, Object oValue, Long lTimestamp, boolean bInsertOnly)
+	throws ASelectStorageException
+	{
+		String sMethod = "put";
+		if (oKey == null || oValue == null || lTimestamp == null) {
+			_systemLogger.log(Level.WARNING, MODULE, sMethod, "Empty (null) key, value or timestamp supplied");
+			throw new ASelectStorageException(Errors.ERROR_ASELECT_STORAGE_INSERT);
+		}
+		byte[] baValue = (_oCodec == null) ? null : encode(oValue);
+		if (baValue != null && baValue.length > OffHeapArea.MAX_BLOCK) {
+			_systemLogger.log(Level.FINE, MODULE, sMethod, "Value of " + baValue.length + " bytes kept on the heap");
+			baValue = null;
+		}
+
+		Shard oShard = getShard(oKey);
+		synchronized (oShard) {
+			if (bInsertOnly && oShard._htEntries.containsKey(oKey))
+				throw new ASelectStorageException(Errors.ERROR_ASELECT_STORAGE_DUPLICATE_KEY);
+
+			// Remove first, so the entry moves to the end
+			Entry oOldEntry = oShard._htEntries.remove(oKey);
+			// Release before allocating, so an update always finds room for a value of the same size
+			oShard.release(oOldEntry);
+
+			Entry oEntry;
+			if (baValue == null)
+				oEntry = new Entry(lTimestamp.longValue(), oValue, -1, 0);
+			else {
+				long lAddress = oShard._oArea.allocate(baValue.length);
+				if (lAddress < 0) {
+					if (oOldEntry != null) {  // keep the old value
+						oShard.retake(oOldEntry);
+						oShard.append(oKey, oOldEntry);
+					}
+					_systemLogger.log(Level.WARNING, MODULE, sMethod, "Off-heap storage is full");
+					throw new ASelectStorageException(Errors.ERROR_ASELECT_STORAGE_MAXIMUM_REACHED);
+				}
+				oShard._oArea.write(lAddress, baValue);
+				oEntry = new Entry(lTimestamp.longValue(), null, lAddress, baValue.length);
+			}
+			oShard.append(oKey, oEntry);
+			return oOldEntry == null;
+		}
+	}
+
+	/**
+	 * Set a new timestamp, the value is kept.
+	 *
+	 * @param oKey
+	 *            the key
+	 * @param lTimestamp
+	 *            the timestamp
+	 * @return <code>false</code> if the key was not found
+	 * @see org.aselect.system.storagemanager.IDeltaStorageHandler#touch(java.lang.Object, java.lang.Long)
+	 */
+	public boolean touch(Object oKey, Long lTimestamp)
+	{
+		Shard oShard = getShard(oKey);
+		synchronized (oShard) {
+			Entry oEntry = oShard._htEntries.remove(oKey);
+			if (oEntry == null)
+				return false;
+			oShard.append(oKey, new Entry(lTimestamp.longValue(), oEntry._oValue, oEntry._lAddress, oEntry._iLength));
+		}
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.storagemanager.IStorageHandler#remove(java.lang.Object)
+	 */
+	public void remove(Object oKey)
+	throws ASelectStorageException
+	{
+		String sMethod = "remove";
+		_systemLogger.log(Level.FINER, MODULE, sMethod, "remove(" + Utils.firstPartOf(oKey.toString(), 30) + ") ");
+		Shard oShard = getShard(oKey);
+		synchronized (oShard) {
+			Entry oEntry = oShard._htEntries.remove(oKey);
+			if (oEntry != null) {
+				oShard.forget(oKey);
+				oShard.release(oEntry);
+				return;
+			}
+		}
+		_systemLogger.log(Level.WARNING, MODULE, sMethod, "Could not remove object: " + oKey);
+		throw new ASelectStorageException(Errors.ERROR_ASELECT_STORAGE_NO_SUCH_KEY);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.storagemanager.IStorageHandler#removeAll()
+	 */
+	public void removeAll()
+	{
+		for (Shard oShard : _aShards) {
+			synchronized (oShard) {
+				oShard._htEntries.clear();
+				oShard._hsEarlier.clear();
+				oShard._lNewest = Long.MIN_VALUE;
+				if (oShard._oArea != null)
+					oShard._oArea.reset();
+			}
+		}
+	}
+
+	/**
+	 * Remove the objects that have expired. <br>
+	 * <br>
+	 * Per shard the entries are visited in the order they were written, until an entry newer than
+	 * <code>lTimestamp</code> is found. The entries that were written out of timestamp order are checked separately.
+	 * Sensor data of expired sessions is reported like the {@link MemoryStorageHandler} does.
+	 *
+	 * @param lTimestamp
+	 *            the expiration time
+	 * @see org.aselect.system.storagemanager.IStorageHandler#cleanup(java.lang.Long)
+	 */
+	public void cleanup(Long lTimestamp)
+	{
+		String sMethod = "cleanup";
+		long lCutoff = lTimestamp.longValue();
+		int countRemoved = 0;
+		long lOffHeapUsed = 0;
+
+		for (Shard oShard : _aShards) {
+			HashMap<Object, Object> htExpired = new HashMap<Object, Object>();
+			synchronized (oShard) {
+				Iterator<Map.Entry<Object, Entry>> itEntries = oShard._htEntries.entrySet().iterator();
+				while (itEntries.hasNext()) {
+					Map.Entry<Object, Entry> entry = itEntries.next();
+					Entry oEntry = entry.getValue();
+					if (oEntry._lTimestamp > lCutoff) {
+						if (!oShard._hsEarlier.isEmpty() && oShard._hsEarlier.contains(entry.getKey()))
+							continue;  // out of order, the next entry may have expired
+						break;
+					}
+					itEntries.remove();
+					oShard.forget(entry.getKey());
+					htExpired.put(entry.getKey(), (oEntry._oValue != null) ? oEntry._oValue
+							: new OffHeapBytes(oShard._oArea.read(oEntry._lAddress, oEntry._iLength)));
+					oShard.release(oEntry);
+				}
+				// Entries written out of order can be behind a newer entry
+				Iterator<Object> itEarlier = oShard._hsEarlier.iterator();
+				while (itEarlier.hasNext()) {
+					Object oKey = itEarlier.next();
+					Entry oEntry = oShard._htEntries.get(oKey);
+					if (oEntry != null && oEntry._lTimestamp > lCutoff)
+						continue;
+					itEarlier.remove();
+					if (oEntry == null)
+						continue;
+					oShard._htEntries.remove(oKey);
+					htExpired.put(oKey, (oEntry._oValue != null) ? oEntry._oValue
+							: new OffHeapBytes(oShard._oArea.read(oEntry._lAddress, oEntry._iLength)));
+					oShard.release(oEntry);
+				}
+				if (oShard._oArea != null)
+					lOffHeapUsed += oShard._oArea._lUsed;
+			}
+			countRemoved += htExpired.size();
+			for (Map.Entry<Object, Object> entry : htExpired.entrySet())
+				reportExpired(entry.getKey(), entry.getValue());
+		}
+		_systemLogger.log(Level.FINER, MODULE, sMethod, " CleanupTime=" + lTimestamp + " removed " + countRemoved
+				+ ((_oCodec != null) ? " offheap used " + lOffHeapUsed : ""));
+	}
+
+	/**
+	 * Report the sensor data of an expired session.
+	 */
+	private void reportExpired(Object oKey, Object oValue)
+	{
+		try {
+			if (oValue instanceof OffHeapBytes)
+				oValue = decode(((OffHeapBytes) oValue)._baValue);
+		}
+		catch (ASelectStorageException e) {
+			return;  // logged
+		}
+		if (oValue instanceof HashMap) {
+			HashMap hm = (HashMap) oValue;
+			if (hm.get("first_contact") != null)  // it's a session
+				Tools.calculateAndReportSensorData(_configManager, _systemLogger, "srv_mem", (String) oKey, hm, null, false);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.storagemanager.IStorageHandler#destroy()
+	 */
+	public void destroy()
+	{
+		if (_aShards == null)
+			return;
+		for (Shard oShard : _aShards) {
+			synchronized (oShard) {
+				oShard._htEntries.clear();
+				if (oShard._oArea != null)
+					oShard._oArea.free();
+			}
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.storagemanager.IStorageHandler#isMaximum(long)
+	 */
+	public boolean isMaximum(long lItemCount)
+	throws ASelectStorageException
+	{
+		return getCount() >= lItemCount;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.aselect.system.storagemanager.IStorageHandler#containsKey(java.lang.Object)
+	 */
+	public boolean containsKey(Object oKey)
+	{
+		Shard oShard = getShard(oKey);
+		synchronized (oShard) {
+			return oShard._htEntries.containsKey(oKey);
+		}
+	}
+
+	private Shard getShard(Object oKey)
+	{
+		int iHash = oKey.hashCode();
+		return _aShards[(iHash ^ (iHash >>> 16)) & _iShardMask];
+	}
+
+	private byte[] encode(Object oValue)
+	throws ASelectStorageException
+	{
+		try {
+			return _oCodec.encode(oValue);
+		}
+		catch (Exception e) {
+			_systemLogger.log(Level.WARNING, MODULE, "encode", "Could not encode value", e);
+			throw new ASelectStorageException(Errors.ERROR_ASELECT_STORAGE_INSERT, e);
+		}
+	}
+
+	private Object decode(byte[] baValue)
+	throws ASelectStorageException
+	{
+		try {
+			return _oCodec.decode(baValue);
+		}
+		catch (Exception e) {
+			_systemLogger.log(Level.WARNING, MODULE, "decode", "Could not decode value", e);
+			throw new ASelectStorageException(Errors.ERROR_ASELECT_STORAGE_RETRIEVE, e);
+		}
+	}
+
+	/**
+	 * A stored item, the value is either kept on the heap or at an address in the off-heap area.
+	 */
+	private static final class Entry
+	{
+		private final long _lTimestamp;
+		private final Object _oValue;
+		private final long _lAddress;
+		private final int _iLength;
+
+		private Entry(long lTimestamp, Object oValue, long lAddress, int iLength) {
+			_lTimestamp = lTimestamp;
+			_oValue = oValue;
+			_lAddress = lAddress;
+			_iLength = iLength;
+		}
+	}
+
+	/**
+	 * The entries of a shard in write order, the shard is the lock.
+	 */
+	private static final class Shard
+	{
+		private final LinkedHashMap<Object, Entry> _htEntries = new LinkedHashMap<Object, Entry>();
+		private final OffHeapArea _oArea;
+
+		/** The newest timestamp written */
+		private long _lNewest = Long.MIN_VALUE;
+
+		/** The keys of the entries that were written with an older timestamp than an earlier write */
+		private final HashSet<Object> _hsEarlier = new HashSet<Object>();
+
+		private Shard(OffHeapArea oArea) {
+			_oArea = oArea;
+		}
+
+		/**
+		 * Add an entry at the end, the previous entry of the key must have been removed.
+		 */
+		private void append(Object oKey, Entry oEntry)
+		{
+			_htEntries.put(oKey, oEntry);
+			if (oEntry._lTimestamp < _lNewest)
+				_hsEarlier.add(oKey);
+			else {
+				_lNewest = oEntry._lTimestamp;
+				forget(oKey);
+			}
+		}
+
+		/**
+		 * Forget that the entry of a key was written out of order.
+		 */
+		private void forget(Object oKey)
+		{
+			if (!_hsEarlier.isEmpty())
+				_hsEarlier.remove(oKey);
+		}
+
+		/**
+		 * Release the off-heap block of a removed entry.
+		 */
+		private void release(Entry oEntry)
+		{
+			if (oEntry != null && oEntry._oValue == null)
+				_oArea.release(oEntry._lAddress, oEntry._iLength);
+		}
+
+		/**
+		 * Take back the off-heap block of the entry released last, when the allocation that followed it failed.
+		 */
+		private void retake(Entry oEntry)
+		{
+			if (oEntry != null && oEntry._oValue == null)
+				_oArea.retake(oEntry._lAddress, oEntry._iLength);
+		}
+	}
+
+	/**
+	 * Encoded value copied from the off-heap area.
+	 */
+	private static final class OffHeapBytes
+	{
+		private final byte[] _baValue;
+
+		private OffHeapBytes(byte[] baValue) {
+			_baValue = baValue;
+		}
+	}
+
+	/**
+	 * Off-heap memory of a shard. <br>
+	 * <br>
+	 * Memory is taken from direct buffers (chunks) in blocks of a power of two bytes, from 64 bytes to 1 MB. Released
+	 * blocks are kept per size and reused, blocks are not merged. Used under the lock of the shard.
+	 */
+	private static final class OffHeapArea
+	{
+		private static final int MIN_SHIFT = 6;
+		private static final int MAX_SHIFT = 20;
+		private static final int MAX_BLOCK = 1 << MAX_SHIFT;
+		private static final int MAX_CHUNK = 16 * MAX_BLOCK;
+
+		private final int _iChunkSize;
+		private final int _iMaxChunks;
+		private final ArrayList<ByteBuffer> _alChunks = new ArrayList<ByteBuffer>();
+		private int _iCurrentChunk = -1;
+		private int _iChunkUsed = 0;
+		private long _lUsed = 0;
+
+		/** Released block addresses per size */
+		private final long[][] _laFree = new long[MAX_SHIFT + 1][];
+		private final int[] _iaFree = new int[MAX_SHIFT + 1];
+
+		/**
+		 * @param lLimit
+		 *            the maximum number of bytes, at least <code>MAX_BLOCK</code>, the chunks add up to at most this
+		 *            limit
+		 */
+		private OffHeapArea(long lLimit) {
+			_iMaxChunks = (int) Math.max(1, (lLimit + MAX_CHUNK - 1) / MAX_CHUNK);
+			_iChunkSize = (int) Math.max(MAX_BLOCK, lLimit / _iMaxChunks);
+		}
+
+		private static int getShift(int iLength)
+		{
+			return Math.max(MIN_SHIFT, 32 - Integer.numberOfLeadingZeros(Math.max(iLength, 1) - 1));
+		}
+
+		/**
+		 * @return the address (chunk number and offset) of a block of at least <code>iLength</code> bytes, or -1 if
+		 *         the limit is reached
+		 */
+		private long allocate(int iLength)
+		{
+			int iShift = getShift(iLength);
+			int iSize = 1 << iShift;
+			if (_iaFree[iShift] > 0) {
+				_lUsed += iSize;
+				return _laFree[iShift][--_iaFree[iShift]];
+			}
+			if (_iCurrentChunk < 0 || _iChunkUsed + iSize > _iChunkSize) {
+				if (_iCurrentChunk + 1 >= _iMaxChunks)
+					return -1;
+				if (_iCurrentChunk >= 0)
+					releaseRemainder();
+				_iCurrentChunk++;
+				if (_iCurrentChunk == _alChunks.size())
+					_alChunks.add(ByteBuffer.allocateDirect(_iChunkSize));
+				_iChunkUsed = 0;
+			}
+			long lAddress = ((long) _iCurrentChunk << 32) | _iChunkUsed;
+			_iChunkUsed += iSize;
+			_lUsed += iSize;
+			return lAddress;
+		}
+
+		/**
+		 * Keep the unused end of the current chunk as released blocks.
+		 */
+		private void releaseRemainder()
+		{
+			for (int iShift = MAX_SHIFT; iShift >= MIN_SHIFT; iShift--) {
+				while (_iChunkUsed + (1 << iShift) <= _iChunkSize) {
+					addFree(iShift, ((long) _iCurrentChunk << 32) | _iChunkUsed);
+					_iChunkUsed += 1 << iShift;
+				}
+			}
+		}
+
+		private void release(long lAddress, int iLength)
+		{
+			int iShift = getShift(iLength);
+			_lUsed -= 1 << iShift;
+			addFree(iShift, lAddress);
+		}
+
+		/**
+		 * Undo the last {@link #release(long, int)}, an {@link #allocate(int)} that failed in between leaves the
+		 * released blocks unchanged.
+		 */
+		private void retake(long lAddress, int iLength)
+		{
+			int iShift = getShift(iLength);
+			_lUsed += 1 << iShift;
+			_iaFree[iShift]--;  // lAddress is on top
+		}
+
+		private void addFree(int iShift, long lAddress)
+		{
+			long[] laFree = _laFree[iShift];
+			if (laFree == null)
+				laFree = _laFree[iShift] = new long[16];
+			else if (_iaFree[iShift] == laFree.length)
+				laFree = _laFree[iShift] = Arrays.copyOf(laFree, laFree.length * 2);
+			laFree[_iaFree[iShift]++] = lAddress;
+		}
+
+		private void write(long lAddress, byte[] baValue)
+		{
+			ByteBuffer oChunk = _alChunks.get((int) (lAddress >>> 32));
+			oChunk.position((int) lAddress);
+			oChunk.put(baValue);
+		}
+
+		private byte[] read(long lAddress, int iLength)
+		{
+			byte[] baValue = new byte[iLength];
+			ByteBuffer oChunk = _alChunks.get((int) (lAddress >>> 32));
+			oChunk.position((int) lAddress);
+			oChunk.get(baValue);
+			return baValue;
+		}
+
+		/**
+		 * Release all blocks, the chunks are kept.
+		 */
+		private void reset()
+		{
+			_iCurrentChunk = -1;
+			_iChunkUsed = 0;
+			_lUsed = 0;
+			Arrays.fill(_laFree, null);
+			Arrays.fill(_iaFree, 0);
+		}
+
+		/**
+		 * Release all blocks and chunks.
+		 */
+		private void free()
+		{
+			reset();
+			_alChunks.clear();
+		}
+	}
+}
@@ -0,0 +1,375 @@
+/*
+ * * Copyright (c) Anoigo. All rights reserved.
+ *
+ * A-Select is a trademark registered by SURFnet bv.
+ *
+ * This program is distributed under the EUPL 1.0 (http://osor.eu/eupl)
+ * See the included LICENSE file for details.
+ *
+ * If you did not receive a copy of the LICENSE
+ * please contact Anoigo. (http://www.anoigo.nl)
+ */
+package org.aselect.system.utils;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Vector;
+import java.util.logging.Level;
+
+import org.aselect.system.logging.ISystemLogger;
+
+import net.sf.json.JSONObject;
+
+/**
+ * Encoding of the serialized attributes. <br>
+ * <br>
+ * <b>Description:</b> <br>
+ * Implements {@link Utils#serializeAttributes(Map, ISystemLogger)} and
+ * {@link Utils#deserializeAttributes(String, ISystemLogger)}. The format is unchanged:
+ * base64("key=value&amp;multi[]=value1&amp;multi[]=value2"), keys and values URL encoded in UTF-8. <br>
+ * The URL encoding is written directly into one byte buffer, which is then base64 encoded. Decoding parses the
+ * decoded bytes in place; input that was not produced by this encoder (e.g. with raw non-ASCII bytes or broken
+ * escapes) is decoded the old way, so it gives the same result as before. <br>
+ * <br>
+ * <b>Concurrency issues:</b> <br>
+ * Thread-safe, no state. <br>
+ *
+ * @author Anoigo
+ */
+final class AttributeCodec
+{
+	private static final String MODULE = "AttributeCodec";
+
+	private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+
+	private AttributeCodec()
+	{
+	}
+
+	/**
+	 * Serialize the attributes.
+	 *
+	 * @param htAttributes
+	 *            the attributes, String or Iterable (of String or JSONObject) values
+	 * @param logger
+	 *            the logger, can be null
+	 * @return the serialized attributes or null if there are none
+	 */
+	static String encode(Map htAttributes, ISystemLogger logger)
+	{
+		final String sMethod = "serializeAttributes";
+		if (htAttributes == null || htAttributes.isEmpty())
+			return null;
+
+		ByteBuilder bbData = new ByteBuilder(64 * htAttributes.size());
+		for (Iterator itEntries = htAttributes.entrySet().iterator(); itEntries.hasNext(); ) {
+			Map.Entry entry = (Map.Entry) itEntries.next();
+			String sKey = (String) entry.getKey();
+			Object oValue = entry.getValue();
+
+			if (oValue instanceof Iterable) {  // it's a multivalue attribute
+				int iKeyStart = bbData.length();
+				bbData.appendEncoded(sKey + "[]");
+				int iKeyEnd = bbData.length();
+				bbData.append('=');
+				Iterator itr = ((Iterable) oValue).iterator();
+				while (itr.hasNext()) {
+					Object oSubValue = itr.next();
+					if (oSubValue instanceof JSONObject || oSubValue instanceof String) {
+						String sValue = (oSubValue instanceof String) ? (String) oSubValue : ((JSONObject) oSubValue).toString(0);
+						bbData.appendEncoded(sValue);
+						if (itr.hasNext()) {  // add: &key[]=
+							bbData.append('&');
+							bbData.appendCopy(iKeyStart, iKeyEnd);
+							bbData.append('=');
+						}
+					}
+					else if (logger != null) {
+						logger.log(Level.WARNING, MODULE, sMethod, "Unknown type of  attribute" + sKey);
+					}
+				}
+			}
+			else if (oValue instanceof String) {  // it's a single value attribute
+				bbData.appendEncoded(sKey);
+				bbData.append('=');
+				bbData.appendEncoded((String) oValue);
+			}
+			bbData.append('&');
+		}
+		// Skip the last '&'
+		ByteBuffer bbEncoded = Base64.getEncoder().encode(ByteBuffer.wrap(bbData.array(), 0, bbData.length() - 1));
+		return new String(bbEncoded.array(), 0, bbEncoded.limit(), StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Deserialize the attributes, multivalue attributes become a Vector.
+	 *
+	 * @param sSerializedAttributes
+	 *            the serialized attributes, not null
+	 * @return the attributes
+	 * @throws UnsupportedEncodingException
+	 *             never, UTF-8 is supported
+	 */
+	static HashMap decode(String sSerializedAttributes)
+	throws UnsupportedEncodingException
+	{
+		byte[] baData = null;
+		if (sSerializedAttributes.length() % 4 == 0) {  // without padding the old decoder gives nothing
+			try {
+				baData = Base64.getDecoder().decode(sSerializedAttributes);
+			}
+			catch (IllegalArgumentException e) {  // be as tolerant as before
+			}
+		}
+		if (baData == null)
+			baData = Base64Codec.decode(sSerializedAttributes);
+		HashMap htAttributes = parse(baData);
+		if (htAttributes == null)
+			htAttributes = parseLegacy(new String(baData));
+		return htAttributes;
+	}
+
+	/**
+	 * Parse key=value pairs separated by '&amp;', like String.split("&amp;") the trailing empty pairs are skipped.
+	 *
+	 * @return the attributes or null if the data must be parsed the old way
+	 */
+	private static HashMap parse(byte[] baData)
+	{
+		HashMap htAttributes = new HashMap();
+		int iEnd = baData.length;
+		if (iEnd > 0) {
+			while (iEnd > 0 && baData[iEnd - 1] == '&')
+				iEnd--;
+			if (iEnd == 0)
+				return htAttributes;
+		}
+		int iStart = 0;
+		for (;;) {
+			int iNext = iStart;
+			int iEqualChar = -1;
+			while (iNext < iEnd && baData[iNext] != '&') {
+				if (baData[iNext] == '=' && iEqualChar < 0)
+					iEqualChar = iNext;
+				iNext++;
+			}
+			String sKey;
+			String sValue = "";
+			Vector vVector = null;
+			if (iEqualChar > iStart) {
+				sKey = decodeComponent(baData, iStart, iEqualChar);
+				sValue = decodeComponent(baData, iEqualChar + 1, iNext);
+				if (sKey == null || sValue == null)
+					return null;
+				if (sKey.endsWith("[]")) {  // it's a multi-valued attribute
+					sKey = sKey.substring(0, sKey.length() - 2);
+					if ((vVector = (Vector) htAttributes.get(sKey)) == null)
+						vVector = new Vector();
+					vVector.add(sValue);
+				}
+			}
+			else {
+				sKey = decodeComponent(baData, iStart, iNext);
+				if (sKey == null)
+					return null;
+			}
+			if (vVector != null)  // store multivalue attribute
+				htAttributes.put(sKey, vVector);
+			else  // store singlevalue attribute
+				htAttributes.put(sKey, sValue);
+			if (iNext >= iEnd)
+				return htAttributes;
+			iStart = iNext + 1;
+		}
+	}
+
+	/**
+	 * URL decode part of the data.
+	 *
+	 * @return the text or null if the part contains non-ASCII bytes or a broken escape
+	 */
+	private static String decodeComponent(byte[] baData, int iFrom, int iTo)
+	{
+		boolean bPlain = true;
+		for (int i = iFrom; i < iTo; i++) {
+			byte b = baData[i];
+			if (b < 0)
+				return null;
+			if (b == '%' || b == '+')
+				bPlain = false;
+		}
+		if (bPlain)
+			return new String(baData, iFrom, iTo - iFrom, StandardCharsets.US_ASCII);
+
+		// Collect the UTF-8 bytes, an ASCII byte ends an incomplete sequence just like URLDecoder does
+		byte[] baText = new byte[iTo - iFrom];
+		int iLength = 0;
+		int i = iFrom;
+		while (i < iTo) {
+			byte b = baData[i];
+			if (b == '+') {
+				baText[iLength++] = ' ';
+				i++;
+			}
+			else if (b != '%') {
+				baText[iLength++] = b;
+				i++;
+			}
+			else {
+				if (i + 2 >= iTo)
+					return null;
+				int iHigh = Character.digit(baData[i + 1], 16);
+				int iLow = Character.digit(baData[i + 2], 16);
+				if (iHigh < 0 || iLow < 0)
+					return null;
+				baText[iLength++] = (byte) ((iHigh << 4) + iLow);
+				i += 3;
+			}
+		}
+		return new String(baText, 0, iLength, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * The original parser.
+	 */
+	private static HashMap parseLegacy(String sDecodedUserAttrs)
+	throws UnsupportedEncodingException
+	{
+		HashMap htAttributes = new HashMap();
+		// decode & and = chars
+		String[] saAttrs = sDecodedUserAttrs.split("&");
+		for (int i = 0; i < saAttrs.length; i++) {
+			int iEqualChar = saAttrs[i].indexOf("=");
+			String sKey = "";
+			String sValue = "";
+			Vector vVector = null;
+
+			if (iEqualChar > 0) {
+				sKey = URLDecoder.decode(saAttrs[i].substring(0, iEqualChar), "UTF-8");
+				sValue = URLDecoder.decode(saAttrs[i].substring(iEqualChar + 1), "UTF-8");
+
+				if (sKey.endsWith("[]")) { // it's a multi-valued attribute
+					// Strip [] from sKey
+					sKey = sKey.substring(0, sKey.length() - 2);
+					if ((vVector = (Vector) htAttributes.get(sKey)) == null)
+						vVector = new Vector();
+					vVector.add(sValue);
+				}
+			}
+			else
+				sKey = URLDecoder.decode(saAttrs[i], "UTF-8");
+
+			if (vVector != null)  // store multivalue attribute
+				htAttributes.put(sKey, vVector);
+			else  // store singlevalue attribute
+				htAttributes.put(sKey, sValue);
+		}
+		return htAttributes;
+	}
+
+	/**
+	 * Growing byte array holding URL encoded text.
+	 */
+	private static class ByteBuilder
+	{
+		private byte[] _baData;
+		private int _iLength = 0;
+
+		ByteBuilder(int iCapacity)
+		{
+			_baData = new byte[iCapacity];
+		}
+
+		byte[] array()
+		{
+			return _baData;
+		}
+
+		int length()
+		{
+			return _iLength;
+		}
+
+		void append(char c)
+		{
+			ensure(1);
+			_baData[_iLength++] = (byte) c;
+		}
+
+		/**
+		 * Append a copy of an earlier part.
+		 */
+		void appendCopy(int iFrom, int iTo)
+		{
+			ensure(iTo - iFrom);
+			System.arraycopy(_baData, iFrom, _baData, _iLength, iTo - iFrom);
+			_iLength += iTo - iFrom;
+		}
+
+		/**
+		 * Append like URLEncoder.encode(sText, "UTF-8").
+		 */
+		void appendEncoded(String sText)
+		{
+			int iLength = sText.length();
+			ensure(iLength);
+			for (int i = 0; i < iLength; i++) {
+				char c = sText.charAt(i);
+				if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') ||
+						c == '.' || c == '-' || c == '*' || c == '_') {
+					ensure(1);
+					_baData[_iLength++] = (byte) c;
+				}
+				else if (c == ' ') {
+					ensure(1);
+					_baData[_iLength++] = '+';
+				}
+				else if (c < 0x80) {
+					appendEscaped(c);
+				}
+				else if (c < 0x800) {
+					appendEscaped(0xc0 | (c >> 6));
+					appendEscaped(0x80 | (c & 0x3f));
+				}
+				else if (Character.isHighSurrogate(c) && i + 1 < iLength && Character.isLowSurrogate(sText.charAt(i + 1))) {
+					int iCodePoint = Character.toCodePoint(c, sText.charAt(++i));
+					appendEscaped(0xf0 | (iCodePoint >> 18));
+					appendEscaped(0x80 | ((iCodePoint >> 12) & 0x3f));
+					appendEscaped(0x80 | ((iCodePoint >> 6) & 0x3f));
+					appendEscaped(0x80 | (iCodePoint & 0x3f));
+				}
+				else if (Character.isSurrogate(c)) {  // unpaired, UTF-8 encodes it as '?'
+					appendEscaped('?');
+				}
+				else {
+					appendEscaped(0xe0 | (c >> 12));
+					appendEscaped(0x80 | ((c >> 6) & 0x3f));
+					appendEscaped(0x80 | (c & 0x3f));
+				}
+			}
+		}
+
+		private void appendEscaped(int iByte)
+		{
+			ensure(3);
+			_baData[_iLength++] = '%';
+			_baData[_iLength++] = HEX[(iByte >> 4) & 0xf];
+			_baData[_iLength++] = HEX[iByte & 0xf];
+		}
+
+		private void ensure(int iExtra)
+		{
+			if (_iLength + iExtra > _baData.length) {
+				byte[] baNew = new byte[Math.max(2 * _baData.length, _iLength + iExtra)];
+				System.arraycopy(_baData, 0, baNew, 0, _iLength);
+				_baData = baNew;
+			}
+		}
+	}
+}
@@ -1,129 +1,330 @@
-package org.aselect.system.utils;
-
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.util.Hashtable;
-import java.util.logging.Level;
-
-import org.aselect.system.error.Errors;
-import org.aselect.system.exception.ASelectException;
-import org.aselect.system.logging.SystemLogger;
-
-public class FileCache
-{
-	private static final String MODULE = "Utils";
-
-	String sFileName;
-	String sFileContent;
-	long lTimeRefreshed;
-	boolean bFileExists;
-	
-	static long lFileCacheKeep = 900; // seconds
-	
-	public static long getFileCacheKeep() { return lFileCacheKeep; }
-	public static void setFileCacheKeep(long lKeepCache) { FileCache.lFileCacheKeep = lKeepCache; }
-
-	static Hashtable<String, FileCache> theFileCache = new Hashtable<String, FileCache>();
-	
-	/**
-	 * Adds the file to the cache.
-	 * 
-	 * @param sName
-	 *            the file name
-	 * @param sContent
-	 *            the file content
-	 * @param lRefreshed
-	 *            the time when the file was last refreshed in the cache
-	 */
-	static void addFile(String sName, String sContent, long lRefreshed, SystemLogger oSysLog)
-	{
-		String sMethod = "addFile";
-		//oSysLog.log(Level.INFO, MODULE, sMethod, "HTML add "+sName+" refresh="+lRefreshed/1000+
-		//										(Utils.hasValue(sContent)?" present": " absent"));
-		FileCache fc = new FileCache();
-		fc.sFileName = sName;
-		fc.lTimeRefreshed = lRefreshed;
-		fc.sFileContent = sContent;
-		theFileCache.put(sName, fc);
-	}
-	
-	/**
-	 * Gets the file.
-	 * 
-	 * @param sFileName
-	 *          the file name
-	 * @param oSysLog
-	 *          the system log
-	 * @return the file content,
-	 * 			can be "" if the file is not present
-	 * @throws ASelectException
-	 *			if reading the file failed
-	 */
-	static String getFile(String sFileName, SystemLogger oSysLog)
-	throws ASelectException
-	{
-		String sMethod = "getFile";
-	    long now = System.currentTimeMillis();
-
-		FileCache fCache = theFileCache.get(sFileName);
-		//if (fCache != null)
-		//	oSysLog.log(Level.INFO, MODULE, sMethod, "HTML "+sFileName+" CACHED="+(fCache.lTimeRefreshed/1000)+" now="+now/1000);
-		//else
-		//	oSysLog.log(Level.INFO, MODULE, sMethod, "HTML "+sFileName+" NOT CACHED"+" now="+now/1000);
-
-		if (fCache != null && now - fCache.lTimeRefreshed < 1000*lFileCacheKeep) {
-			oSysLog.log(Level.INFO, MODULE, sMethod, "HTML "+sFileName+" CACHED"+
-					(Utils.hasValue(fCache.sFileContent)?" present": " absent")+", cache age="+(now - fCache.lTimeRefreshed)/1000);
-			return fCache.sFileContent;  // present in the cache and reasonably up-to-date
-		}
-		
-		// We don't have the file yet, or it was checked too long ago
-		// Access the file system
-		File fFile = new File(sFileName);
-		if (!fFile.exists()) {
-			oSysLog.log(Level.INFO, MODULE, sMethod, "HTML "+sFileName+" file absent"+(fCache!=null?", re-checked": ""));
-			addFile(sFileName, "", now, oSysLog);  // register absence
-			return null;
-		}
-		//oSysLog.log(Level.INFO, MODULE, sMethod, "HTML "+sFileName+" mod="+fFile.lastModified()/1000);
-		
-		// The file is present on the file system
-		if (fCache != null && fFile.lastModified() < fCache.lTimeRefreshed) {
-			// We have the file and it was not changed since entry
-			oSysLog.log(Level.INFO, MODULE, sMethod, "HTML "+sFileName+" not modified, re-checked"+
-					", file age="+(now-fFile.lastModified())/1000);
-			fCache.lTimeRefreshed = now;  // register refresh
-			return fCache.sFileContent;  // File was not modified
-		}
-
-		// Read the file
-		oSysLog.log(Level.INFO, MODULE, sMethod, "HTML "+sFileName+(fCache!=null?" re-read file": " read file")+
-				", file age="+(now-fFile.lastModified())/1000);
-		BufferedReader brInput = null;
-		String sResult = "", sLine;
-		try {
-			brInput = new BufferedReader(new InputStreamReader(new FileInputStream(fFile)/*, "UTF-8"*/));
-			while ((sLine = brInput.readLine()) != null) {
-				sResult += sLine + "\n";
-			}
-			addFile(sFileName, sResult, now, oSysLog);
-			//oSysLog.log(Level.INFO, MODULE, sMethod, "\n"+sResult);
-			return sResult;
-		}
-		catch (IOException e) {
-			throw new ASelectException(Errors.ERROR_ASELECT_IO);
-		}
-		finally {
-			if (brInput != null)
-				try {
-					brInput.close();
-				}
-				catch (IOException e) {
-					throw new ASelectException(Errors.ERROR_ASELECT_IO);
-				}
-		}
-	}
-}
+package org.aselect.system.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import org.aselect.system.error.Errors;
+import org.aselect.system.exception.ASelectException;
+import org.aselect.system.logging.SystemLogger;
+
+/**
+ * Store of the HTML templates and error files. <br>
+ * <br>
+ * <b>Description:</b> <br>
+ * A directory is read completely when a file in it is first requested, or at startup by {@link #loadAll(String, SystemLogger)}.
+ * A background thread watches the directories and swaps in the new content of a changed file, so request threads
+ * only do a map lookup. When a change is not signalled (e.g. on a network file system), the directories are compared
+ * with the file system every <code>file_cache_keep</code> seconds. <br>
+ * <br>
+ * <b>Concurrency issues:</b> <br>
+ * Lookups do not lock, a file is replaced as a whole. <br>
+ */
+public class FileCache
+{
+	private static final String MODULE = "Utils";
+
+	String sFileName;
+	String sFileContent;
+	long lTimeRefreshed;
+	long lFileLength;
+
+	static long lFileCacheKeep = 900; // seconds, interval of the full check
+
+	public static long getFileCacheKeep() { return lFileCacheKeep; }
+	public static void setFileCacheKeep(long lKeepCache) { FileCache.lFileCacheKeep = lKeepCache; }
+
+	/** The cached directories by path, every directory holds its files by name */
+	static ConcurrentHashMap<String, ConcurrentHashMap<String, FileCache>> theFileCache = new ConcurrentHashMap<String, ConcurrentHashMap<String, FileCache>>();
+
+	private static WatchService _oWatchService = null;
+	private static Thread _tWatcher = null;
+	private static volatile SystemLogger _oSysLog = null;
+
+	/**
+	 * Adds the file to the cache.
+	 *
+	 * @param htFiles
+	 *            the files of the directory
+	 * @param fFile
+	 *            the file
+	 * @param oSysLog
+	 *            the system log
+	 * @return the new entry or null if the file is absent or unreadable
+	 */
+	static FileCache addFile(ConcurrentHashMap<String, FileCache> htFiles, File fFile, SystemLogger oSysLog)
+	{
+		String sMethod = "addFile";
+		try {
+			FileCache fc = new FileCache();
+			fc.sFileName = fFile.getPath();
+			fc.lTimeRefreshed = fFile.lastModified();
+			fc.lFileLength = fFile.length();
+			fc.sFileContent = readFile(fFile);
+			htFiles.put(fFile.getName(), fc);
+			if (fc.sFileName.endsWith(".html"))
+				HtmlTemplate.getTemplate(fc.sFileContent);  // compile it now
+			return fc;
+		}
+		catch (IOException e) {
+			oSysLog.log(Level.WARNING, MODULE, sMethod, "HTML "+fFile.getPath()+" could not be read", e);
+			htFiles.remove(fFile.getName());
+			return null;
+		}
+	}
+
+	/**
+	 * Gets the file.
+	 *
+	 * @param sFileName
+	 *          the file name
+	 * @param oSysLog
+	 *          the system log
+	 * @return the file content,
+	 * 			null if the file is not present
+	 * @throws ASelectException
+	 *			if reading the directory failed
+	 */
+	static String getFile(String sFileName, SystemLogger oSysLog)
+	throws ASelectException
+	{
+		File fFile = new File(sFileName);
+		ConcurrentHashMap<String, FileCache> htFiles = getDirectory(fFile.getAbsoluteFile().getParentFile(), oSysLog);
+		FileCache fCache = htFiles.get(fFile.getName());
+		return (fCache == null) ? null : fCache.sFileContent;
+	}
+
+	/**
+	 * Load all "html" and "errors" directories below the given directory and start watching them.
+	 *
+	 * @param sConfDir
+	 *          the directory, e.g. the "conf" directory of the working directory
+	 * @param oSysLog
+	 *          the system log
+	 * @throws ASelectException
+	 *			if reading a directory failed
+	 */
+	public static void loadAll(String sConfDir, SystemLogger oSysLog)
+	throws ASelectException
+	{
+		File[] faFiles = new File(sConfDir).getAbsoluteFile().listFiles();
+		if (faFiles == null)
+			return;
+		for (File fFile : faFiles) {
+			if (!fFile.isDirectory())
+				continue;
+			if (fFile.getName().equals("html") || fFile.getName().equals("errors"))
+				getDirectory(fFile, oSysLog);
+			else
+				loadAll(fFile.getPath(), oSysLog);
+		}
+	}
+
+	/**
+	 * Stop watching and empty the cache.
+	 */
+	public static synchronized void stop()
+	{
+		if (_tWatcher != null) {
+			_tWatcher.interrupt();
+			_tWatcher = null;
+		}
+		if (_oWatchService != null) {
+			try {
+				_oWatchService.close();
+			}
+			catch (IOException e) {
+				// ignore, we're stopping
+			}
+			_oWatchService = null;
+		}
+		theFileCache.clear();
+	}
+
+	/**
+	 * Get the files of a directory, the directory is read and watched on first use.
+	 */
+	private static ConcurrentHashMap<String, FileCache> getDirectory(File fDir, SystemLogger oSysLog)
+	throws ASelectException
+	{
+		String sMethod = "getDirectory";
+		String sDir = fDir.getPath();
+		ConcurrentHashMap<String, FileCache> htFiles = theFileCache.get(sDir);
+		if (htFiles != null)
+			return htFiles;
+
+		synchronized (FileCache.class) {
+			htFiles = theFileCache.get(sDir);
+			if (htFiles != null)
+				return htFiles;
+			_oSysLog = oSysLog;
+			htFiles = new ConcurrentHashMap<String, FileCache>();
+			startWatcher(fDir, oSysLog);  // before reading, so no change is missed
+			if (fDir.isDirectory()) {
+				File[] faFiles = fDir.listFiles();
+				if (faFiles == null) {
+					oSysLog.log(Level.WARNING, MODULE, sMethod, "HTML directory "+sDir+" could not be read");
+					throw new ASelectException(Errors.ERROR_ASELECT_IO);
+				}
+				for (File fFile : faFiles) {
+					if (fFile.isFile())
+						addFile(htFiles, fFile, oSysLog);
+				}
+			}
+			oSysLog.log(Level.INFO, MODULE, sMethod, "HTML directory "+sDir+" loaded, files="+htFiles.size());
+			theFileCache.put(sDir, htFiles);
+			return htFiles;
+		}
+	}
+
+	/**
+	 * Register the directory with the watch service, start the watcher thread if needed.
+	 * A directory that cannot be watched is left to the periodic check.
+	 */
+	private static void startWatcher(File fDir, SystemLogger oSysLog)
+	{
+		String sMethod = "startWatcher";
+		try {
+			if (_oWatchService == null)
+				_oWatchService = FileSystems.getDefault().newWatchService();
+			if (fDir.isDirectory())
+				fDir.toPath().register(_oWatchService, StandardWatchEventKinds.ENTRY_CREATE,
+						StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+		}
+		catch (IOException e) {
+			oSysLog.log(Level.WARNING, MODULE, sMethod, "Cannot watch "+fDir.getPath()+", check every "+lFileCacheKeep+" seconds", e);
+		}
+		if (_tWatcher == null) {
+			_tWatcher = new Thread(new Watcher(_oWatchService), "FileCache");
+			_tWatcher.setDaemon(true);
+			_tWatcher.start();
+		}
+	}
+
+	/**
+	 * Compare a file with the cached version and reload or remove it.
+	 */
+	private static void refreshFile(ConcurrentHashMap<String, FileCache> htFiles, File fFile, boolean bForce)
+	{
+		String sMethod = "refreshFile";
+		FileCache fCache = htFiles.get(fFile.getName());
+		if (!fFile.isFile()) {
+			if (fCache != null) {
+				htFiles.remove(fFile.getName());
+				_oSysLog.log(Level.INFO, MODULE, sMethod, "HTML "+fFile.getPath()+" removed");
+			}
+			return;
+		}
+		if (!bForce && fCache != null && fCache.lTimeRefreshed == fFile.lastModified() && fCache.lFileLength == fFile.length())
+			return;
+		if (addFile(htFiles, fFile, _oSysLog) != null)
+			_oSysLog.log(Level.INFO, MODULE, sMethod, "HTML "+fFile.getPath()+" re-read file");
+	}
+
+	/**
+	 * Compare all files of a directory with the cached versions.
+	 */
+	private static void refreshDirectory(String sDir, ConcurrentHashMap<String, FileCache> htFiles)
+	{
+		File fDir = new File(sDir);
+		for (Iterator<String> itNames = htFiles.keySet().iterator(); itNames.hasNext(); )
+			refreshFile(htFiles, new File(fDir, itNames.next()), false);
+		File[] faFiles = fDir.listFiles();
+		if (faFiles == null)
+			return;
+		for (File fFile : faFiles) {
+			if (fFile.isFile() && !htFiles.containsKey(fFile.getName()))
+				refreshFile(htFiles, fFile, false);
+		}
+	}
+
+	/**
+	 * Applies the changes signalled by the watch service, and checks all directories periodically.
+	 */
+	private static class Watcher implements Runnable
+	{
+		private final WatchService _oService;
+
+		Watcher(WatchService oService)
+		{
+			_oService = oService;
+		}
+
+		public void run()
+		{
+			String sMethod = "run";
+			long lNextCheck = System.currentTimeMillis() + 1000 * Math.max(lFileCacheKeep, 1);
+			while (!Thread.currentThread().isInterrupted()) {
+				try {
+					long lWait = Math.max(lNextCheck - System.currentTimeMillis(), 1);
+					WatchKey oKey = (_oService == null) ? null : _oService.poll(lWait, TimeUnit.MILLISECONDS);
+					if (_oService == null)
+						Thread.sleep(lWait);
+					if (oKey != null) {
+						String sDir = ((Path) oKey.watchable()).toFile().getPath();
+						ConcurrentHashMap<String, FileCache> htFiles = theFileCache.get(sDir);
+						for (WatchEvent<?> oEvent : oKey.pollEvents()) {
+							if (htFiles == null)
+								continue;
+							if (oEvent.kind() == StandardWatchEventKinds.OVERFLOW)
+								refreshDirectory(sDir, htFiles);
+							else
+								refreshFile(htFiles, new File(sDir, ((Path) oEvent.context()).toString()), true);
+						}
+						oKey.reset();
+					}
+					if (System.currentTimeMillis() >= lNextCheck) {
+						for (String sDir : theFileCache.keySet()) {
+							ConcurrentHashMap<String, FileCache> htFiles = theFileCache.get(sDir);
+							if (htFiles != null)
+								refreshDirectory(sDir, htFiles);
+						}
+						lNextCheck = System.currentTimeMillis() + 1000 * Math.max(lFileCacheKeep, 1);
+					}
+				}
+				catch (InterruptedException e) {
+					break;
+				}
+				catch (ClosedWatchServiceException e) {
+					break;
+				}
+				catch (Exception e) {
+					_oSysLog.log(Level.WARNING, MODULE, sMethod, "HTML watcher failed", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Read a file, the lines end with a newline.
+	 */
+	private static String readFile(File fFile)
+	throws IOException
+	{
+		BufferedReader brInput = new BufferedReader(new InputStreamReader(new FileInputStream(fFile)/*, "UTF-8"*/));
+		try {
+			StringBuilder sbResult = new StringBuilder((int) fFile.length() + 16);
+			String sLine;
+			while ((sLine = brInput.readLine()) != null) {
+				sbResult.append(sLine).append('\n');
+			}
+			return sbResult.toString();
+		}
+		finally {
+			brInput.close();
+		}
+	}
+}
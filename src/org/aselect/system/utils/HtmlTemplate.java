@@ -0,0 +1,315 @@
+/*
+ * * Copyright (c) Anoigo. All rights reserved.
+ *
+ * A-Select is a trademark registered by SURFnet bv.
+ *
+ * This program is distributed under the EUPL 1.0 (http://osor.eu/eupl)
+ * See the included LICENSE file for details.
+ *
+ * If you did not receive a copy of the LICENSE
+ * please contact Anoigo. (http://www.anoigo.nl)
+ */
+package org.aselect.system.utils;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compiled HTML form. <br>
+ * <br>
+ * <b>Description:</b> <br>
+ * The form text is split once into literal text, <code>[tag]</code> slots and conditional blocks. Rendering fills
+ * the slots from a map in a single pass, instead of calling {@link Utils#replaceString(String, String, String)} for
+ * every tag. The syntax is the same: <br>
+ * - <code>[tag]</code> is replaced by the value of "[tag]", without a (non-null) value the tag is left as is. <br>
+ * - <code>[if_error,true_part,false_part]</code> <br>
+ * - <code>[if_cond,name,true_part,false_part]</code> <br>
+ * - <code>#if_cond,name#true_part#else_cond,name#false_part#end_cond,name#</code> <br>
+ * The conditions are resolved like {@link Utils#handleAllConditionals(String, boolean, String, org.aselect.system.logging.ISystemLogger)},
+ * but the parts can contain tags and the values are not scanned for tags or conditions again. E.g.: <br>
+ * <code>HashMap&lt;String, String&gt; htValues = new HashMap&lt;String, String&gt;();<br>
+ * htValues.put("[rid]", sRid);<br>
+ * String sPage = HtmlTemplate.getTemplate(sForm).render(htValues, bError, sSpecials);</code> <br>
+ * <br>
+ * <b>Concurrency issues:</b> <br>
+ * A compiled template is immutable, compiled templates are cached and shared by all threads. <br>
+ *
+ * @author Anoigo
+ */
+public class HtmlTemplate
+{
+	private static final int LITERAL = 0;
+	private static final int SLOT = 1;
+	private static final int IF_ERROR = 2;
+	private static final int IF_COND = 3;
+
+	/** The cache is cleared when it gets this big, the forms are (nearly) constant. */
+	private static final int MAX_CACHED = 256;
+
+	/** A buffer that grew beyond this size is not kept for the next rendering. */
+	private static final int MAX_BUFFER = 64 * 1024;
+
+	private static final ConcurrentHashMap<String, HtmlTemplate> _htTemplates = new ConcurrentHashMap<String, HtmlTemplate>();
+
+	private static final ThreadLocal<StringBuilder> _tlBuffer = new ThreadLocal<StringBuilder>() {
+		@Override
+		protected StringBuilder initialValue()
+		{
+			return new StringBuilder(4096);
+		}
+	};
+
+	private final Segment[] _aSegments;
+
+	/**
+	 * A part of the template.
+	 */
+	private static class Segment
+	{
+		final int iKind;
+		final String sText;  // the literal text, the tag or the condition name
+		final Segment[] aTrue;
+		final Segment[] aFalse;
+		final String sOpen, sMid, sClose;  // the conditional syntax
+
+		Segment(int iKind, String sText)
+		{
+			this(iKind, sText, null, null, null, null, null);
+		}
+
+		Segment(int iKind, String sText, Segment[] aTrue, Segment[] aFalse, String sOpen, String sMid, String sClose)
+		{
+			this.iKind = iKind;
+			this.sText = sText;
+			this.aTrue = aTrue;
+			this.aFalse = aFalse;
+			this.sOpen = sOpen;
+			this.sMid = sMid;
+			this.sClose = sClose;
+		}
+	}
+
+	/**
+	 * Get the compiled version of a form.
+	 *
+	 * @param sText
+	 *            the form text, e.g. from ASelectConfigManager.getHTMLForm()
+	 * @return the compiled template
+	 */
+	public static HtmlTemplate getTemplate(String sText)
+	{
+		HtmlTemplate oTemplate = _htTemplates.get(sText);
+		if (oTemplate == null) {
+			oTemplate = new HtmlTemplate(sText);
+			if (_htTemplates.size() >= MAX_CACHED)
+				_htTemplates.clear();
+			_htTemplates.put(sText, oTemplate);
+		}
+		return oTemplate;
+	}
+
+	/**
+	 * Compile a template, use {@link #getTemplate(String)} to share the result.
+	 *
+	 * @param sText
+	 *            the form text
+	 */
+	public HtmlTemplate(String sText)
+	{
+		Parser oParser = new Parser(sText);
+		_aSegments = oParser.parse(null);
+	}
+
+	/**
+	 * Fill in the tags, conditional blocks are left in place.
+	 *
+	 * @param htValues
+	 *            the values by tag, e.g. "[rid]"
+	 * @return the page
+	 */
+	public String render(Map<String, String> htValues)
+	{
+		return render(htValues, false, null, false);
+	}
+
+	/**
+	 * Fill in the tags and resolve the conditional blocks.
+	 *
+	 * @param htValues
+	 *            the values by tag, e.g. "[rid]"
+	 * @param bErrCond
+	 *            is if_error true?
+	 * @param sSpecials
+	 *            the specials holding the true conditions in "if_cond=name1,name2", can be null
+	 * @return the page
+	 */
+	public String render(Map<String, String> htValues, boolean bErrCond, String sSpecials)
+	{
+		return render(htValues, bErrCond, sSpecials, true);
+	}
+
+	private String render(Map<String, String> htValues, boolean bErrCond, String sSpecials, boolean bResolve)
+	{
+		Set<String> setConditions = new HashSet<String>();
+		String sParCond = (sSpecials == null) ? null : Utils.getParameterValueFromUrl(sSpecials, "if_cond");
+		if (sParCond != null) {
+			String[] saCond = sParCond.split(",");
+			for (int i = 0; i < saCond.length; i++)
+				setConditions.add(saCond[i]);
+		}
+
+		StringBuilder sbPage = _tlBuffer.get();
+		sbPage.setLength(0);
+		append(sbPage, _aSegments, htValues, bResolve, bErrCond, setConditions);
+		String sPage = sbPage.toString();
+		if (sbPage.capacity() > MAX_BUFFER)
+			_tlBuffer.remove();
+		return sPage;
+	}
+
+	private static void append(StringBuilder sbPage, Segment[] aSegments, Map<String, String> htValues, boolean bResolve,
+			boolean bErrCond, Set<String> setConditions)
+	{
+		for (int i = 0; i < aSegments.length; i++) {
+			Segment oSegment = aSegments[i];
+			switch (oSegment.iKind) {
+			case LITERAL:
+				sbPage.append(oSegment.sText);
+				break;
+			case SLOT:
+				String sValue = (htValues == null) ? null : htValues.get(oSegment.sText);
+				sbPage.append((sValue == null) ? oSegment.sText : sValue);
+				break;
+			default:
+				if (bResolve) {
+					boolean bCondition = (oSegment.iKind == IF_ERROR) ? bErrCond : setConditions.contains(oSegment.sText);
+					append(sbPage, bCondition ? oSegment.aTrue : oSegment.aFalse, htValues, bResolve, bErrCond, setConditions);
+				}
+				else {
+					sbPage.append(oSegment.sOpen);
+					append(sbPage, oSegment.aTrue, htValues, bResolve, bErrCond, setConditions);
+					sbPage.append(oSegment.sMid);
+					append(sbPage, oSegment.aFalse, htValues, bResolve, bErrCond, setConditions);
+					sbPage.append(oSegment.sClose);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Splits the text into segments, a keyword that is not followed by a complete conditional block is literal text.
+	 */
+	private static class Parser
+	{
+		private final String _sText;
+		private int _iPos = 0;
+
+		Parser(String sText)
+		{
+			_sText = sText;
+		}
+
+		/**
+		 * Parse up to the end of the text or the stop string (which is consumed).
+		 *
+		 * @return the segments or null if the stop string was not found
+		 */
+		Segment[] parse(String sStop)
+		{
+			ArrayList<Segment> alSegments = new ArrayList<Segment>();
+			int iLiteral = _iPos;
+			int iLength = _sText.length();
+
+			while (_iPos < iLength) {
+				if (sStop != null && _sText.startsWith(sStop, _iPos)) {
+					addLiteral(alSegments, iLiteral, _iPos);
+					_iPos += sStop.length();
+					return alSegments.toArray(new Segment[alSegments.size()]);
+				}
+				char c = _sText.charAt(_iPos);
+				if (c != '[' && c != '#') {
+					_iPos++;
+					continue;
+				}
+				int iStart = _iPos;
+				Segment oSegment = parseSpecial();
+				if (oSegment == null) {  // literal character
+					_iPos = iStart + 1;
+					continue;
+				}
+				addLiteral(alSegments, iLiteral, iStart);
+				alSegments.add(oSegment);
+				iLiteral = _iPos;
+			}
+			if (sStop != null)
+				return null;
+			addLiteral(alSegments, iLiteral, _iPos);
+			return alSegments.toArray(new Segment[alSegments.size()]);
+		}
+
+		private void addLiteral(ArrayList<Segment> alSegments, int iFrom, int iTo)
+		{
+			if (iTo > iFrom)
+				alSegments.add(new Segment(LITERAL, _sText.substring(iFrom, iTo)));
+		}
+
+		/**
+		 * Parse the slot or conditional block at the current position.
+		 *
+		 * @return the segment or null if there is none, the position is undefined in that case
+		 */
+		private Segment parseSpecial()
+		{
+			int iStart = _iPos;
+			if (_sText.startsWith("[if_error,", iStart)) {
+				_iPos = iStart + 10;
+				return parseConditional(IF_ERROR, null, "[if_error,", ",", "]");
+			}
+			if (_sText.startsWith("[if_cond,", iStart)) {
+				int iComma = _sText.indexOf(',', iStart + 9);
+				if (iComma < 0)
+					return null;
+				String sName = _sText.substring(iStart + 9, iComma);
+				_iPos = iComma + 1;
+				return parseConditional(IF_COND, sName, "[if_cond," + sName + ",", ",", "]");
+			}
+			if (_sText.startsWith("#if_cond,", iStart)) {
+				int iHash = _sText.indexOf('#', iStart + 9);
+				if (iHash < 0)
+					return null;
+				String sName = _sText.substring(iStart + 9, iHash);
+				_iPos = iHash + 1;
+				return parseConditional(IF_COND, sName, "#if_cond," + sName + "#", "#else_cond," + sName + "#",
+						"#end_cond," + sName + "#");
+			}
+			if (_sText.charAt(iStart) != '[')
+				return null;
+			int iEnd = iStart + 1;
+			while (iEnd < _sText.length() && isTagChar(_sText.charAt(iEnd)))
+				iEnd++;
+			if (iEnd == iStart + 1 || iEnd >= _sText.length() || _sText.charAt(iEnd) != ']')
+				return null;
+			_iPos = iEnd + 1;
+			return new Segment(SLOT, _sText.substring(iStart, _iPos));
+		}
+
+		private Segment parseConditional(int iKind, String sName, String sOpen, String sMid, String sClose)
+		{
+			Segment[] aTrue = parse(sMid);
+			if (aTrue == null)
+				return null;
+			Segment[] aFalse = parse(sClose);
+			if (aFalse == null)
+				return null;
+			return new Segment(iKind, sName, aTrue, aFalse, sOpen, sMid, sClose);
+		}
+
+		private static boolean isTagChar(char c)
+		{
+			return Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.';
+		}
+	}
+}
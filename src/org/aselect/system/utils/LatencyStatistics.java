@@ -0,0 +1,121 @@
+/*
+ * * Copyright (c) Anoigo. All rights reserved.
+ *
+ * A-Select is a trademark registered by SURFnet bv.
+ *
+ * This program is distributed under the EUPL 1.0 (http://osor.eu/eupl)
+ * See the included LICENSE file for details.
+ *
+ * If you did not receive a copy of the LICENSE
+ * please contact Anoigo. (http://www.anoigo.nl)
+ */
+package org.aselect.system.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency statistics of a kind of call. <br>
+ * <br>
+ * <b>Description:</b> <br>
+ * Counts the calls and the failed calls and keeps a histogram of their duration. The histogram has four buckets for
+ * every power of two microseconds, the reported percentiles are the upper bound of their bucket (at most 25% too
+ * high). <br>
+ * <br>
+ * <b>Concurrency issues:</b> <br>
+ * Thread-safe, recording does not lock. <br>
+ *
+ * @author Anoigo
+ */
+public class LatencyStatistics
+{
+	/** Buckets up to 2^42 microseconds */
+	private static final int BUCKETS = 4 * 42;
+
+	private final AtomicLong _lCount = new AtomicLong();
+	private final AtomicLong _lTotal = new AtomicLong();
+	private final AtomicLong _lErrors = new AtomicLong();
+	private final AtomicLongArray _alBuckets = new AtomicLongArray(BUCKETS);
+
+	/**
+	 * Record a call.
+	 *
+	 * @param lStartNanos
+	 *            the <code>System.nanoTime()</code> at the start of the call
+	 * @param bSuccess
+	 *            <code>false</code> if the call failed
+	 */
+	public void record(long lStartNanos, boolean bSuccess)
+	{
+		long lMicros = Math.max(0, (System.nanoTime() - lStartNanos) / 1000);
+		_lCount.incrementAndGet();
+		_lTotal.addAndGet(lMicros);
+		if (!bSuccess)
+			_lErrors.incrementAndGet();
+		_alBuckets.incrementAndGet(getBucket(lMicros));
+	}
+
+	/**
+	 * Get the number of recorded calls.
+	 *
+	 * @return the count
+	 */
+	public long getCount()
+	{
+		return _lCount.get();
+	}
+
+	/**
+	 * Get a readable summary.
+	 *
+	 * @return e.g. "n=120 errors=0 avg=35us p50=32us p99=256us"
+	 */
+	@Override
+	public String toString()
+	{
+		long lCount = _lCount.get();
+		StringBuffer sbStats = new StringBuffer("n=").append(lCount);
+		sbStats.append(" errors=").append(_lErrors.get());
+		if (lCount > 0) {
+			sbStats.append(" avg=").append(_lTotal.get() / lCount).append("us");
+			sbStats.append(" p50=").append(getPercentile(lCount, 50)).append("us");
+			sbStats.append(" p99=").append(getPercentile(lCount, 99)).append("us");
+		}
+		return sbStats.toString();
+	}
+
+	/**
+	 * Get the upper bound of the bucket holding the given percentile.
+	 */
+	private long getPercentile(long lCount, int iPercentile)
+	{
+		long lRank = (lCount * iPercentile + 99) / 100;
+		long lSeen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			lSeen += _alBuckets.get(i);
+			if (lSeen >= lRank)
+				return getUpperBound(i);
+		}
+		return getUpperBound(BUCKETS - 1);
+	}
+
+	/**
+	 * Bucket 0..3 hold 0..3 microseconds, then four buckets for every power of two.
+	 */
+	private static int getBucket(long lMicros)
+	{
+		if (lMicros < 4)
+			return (int) lMicros;
+		int iExponent = 63 - Long.numberOfLeadingZeros(lMicros);
+		int iSub = (int) (lMicros >>> (iExponent - 2)) & 3;
+		return Math.min(BUCKETS - 1, 4 * (iExponent - 1) + iSub);
+	}
+
+	private static long getUpperBound(int iBucket)
+	{
+		if (iBucket < 4)
+			return iBucket + 1;
+		int iExponent = iBucket / 4 + 1;
+		return (4L + iBucket % 4 + 1) << (iExponent - 2);
+	}
+}
@@ -49,6 +49,7 @@ import org.aselect.system.configmanager.ConfigManager;
 import org.aselect.system.error.Errors;
 import org.aselect.system.exception.ASelectException;
 import org.aselect.system.logging.SystemLogger;
+import org.aselect.system.storagemanager.LbSensorQueue;
 import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -600,8 +601,8 @@ public class Tools
 				lTotalSpent -= lUserSpent;
 			}
 			if (bSuccess) {
-				// Send data to lbsensor's http_sensor, does not use the queue
-				Tools.reportDataToSensor(oConfMgr, "aselect", "lbsensor", "sensor_url", oSysLog, Long.toString(lTotalSpent));
+				// Send data to lbsensor's http_sensor, the LbSensorQueue's thread will do the actual sending
+				LbSensorQueue.getHandle().addEntry(oConfMgr, oSysLog, lTotalSpent);
 			}
 //DOES NOT BELONG HERE:
 //			if (!oConfMgr.isTimerSensorConfigured())  // No TimerSensor requested, skip the rest
@@ -1157,74 +1157,7 @@ public class Utils
 	{
 		final String sMethod = "serializeAttributes";
 		try {
-			if (htAttributes == null || htAttributes.isEmpty())
-				return null;
-			StringBuffer sb = new StringBuffer();
-	
-			Set keys = htAttributes.keySet();
-			for (Object s : keys) {
-				String sKey = (String) s;
-				// for (Enumeration e = htAttributes.keys(); e.hasMoreElements(); ) {
-				// String sKey = (String)e.nextElement();
-				Object oValue = htAttributes.get(sKey);
-	
-				if (oValue instanceof Iterable) {// it's a multivalue attribute
-					Iterable vValue = (Iterable) oValue;
-	
-					sKey = URLEncoder.encode(sKey + "[]", "UTF-8");
-//					Enumeration eEnum = vValue.elements();
-					Iterator itr =  vValue.iterator();
-					// RH, 20200612, so
-//					while (itr.hasNext()) {
-//						String sValue = (String) itr.next();
-//	
-//						// add: key[]=value
-//						sb.append(sKey).append("=").append(URLEncoder.encode(sValue, "UTF-8"));
-//						if (itr.hasNext())
-//							sb.append("&");
-//					}
-					// RH, 20200612, eo
-					// RH, 20200612, sn
-					sb.append(sKey).append("=");
-					while (itr.hasNext()) {	// fix, this did not allow empty valued elements
-//						String sValue = (String) itr.next();	// RH, 20201203, o
-						// RH, 20201203, sn
-						String sValue = "";
-						Object oSubValue = itr.next();
-						if (oSubValue instanceof JSONObject) {
-							sValue = ((JSONObject)oSubValue).toString(0);
-							sb.append(URLEncoder.encode(sValue, "UTF-8"));
-							if (itr.hasNext())
-								sb.append("&").append(sKey).append("=");
-						} else if (oSubValue instanceof String) {
-							sValue = (String) oSubValue;
-						// RH, 20201203, en
-							// add: key[]=value
-							sb.append(URLEncoder.encode(sValue, "UTF-8"));
-							if (itr.hasNext())
-								sb.append("&").append(sKey).append("=");
-						// RH, 20201203, sn	
-						} else {
-							if (logger != null) {
-								logger.log(Level.WARNING, MODULE, sMethod, "Unknown type of  attribute" + sKey);	// RH, 20190926, n	// RH, 20200612, o
-							}
-						}
-						// RH, 20201203, en
-					}
-					// RH, 20200612, en
-				}
-				else if (oValue instanceof String) {// it's a single value attribute
-					String sValue = (String) oValue;
-					sb.append(URLEncoder.encode(sKey, "UTF-8")).append("=").append(URLEncoder.encode(sValue, "UTF-8"));
-				}
-	
-				// if (e.hasMoreElements())
-				sb.append("&");
-			}
-			int len = sb.length();
-			String result = sb.substring(0, len - 1);
-			BASE64Encoder b64enc = new BASE64Encoder();
-			return b64enc.encode(result.getBytes("UTF-8"));
+			return AttributeCodec.encode(htAttributes, logger);
 		}
 		catch (Exception e) {
 			// RH, 20190926, so
@@ -1260,38 +1193,8 @@ public class Utils
 		String sMethod = "deSerializeAttributes";
 		HashMap htAttributes = new HashMap();
 		if (sSerializedAttributes != null) {  // Attributes available
-			try {  // base64 decode
-				BASE64Decoder base64Decoder = new BASE64Decoder();
-				String sDecodedUserAttrs = new String(base64Decoder.decodeBuffer(sSerializedAttributes));
-	
-				// decode & and = chars
-				String[] saAttrs = sDecodedUserAttrs.split("&");
-				for (int i = 0; i < saAttrs.length; i++) {
-					int iEqualChar = saAttrs[i].indexOf("=");
-					String sKey = "";
-					String sValue = "";
-					Vector vVector = null;
-	
-					if (iEqualChar > 0) {
-						sKey = URLDecoder.decode(saAttrs[i].substring(0, iEqualChar), "UTF-8");
-						sValue = URLDecoder.decode(saAttrs[i].substring(iEqualChar + 1), "UTF-8");
-	
-						if (sKey.endsWith("[]")) { // it's a multi-valued attribute
-							// Strip [] from sKey
-							sKey = sKey.substring(0, sKey.length() - 2);
-							if ((vVector = (Vector) htAttributes.get(sKey)) == null)
-								vVector = new Vector();
-							vVector.add(sValue);
-						}
-					}
-					else
-						sKey = URLDecoder.decode(saAttrs[i], "UTF-8");
-	
-					if (vVector != null)  // store multivalue attribute
-						htAttributes.put(sKey, vVector);
-					else  // store singlevalue attribute
-						htAttributes.put(sKey, sValue);
-				}
+			try {
+				htAttributes = AttributeCodec.decode(sSerializedAttributes);
 			}
 			catch (Exception e) {
 				// RH, 20190926, so
@@ -1308,7 +1211,7 @@ public class Utils
 			}
 		}
 		return htAttributes;
-	}
+	}
 	
 	public static boolean bsnCheck(String bsnNumber)
 	{
@@ -1438,12 +1341,13 @@ public class Utils
 			}
 			sLangExt = ""; // try the default file
 		}
+		HashMap<String, String> htValues = new HashMap<String, String>();
 		if (Utils.hasValue(sVersion))
-			sTemplate = Utils.replaceString(sTemplate, "[version]", sVersion);  // 20141118 old: Version.getVersion());
+			htValues.put("[version]", sVersion);  // 20141118 old: Version.getVersion());
 		if (Utils.hasValue(sFriendlyName))
-			sTemplate = Utils.replaceString(sTemplate, "[organization_friendly]", sFriendlyName);
+			htValues.put("[organization_friendly]", sFriendlyName);
 							// 20141118 old: getParam(_oASelectConfigSection, "organization_friendly_name"));
-		return sTemplate;
+		return HtmlTemplate.getTemplate(sTemplate).render(htValues);
 	}
 
 	/**
@@ -28,6 +28,8 @@ import java.io.PrintStream;
 import java.io.Serializable;
 import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.KeyFactory;
@@ -63,10 +65,16 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.Vector;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -74,6 +82,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
@@ -119,6 +128,7 @@ public  final class Auxiliary
 	public static final List<String> BANNED_KEYS = Arrays.asList(DEFAULT_KEYS);
 	private static SecureRandom sr = null;
 	private static  byte bytes[] = new byte[20];
+	private static volatile PatternFilter lastPatternFilter = null;
 //	private static final Map<String, String> digestedMap = new HashMap<String, String>();
 //	private static final Map<String, String> digestedMap = new ConcurrentHashMap<String, String>();	// RH, 20180710, o
 	private static Map<String, String> digestedMap = null;	// RH, 20180710, n
@@ -202,6 +212,9 @@ public  final class Auxiliary
 		String obfuscated = original;
 		if (original != null) {
 			if ( patterns != null ) {
+				if (!getPatternFilter(patterns).mayMatch(original)) {
+					return original;	// nothing to obfuscate, skip the copies
+				}
 				StringBuffer sb = new StringBuffer(original);
 				for (Pattern p : patterns) {
 					Matcher matcher = p.matcher(sb);
@@ -219,6 +232,78 @@ public  final class Auxiliary
 		return obfuscated;
 	}
 	
+	/**
+	 * Get the cached filter for the patterns, the last one used is kept.
+	 * 
+	 * @param patterns
+	 * @return the filter
+	 */
+	private static PatternFilter getPatternFilter(List<Pattern> patterns) {
+		PatternFilter filter = lastPatternFilter;
+		if (filter == null || !filter.isFor(patterns)) {
+			filter = new PatternFilter(patterns);
+			lastPatternFilter = filter;
+		}
+		return filter;
+	}
+
+	/**
+	 * Compiled alternation of a list of obfuscation patterns.
+	 * The patterns are applied one after the other on the text being changed, this only tells in one pass
+	 * whether any of them matches the original text. If none does, the text is returned as it is.
+	 * Patterns that cannot be joined, e.g. because they use the same group name, are tried one by one instead.
+	 */
+	private static final class PatternFilter {
+		private final Pattern[] patterns;
+		private final Pattern combined;	// null if the patterns cannot be combined, they are tried one by one
+
+		PatternFilter(List<Pattern> patterns) {
+			this.patterns = patterns.toArray(new Pattern[patterns.size()]);
+			StringBuilder sb = new StringBuilder();
+			boolean combinable = true;
+			for (Pattern p : this.patterns) {
+				// flags and back references would change meaning in the alternation
+				if (p.flags() != 0 || p.pattern().matches("(?s).*\\\\([1-9]|k<).*")) {
+					combinable = false;
+					break;
+				}
+				if (sb.length() > 0)
+					sb.append('|');
+				sb.append("(?:").append(p.pattern()).append(')');
+			}
+			combined = (combinable) ? compile(sb.toString()) : null;
+		}
+
+		private static Pattern compile(String alternation) {
+			try {
+				return Pattern.compile(alternation);
+			}
+			catch (PatternSyntaxException e) {	// e.g. a group name used by more than one pattern
+				return null;
+			}
+		}
+
+		boolean isFor(List<Pattern> list) {
+			if (list.size() != patterns.length)
+				return false;
+			for (int i = 0; i < patterns.length; i++) {
+				if (list.get(i) != patterns[i])
+					return false;
+			}
+			return true;
+		}
+
+		boolean mayMatch(String text) {
+			if (combined != null)
+				return combined.matcher(text).find();
+			for (Pattern p : patterns) {
+				if (p.matcher(text).find())
+					return true;
+			}
+			return false;
+		}
+	}
+
 	/**
 	 * 
 	 * @param o object to be deep cloned
@@ -319,12 +404,12 @@ public  final class Auxiliary
 	/**
 	 * 
 	 * @param original
-	 * @return an obfuscated copy of the original Map
+	 * @return an obfuscated copy of the original Map, or its text
 	 */
 //	public static Map obfuscate(Map original) {
-	private static Map obfuscate(Map original) {
+	private static Object obfuscate(Map original) {
 		
-		Map obfuscated = null;
+		Object obfuscated = null;
 		if (original != null) {
 			if ("BLANK".equals(DIGEST_ALG)) {
 				obfuscated = new HashMap();	// return empty Map
@@ -332,15 +417,17 @@ public  final class Auxiliary
 		//		Map obfuscated = new HashMap();
 		//		obfuscated.putAll(original);	// no deep clone
 	//			obfuscated = (Map) SerializationUtils.clone((Serializable)original);	// Does deep clone, works but needs commons-lang
-				try {
-					obfuscated = (Map) serialize((Serializable)original);	// Does deep clone
-					obfuscated = obf(obfuscated);
-				}
-				catch (IOException e) {
-					obfuscated = null; // we don't want to return unobfuscated data 
-				}
-				catch (ClassNotFoundException e) {
-					obfuscated = null; // we don't want to return unobfuscated data 
+				obfuscated = ObfuscatedText.render(original);	// same text, no clone
+				if (obfuscated == null) {	// holds something the renderer does not know
+					try {
+						obfuscated = obf((Map) serialize((Serializable)original));	// Does deep clone
+					}
+					catch (IOException e) {
+						obfuscated = null; // we don't want to return unobfuscated data 
+					}
+					catch (ClassNotFoundException e) {
+						obfuscated = null; // we don't want to return unobfuscated data 
+					}
 				}
 			} else {
 				obfuscated = original;
@@ -350,9 +437,9 @@ public  final class Auxiliary
 	}
 	
 //	public static List obfuscate(List original) {
-	private static List obfuscate(List original) {
+	private static Object obfuscate(List original) {
 		
-		List obfuscated = null;
+		Object obfuscated = null;
 		if (original != null) {
 			if ("BLANK".equals(DIGEST_ALG)) {
 				obfuscated = new ArrayList();	// return empty List
@@ -360,15 +447,17 @@ public  final class Auxiliary
 		//		Map obfuscated = new HashMap();
 		//		obfuscated.putAll(original);	// no deep clone
 	//			obfuscated = (Map) SerializationUtils.clone((Serializable)original);	// Does deep clone, works but needs commons-lang
-				try {
-					obfuscated = (List) serialize((Serializable)original);	// Does deep clone
-					obfuscated = obf(obfuscated);
-				}
-				catch (IOException e) {
-					obfuscated = null; // we don't want to return unobfuscated data 
-				}
-				catch (ClassNotFoundException e) {
-					obfuscated = null; // we don't want to return unobfuscated data 
+				obfuscated = ObfuscatedText.render(original);	// same text, no clone
+				if (obfuscated == null) {	// holds something the renderer does not know
+					try {
+						obfuscated = obf((List) serialize((Serializable)original));	// Does deep clone
+					}
+					catch (IOException e) {
+						obfuscated = null; // we don't want to return unobfuscated data 
+					}
+					catch (ClassNotFoundException e) {
+						obfuscated = null; // we don't want to return unobfuscated data 
+					}
 				}
 			} else {
 				obfuscated = original;
@@ -378,6 +467,95 @@ public  final class Auxiliary
 	}
 
 	
+	/**
+	 * Renders the text of an obfuscated Map or List in one pass, without the deep clone.
+	 * Values are digested as obf() does, and the entries are rendered in the iteration order of the original Map.
+	 * For a HashMap that order may differ from the toString() of the deep clone, which is rebuilt with its own table
+	 * size, so the logged entries can appear in another order than before. A Map digested as a whole, under a banned
+	 * key, is digested from its text in that order too, so its digest can differ from the one of the deep clone.
+	 * For anything it does not know, e.g. other classes or a shared or recursive Map, render() returns null and the
+	 * caller clones as before.
+	 */
+	private static final class ObfuscatedText {
+		private static final Set<Class<?>> PLAIN_CLASSES = new HashSet<Class<?>>(Arrays.<Class<?>>asList(String.class,
+				Boolean.class, Character.class, Byte.class, Short.class, Integer.class, Long.class, Float.class,
+				Double.class, BigInteger.class, BigDecimal.class, Date.class));
+
+		private final StringBuilder sb = new StringBuilder(256);
+		private final IdentityHashMap<Object, Object> seen = new IdentityHashMap<Object, Object>();
+
+		static String render(Object original) {
+			ObfuscatedText text = new ObfuscatedText();
+			return (text.append(original, true)) ? text.sb.toString() : null;
+		}
+
+		private boolean append(Object value, boolean obfuscate) {
+			if (value instanceof Map)
+				return appendMap((Map) value, obfuscate);
+			if (value instanceof List)
+				return appendList((List) value, obfuscate);
+			if (!isPlain(value))
+				return false;
+			sb.append(value);
+			return true;
+		}
+
+		private boolean appendMap(Map map, boolean obfuscate) {
+			Class<?> c = map.getClass();
+			if (c != HashMap.class && c != LinkedHashMap.class && (c != TreeMap.class || ((TreeMap) map).comparator() != null))
+				return false;
+			if (seen.put(map, map) != null)
+				return false;	// obf() would digest the shared copy twice
+			sb.append('{');
+			int i = 0;
+			for (Object o : map.entrySet()) {
+				Map.Entry entry = (Map.Entry) o;
+				Object key = entry.getKey();
+				if (!isPlain(key))
+					return false;
+				if (i++ > 0)
+					sb.append(", ");
+				sb.append(key).append('=');
+				if (obfuscate && BANNED_KEYS.contains(key)) {	// digest the text of the plain copy
+					int start = sb.length();
+					if (!append(entry.getValue(), false))
+						return false;
+					String plain = sb.substring(start);
+					sb.setLength(start);
+					sb.append(base64Digest(plain));
+				}
+				else if (!append(entry.getValue(), obfuscate))
+					return false;
+			}
+			sb.append('}');
+			return true;
+		}
+
+		private boolean appendList(List list, boolean obfuscate) {
+			Class<?> c = list.getClass();
+			if (c != ArrayList.class && c != LinkedList.class && c != Vector.class)
+				return false;
+			if (seen.put(list, list) != null)
+				return false;
+			sb.append('[');
+			int i = 0;
+			for (Object o : list) {
+				if (i++ > 0)
+					sb.append(", ");
+				if (obfuscate && o instanceof String)
+					sb.append(base64Digest((String) o));
+				else if (!append(o, obfuscate))
+					return false;
+			}
+			sb.append(']');
+			return true;
+		}
+
+		private static boolean isPlain(Object value) {
+			return value == null || value instanceof Enum || PLAIN_CLASSES.contains(value.getClass());
+		}
+	}
+
 	/**
 	 * @param plaintext	plain text input to be digested ( using current digest algorithm DIGEST_ALG )
 	 * @return base64 coded digest string